@@ -4,6 +4,7 @@ import eu.isas.peptideshaker.scoring.maps.ProteinMap;
 import eu.isas.peptideshaker.scoring.maps.PeptideSpecificMap;
 import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScore;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
@@ -58,6 +59,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class will be responsible for the identification import and the
@@ -277,6 +281,7 @@ public class PeptideShaker {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         identificationFeaturesGenerator = new IdentificationFeaturesGenerator(identification, shotgunProtocol, identificationParameters, metrics, spectrumCountingPreferences);
+        identificationFeaturesGenerator.setnThreads(processingPreferences.getnThreads());
 
         if (!objectsCache.memoryCheck() && memoryWarning) {
             waitingHandler.appendReport("PeptideShaker is encountering memory issues! See http://compomics.github.io/projects/peptide-shaker.html for help.", true, true);
@@ -297,6 +302,10 @@ public class PeptideShaker {
 
             waitingHandler.appendReport("Estimating PSM scores.", true, true);
             psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+            HashMap<Integer, Long> scoringTimes = psmScorer.getScoringTimes();
+            for (Integer scoreIndex : scoringTimes.keySet()) {
+                waitingHandler.appendReport(PsmScore.getScore(scoreIndex).name + " scoring time: " + (scoringTimes.get(scoreIndex) / 1000000) + " ms (summed over threads).", true, true);
+            }
 
             if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
                 if (sequenceFactory.concatenatedTargetDecoy()) {
@@ -327,7 +336,7 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("No decoy sequences found. Impossible to estimate assumptions probabilities.", true, true);
         }
-        attachAssumptionsProbabilities(inputMap, identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
+        attachAssumptionsProbabilities(inputMap, identificationParameters.getSequenceMatchingPreferences(), processingPreferences, waitingHandler, exceptionHandler);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -335,7 +344,7 @@ public class PeptideShaker {
 
         waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
         BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
-        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, shotgunProtocol, identificationParameters);
+        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, processingPreferences);
         IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
         if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
             matchesValidator.getPsmMap().clean(idMatchValidationPreferences.getDefaultPsmFDR() / 100);
@@ -390,7 +399,7 @@ public class PeptideShaker {
 
         if (ptmScoringPreferences.getAlignNonConfidentPTMs()) {
             waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
-            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler);
+            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler, exceptionHandler, processingPreferences);
             waitingHandler.increasePrimaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -410,7 +419,7 @@ public class PeptideShaker {
         ProteinInference proteinInference = new ProteinInference();
         if (identificationParameters.getProteinInferencePreferences().getSimplifyGroups()) {
             waitingHandler.appendReport("Simplifying protein groups.", true, true);
-            proteinInference.removeRedundantGroups(identification, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, waitingHandler);
+            proteinInference.removeRedundantGroups(identification, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, processingPreferences, waitingHandler, exceptionHandler);
             waitingHandler.increasePrimaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -418,7 +427,7 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Generating peptide map.", true, true);
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
             matchesValidator.getPeptideMap().clean(identificationParameters.getIdValidationPreferences().getDefaultPeptideFDR() / 100);
         }
@@ -437,14 +446,14 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Saving peptide probabilities.", true, true);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Generating protein map.", true, true);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -468,7 +477,7 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Saving protein probabilities.", true, true);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, identificationParameters.getFractionSettings(), processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -493,14 +502,14 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Scoring PTMs in peptides.", true, true);
-        ptmScorer.scorePeptidePtms(identification, waitingHandler, identificationParameters);
+        ptmScorer.scorePeptidePtms(identification, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Scoring PTMs in proteins.", true, true);
-        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
+        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -596,6 +605,7 @@ public class PeptideShaker {
      * @param identification the identification object containing the
      * identification matches
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
      * @param processingPreferences the processing preferences
      * @param shotgunProtocol information on the protocol
      * @param identificationParameters the identification parameters
@@ -603,20 +613,20 @@ public class PeptideShaker {
      * @throws Exception exception thrown whenever it is attempted to attach
      * more than one identification per search engine per spectrum
      */
-    public void spectrumMapChanged(Identification identification, WaitingHandler waitingHandler, ProcessingPreferences processingPreferences,
+    public void spectrumMapChanged(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
         PeptideSpecificMap peptideMap = new PeptideSpecificMap();
         ProteinMap proteinMap = new ProteinMap();
         matchesValidator.setPeptideMap(peptideMap);
         matchesValidator.setProteinMap(proteinMap);
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         peptideMap.clean(identificationParameters.getIdValidationPreferences().getDefaultPeptideFDR() / 100);
         peptideMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         proteinMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, identificationParameters.getFractionSettings(), processingPreferences);
         ProteinInference proteinInference = new ProteinInference();
         proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, waitingHandler);
     }
@@ -627,20 +637,22 @@ public class PeptideShaker {
      * @param identification the identification object containing the
      * identification matches
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
+     * @param processingPreferences the processing preferences
      * @param shotgunProtocol information on the protocol
      * @param identificationParameters the identification parameters
      *
      * @throws Exception exception thrown whenever it is attempted to attach
      * more than one identification per search engine per spectrum
      */
-    public void peptideMapChanged(Identification identification, WaitingHandler waitingHandler,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
+    public void peptideMapChanged(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            ProcessingPreferences processingPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
         ProteinMap proteinMap = new ProteinMap();
         matchesValidator.setProteinMap(proteinMap);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         proteinMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, identificationParameters.getFractionSettings(), processingPreferences);
         ProteinInference proteinInference = new ProteinInference();
         proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, waitingHandler);
     }
@@ -649,159 +661,191 @@ public class PeptideShaker {
      * Processes the identifications if a change occurred in the protein map.
      *
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
      * @param fractionSettings the fraction settings
+     * @param processingPreferences the processing preferences
      *
      * @throws SQLException thrown if an SQLException occurs
      * @throws IOException thrown if an IOException occurs
      * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
      */
-    public void proteinMapChanged(WaitingHandler waitingHandler, FractionSettings fractionSettings) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void proteinMapChanged(WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, FractionSettings fractionSettings,
+            ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, fractionSettings);
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, fractionSettings, processingPreferences);
     }
 
     /**
      * Attaches the spectrum posterior error probabilities to the peptide
-     * assumptions.
+     * assumptions. The PSMs of every spectrum file are processed by one
+     * runnable per thread.
      *
      * @param inputMap map of the input scores
      * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param processingPreferences the processing preferences
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      */
-    private void attachAssumptionsProbabilities(InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler) throws Exception {
+    private void attachAssumptionsProbabilities(InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences, ProcessingPreferences processingPreferences,
+            WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) throws Exception {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
 
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
-        }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+
+        int nThreads = processingPreferences.getnThreads();
 
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
 
-            while (psmIterator.hasNext()) {
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                AssumptionsProbabilitiesRunnable runnable = new AssumptionsProbabilitiesRunnable(psmIterator, identification, inputMap, sequenceMatchingPreferences, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Attaching assumption probabilities timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-                HashMap<Double, ArrayList<PSParameter>> pepToParameterMap = new HashMap<Double, ArrayList<PSParameter>>();
+    /**
+     * Attaches the spectrum posterior error probabilities to the peptide
+     * assumptions of a spectrum match.
+     *
+     * @param identification the identification containing the matches
+     * @param spectrumKey the key of the spectrum match
+     * @param inputMap map of the input scores
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private void attachAssumptionsProbabilities(Identification identification, String spectrumKey, InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-                for (int searchEngine : assumptionsMap.keySet()) {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
 
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
-                    ArrayList<Double> eValues = new ArrayList<Double>(seMapping.keySet());
-                    Collections.sort(eValues);
-                    double previousP = 0;
-                    ArrayList<PSParameter> previousAssumptionsParameters = new ArrayList<PSParameter>();
-                    SpectrumIdentificationAssumption previousAssumption = null;
+        HashMap<Double, ArrayList<PSParameter>> pepToParameterMap = new HashMap<Double, ArrayList<PSParameter>>();
 
-                    for (double eValue : eValues) {
+        for (int searchEngine : assumptionsMap.keySet()) {
 
-                        for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
-                            PSParameter psParameter = new PSParameter();
-                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                            if (psParameter == null) {
-                                psParameter = new PSParameter();
-                            }
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
+            ArrayList<Double> eValues = new ArrayList<Double>(seMapping.keySet());
+            Collections.sort(eValues);
+            double previousP = 0;
+            ArrayList<PSParameter> previousAssumptionsParameters = new ArrayList<PSParameter>();
+            SpectrumIdentificationAssumption previousAssumption = null;
 
-                            if (sequenceFactory.concatenatedTargetDecoy()) {
+            for (double eValue : eValues) {
 
-                                double newP = inputMap.getProbability(searchEngine, eValue);
-                                double pep = previousP;
+                for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
+                    PSParameter psParameter = new PSParameter();
+                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                    if (psParameter == null) {
+                        psParameter = new PSParameter();
+                    }
 
-                                if (newP > previousP) {
-                                    pep = newP;
-                                    previousP = newP;
-                                }
+                    if (sequenceFactory.concatenatedTargetDecoy()) {
+
+                        double newP = inputMap.getProbability(searchEngine, eValue);
+                        double pep = previousP;
 
-                                psParameter.setSearchEngineProbability(pep);
+                        if (newP > previousP) {
+                            pep = newP;
+                            previousP = newP;
+                        }
 
-                                ArrayList<PSParameter> pSParameters = pepToParameterMap.get(pep);
-                                if (pSParameters == null) {
-                                    pSParameters = new ArrayList<PSParameter>(1);
-                                    pepToParameterMap.put(pep, pSParameters);
+                        psParameter.setSearchEngineProbability(pep);
+
+                        ArrayList<PSParameter> pSParameters = pepToParameterMap.get(pep);
+                        if (pSParameters == null) {
+                            pSParameters = new ArrayList<PSParameter>(1);
+                            pepToParameterMap.put(pep, pSParameters);
+                        }
+                        pSParameters.add(psParameter);
+
+                        if (previousAssumption != null) {
+                            boolean same = false;
+                            if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
+                                Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
+                                Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
+                                if (newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences)) {
+                                    same = true;
                                 }
-                                pSParameters.add(psParameter);
-
-                                if (previousAssumption != null) {
-                                    boolean same = false;
-                                    if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
-                                        Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
-                                        Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
-                                        if (newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
-                                        Tag newTag = ((TagAssumption) assumption).getTag();
-                                        Tag previousTag = ((TagAssumption) previousAssumption).getTag();
-                                        if (newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    }
-
-                                    if (!same) {
-                                        for (PSParameter previousParameter : previousAssumptionsParameters) {
-                                            double deltaPEP = pep - previousParameter.getSearchEngineProbability();
-                                            previousParameter.setAlgorithmDeltaPEP(deltaPEP);
-                                        }
-                                        previousAssumptionsParameters.clear();
-                                    }
+                            } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
+                                Tag newTag = ((TagAssumption) assumption).getTag();
+                                Tag previousTag = ((TagAssumption) previousAssumption).getTag();
+                                if (newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences)) {
+                                    same = true;
                                 }
-                                previousAssumption = assumption;
-                                previousAssumptionsParameters.add(psParameter);
-
-                            } else {
-                                psParameter.setSearchEngineProbability(1.0);
                             }
 
-                            assumption.addUrParam(psParameter);
+                            if (!same) {
+                                for (PSParameter previousParameter : previousAssumptionsParameters) {
+                                    double deltaPEP = pep - previousParameter.getSearchEngineProbability();
+                                    previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+                                }
+                                previousAssumptionsParameters.clear();
+                            }
                         }
-                    }
+                        previousAssumption = assumption;
+                        previousAssumptionsParameters.add(psParameter);
 
-                    for (PSParameter previousParameter : previousAssumptionsParameters) {
-                        double deltaPEP = 1 - previousParameter.getSearchEngineProbability();
-                        previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+                    } else {
+                        psParameter.setSearchEngineProbability(1.0);
                     }
-                }
 
-                // Compute the delta pep score accross all search engines
-                Double previousPEP = null;
-                ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
-                ArrayList<Double> peps = new ArrayList<Double>(pepToParameterMap.keySet());
-                Collections.sort(peps);
-                for (double pep : peps) {
-                    if (previousPEP != null) {
-                        for (PSParameter previousParameter : previousParameters) {
-                            double delta = pep - previousPEP;
-                            previousParameter.setDeltaPEP(delta);
-                        }
-                    }
-                    previousParameters = pepToParameterMap.get(pep);
-                    previousPEP = pep;
-                }
-                for (PSParameter previousParameter : previousParameters) {
-                    double delta = 1 - previousParameter.getSearchEngineProbability();
-                    previousParameter.setDeltaPEP(delta);
+                    assumption.addUrParam(psParameter);
                 }
+            }
 
-                identification.updateAssumptions(spectrumKey, assumptionsMap);
+            for (PSParameter previousParameter : previousAssumptionsParameters) {
+                double deltaPEP = 1 - previousParameter.getSearchEngineProbability();
+                previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+            }
+        }
 
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
+        // Compute the delta pep score accross all search engines
+        Double previousPEP = null;
+        ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
+        ArrayList<Double> peps = new ArrayList<Double>(pepToParameterMap.keySet());
+        Collections.sort(peps);
+        for (double pep : peps) {
+            if (previousPEP != null) {
+                for (PSParameter previousParameter : previousParameters) {
+                    double delta = pep - previousPEP;
+                    previousParameter.setDeltaPEP(delta);
                 }
             }
+            previousParameters = pepToParameterMap.get(pep);
+            previousPEP = pep;
         }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        for (PSParameter previousParameter : previousParameters) {
+            double delta = 1 - previousParameter.getSearchEngineProbability();
+            previousParameter.setDeltaPEP(delta);
         }
+
+        identification.updateAssumptions(spectrumKey, assumptionsMap);
     }
 
     /**
@@ -1100,4 +1144,75 @@ public class PeptideShaker {
         File file = new File(folder, PEPTIDESHAKER_CONFIGURATION_FILE);
         return new ConfigurationFile(file);
     }
+
+    /**
+     * Runnable attaching the assumptions probabilities to the PSMs of an
+     * iterator.
+     */
+    private class AssumptionsProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The input map.
+         */
+        private InputMap inputMap;
+        /**
+         * The sequence matching preferences.
+         */
+        private SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param identification the identification containing the matches
+         * @param inputMap map of the input scores
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public AssumptionsProbabilitiesRunnable(PsmIterator psmIterator, Identification identification, InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identification = identification;
+            this.inputMap = inputMap;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        attachAssumptionsProbabilities(identification, spectrumMatch.getKey(), inputMap, sequenceMatchingPreferences);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                if (!waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(e);
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+    }
 }
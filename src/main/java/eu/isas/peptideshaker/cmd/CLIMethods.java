@@ -44,6 +44,7 @@ public class CLIMethods {
      * @param followUpCLIInputBean the follow up input bean
      * @param identification the identification
      * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use
      * @param waitingHandler a waiting handler to display progress
      *
      * @throws IOException exception thrown whenever an IO exception occurred
@@ -58,7 +59,7 @@ public class CLIMethods {
      * occurred while reading an mzML file
      */
     public static void recalibrateSpectra(FollowUpCLIInputBean followUpCLIInputBean, Identification identification,
-            IdentificationParameters identificationParameters, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+            IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
         File recalibrationFolder = followUpCLIInputBean.getRecalibrationFolder();
         if (!recalibrationFolder.exists()) {
             recalibrationFolder.mkdir();
@@ -70,7 +71,7 @@ public class CLIMethods {
         } else if (followUpCLIInputBean.getRecalibrationMode() == 2) {
             ms1 = false;
         }
-        RecalibrationExporter.writeRecalibratedSpectra(ms1, ms2, recalibrationFolder, identification, identificationParameters, waitingHandler);
+        RecalibrationExporter.writeRecalibratedSpectra(ms1, ms2, recalibrationFolder, identification, identificationParameters, nThreads, waitingHandler);
     }
 
     /**
@@ -243,7 +244,7 @@ public class CLIMethods {
             destinationFileTemp.createNewFile();
         }
         File destinationFile = destinationFileTemp;
-        InclusionListExport.exportInclusionList(destinationFile, identification, identificationFeaturesGenerator, followUpCLIInputBean.getInclusionProteinFilter(), peptideFilterType, InclusionListExport.ExportFormat.getTypeFromIndex(followUpCLIInputBean.getInclusionFormat()), searchParameters, followUpCLIInputBean.getInclusionRtWindow(), waitingHandler, filterPreferences);
+        InclusionListExport.exportInclusionList(destinationFile, identification, identificationFeaturesGenerator, followUpCLIInputBean.getInclusionProteinFilter(), peptideFilterType, InclusionListExport.ExportFormat.getTypeFromIndex(followUpCLIInputBean.getInclusionFormat()), searchParameters, followUpCLIInputBean.getInclusionRtWindow(), waitingHandler, filterPreferences, Runtime.getRuntime().availableProcessors());
     }
 
     /**
@@ -265,6 +266,7 @@ public class CLIMethods {
      * @param nSurroundingAA the number of amino acids to export on the side of
      * peptide sequences
      * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
      * @param waitingHandler waiting handler displaying feedback to the user
      *
      * @throws IOException exception thrown whenever an IO exception occurred
@@ -283,18 +285,109 @@ public class CLIMethods {
      */
     public static void exportReport(ReportCLIInputBean reportCLIInputBean, String reportType, String experiment, String sample, int replicateNumber,
             ProjectDetails projectDetails, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException,
             InterruptedException, MzMLUnmarshallerException, MathException {
 
         PSExportFactory exportFactory = PSExportFactory.getInstance();
         ExportScheme exportScheme = exportFactory.getExportScheme(reportType);
+        if (exportScheme == null) {
+            throw new IllegalArgumentException("Report type " + reportType + " not found.");
+        }
         String reportName = reportType.replaceAll(" ", "_");
         File reportFile = new File(reportCLIInputBean.getReportOutputFolder(), PSExportFactory.getDefaultReportName(experiment, sample, replicateNumber, reportName));
 
         //@TODO: allow format selection
         PSExportFactory.writeExport(exportScheme, reportFile, ExportFormat.text, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator, geneMaps,
-                null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, waitingHandler);
+                null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, nThreads, waitingHandler);
+    }
+
+    /**
+     * Writes the exports of the given report types according to the command
+     * line settings contained in the reportCLIInputBean. The matches are
+     * iterated once for all reports. Follow-up exports are not part of this
+     * iteration: they are requested through FollowUpCLI and apply their own
+     * filters and match order. The documentation does not read the matches.
+     * If the reports cannot be written together, they are written one by one
+     * so that a failing report does not prevent the export of the others. The
+     * errors are reported per report type and the waiting handler is canceled.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param reportTypes the report types
+     * @param experiment the experiment of the project
+     * @param sample the sample of the project
+     * @param replicateNumber the replicate number of the project
+     * @param projectDetails the project details of the project
+     * @param identification the identification of the project
+     * @param geneMaps the gene maps
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param shotgunProtocol information on the protocol used
+     * @param identificationParameters the identification parameters used
+     * @param nSurroundingAA the number of amino acids to export on the side of
+     * peptide sequences
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying feedback to the user
+     */
+    public static void exportReports(ReportCLIInputBean reportCLIInputBean, ArrayList<String> reportTypes, String experiment, String sample, int replicateNumber,
+            ProjectDetails projectDetails, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler) {
+
+        PSExportFactory exportFactory = PSExportFactory.getInstance();
+        ArrayList<String> exportedTypes = new ArrayList<String>(reportTypes.size());
+        ArrayList<ExportScheme> exportSchemes = new ArrayList<ExportScheme>(reportTypes.size());
+        ArrayList<File> reportFiles = new ArrayList<File>(reportTypes.size());
+        boolean error = false;
+        for (String reportType : reportTypes) {
+            ExportScheme exportScheme = exportFactory.getExportScheme(reportType);
+            if (exportScheme == null) {
+                waitingHandler.appendReport("An error occurred while exporting the " + reportType + ": report type not found.", true, true);
+                error = true;
+            } else {
+                exportedTypes.add(reportType);
+                exportSchemes.add(exportScheme);
+                String reportName = reportType.replaceAll(" ", "_");
+                reportFiles.add(new File(reportCLIInputBean.getReportOutputFolder(), PSExportFactory.getDefaultReportName(experiment, sample, replicateNumber, reportName)));
+            }
+        }
+
+        if (exportSchemes.size() == 1) {
+            try {
+                exportReport(reportCLIInputBean, exportedTypes.get(0), experiment, sample, replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator,
+                        shotgunProtocol, identificationParameters, nSurroundingAA, spectrumCountingPreferences, nThreads, waitingHandler);
+            } catch (Exception e) {
+                waitingHandler.appendReport("An error occurred while exporting the " + exportedTypes.get(0) + ".", true, true);
+                e.printStackTrace();
+                error = true;
+            }
+        } else if (!exportSchemes.isEmpty()) {
+            try {
+                //@TODO: allow format selection
+                PSExportFactory.writeExports(exportSchemes, reportFiles, ExportFormat.text, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator, geneMaps,
+                        null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, nThreads, waitingHandler);
+            } catch (Exception e) {
+                waitingHandler.appendReport("An error occurred while exporting the reports together, exporting them one by one.", true, true);
+                e.printStackTrace();
+                for (String reportType : exportedTypes) {
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    try {
+                        exportReport(reportCLIInputBean, reportType, experiment, sample, replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator,
+                                shotgunProtocol, identificationParameters, nSurroundingAA, spectrumCountingPreferences, nThreads, waitingHandler);
+                    } catch (Exception e2) {
+                        waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
+                        e2.printStackTrace();
+                        error = true;
+                    }
+                }
+            }
+        }
+
+        if (error) {
+            waitingHandler.setRunCanceled();
+        }
     }
 
     /**
@@ -355,6 +448,6 @@ public class CLIMethods {
                 cpsParent.getShotgunProtocol(), cpsParent.getIdentificationParameters(),
                 cpsParent.getSpectrumCountingPreferences(), cpsParent.getIdentificationFeaturesGenerator(),
                 mzidCLIInputBean.getOutputFile(), waitingHandler);
-        mzIdentMLExport.createMzIdentMLFile(false);
+        mzIdentMLExport.createMzIdentMLFile(false, Runtime.getRuntime().availableProcessors());
     }
 }
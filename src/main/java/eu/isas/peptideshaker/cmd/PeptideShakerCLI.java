@@ -263,7 +263,11 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
                 // recalibrate spectra
                 if (followUpCLIInputBean.recalibrationNeeded()) {
                     try {
-                        CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters, waitingHandler);
+                        Integer nThreads = cliInputBean.getnThreads();
+                        if (nThreads == null) {
+                            nThreads = Runtime.getRuntime().availableProcessors();
+                        }
+                        CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters, nThreads, waitingHandler);
                     } catch (Exception e) {
                         waitingHandler.appendReport("An error occurred while recalibrating the spectra.", true, true);
                         e.printStackTrace();
@@ -344,15 +348,11 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
                 // Export report(s)
                 if (reportCLIInputBean.exportNeeded()) {
                     int nSurroundingAAs = 2; //@TODO: this shall not be hard coded //peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides()
-                    for (String reportType : reportCLIInputBean.getReportTypes()) {
-                        try {
-                            CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
-                        } catch (Exception e) {
-                            waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
-                            e.printStackTrace();
-                            waitingHandler.setRunCanceled();
-                        }
+                    Integer nThreads = cliInputBean.getnThreads();
+                    if (nThreads == null) {
+                        nThreads = Runtime.getRuntime().availableProcessors();
                     }
+                    CLIMethods.exportReports(reportCLIInputBean, reportCLIInputBean.getReportTypes(), experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, nThreads, waitingHandler);
                 }
 
                 // export documentation(s)
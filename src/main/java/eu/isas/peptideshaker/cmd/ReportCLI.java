@@ -212,15 +212,7 @@ public class ReportCLI extends CpsParent {
         // export report(s)
         if (reportCLIInputBean.exportNeeded()) {
             int nSurroundingAAs = 2; //@TODO: this shall not be hard coded
-            for (String reportType : reportCLIInputBean.getReportTypes()) {
-                try {
-                    CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
-                } catch (Exception e) {
-                    waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
-                    e.printStackTrace();
-                    waitingHandler.setRunCanceled();
-                }
-            }
+            CLIMethods.exportReports(reportCLIInputBean, reportCLIInputBean.getReportTypes(), experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, Runtime.getRuntime().availableProcessors(), waitingHandler);
         }
 
         // export documentation(s)
@@ -51,6 +51,7 @@ import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.OrderedResultsWriter;
 import java.io.*;
 import java.sql.SQLException;
 import java.text.DateFormat;
@@ -60,6 +61,9 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 import org.apache.commons.lang3.StringEscapeUtils;
 
@@ -72,13 +76,29 @@ import org.apache.commons.lang3.StringEscapeUtils;
 public class MzIdentMLExport {
 
     /**
-     * The fileWriter.
+     * The size of the buffers used to write the file.
      */
-    private FileWriter r;
+    private static final int BUFFER_SIZE = 65536;
     /**
-     * The buffered writer which will write the results in the desired file.
+     * The number of spectrum identification results generated at a time by a
+     * worker.
      */
-    private BufferedWriter br;
+    private static final int BLOCK_SIZE = 100;
+    /**
+     * The tabs to use at the beginning of a line indexed by tab counter.
+     */
+    private static final String[] TABS = {"", "\t", "\t\t", "\t\t\t", "\t\t\t\t", "\t\t\t\t\t", "\t\t\t\t\t\t",
+        "\t\t\t\t\t\t\t", "\t\t\t\t\t\t\t\t", "\t\t\t\t\t\t\t\t\t", "\t\t\t\t\t\t\t\t\t\t",
+        "\t\t\t\t\t\t\t\t\t\t\t", "\t\t\t\t\t\t\t\t\t\t\t\t"};
+    /**
+     * The writer which will write the results in the desired file, or in the
+     * buffer of a block of spectrum identification results.
+     */
+    private Writer br;
+    /**
+     * The output file.
+     */
+    private File outputFile;
     /**
      * Integer keeping track of the number of tabs to include at the beginning
      * of each line.
@@ -148,7 +168,7 @@ public class MzIdentMLExport {
     /**
      * The spectrum IDs.
      */
-    private HashMap<String, String> spectrumIds = new HashMap<String, String>();
+    private ConcurrentHashMap<String, String> spectrumIds = new ConcurrentHashMap<String, String>();
     /**
      * The spectrum key to parent peptide key map.
      */
@@ -187,6 +207,11 @@ public class MzIdentMLExport {
      * If true, the fragment ions will be written to the mzid file.
      */
     private boolean writeFragmentIons = true;
+    /**
+     * The number of threads to use to generate the spectrum identification
+     * results.
+     */
+    private int nThreads = 1;
 
     /**
      * Constructor.
@@ -227,7 +252,7 @@ public class MzIdentMLExport {
      * @param spectrumCountingPreferences the spectrum counting preferences
      * @param identificationFeaturesGenerator the identification features
      * generator
-     * @param outputFile the output file
+     * @param outputFile the output file, gzipped if the name ends with .gz
      * @param waitingHandler waiting handler used to display progress to the
      * user and interrupt the process
      * @param proteinMatchValidationLevel the match validation level a protein
@@ -258,14 +283,53 @@ public class MzIdentMLExport {
         this.peptideMatchValidationLevel = peptideMatchValidationLevel;
         this.psmMatchValidationLevel = psmMatchValidationLevel;
         this.peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-        r = new FileWriter(outputFile);
-        br = new BufferedWriter(r);
+        this.outputFile = outputFile;
+        OutputStream outputStream = new FileOutputStream(outputFile);
+        if (outputFile.getName().toLowerCase().endsWith(".gz")) {
+            outputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        }
+        br = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for the workers writing blocks of spectrum identification
+     * results. The worker shares the settings and the ids of the given export
+     * and writes to the given writer.
+     *
+     * @param mzIdentMLExport the export of the file
+     * @param writer the writer of the block
+     */
+    private MzIdentMLExport(MzIdentMLExport mzIdentMLExport, Writer writer) {
+        this.peptideShakerVersion = mzIdentMLExport.peptideShakerVersion;
+        this.identification = mzIdentMLExport.identification;
+        this.projectDetails = mzIdentMLExport.projectDetails;
+        this.shotgunProtocol = mzIdentMLExport.shotgunProtocol;
+        this.identificationParameters = mzIdentMLExport.identificationParameters;
+        this.spectrumCountingPreferences = mzIdentMLExport.spectrumCountingPreferences;
+        this.identificationFeaturesGenerator = mzIdentMLExport.identificationFeaturesGenerator;
+        this.waitingHandler = mzIdentMLExport.waitingHandler;
+        this.proteinMatchValidationLevel = mzIdentMLExport.proteinMatchValidationLevel;
+        this.peptideMatchValidationLevel = mzIdentMLExport.peptideMatchValidationLevel;
+        this.psmMatchValidationLevel = mzIdentMLExport.psmMatchValidationLevel;
+        this.mzidVersion_1_2 = mzIdentMLExport.mzidVersion_1_2;
+        this.maxNeutralLosses = mzIdentMLExport.maxNeutralLosses;
+        this.writeFragmentIons = mzIdentMLExport.writeFragmentIons;
+        this.pepEvidenceIds = mzIdentMLExport.pepEvidenceIds;
+        this.spectrumIds = mzIdentMLExport.spectrumIds;
+        this.spectrumKeyToPeptideKeyMap = mzIdentMLExport.spectrumKeyToPeptideKeyMap;
+        this.ptmIndexMap = mzIdentMLExport.ptmIndexMap;
+        this.tabCounter = mzIdentMLExport.tabCounter;
+        this.outputFile = mzIdentMLExport.outputFile;
+        this.peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        br = writer;
     }
 
     /**
      * Creates the mzIdentML file.
      *
      * @param version12 if true, mzid 1.2 version information will be included
+     * @param nThreads the number of threads to use to generate the spectrum
+     * identification results
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading/writing a file
@@ -278,9 +342,10 @@ public class MzIdentMLExport {
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the database
      */
-    public void createMzIdentMLFile(boolean version12) throws IOException, MzMLUnmarshallerException, ClassNotFoundException, InterruptedException, SQLException {
+    public void createMzIdentMLFile(boolean version12, int nThreads) throws IOException, MzMLUnmarshallerException, ClassNotFoundException, InterruptedException, SQLException {
 
         mzidVersion_1_2 = version12;
+        this.nThreads = nThreads;
         if (mzidVersion_1_2) {
             maxNeutralLosses = 1;
         } else {
@@ -306,7 +371,7 @@ public class MzIdentMLExport {
         waitingHandler.setPrimaryProgressCounterIndeterminate(false);
         waitingHandler.resetPrimaryProgressCounter();
         waitingHandler.setMaxPrimaryProgressCounter(sequenceFactory.getNSequences()
-                + identification.getPeptideIdentification().size() * 2
+                + identification.getPeptideIdentification().size()
                 + identification.getSpectrumIdentificationSize()
                 + identification.getProteinIdentification().size());
 
@@ -324,7 +389,6 @@ public class MzIdentMLExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -332,7 +396,6 @@ public class MzIdentMLExport {
         writeMzIdentMLEndTag();
 
         br.close();
-        r.close();
     }
 
     /**
@@ -545,137 +608,146 @@ public class MzIdentMLExport {
         // set up the spectrum key to peptide key map
         spectrumKeyToPeptideKeyMap = new HashMap<String, String>();
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
-
-        while (peptideMatchesIterator.hasNext()) {
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        int peptideEvidenceCounter = 0;
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            Peptide peptide = peptideMatch.getTheoreticPeptide();
-            String peptideSequence = peptide.getSequence();
+        // the peptide evidences are written after the peptides, store them in a temporary file to iterate the peptides only once
+        File evidenceFile = File.createTempFile("peptide_evidences", ".xml", outputFile.getAbsoluteFile().getParentFile());
 
-            // store the spectrum to peptide mapping for later
-            for (String spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
-                spectrumKeyToPeptideKeyMap.put(spectrumMatchKey, peptideKey);
-            }
+        try {
+            BufferedWriter evidenceWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(evidenceFile), "UTF-8"), BUFFER_SIZE);
 
-            br.write(getCurrentTabSpace() + "<Peptide id=\"" + peptideKey + "\">" + lineBreak);
-            tabCounter++;
-            br.write(getCurrentTabSpace() + "<PeptideSequence>" + peptideSequence + "</PeptideSequence>" + lineBreak);
+            try {
+                PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
 
-            if (peptide.isModified()) {
-                for (ModificationMatch modMatch : peptide.getModificationMatches()) {
+                while (peptideMatchesIterator.hasNext()) {
 
-                    PTM currentPtm = ptmFactory.getPTM(modMatch.getTheoreticPtm());
-                    int ptmLocation = modMatch.getModificationSite();
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                    String peptideKey = peptideMatch.getKey();
+                    Peptide peptide = peptideMatch.getTheoreticPeptide();
+                    String peptideSequence = peptide.getSequence();
 
-                    if (currentPtm.isNTerm()) {
-                        ptmLocation = 0;
-                    } else if (currentPtm.isCTerm()) {
-                        ptmLocation = peptideSequence.length() + 1;
+                    // store the spectrum to peptide mapping for later
+                    for (String spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
+                        spectrumKeyToPeptideKeyMap.put(spectrumMatchKey, peptideKey);
                     }
 
-                    br.write(getCurrentTabSpace() + "<Modification monoisotopicMassDelta=\"" + currentPtm.getRoundedMass() + "\" "
-                            + "residues=\"" + peptideSequence.charAt(modMatch.getModificationSite() - 1) + "\" "
-                            + "location=\"" + ptmLocation + "\" >" + lineBreak);
+                    br.write(getCurrentTabSpace() + "<Peptide id=\"" + peptideKey + "\">" + lineBreak);
+                    tabCounter++;
+                    br.write(getCurrentTabSpace() + "<PeptideSequence>" + peptideSequence + "</PeptideSequence>" + lineBreak);
 
-                    CvTerm ptmCvTerm = currentPtm.getCvTerm();
-                    if (ptmCvTerm != null) {
-                        tabCounter++;
-                        writeCvTerm(ptmCvTerm, false);
-                        tabCounter--;
-                    }
+                    if (peptide.isModified()) {
+                        for (ModificationMatch modMatch : peptide.getModificationMatches()) {
 
-                    br.write(getCurrentTabSpace() + "</Modification>" + lineBreak);
-                }
-            }
+                            PTM currentPtm = ptmFactory.getPTM(modMatch.getTheoreticPtm());
+                            int ptmLocation = modMatch.getModificationSite();
 
-            tabCounter--;
-            br.write(getCurrentTabSpace() + "</Peptide>" + lineBreak);
+                            if (currentPtm.isNTerm()) {
+                                ptmLocation = 0;
+                            } else if (currentPtm.isCTerm()) {
+                                ptmLocation = peptideSequence.length() + 1;
+                            }
 
-            waitingHandler.increasePrimaryProgressCounter();
+                            br.write(getCurrentTabSpace() + "<Modification monoisotopicMassDelta=\"" + currentPtm.getRoundedMass() + "\" "
+                                    + "residues=\"" + peptideSequence.charAt(modMatch.getModificationSite() - 1) + "\" "
+                                    + "location=\"" + ptmLocation + "\" >" + lineBreak);
 
-            if (waitingHandler.isRunCanceled()) {
-                break;
-            }
-        }
+                            CvTerm ptmCvTerm = currentPtm.getCvTerm();
+                            if (ptmCvTerm != null) {
+                                tabCounter++;
+                                writeCvTerm(ptmCvTerm, false);
+                                tabCounter--;
+                            }
 
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        int peptideEvidenceCounter = 0;
+                            br.write(getCurrentTabSpace() + "</Modification>" + lineBreak);
+                        }
+                    }
 
-        // re-iterate the peptides to get peptide to protein mapping
-        peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
+                    tabCounter--;
+                    br.write(getCurrentTabSpace() + "</Peptide>" + lineBreak);
 
-        while (peptideMatchesIterator.hasNext()) {
+                    // get the possible parent proteins
+                    ArrayList<String> possibleProteins = peptide.getParentProteins(sequenceMatchingPreferences);
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            Peptide peptide = peptideMatch.getTheoreticPeptide();
+                    // iterate the possible protein parents
+                    for (String tempProtein : possibleProteins) {
 
-            // get the possible parent proteins
-            ArrayList<String> possibleProteins = peptide.getParentProteins(sequenceMatchingPreferences);
+                        // get the start indexes and the surrounding 
+                        HashMap<Integer, String[]> aaSurrounding = sequenceFactory.getProtein(tempProtein).getSurroundingAA(
+                                peptide.getSequence(), 1, sequenceMatchingPreferences);
 
-            // iterate the possible protein parents
-            for (String tempProtein : possibleProteins) {
+                        ArrayList<Integer> indexes = new ArrayList<Integer>();
+                        ArrayList<String> before = new ArrayList<String>();
+                        ArrayList<String> after = new ArrayList<String>();
 
-                // get the start indexes and the surrounding 
-                HashMap<Integer, String[]> aaSurrounding = sequenceFactory.getProtein(tempProtein).getSurroundingAA(
-                        peptide.getSequence(), 1, sequenceMatchingPreferences);
+                        if (aaSurrounding.size() == 1) {
+                            for (int index : aaSurrounding.keySet()) {
+                                indexes.add(index);
+                                before.add(aaSurrounding.get(index)[0]);
+                                after.add(aaSurrounding.get(index)[1]);
+                            }
+                        } else {
+                            ArrayList<Integer> tempIndexes = new ArrayList<Integer>(aaSurrounding.keySet());
+                            Collections.sort(tempIndexes);
+                            for (int index : tempIndexes) {
+                                indexes.add(index);
+                                before.add(aaSurrounding.get(index)[0]);
+                                after.add(aaSurrounding.get(index)[1]);
+                            }
+                        }
 
-                ArrayList<Integer> indexes = new ArrayList<Integer>();
-                ArrayList<String> before = new ArrayList<String>();
-                ArrayList<String> after = new ArrayList<String>();
+                        for (int i = 0; i < indexes.size(); i++) {
+                            String aaBefore = "-";
+                            String aaAfter = "-";
 
-                if (aaSurrounding.size() == 1) {
-                    for (int index : aaSurrounding.keySet()) {
-                        indexes.add(index);
-                        before.add(aaSurrounding.get(index)[0]);
-                        after.add(aaSurrounding.get(index)[1]);
-                    }
-                } else {
-                    ArrayList<Integer> tempIndexes = new ArrayList<Integer>(aaSurrounding.keySet());
-                    Collections.sort(tempIndexes);
-                    for (int index : tempIndexes) {
-                        indexes.add(index);
-                        before.add(aaSurrounding.get(index)[0]);
-                        after.add(aaSurrounding.get(index)[1]);
+                            if (!before.get(i).isEmpty()) {
+                                aaBefore = before.get(i);
+                            }
+                            if (!after.get(i).isEmpty()) {
+                                aaAfter = after.get(i);
+                            }
+
+                            int peptideStart = indexes.get(i);
+                            int peptideEnd = (indexes.get(i) + peptide.getSequence().length() - 1);
+
+                            String pepEvidenceKey = tempProtein + "_" + peptideStart + "_" + peptideKey;
+                            pepEvidenceIds.put(pepEvidenceKey, "PepEv_" + ++peptideEvidenceCounter);
+
+                            evidenceWriter.write(getCurrentTabSpace() + "<PeptideEvidence isDecoy=\"" + peptide.isDecoy(sequenceMatchingPreferences) + "\" "
+                                    + "pre=\"" + aaBefore + "\" "
+                                    + "post=\"" + aaAfter + "\" "
+                                    + "start=\"" + peptideStart + "\" "
+                                    + "end=\"" + peptideEnd + "\" "
+                                    + "peptide_ref=\"" + peptideKey + "\" "
+                                    + "dBSequence_ref=\"" + sequenceFactory.getProtein(tempProtein).getAccession() + "\" "
+                                    + "id=\"" + pepEvidenceIds.get(pepEvidenceKey) + "\" "
+                                    + "/>" + lineBreak);
+                        }
                     }
-                }
 
-                for (int i = 0; i < indexes.size(); i++) {
-                    String aaBefore = "-";
-                    String aaAfter = "-";
+                    waitingHandler.increasePrimaryProgressCounter();
 
-                    if (!before.get(i).isEmpty()) {
-                        aaBefore = before.get(i);
-                    }
-                    if (!after.get(i).isEmpty()) {
-                        aaAfter = after.get(i);
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
                     }
-
-                    int peptideStart = indexes.get(i);
-                    int peptideEnd = (indexes.get(i) + peptide.getSequence().length() - 1);
-
-                    String pepEvidenceKey = tempProtein + "_" + peptideStart + "_" + peptideKey;
-                    pepEvidenceIds.put(pepEvidenceKey, "PepEv_" + ++peptideEvidenceCounter);
-
-                    br.write(getCurrentTabSpace() + "<PeptideEvidence isDecoy=\"" + peptide.isDecoy(sequenceMatchingPreferences) + "\" "
-                            + "pre=\"" + aaBefore + "\" "
-                            + "post=\"" + aaAfter + "\" "
-                            + "start=\"" + peptideStart + "\" "
-                            + "end=\"" + peptideEnd + "\" "
-                            + "peptide_ref=\"" + peptideKey + "\" "
-                            + "dBSequence_ref=\"" + sequenceFactory.getProtein(tempProtein).getAccession() + "\" "
-                            + "id=\"" + pepEvidenceIds.get(pepEvidenceKey) + "\" "
-                            + "/>" + lineBreak);
                 }
+            } finally {
+                evidenceWriter.close();
             }
 
-            waitingHandler.increasePrimaryProgressCounter();
-
-            if (waitingHandler.isRunCanceled()) {
-                break;
+            // append the peptide evidences
+            Reader evidenceReader = new InputStreamReader(new FileInputStream(evidenceFile), "UTF-8");
+            try {
+                char[] buffer = new char[BUFFER_SIZE];
+                int length;
+                while ((length = evidenceReader.read(buffer)) != -1) {
+                    br.write(buffer, 0, length);
+                }
+            } finally {
+                evidenceReader.close();
             }
+        } finally {
+            evidenceFile.delete();
         }
 
         tabCounter--;
@@ -1178,27 +1250,57 @@ public class MzIdentMLExport {
         parameters.add(new PSParameter());
         int psmCount = 0;
 
-        // iterate the spectrum files
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
+        // the results are generated by blocks on the workers and written in the order of iteration
+        OrderedResultsWriter<String> blocksWriter = new OrderedResultsWriter<String>(nThreads) {
+            @Override
+            protected void write(String results, int nItems) throws IOException {
+                br.write(results);
+                for (int i = 0; i < nItems; i++) {
+                    waitingHandler.increasePrimaryProgressCounter();
+                }
+            }
+        };
+
+        try {
+
+            ArrayList<SpectrumMatch> block = new ArrayList<SpectrumMatch>(BLOCK_SIZE);
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, true, waitingHandler);
+            // iterate the spectrum files
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-            while (psmIterator.hasNext()) {
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, true, waitingHandler);
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+                while (psmIterator.hasNext()) {
 
-                writeSpectrumIdentificationResult(spectrumKey, ++psmCount);
-                waitingHandler.increasePrimaryProgressCounter();
+                    block.add(psmIterator.next());
+
+                    if (block.size() == BLOCK_SIZE) {
+                        blocksWriter.submit(new SpectrumIdentificationResultsCallable(block, psmCount + 1), block.size());
+                        psmCount += block.size();
+                        block = new ArrayList<SpectrumMatch>(BLOCK_SIZE);
+                    }
+
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
 
                 if (waitingHandler.isRunCanceled()) {
                     break;
                 }
             }
 
-            if (waitingHandler.isRunCanceled()) {
-                break;
+            if (!block.isEmpty() && !waitingHandler.isRunCanceled()) {
+                blocksWriter.submit(new SpectrumIdentificationResultsCallable(block, psmCount + 1), block.size());
+                psmCount += block.size();
+            }
+
+            if (!waitingHandler.isRunCanceled()) {
+                blocksWriter.flush();
             }
+
+        } finally {
+            blocksWriter.shutdown();
         }
 
         if (waitingHandler.isRunCanceled()) {
@@ -1338,7 +1440,7 @@ public class MzIdentMLExport {
     /**
      * Write a spectrum identification result.
      *
-     * @param psmKey the key of the PSM to write
+     * @param spectrumMatch the PSM to write
      * @param psmIndex the index of the PSM
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -1352,10 +1454,10 @@ public class MzIdentMLExport {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while reading an mzML file
      */
-    private void writeSpectrumIdentificationResult(String psmKey, int psmIndex)
+    private void writeSpectrumIdentificationResult(SpectrumMatch spectrumMatch, int psmIndex)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(psmKey);
+        String psmKey = spectrumMatch.getKey();
         String spectrumTitle = Spectrum.getSpectrumTitle(psmKey);
         String spectrumFileName = Spectrum.getSpectrumFile(psmKey);
         String spectrumIdentificationResultItemKey = "SIR_" + psmIndex;
@@ -1468,16 +1570,16 @@ public class MzIdentMLExport {
                             Ion currentIon = ionMatches.get(0).ion;
                             CvTerm fragmentIonCvTerm = currentIon.getPsiMsCvTerm();
 
-                            String indexes = "";
-                            String mzValues = "";
-                            String intensityValues = "";
-                            String errorValues = "";
+                            StringBuilder indexes = new StringBuilder();
+                            StringBuilder mzValues = new StringBuilder();
+                            StringBuilder intensityValues = new StringBuilder();
+                            StringBuilder errorValues = new StringBuilder();
 
                             // get the fragment ion details
                             for (IonMatch ionMatch : ionMatches) {
 
                                 if (ionMatch.ion instanceof PeptideFragmentIon) {
-                                    indexes += ((PeptideFragmentIon) ionMatch.ion).getNumber() + " ";
+                                    indexes.append(((PeptideFragmentIon) ionMatch.ion).getNumber()).append(' ');
                                 } else if (ionMatch.ion instanceof ImmoniumIon) {
 
                                     // get the indexes of the corresponding residues
@@ -1485,28 +1587,29 @@ public class MzIdentMLExport {
                                     char[] peptideAsArray = peptideSequence.toCharArray();
                                     for (int i = 0; i < peptideAsArray.length; i++) {
                                         if (peptideAsArray[i] == residue) {
-                                            indexes += (i + 1) + " ";
+                                            indexes.append(i + 1).append(' ');
                                         }
                                     }
                                 } else if (ionMatch.ion instanceof ReporterIon
                                         || ionMatch.ion instanceof RelatedIon // @TODO: request cv terms for related ions?
                                         || ionMatch.ion instanceof PrecursorIon) {
-                                    indexes = "0";
+                                    indexes.setLength(0);
+                                    indexes.append('0');
                                 }
 
-                                mzValues += ionMatch.peak.mz + " ";
-                                intensityValues += ionMatch.peak.intensity + " ";
-                                errorValues += ionMatch.getAbsoluteError() + " ";
+                                mzValues.append(ionMatch.peak.mz).append(' ');
+                                intensityValues.append(ionMatch.peak.intensity).append(' ');
+                                errorValues.append(ionMatch.getAbsoluteError()).append(' ');
                             }
 
                             // add the supported fragment ions
                             if (fragmentIonCvTerm != null) {
-                                br.write(getCurrentTabSpace() + "<IonType charge=\"" + fragmentCharge + "\" index=\"" + indexes.trim() + "\">" + lineBreak);
+                                br.write(getCurrentTabSpace() + "<IonType charge=\"" + fragmentCharge + "\" index=\"" + indexes.toString().trim() + "\">" + lineBreak);
                                 tabCounter++;
 
-                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_MZ\" values=\"" + mzValues.trim() + "\"/>" + lineBreak);
-                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Int\" values=\"" + intensityValues.trim() + "\"/>" + lineBreak);
-                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Error\" values=\"" + errorValues.trim() + "\"/>" + lineBreak);
+                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_MZ\" values=\"" + mzValues.toString().trim() + "\"/>" + lineBreak);
+                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Int\" values=\"" + intensityValues.toString().trim() + "\"/>" + lineBreak);
+                                br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Error\" values=\"" + errorValues.toString().trim() + "\"/>" + lineBreak);
 
                                 // add the cv term for the fragment ion type
                                 writeCvTerm(fragmentIonCvTerm);
@@ -1932,37 +2035,10 @@ public class MzIdentMLExport {
      * @return the tabs in the beginning of each line as a string
      */
     private String getCurrentTabSpace() {
-
-        switch (tabCounter) {
-            case 0:
-                return "";
-            case 1:
-                return "\t";
-            case 2:
-                return "\t\t";
-            case 3:
-                return "\t\t\t";
-            case 4:
-                return "\t\t\t\t";
-            case 5:
-                return "\t\t\t\t\t";
-            case 6:
-                return "\t\t\t\t\t\t";
-            case 7:
-                return "\t\t\t\t\t\t\t";
-            case 8:
-                return "\t\t\t\t\t\t\t\t";
-            case 9:
-                return "\t\t\t\t\t\t\t\t\t";
-            case 10:
-                return "\t\t\t\t\t\t\t\t\t\t";
-            case 11:
-                return "\t\t\t\t\t\t\t\t\t\t\t";
-            case 12:
-                return "\t\t\t\t\t\t\t\t\t\t\t\t";
-            default:
-                return "";
+        if (tabCounter < 0 || tabCounter >= TABS.length) {
+            return "";
         }
+        return TABS[tabCounter];
     }
 
     /**
@@ -1987,10 +2063,14 @@ public class MzIdentMLExport {
      */
     private void writeCvTerm(CvTerm cvTerm, boolean showValue) throws IOException {
 
-        br.write(getCurrentTabSpace() + "<cvParam "
-                + "cvRef=\"" + StringEscapeUtils.escapeHtml4(cvTerm.getOntology()) + "\" "
-                + "accession=\"" + cvTerm.getAccession() + "\" "
-                + "name=\"" + StringEscapeUtils.escapeHtml4(cvTerm.getName()) + "\"");
+        br.write(getCurrentTabSpace());
+        br.write("<cvParam cvRef=\"");
+        br.write(StringEscapeUtils.escapeHtml4(cvTerm.getOntology()));
+        br.write("\" accession=\"");
+        br.write(cvTerm.getAccession());
+        br.write("\" name=\"");
+        br.write(StringEscapeUtils.escapeHtml4(cvTerm.getName()));
+        br.write("\"");
 
         writeCvTermValue(cvTerm, showValue);
     }
@@ -2005,10 +2085,13 @@ public class MzIdentMLExport {
      */
     private void writeCvTermValue(CvTerm cvTerm, boolean showValue) throws IOException {
         if (showValue && cvTerm.getValue() != null) {
-            br.write(" value=\"" + StringEscapeUtils.escapeHtml4(cvTerm.getValue()) + "\"/>" + lineBreak);
+            br.write(" value=\"");
+            br.write(StringEscapeUtils.escapeHtml4(cvTerm.getValue()));
+            br.write("\"/>");
         } else {
-            br.write("/>" + lineBreak);
+            br.write("/>");
         }
+        br.write(lineBreak);
     }
 
     /**
@@ -2029,4 +2112,43 @@ public class MzIdentMLExport {
     private void writeUserParam(String name, String value) throws IOException {
         br.write(getCurrentTabSpace() + "<userParam name=\"" + StringEscapeUtils.escapeHtml4(name) + "\" value=\"" + StringEscapeUtils.escapeHtml4(value) + "\" />" + lineBreak);
     }
+
+    /**
+     * Callable generating the spectrum identification results of a block of
+     * spectrum matches.
+     *
+     * @author Marc Vaudel
+     */
+    private class SpectrumIdentificationResultsCallable implements Callable<String> {
+
+        /**
+         * The spectrum matches of the block.
+         */
+        private final ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The index of the first spectrum match of the block.
+         */
+        private final int firstIndex;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatches the spectrum matches of the block
+         * @param firstIndex the index of the first spectrum match of the block
+         */
+        public SpectrumIdentificationResultsCallable(ArrayList<SpectrumMatch> spectrumMatches, int firstIndex) {
+            this.spectrumMatches = spectrumMatches;
+            this.firstIndex = firstIndex;
+        }
+
+        @Override
+        public String call() throws Exception {
+            StringWriter writer = new StringWriter();
+            MzIdentMLExport blockExport = new MzIdentMLExport(MzIdentMLExport.this, writer);
+            for (int i = 0; i < spectrumMatches.size(); i++) {
+                blockExport.writeSpectrumIdentificationResult(spectrumMatches.get(i), firstIndex + i);
+            }
+            return writer.toString();
+        }
+    }
 }
@@ -5,6 +5,13 @@ import com.compomics.util.experiment.biology.genes.GeneMaps;
 import com.compomics.util.io.export.ExportScheme;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.SerializationUtils;
 import com.compomics.util.io.export.ExportFactory;
@@ -35,6 +42,7 @@ import eu.isas.peptideshaker.export.sections.PsPtmScoringSection;
 import eu.isas.peptideshaker.export.sections.PsSearchParametersSection;
 import eu.isas.peptideshaker.export.sections.PsSpectrumCountingSection;
 import eu.isas.peptideshaker.export.sections.PsValidationSection;
+import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.PSMaps;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
@@ -45,6 +53,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -250,6 +259,8 @@ public class PSExportFactory implements ExportFactory {
      * @param identificationParameters the identification parameters
      * @param spectrumCountingPreferences the spectrum counting preferences
      * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to format the rows of the
+     * protein, peptide and PSM sections
      * @param waitingHandler the waiting handler
      *
      * @throws IOException thrown if an IOException occurs
@@ -265,65 +276,517 @@ public class PSExportFactory implements ExportFactory {
             ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
             ArrayList<String> proteinKeys, ArrayList<String> peptideKeys, ArrayList<String> psmKeys,
             String proteinMatchKey, int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
-            SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
-        ExportWriter exportWriter = ExportWriter.getExportWriter(exportFormat, destinationFile, exportScheme.getSeparator(), exportScheme.getSeparationLines());
-        if (exportWriter instanceof ExcelWriter) {
-            ExcelWriter excelWriter = (ExcelWriter) exportWriter;
-            PsExportStyle exportStyle = PsExportStyle.getReportStyle(excelWriter);
-            excelWriter.setWorkbookStyle(exportStyle);
+        ArrayList<ExportScheme> exportSchemes = new ArrayList<ExportScheme>(1);
+        exportSchemes.add(exportScheme);
+        ArrayList<File> destinationFiles = new ArrayList<File>(1);
+        destinationFiles.add(destinationFile);
+        writeExports(exportSchemes, destinationFiles, exportFormat, experiment, sample, replicateNumber, projectDetails, identification,
+                identificationFeaturesGenerator, geneMaps, proteinKeys, peptideKeys, psmKeys, proteinMatchKey, nSurroundingAA,
+                shotgunProtocol, identificationParameters, spectrumCountingPreferences, nThreads, waitingHandler);
+    }
+
+    /**
+     * Writes several exports at once. The sections of the files are written
+     * in their order, and the protein, peptide and PSM sections of all files
+     * are written from a single iteration of the matches per level.
+     *
+     * @param exportSchemes the export schemes
+     * @param destinationFiles the destination files, one per export scheme
+     * @param exportFormat the format of export to use
+     * @param experiment the experiment corresponding to this project (mandatory
+     * for the Project section)
+     * @param sample the sample of the project (mandatory for the Project
+     * section)
+     * @param replicateNumber the replicate number of the project (mandatory for
+     * the Project section)
+     * @param projectDetails the project details (mandatory for the Project
+     * section)
+     * @param identification the identification (mandatory for the Protein,
+     * Peptide and PSM sections)
+     * @param identificationFeaturesGenerator the identification features
+     * generator (mandatory for the Protein, Peptide and PSM sections)
+     * @param geneMaps the gene maps
+     * @param proteinKeys the protein keys to export (mandatory for the Protein
+     * section)
+     * @param peptideKeys the peptide keys to export (mandatory for the Peptide
+     * section)
+     * @param psmKeys the keys of the PSMs to export (mandatory for the PSM
+     * section)
+     * @param proteinMatchKey the protein match key when exporting peptides from
+     * a single protein match (optional for the Peptide sections)
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * (mandatory for the Peptide section)
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to format the rows of the
+     * protein, peptide and PSM sections
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    public static void writeExports(ArrayList<ExportScheme> exportSchemes, ArrayList<File> destinationFiles, ExportFormat exportFormat, String experiment, String sample, int replicateNumber,
+            ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ArrayList<String> proteinKeys, ArrayList<String> peptideKeys, ArrayList<String> psmKeys,
+            String proteinMatchKey, int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        int nFiles = exportSchemes.size();
+        ExportWriter[] exportWriters = new ExportWriter[nFiles];
+        int[] sectionIndexes = new int[nFiles];
+
+        for (int i = 0; i < nFiles; i++) {
+            ExportScheme exportScheme = exportSchemes.get(i);
+            ExportWriter exportWriter = ExportWriter.getExportWriter(exportFormat, destinationFiles.get(i), exportScheme.getSeparator(), exportScheme.getSeparationLines());
+            if (exportWriter instanceof ExcelWriter) {
+                ExcelWriter excelWriter = (ExcelWriter) exportWriter;
+                PsExportStyle exportStyle = PsExportStyle.getReportStyle(excelWriter);
+                excelWriter.setWorkbookStyle(exportStyle);
+            }
+            exportWriter.writeMainTitle(exportScheme.getMainTitle());
+            exportWriters[i] = exportWriter;
         }
 
-        exportWriter.writeMainTitle(exportScheme.getMainTitle());
+        while (true) {
+
+            // write the sections which do not iterate the matches, stopping every file at its next match section
+            String matchLevel = null;
+            for (int i = 0; i < nFiles; i++) {
+                ExportScheme exportScheme = exportSchemes.get(i);
+                ArrayList<String> sections = new ArrayList<String>(exportScheme.getSections());
+                while (sectionIndexes[i] < sections.size()) {
+                    String sectionName = sections.get(sectionIndexes[i]);
+                    if (isMatchSection(sectionName)) {
+                        if (matchLevel == null) {
+                            matchLevel = sectionName;
+                        }
+                        break;
+                    }
+                    startNewSection(exportScheme, exportWriters[i], sectionName);
+                    writeSection(exportScheme, exportWriters[i], sectionName, experiment, sample, replicateNumber, projectDetails, identification,
+                            identificationFeaturesGenerator, psmKeys, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, waitingHandler);
+                    sectionIndexes[i]++;
+                }
+            }
 
-        for (String sectionName : exportScheme.getSections()) {
-            if (exportScheme.isIncludeSectionTitles()) {
-                exportWriter.startNewSection(sectionName);
-            } else {
-                exportWriter.startNewSection();
+            if (matchLevel == null) {
+                break;
             }
-            if (sectionName.equals(PsAnnotationFeature.type)) {
-                PsAnnotationSection section = new PsAnnotationSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identificationParameters.getAnnotationPreferences(), waitingHandler);
-            } else if (sectionName.equals(PsInputFilterFeature.type)) {
-                PsInputFilterSection section = new PsInputFilterSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identificationParameters.getPeptideAssumptionFilter(), waitingHandler);
-            } else if (sectionName.equals(PsPeptideFeature.type)) {
-                PsPeptideSection section = new PsPeptideSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideKeys, nSurroundingAA, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
-            } else if (sectionName.equals(PsProjectFeature.type)) {
-                PsProjectSection section = new PsProjectSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(experiment, sample, replicateNumber, projectDetails, waitingHandler);
-            } else if (sectionName.equals(PsProteinFeature.type)) {
-                PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, psmKeys, nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
-            } else if (sectionName.equals(PsPsmFeature.type)) {
-                PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
-            } else if (sectionName.equals(PsIdentificationAlgorithmMatchesFeature.type)) {
-                PsIdentificationAlgorithmMatchesSection section = new PsIdentificationAlgorithmMatchesSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", nSurroundingAA, waitingHandler);
-            } else if (sectionName.equals(PsPtmScoringFeature.type)) {
-                PsPtmScoringSection section = new PsPtmScoringSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identificationParameters.getPtmScoringPreferences(), waitingHandler);
-            } else if (sectionName.equals(PsSearchFeature.type)) {
-                PsSearchParametersSection section = new PsSearchParametersSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identificationParameters.getSearchParameters(), waitingHandler);
-            } else if (sectionName.equals(PsSpectrumCountingFeature.type)) {
-                PsSpectrumCountingSection section = new PsSpectrumCountingSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(spectrumCountingPreferences, waitingHandler);
-            } else if (sectionName.equals(PsValidationFeature.type)) {
-                PsValidationSection section = new PsValidationSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                PSMaps psMaps = new PSMaps();
-                psMaps = (PSMaps) identification.getUrParam(psMaps);
-                section.writeSection(psMaps, identificationParameters, waitingHandler);
+
+            // write the match sections of this level for all files waiting on it
+            ArrayList<ExportScheme> levelSchemes = new ArrayList<ExportScheme>(nFiles);
+            ArrayList<ExportWriter> levelWriters = new ArrayList<ExportWriter>(nFiles);
+            for (int i = 0; i < nFiles; i++) {
+                ExportScheme exportScheme = exportSchemes.get(i);
+                ArrayList<String> sections = new ArrayList<String>(exportScheme.getSections());
+                if (sectionIndexes[i] < sections.size() && sections.get(sectionIndexes[i]).equals(matchLevel)) {
+                    startNewSection(exportScheme, exportWriters[i], matchLevel);
+                    levelSchemes.add(exportScheme);
+                    levelWriters.add(exportWriters[i]);
+                    sectionIndexes[i]++;
+                }
+            }
+
+            int sectionThreads = Math.max(1, nThreads / levelSchemes.size());
+
+            if (matchLevel.equals(PsProteinFeature.type)) {
+                writeProteinSections(levelSchemes, levelWriters, identification, identificationFeaturesGenerator, geneMaps, proteinKeys, nSurroundingAA,
+                        shotgunProtocol, identificationParameters, sectionThreads, waitingHandler);
+            } else if (matchLevel.equals(PsPeptideFeature.type)) {
+                writePeptideSections(levelSchemes, levelWriters, identification, identificationFeaturesGenerator, peptideKeys, nSurroundingAA,
+                        shotgunProtocol, identificationParameters, sectionThreads, waitingHandler);
             } else {
-                throw new UnsupportedOperationException("Section " + sectionName + " not implemented.");
+                writePsmSections(levelSchemes, levelWriters, identification, identificationFeaturesGenerator, psmKeys, nSurroundingAA,
+                        shotgunProtocol, identificationParameters, sectionThreads, waitingHandler);
             }
         }
 
-        exportWriter.close();
+        for (ExportWriter exportWriter : exportWriters) {
+            exportWriter.close();
+        }
+    }
+
+    /**
+     * Indicates whether a section iterates the protein, peptide or PSM matches
+     * and can thus share the iteration with the sections of other reports.
+     *
+     * @param sectionName the name of the section
+     *
+     * @return a boolean indicating whether the section is a match section
+     */
+    private static boolean isMatchSection(String sectionName) {
+        return sectionName.equals(PsProteinFeature.type) || sectionName.equals(PsPeptideFeature.type) || sectionName.equals(PsPsmFeature.type);
+    }
+
+    /**
+     * Starts a new section in the given writer.
+     *
+     * @param exportScheme the export scheme of the report
+     * @param exportWriter the writer of the report
+     * @param sectionName the name of the section
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static void startNewSection(ExportScheme exportScheme, ExportWriter exportWriter, String sectionName) throws IOException {
+        if (exportScheme.isIncludeSectionTitles()) {
+            exportWriter.startNewSection(sectionName);
+        } else {
+            exportWriter.startNewSection();
+        }
+    }
+
+    /**
+     * Writes a section which does not share the iteration of the matches with
+     * other reports.
+     *
+     * @param exportScheme the export scheme of the report
+     * @param exportWriter the writer of the report
+     * @param sectionName the name of the section
+     * @param experiment the experiment corresponding to this project
+     * @param sample the sample of the project
+     * @param replicateNumber the replicate number of the project
+     * @param projectDetails the project details
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param psmKeys the keys of the PSMs to export
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    private static void writeSection(ExportScheme exportScheme, ExportWriter exportWriter, String sectionName, String experiment, String sample, int replicateNumber,
+            ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, ArrayList<String> psmKeys,
+            int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        if (sectionName.equals(PsAnnotationFeature.type)) {
+            PsAnnotationSection section = new PsAnnotationSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(identificationParameters.getAnnotationPreferences(), waitingHandler);
+        } else if (sectionName.equals(PsInputFilterFeature.type)) {
+            PsInputFilterSection section = new PsInputFilterSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(identificationParameters.getPeptideAssumptionFilter(), waitingHandler);
+        } else if (sectionName.equals(PsProjectFeature.type)) {
+            PsProjectSection section = new PsProjectSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(experiment, sample, replicateNumber, projectDetails, waitingHandler);
+        } else if (sectionName.equals(PsIdentificationAlgorithmMatchesFeature.type)) {
+            PsIdentificationAlgorithmMatchesSection section = new PsIdentificationAlgorithmMatchesSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", nSurroundingAA, waitingHandler);
+        } else if (sectionName.equals(PsPtmScoringFeature.type)) {
+            PsPtmScoringSection section = new PsPtmScoringSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(identificationParameters.getPtmScoringPreferences(), waitingHandler);
+        } else if (sectionName.equals(PsSearchFeature.type)) {
+            PsSearchParametersSection section = new PsSearchParametersSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(identificationParameters.getSearchParameters(), waitingHandler);
+        } else if (sectionName.equals(PsSpectrumCountingFeature.type)) {
+            PsSpectrumCountingSection section = new PsSpectrumCountingSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            section.writeSection(spectrumCountingPreferences, waitingHandler);
+        } else if (sectionName.equals(PsValidationFeature.type)) {
+            PsValidationSection section = new PsValidationSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+            PSMaps psMaps = new PSMaps();
+            psMaps = (PSMaps) identification.getUrParam(psMaps);
+            section.writeSection(psMaps, identificationParameters, waitingHandler);
+        } else {
+            throw new UnsupportedOperationException("Section " + sectionName + " not implemented.");
+        }
+    }
+
+    /**
+     * Writes the protein sections of several reports from a single iteration
+     * of the protein matches.
+     *
+     * @param exportSchemes the export schemes of the reports
+     * @param exportWriters the writers of the reports
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param geneMaps the gene maps
+     * @param keys the keys of the protein matches to export, if null all
+     * protein matches
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use to format the rows of every
+     * section
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    private static void writeProteinSections(ArrayList<ExportScheme> exportSchemes, ArrayList<ExportWriter> exportWriters, Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps, ArrayList<String> keys, int nSurroundingAA,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (keys == null) {
+            keys = new ArrayList<String>(identification.getProteinIdentification());
+        }
+
+        ArrayList<PsProteinSection> sections = new ArrayList<PsProteinSection>(exportSchemes.size());
+        boolean subsection = false;
+
+        try {
+            for (int i = 0; i < exportSchemes.size(); i++) {
+                ExportScheme exportScheme = exportSchemes.get(i);
+                PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(PsProteinFeature.type), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriters.get(i));
+                sections.add(section);
+                section.startSection(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, keys, nSurroundingAA,
+                        exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
+                subsection = subsection || section.hasSubsection();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Exporting. Please Wait...");
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(keys.size());
+            }
+
+            PSParameter psParameter = new PSParameter();
+            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+            parameters.add(psParameter);
+            ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(
+                    keys, parameters, subsection, parameters, subsection, parameters, waitingHandler);
+
+            while (proteinMatchesIterator.hasNext()) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+
+                ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                for (PsProteinSection section : sections) {
+                    section.writeMatch(proteinMatch);
+                }
+            }
+            for (PsProteinSection section : sections) {
+                section.endSection();
+            }
+        } finally {
+            for (PsProteinSection section : sections) {
+                section.cancelSection();
+            }
+        }
+    }
+
+    /**
+     * Writes the peptide sections of several reports from a single iteration
+     * of the peptide matches.
+     *
+     * @param exportSchemes the export schemes of the reports
+     * @param exportWriters the writers of the reports
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param keys the keys of the peptide matches to export, if null all
+     * peptide matches
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use to format the rows of every
+     * section
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    private static void writePeptideSections(ArrayList<ExportScheme> exportSchemes, ArrayList<ExportWriter> exportWriters, Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ArrayList<String> keys, int nSurroundingAA,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (keys == null) {
+            keys = new ArrayList<String>(identification.getPeptideIdentification());
+        }
+
+        ArrayList<PsPeptideSection> sections = new ArrayList<PsPeptideSection>(exportSchemes.size());
+        boolean subsection = false;
+
+        try {
+            for (int i = 0; i < exportSchemes.size(); i++) {
+                ExportScheme exportScheme = exportSchemes.get(i);
+                PsPeptideSection section = new PsPeptideSection(exportScheme.getExportFeatures(PsPeptideFeature.type), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriters.get(i));
+                sections.add(section);
+                section.startSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, "",
+                        exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
+                subsection = subsection || section.hasSubsection();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Exporting. Please Wait...");
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(keys.size());
+            }
+
+            PSParameter psParameter = new PSParameter();
+            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+            parameters.add(psParameter);
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, parameters, subsection, parameters, waitingHandler);
+
+            while (peptideMatchesIterator.hasNext()) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+
+                PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                for (PsPeptideSection section : sections) {
+                    section.writeMatch(peptideMatch);
+                }
+            }
+            for (PsPeptideSection section : sections) {
+                section.endSection();
+            }
+        } finally {
+            for (PsPeptideSection section : sections) {
+                section.cancelSection();
+            }
+        }
+    }
+
+    /**
+     * Writes the PSM sections of several reports from a single iteration of
+     * the spectrum matches.
+     *
+     * @param exportSchemes the export schemes of the reports
+     * @param exportWriters the writers of the reports
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param keys the keys of the spectrum matches to export, if null all
+     * spectrum matches
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use to format the rows of every
+     * section
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    private static void writePsmSections(ArrayList<ExportScheme> exportSchemes, ArrayList<ExportWriter> exportWriters, Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ArrayList<String> keys, int nSurroundingAA,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        ArrayList<PsPsmSection> sections = new ArrayList<PsPsmSection>(exportSchemes.size());
+        boolean assumptions = false;
+
+        try {
+            for (int i = 0; i < exportSchemes.size(); i++) {
+                ExportScheme exportScheme = exportSchemes.get(i);
+                PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(PsPsmFeature.type), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriters.get(i));
+                sections.add(section);
+                section.startSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, "", nSurroundingAA,
+                        exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
+                assumptions = assumptions || section.needsAssumptions();
+            }
+
+            HashMap<String, HashSet<String>> psmMap = PsPsmSection.getPsmMap(identification, keys);
+
+            int totalSize = 0;
+
+            for (String spectrumFile : psmMap.keySet()) {
+                totalSize += psmMap.get(spectrumFile).size();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Exporting. Please Wait...");
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(totalSize);
+            }
+
+            PSParameter psParameter = new PSParameter();
+            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+            parameters.add(psParameter);
+
+            for (String spectrumFile : psmMap.keySet()) {
+
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, new ArrayList<String>(
+                        psmMap.get(spectrumFile)), parameters, assumptions, waitingHandler);
+
+                while (psmIterator.hasNext()) {
+
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    for (PsPsmSection section : sections) {
+                        section.writeMatch(spectrumMatch);
+                    }
+                }
+            }
+            for (PsPsmSection section : sections) {
+                section.endSection();
+            }
+        } finally {
+            for (PsPsmSection section : sections) {
+                section.cancelSection();
+            }
+        }
     }
 
     /**
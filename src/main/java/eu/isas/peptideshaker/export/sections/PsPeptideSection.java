@@ -60,6 +60,55 @@ public class PsPeptideSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The writer of the rows formatted in parallel, null if the rows are
+     * written on the calling thread.
+     */
+    private SectionRowsWriter<PeptideMatch> rowsWriter = null;
+    /**
+     * The index of the next line.
+     */
+    private int line;
+    /**
+     * The identification of the section being written.
+     */
+    private Identification identification;
+    /**
+     * The identification features generator of the section being written.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The shotgun protocol of the section being written.
+     */
+    private ShotgunProtocol shotgunProtocol;
+    /**
+     * The identification parameters of the section being written.
+     */
+    private IdentificationParameters identificationParameters;
+    /**
+     * The keys of the peptide matches of the section being written.
+     */
+    private ArrayList<String> keys;
+    /**
+     * The number of surrounding amino acids of the section being written.
+     */
+    private int nSurroundingAA;
+    /**
+     * The line prefix of the section being written.
+     */
+    private String linePrefix;
+    /**
+     * Indicates whether only validated matches are written.
+     */
+    private boolean validatedOnly;
+    /**
+     * Indicates whether decoy matches are written.
+     */
+    private boolean decoys;
+    /**
+     * The waiting handler of the section being written.
+     */
+    private WaitingHandler waitingHandler;
 
     /**
      * Constructor.
@@ -102,6 +151,9 @@ public class PsPeptideSection {
      * @param linePrefix the line prefix to use.
      * @param validatedOnly whether only validated matches should be exported
      * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a PSM subsection the rows are written on the calling
+     * thread.
      * @param waitingHandler the waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -117,22 +169,18 @@ public class PsPeptideSection {
      */
     public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAA,
-            String linePrefix, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler)
+            String linePrefix, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader();
-        }
-
         if (keys == null) {
             keys = new ArrayList<String>(identification.getPeptideIdentification());
         }
 
-        int line = 1;
+        startSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, validatedOnly, decoys, nThreads, waitingHandler);
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Exporting. Please Wait...");
@@ -146,22 +194,114 @@ public class PsPeptideSection {
 
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, parameters, psmSection != null, parameters, waitingHandler);
 
-        while (peptideMatchesIterator.hasNext()) {
+        try {
+            while (peptideMatchesIterator.hasNext()) {
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
+
+                writeMatch(peptideMatchesIterator.next());
             }
+            endSection();
+        } finally {
+            cancelSection();
+        }
+    }
+
+    /**
+     * Starts writing the section: writes the header if needed and prepares
+     * the writing of the matches. The matches are then given one by one to
+     * writeMatch and the section is completed by endSection. This allows
+     * writing several sections from a single iteration of the matches.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the peptide matches to output
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param linePrefix the line prefix to use.
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a PSM subsection the rows are written on the calling
+     * thread.
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void startSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAA,
+            String linePrefix, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler) throws IOException {
+
+        this.identification = identification;
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.shotgunProtocol = shotgunProtocol;
+        this.identificationParameters = identificationParameters;
+        this.keys = keys;
+        this.nSurroundingAA = nSurroundingAA;
+        this.linePrefix = linePrefix;
+        this.validatedOnly = validatedOnly;
+        this.decoys = decoys;
+        this.waitingHandler = waitingHandler;
+        line = 1;
+
+        if (header) {
+            writeHeader();
+        }
+
+        // without subsection the rows can be formatted in parallel
+        if (psmSection == null && nThreads > 1) {
+            rowsWriter = new SectionRowsWriter<PeptideMatch>(writer, nThreads) {
+                @Override
+                protected String[] getRow(PeptideMatch peptideMatch) throws Exception {
+                    PSParameter psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideMatch.getKey(), new PSParameter());
+                    String[] row = new String[peptideFeatures.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getfeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA,
+                                linePrefix, peptideMatch, psParameter, peptideFeatures.get(i), validatedOnly, decoys, waitingHandler);
+                    }
+                    return row;
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes the line of a peptide match if it passes the validation and
+     * decoy filters of the section. See startSection.
+     *
+     * @param peptideMatch the peptide match to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void writeMatch(PeptideMatch peptideMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+        String peptideKey = peptideMatch.getKey();
+        PSParameter psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, new PSParameter());
 
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                if (decoys || !peptideMatch.getTheoreticPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+            if (decoys || !peptideMatch.getTheoreticPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+
+                if (rowsWriter != null) {
+                    rowsWriter.addRow(peptideMatch, indexes ? (linePrefix != null ? linePrefix : "") + line : null);
+                } else {
 
                     boolean first = true;
 
@@ -193,18 +333,64 @@ public class PsPeptideSection {
                         if (waitingHandler != null) {
                             waitingHandler.setDisplayProgress(false);
                         }
-                        psmSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMatch.getSpectrumMatchesKeys(), psmSectionPrefix, nSurroundingAA, validatedOnly, decoys, waitingHandler);
+                        psmSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMatch.getSpectrumMatchesKeys(), psmSectionPrefix, nSurroundingAA, validatedOnly, decoys, 1, waitingHandler);
                         if (waitingHandler != null) {
                             waitingHandler.setDisplayProgress(true);
                         }
                         writer.decreseDepth();
                     }
-                    line++;
                 }
+                line++;
+            }
+        }
+    }
+
+    /**
+     * Writes the rows remaining after the last match and stops the workers.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void endSection() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        if (rowsWriter != null) {
+            try {
+                rowsWriter.flush();
+            } finally {
+                cancelSection();
             }
         }
     }
 
+    /**
+     * Stops the workers of the section if any, the rows not written yet are
+     * discarded.
+     */
+    public void cancelSection() {
+        if (rowsWriter != null) {
+            rowsWriter.shutdown();
+            rowsWriter = null;
+        }
+    }
+
+    /**
+     * Indicates whether the section contains a PSM subsection, in which case
+     * the PSMs of the peptide matches are needed.
+     *
+     * @return a boolean indicating whether the section contains a PSM
+     * subsection
+     */
+    public boolean hasSubsection() {
+        return psmSection != null;
+    }
+
     /**
      * Returns the component of the section corresponding to the given feature.
      *
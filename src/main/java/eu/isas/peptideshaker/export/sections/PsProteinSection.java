@@ -67,6 +67,55 @@ public class PsProteinSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The writer of the rows formatted in parallel, null if the rows are
+     * written on the calling thread.
+     */
+    private SectionRowsWriter<ProteinMatch> rowsWriter = null;
+    /**
+     * The index of the next line.
+     */
+    private int line;
+    /**
+     * The identification of the section being written.
+     */
+    private Identification identification;
+    /**
+     * The identification features generator of the section being written.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The gene maps of the section being written.
+     */
+    private GeneMaps geneMaps;
+    /**
+     * The shotgun protocol of the section being written.
+     */
+    private ShotgunProtocol shotgunProtocol;
+    /**
+     * The identification parameters of the section being written.
+     */
+    private IdentificationParameters identificationParameters;
+    /**
+     * The keys of the protein matches of the section being written.
+     */
+    private ArrayList<String> keys;
+    /**
+     * The number of surrounding amino acids of the section being written.
+     */
+    private int nSurroundingAas;
+    /**
+     * Indicates whether only validated matches are written.
+     */
+    private boolean validatedOnly;
+    /**
+     * Indicates whether decoy matches are written.
+     */
+    private boolean decoys;
+    /**
+     * The waiting handler of the section being written.
+     */
+    private WaitingHandler waitingHandler;
 
     /**
      * Constructor.
@@ -113,6 +162,9 @@ public class PsProteinSection {
      * surrounding amino-acids, the number of surrounding amino acids to use
      * @param validatedOnly whether only validated matches should be exported
      * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a peptide subsection the rows are written on the calling
+     * thread.
      * @param waitingHandler the waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -130,21 +182,18 @@ public class PsProteinSection {
      */
     public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
-            int nSurroundingAas, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler)
+            int nSurroundingAas, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader();
-        }
-
         if (keys == null) {
             keys = new ArrayList<String>(identification.getProteinIdentification());
         }
-        int line = 1;
+
+        startSection(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, keys, nSurroundingAas, validatedOnly, decoys, nThreads, waitingHandler);
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Exporting. Please Wait...");
@@ -158,23 +207,120 @@ public class PsProteinSection {
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(
                 keys, parameters, peptideSection != null, parameters, peptideSection != null, parameters, waitingHandler); // @TODO: find a better way to know if we need psms
 
-        while (proteinMatchesIterator.hasNext()) {
+        try {
+            while (proteinMatchesIterator.hasNext()) {
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
+
+                writeMatch(proteinMatchesIterator.next());
             }
+            endSection();
+        } finally {
+            cancelSection();
+        }
+    }
 
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
+    /**
+     * Starts writing the section: writes the header if needed and prepares
+     * the writing of the matches. The matches are then given one by one to
+     * writeMatch and the section is completed by endSection. This allows
+     * writing several sections from a single iteration of the matches.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param geneMaps the gene maps
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the protein matches to output
+     * @param nSurroundingAas in case a peptide export is included with
+     * surrounding amino-acids, the number of surrounding amino acids to use
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a peptide subsection the rows are written on the calling
+     * thread.
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void startSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
+            int nSurroundingAas, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler) throws IOException {
 
-            if (decoys || !ProteinMatch.isDecoy(proteinKey)) {
+        this.identification = identification;
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.geneMaps = geneMaps;
+        this.shotgunProtocol = shotgunProtocol;
+        this.identificationParameters = identificationParameters;
+        this.keys = keys;
+        this.nSurroundingAas = nSurroundingAas;
+        this.validatedOnly = validatedOnly;
+        this.decoys = decoys;
+        this.waitingHandler = waitingHandler;
+        line = 1;
 
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+        if (header) {
+            writeHeader();
+        }
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        // without subsection the rows can be formatted in parallel
+        if (peptideSection == null && nThreads > 1) {
+            rowsWriter = new SectionRowsWriter<ProteinMatch>(writer, nThreads) {
+                @Override
+                protected String[] getRow(ProteinMatch proteinMatch) throws Exception {
+                    String proteinKey = proteinMatch.getKey();
+                    PSParameter psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter());
+                    String[] row = new String[proteinFeatures.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getFeature(identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, keys, nSurroundingAas,
+                                proteinKey, proteinMatch, psParameter, proteinFeatures.get(i), waitingHandler);
+                    }
+                    return row;
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes the line of a protein match if it passes the validation and
+     * decoy filters of the section. See startSection.
+     *
+     * @param proteinMatch the protein match to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error is encountered while calculating the observable coverage
+     */
+    public void writeMatch(ProteinMatch proteinMatch)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        String proteinKey = proteinMatch.getKey();
+
+        if (decoys || !ProteinMatch.isDecoy(proteinKey)) {
+
+            PSParameter psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter());
+
+            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+
+                if (rowsWriter != null) {
+                    rowsWriter.addRow(proteinMatch, indexes ? line + "" : null);
+                } else {
 
                     boolean first = true;
 
@@ -198,18 +344,64 @@ public class PsProteinSection {
                         if (waitingHandler != null) {
                             waitingHandler.setDisplayProgress(false);
                         }
-                        peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, waitingHandler);
+                        peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, 1, waitingHandler);
                         if (waitingHandler != null) {
                             waitingHandler.setDisplayProgress(true);
                         }
                         writer.decreseDepth();
                     }
-                    line++;
                 }
+                line++;
             }
         }
     }
 
+    /**
+     * Writes the rows remaining after the last match and stops the workers.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void endSection() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        if (rowsWriter != null) {
+            try {
+                rowsWriter.flush();
+            } finally {
+                cancelSection();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers of the section if any, the rows not written yet are
+     * discarded.
+     */
+    public void cancelSection() {
+        if (rowsWriter != null) {
+            rowsWriter.shutdown();
+            rowsWriter = null;
+        }
+    }
+
+    /**
+     * Indicates whether the section contains a peptide subsection, in which
+     * case the peptides and PSMs of the protein matches are needed.
+     *
+     * @return a boolean indicating whether the section contains a peptide
+     * subsection
+     */
+    public boolean hasSubsection() {
+        return peptideSection != null;
+    }
+
     /**
      * Returns the part of the desired section.
      *
@@ -66,6 +66,55 @@ public class PsPsmSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The writer of the rows formatted in parallel, null if the rows are
+     * written on the calling thread.
+     */
+    private SectionRowsWriter<SpectrumMatch> rowsWriter = null;
+    /**
+     * The index of the next line.
+     */
+    private int line;
+    /**
+     * The identification of the section being written.
+     */
+    private Identification identification;
+    /**
+     * The identification features generator of the section being written.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The shotgun protocol of the section being written.
+     */
+    private ShotgunProtocol shotgunProtocol;
+    /**
+     * The identification parameters of the section being written.
+     */
+    private IdentificationParameters identificationParameters;
+    /**
+     * The keys of the PSMs of the section being written.
+     */
+    private ArrayList<String> keys;
+    /**
+     * The line prefix of the section being written.
+     */
+    private String linePrefix;
+    /**
+     * The number of surrounding amino acids of the section being written.
+     */
+    private int nSurroundingAA;
+    /**
+     * Indicates whether only validated matches are written.
+     */
+    private boolean validatedOnly;
+    /**
+     * Indicates whether decoy matches are written.
+     */
+    private boolean decoys;
+    /**
+     * The waiting handler of the section being written.
+     */
+    private WaitingHandler waitingHandler;
 
     /**
      * Constructor.
@@ -111,6 +160,9 @@ public class PsPsmSection {
      * @param nSurroundingAA the number of surrounding amino acids to export
      * @param validatedOnly whether only validated matches should be exported
      * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a fragment subsection the rows are written on the
+     * calling thread.
      * @param waitingHandler the waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -126,32 +178,17 @@ public class PsPsmSection {
      */
     public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
-            String linePrefix, int nSurroundingAA, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler)
+            String linePrefix, int nSurroundingAA, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        if (header) {
-            writeHeader();
-        }
-
-        HashMap<String, HashSet<String>> psmMap = new HashMap<String, HashSet<String>>();
+        startSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, nSurroundingAA, validatedOnly, decoys, nThreads, waitingHandler);
 
-        if (keys == null) {
-            psmMap = identification.getSpectrumIdentificationMap();
-        } else {
-            for (String key : keys) {
-                String fileName = Spectrum.getSpectrumFile(key);
-                if (!psmMap.containsKey(fileName)) {
-                    psmMap.put(fileName, new HashSet<String>());
-                }
-                psmMap.get(fileName).add(key);
-            }
-        }
+        HashMap<String, HashSet<String>> psmMap = getPsmMap(identification, keys);
 
-        int line = 1;
         int totalSize = 0;
 
         for (String spectrumFile : psmMap.keySet()) {
@@ -168,93 +205,273 @@ public class PsPsmSection {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
 
-        for (String spectrumFile : psmMap.keySet()) {
+        try {
+            for (String spectrumFile : psmMap.keySet()) {
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, new ArrayList<String>(
-                    psmMap.get(spectrumFile)), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, new ArrayList<String>(
+                        psmMap.get(spectrumFile)), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
 
-            while (psmIterator.hasNext()) {
+                while (psmIterator.hasNext()) {
 
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
                     }
-                    waitingHandler.increaseSecondaryProgressCounter();
+
+                    writeMatch(psmIterator.next());
                 }
+            }
+            endSection();
+        } finally {
+            cancelSection();
+        }
+    }
+
+    /**
+     * Returns the keys of the PSMs to export indexed by spectrum file.
+     *
+     * @param identification the identification of the project
+     * @param keys the keys of the PSM matches to output, if null all PSMs
+     *
+     * @return the keys of the PSMs to export indexed by spectrum file
+     */
+    public static HashMap<String, HashSet<String>> getPsmMap(Identification identification, ArrayList<String> keys) {
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+        HashMap<String, HashSet<String>> psmMap = new HashMap<String, HashSet<String>>();
 
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+        if (keys == null) {
+            psmMap = identification.getSpectrumIdentificationMap();
+        } else {
+            for (String key : keys) {
+                String fileName = Spectrum.getSpectrumFile(key);
+                if (!psmMap.containsKey(fileName)) {
+                    psmMap.put(fileName, new HashSet<String>());
+                }
+                psmMap.get(fileName).add(key);
+            }
+        }
+
+        return psmMap;
+    }
+
+    /**
+     * Starts writing the section: writes the header if needed and prepares
+     * the writing of the matches. The matches are then given one by one to
+     * writeMatch and the section is completed by endSection. This allows
+     * writing several sections from a single iteration of the matches.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use to format the rows. If one
+     * or if there is a fragment subsection the rows are written on the
+     * calling thread.
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void startSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
+            String linePrefix, int nSurroundingAA, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler) throws IOException {
+
+        this.identification = identification;
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.shotgunProtocol = shotgunProtocol;
+        this.identificationParameters = identificationParameters;
+        this.keys = keys;
+        this.linePrefix = linePrefix;
+        this.nSurroundingAA = nSurroundingAA;
+        this.validatedOnly = validatedOnly;
+        this.decoys = decoys;
+        this.waitingHandler = waitingHandler;
+        line = 1;
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        if (header) {
+            writeHeader();
+        }
 
+        // without subsection the rows can be formatted in parallel
+        if (fragmentSection == null && nThreads > 1) {
+            rowsWriter = new SectionRowsWriter<SpectrumMatch>(writer, nThreads) {
+                @Override
+                protected String[] getRow(SpectrumMatch spectrumMatch) throws Exception {
+                    String spectrumKey = spectrumMatch.getKey();
+                    PSParameter psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
                     PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                    String[] row = new String[identificationAlgorithmMatchesFeatures.size() + psmFeatures.size()];
+                    int i = 0;
+                    for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+                        if (peptideAssumption != null) {
+                            row[i++] = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator,
+                                    shotgunProtocol, identificationParameters, keys, linePrefix, nSurroundingAA, peptideAssumption, spectrumKey,
+                                    psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+                        } else if (spectrumMatch.getBestTagAssumption() != null) {
+                            row[i++] = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator,
+                                    shotgunProtocol, identificationParameters, keys, linePrefix, spectrumMatch.getBestTagAssumption(), spectrumKey, psParameter,
+                                    identificationAlgorithmMatchesFeature, waitingHandler);
+                        } else {
+                            throw new IllegalArgumentException("No best match found for spectrum " + spectrumKey + ".");
+                        }
+                    }
+                    for (PsPsmFeature psmFeature : psmFeatures) {
+                        row[i++] = getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                                keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler);
+                    }
+                    return row;
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes the line of a spectrum match if it passes the validation and
+     * decoy filters of the section. See startSection.
+     *
+     * @param spectrumMatch the spectrum match to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void writeMatch(SpectrumMatch spectrumMatch) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-                    if (decoys || peptideAssumption == null || !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+        String spectrumKey = spectrumMatch.getKey();
+        PSParameter psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
 
-                        boolean first = true;
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                        if (indexes) {
-                            if (linePrefix != null) {
-                                writer.write(linePrefix);
-                            }
-                            writer.write(line + "");
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+            if (decoys || peptideAssumption == null || !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+
+                if (rowsWriter != null) {
+                    rowsWriter.addRow(spectrumMatch, indexes ? (linePrefix != null ? linePrefix : "") + line : null);
+                } else {
+                    boolean first = true;
+
+                    if (indexes) {
+                        if (linePrefix != null) {
+                            writer.write(linePrefix);
+                        }
+                        writer.write(line + "");
+                        first = false;
+                    }
+                    for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+                        if (!first) {
+                            writer.addSeparator();
+                        } else {
                             first = false;
                         }
-                        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            String feature;
-                            if (peptideAssumption != null) {
-                                peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator,
-                                        shotgunProtocol, identificationParameters, keys, linePrefix, nSurroundingAA, peptideAssumption, spectrumMatch.getKey(),
-                                        psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else if (spectrumMatch.getBestTagAssumption() != null) {
-                                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator,
-                                        shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, spectrumMatch.getKey(), psParameter,
-                                        identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else {
-                                throw new IllegalArgumentException("No best match found for spectrum " + spectrumMatch.getKey() + ".");
-                            }
-                            writer.write(feature);
+                        String feature;
+                        if (peptideAssumption != null) {
+                            peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                            feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator,
+                                    shotgunProtocol, identificationParameters, keys, linePrefix, nSurroundingAA, peptideAssumption, spectrumMatch.getKey(),
+                                    psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+                        } else if (spectrumMatch.getBestTagAssumption() != null) {
+                            TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
+                            feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator,
+                                    shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, spectrumMatch.getKey(), psParameter,
+                                    identificationAlgorithmMatchesFeature, waitingHandler);
+                        } else {
+                            throw new IllegalArgumentException("No best match found for spectrum " + spectrumMatch.getKey() + ".");
                         }
-                        for (PsPsmFeature psmFeature : psmFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            writer.write(getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
-                                    keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler));
+                        writer.write(feature);
+                    }
+                    for (PsPsmFeature psmFeature : psmFeatures) {
+                        if (!first) {
+                            writer.addSeparator();
+                        } else {
+                            first = false;
                         }
-                        writer.newLine();
-                        if (fragmentSection != null) {
-                            String fractionPrefix = "";
-                            if (linePrefix != null) {
-                                fractionPrefix += linePrefix;
-                            }
-                            fractionPrefix += line + ".";
-                            writer.increaseDepth();
-                            if (spectrumMatch.getBestPeptideAssumption() != null) {
-                                fragmentSection.writeSection(spectrumKey, spectrumMatch.getBestPeptideAssumption(), shotgunProtocol, identificationParameters, fractionPrefix, null);
-                            } else if (spectrumMatch.getBestTagAssumption() != null) {
-                                fragmentSection.writeSection(spectrumKey, spectrumMatch.getBestTagAssumption(), shotgunProtocol, identificationParameters, fractionPrefix, null);
-                            }
-                            writer.decreseDepth();
+                        writer.write(getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                                keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler));
+                    }
+                    writer.newLine();
+                    if (fragmentSection != null) {
+                        String fractionPrefix = "";
+                        if (linePrefix != null) {
+                            fractionPrefix += linePrefix;
+                        }
+                        fractionPrefix += line + ".";
+                        writer.increaseDepth();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            fragmentSection.writeSection(spectrumKey, spectrumMatch.getBestPeptideAssumption(), shotgunProtocol, identificationParameters, fractionPrefix, null);
+                        } else if (spectrumMatch.getBestTagAssumption() != null) {
+                            fragmentSection.writeSection(spectrumKey, spectrumMatch.getBestTagAssumption(), shotgunProtocol, identificationParameters, fractionPrefix, null);
                         }
-                        line++;
+                        writer.decreseDepth();
                     }
                 }
+                line++;
             }
         }
     }
 
+    /**
+     * Writes the rows remaining after the last match and stops the workers.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void endSection() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        if (rowsWriter != null) {
+            try {
+                rowsWriter.flush();
+            } finally {
+                cancelSection();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers of the section if any, the rows not written yet are
+     * discarded.
+     */
+    public void cancelSection() {
+        if (rowsWriter != null) {
+            rowsWriter.shutdown();
+            rowsWriter = null;
+        }
+    }
+
+    /**
+     * Indicates whether the section exports features of the identification
+     * algorithm matches, in which case the assumptions of the spectrum matches
+     * are needed.
+     *
+     * @return a boolean indicating whether the assumptions of the spectrum
+     * matches are needed
+     */
+    public boolean needsAssumptions() {
+        return !identificationAlgorithmMatchesFeatures.isEmpty();
+    }
+
     /**
      * Writes the given feature of the current section.
      *
@@ -0,0 +1,218 @@
+package eu.isas.peptideshaker.export.sections;
+
+import com.compomics.util.io.export.ExportWriter;
+import eu.isas.peptideshaker.utils.OrderedResultsWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Writes the rows of a section where the features of the matches are
+ * formatted by parallel workers. Matches are sent in blocks to the workers
+ * and the rows are written in the order the matches were added.
+ *
+ * @param <T> the type of match exported in the rows
+ *
+ * @author Marc Vaudel
+ */
+public abstract class SectionRowsWriter<T> {
+
+    /**
+     * The number of rows formatted by a worker at a time.
+     */
+    private static final int blockSize = 100;
+    /**
+     * The writer used to send the output to file.
+     */
+    private final ExportWriter writer;
+    /**
+     * Writer of the blocks of rows in the order of submission.
+     */
+    private final OrderedResultsWriter<ArrayList<String[]>> blocksWriter;
+    /**
+     * The matches of the block being filled.
+     */
+    private ArrayList<T> blockMatches = new ArrayList<T>(blockSize);
+    /**
+     * The line indexes of the block being filled, null elements for
+     * non-indexed lines.
+     */
+    private ArrayList<String> blockIndexes = new ArrayList<String>(blockSize);
+
+    /**
+     * Constructor.
+     *
+     * @param writer the writer which will write to the file
+     * @param nWorkers the number of workers to use to format the rows
+     */
+    public SectionRowsWriter(ExportWriter writer, int nWorkers) {
+        this.writer = writer;
+        blocksWriter = new OrderedResultsWriter<ArrayList<String[]>>(nWorkers) {
+            @Override
+            protected void write(ArrayList<String[]> rows, int nItems) throws IOException {
+                writeRows(rows);
+            }
+        };
+    }
+
+    /**
+     * Returns the features of the row of a match. This method is called from
+     * the worker threads.
+     *
+     * @param match the match to export
+     *
+     * @return the features of the row
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * getting a feature, rethrown on the writing thread
+     */
+    protected abstract String[] getRow(T match) throws Exception;
+
+    /**
+     * Adds a row to write. Blocks of rows are written as soon as the queue of
+     * the workers is full.
+     *
+     * @param match the match to export
+     * @param index the index of the line, null if not indexed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a row or getting a feature
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public void addRow(T match, String index) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        blockMatches.add(match);
+        blockIndexes.add(index);
+        if (blockMatches.size() == blockSize) {
+            submitBlock();
+        }
+    }
+
+    /**
+     * Writes all remaining rows.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a row or getting a feature
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public void flush() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        if (!blockMatches.isEmpty()) {
+            submitBlock();
+        }
+        blocksWriter.flush();
+    }
+
+    /**
+     * Stops the workers. Rows not flushed are discarded.
+     */
+    public void shutdown() {
+        blocksWriter.shutdown();
+    }
+
+    /**
+     * Sends the block being filled to the workers, writing the oldest block
+     * first if the queue is full.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a row or getting a feature
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    private void submitBlock() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        blocksWriter.submit(new RowsBlockCallable(blockMatches, blockIndexes), blockMatches.size());
+        blockMatches = new ArrayList<T>(blockSize);
+        blockIndexes = new ArrayList<String>(blockSize);
+    }
+
+    /**
+     * Writes the rows of a block.
+     *
+     * @param rows the rows of the block
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a row
+     */
+    private void writeRows(ArrayList<String[]> rows) throws IOException {
+
+        for (String[] row : rows) {
+            boolean first = true;
+            for (String feature : row) {
+                if (!first) {
+                    writer.addSeparator();
+                } else {
+                    first = false;
+                }
+                writer.write(feature);
+            }
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Callable formatting the rows of a block of matches.
+     *
+     * @author Marc Vaudel
+     */
+    private class RowsBlockCallable implements Callable<ArrayList<String[]>> {
+
+        /**
+         * The matches of the block.
+         */
+        private final ArrayList<T> matches;
+        /**
+         * The line indexes of the block.
+         */
+        private final ArrayList<String> indexes;
+
+        /**
+         * Constructor.
+         *
+         * @param matches the matches of the block
+         * @param indexes the line indexes of the block, null elements for
+         * non-indexed lines
+         */
+        public RowsBlockCallable(ArrayList<T> matches, ArrayList<String> indexes) {
+            this.matches = matches;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public ArrayList<String[]> call() throws Exception {
+            ArrayList<String[]> rows = new ArrayList<String[]>(matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                String[] features = getRow(matches.get(i));
+                String index = indexes.get(i);
+                if (index != null) {
+                    String[] row = new String[features.length + 1];
+                    row[0] = index;
+                    System.arraycopy(features, 0, row, 1, features.length);
+                    rows.add(row);
+                } else {
+                    rows.add(features);
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -99,6 +99,13 @@ public class FileImporter {
      * resolution in X!Tandem result files.
      */
     public static final double PTM_MASS_TOLERANCE = 0.01;
+    /**
+     * The maximal number of spectrum matches mapped and imported at once.
+     * Files containing more matches are processed in batches of this size so
+     * that the peptide maps and import tasks of a file never need to be held
+     * in memory all at the same time.
+     */
+    public static final int PSM_IMPORT_BATCH_SIZE = 10000;
     /**
      * The shotgun protocol.
      */
@@ -759,48 +766,76 @@ public class FileImporter {
                             tagMapper.mapTags(fileReader, identification, waitingHandler, processingPreferences.getnThreads());
                         }
 
-                        // Batch map the peptides on protein sequences
-                        if (peptideMapper != null && !peptideMapper.isCanceled()) {
-                            try {
-                                // Get map of peptides likely to need protein mapping
-                                waitingHandler.resetSecondaryProgressCounter();
-                                waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
-                                waitingHandler.appendReport("Collecting peptides to map.", true, true);
-                                HashMap<String, LinkedList<Peptide>> peptideMap = PeptideMapper.getPeptideMap(fileReader, idFileSpectrumMatches, identification, identificationParameters, waitingHandler);
-                                if (!peptideMapper.isCanceled()) {
-                                    peptideMapper.mapPeptides(peptideMap, processingPreferences.getnThreads(), waitingHandler);
+                        PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), shotgunProtocol, identificationParameters, processingPreferences, fileReader, idFile, identification,
+                                inputMap, proteinCount, singleProteinList, exceptionHandler);
+
+                        // large files are mapped and imported batch by batch
+                        boolean batched = numberOfMatches > PSM_IMPORT_BATCH_SIZE;
+                        if (batched) {
+                            waitingHandler.resetSecondaryProgressCounter();
+                            waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                            waitingHandler.appendReport("Importing PSMs from " + idFile.getName() + " in batches of " + PSM_IMPORT_BATCH_SIZE + ".", true, true);
+                        }
+
+                        while (!idFileSpectrumMatches.isEmpty()) {
+
+                            LinkedList<SpectrumMatch> batch;
+                            if (batched) {
+                                batch = new LinkedList<SpectrumMatch>();
+                                while (batch.size() < PSM_IMPORT_BATCH_SIZE && !idFileSpectrumMatches.isEmpty()) {
+                                    batch.add(idFileSpectrumMatches.pollFirst());
                                 }
-                                if (peptideMapper.isCanceled()) {
-                                    peptideMap.clear();
+                            } else {
+                                batch = idFileSpectrumMatches;
+                            }
+
+                            // Batch map the peptides on protein sequences
+                            if (peptideMapper != null && !peptideMapper.isCanceled()) {
+                                try {
+                                    // Get map of peptides likely to need protein mapping
+                                    WaitingHandler mappingWaitingHandler = null;
+                                    if (!batched) {
+                                        mappingWaitingHandler = waitingHandler;
+                                        waitingHandler.resetSecondaryProgressCounter();
+                                        waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                                        waitingHandler.appendReport("Collecting peptides to map.", true, true);
+                                    }
+                                    HashMap<String, LinkedList<Peptide>> peptideMap = PeptideMapper.getPeptideMap(fileReader, batch, identification, identificationParameters, mappingWaitingHandler);
+                                    if (!peptideMapper.isCanceled()) {
+                                        peptideMapper.mapPeptides(peptideMap, processingPreferences.getnThreads(), waitingHandler, !batched);
+                                    }
+                                    if (peptideMapper.isCanceled()) {
+                                        peptideMap.clear();
+                                    }
+                                } catch (OutOfMemoryError e) {
+                                    // Skip batch mapping and empty caches
+                                    SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                                    if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
+                                        ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
+                                        sequenceFactory.getDefaultPeptideMapper().emptyCache();
+                                    }
+                                    peptideMapper.setCanceled(true);
                                 }
-                            } catch (OutOfMemoryError e) {
-                                // Skip batch mapping and empty caches
+                            }
+                            // empty protein caches
+                            if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
                                 SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
                                 if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
                                     ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
-                                    sequenceFactory.getDefaultPeptideMapper().emptyCache();
+                                    sequenceFactory.emptyCache();
                                 }
-                                peptideMapper.setCanceled(true);
                             }
-                        }
-                        // empty protein caches
-                        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
-                            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-                            if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
-                                ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
-                                sequenceFactory.emptyCache();
-                            }
-                        }
 
-                        waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
-                        waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
+                            if (!batched) {
+                                waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                                waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
+                            }
 
-                        PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), shotgunProtocol, identificationParameters, processingPreferences, fileReader, idFile, identification,
-                                inputMap, proteinCount, singleProteinList, exceptionHandler);
-                        psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                            psmImporter.importPsms(batch, processingPreferences.getnThreads(), waitingHandler);
 
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                            if (waitingHandler.isRunCanceled()) {
+                                return;
+                            }
                         }
 
                         nPSMs += psmImporter.getnPSMs();
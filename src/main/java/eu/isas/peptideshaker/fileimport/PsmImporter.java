@@ -197,6 +197,11 @@ public class PsmImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The number of spectrum matches an import thread takes from the list at
+     * once.
+     */
+    public static final int BATCH_SIZE = 100;
 
     /**
      * Constructor.
@@ -283,9 +288,8 @@ public class PsmImporter {
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        while (!idFileSpectrumMatches.isEmpty()) {
-            SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(match, waitingHandler);
+        for (int i = 1; i <= nThreads; i++) {
+            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(idFileSpectrumMatches, waitingHandler);
             pool.submit(psmImporterRunnable);
             if (waitingHandler.isRunCanceled()) {
                 pool.shutdownNow();
@@ -298,6 +302,25 @@ public class PsmImporter {
         }
     }
 
+    /**
+     * Removes the next batch of spectrum matches to import from the given
+     * list. The batch is emptied before being filled.
+     *
+     * @param idFileSpectrumMatches the PSMs left to import
+     * @param batch the list where to store the batch
+     *
+     * @return false if no match was left to import
+     */
+    private static boolean getNextBatch(LinkedList<SpectrumMatch> idFileSpectrumMatches, ArrayList<SpectrumMatch> batch) {
+        batch.clear();
+        synchronized (idFileSpectrumMatches) {
+            while (batch.size() < BATCH_SIZE && !idFileSpectrumMatches.isEmpty()) {
+                batch.add(idFileSpectrumMatches.pollLast());
+            }
+        }
+        return !batch.isEmpty();
+    }
+
     /**
      * Imports PSMs using a single thread
      *
@@ -1433,14 +1456,20 @@ public class PsmImporter {
     }
 
     /**
-     * Private runnable to import PSMs.
+     * Private runnable to import PSMs. The runnable imports batches of spectrum
+     * matches taken from the shared list until the list is empty.
      */
     private class PsmImporterRunnable implements Runnable {
 
         /**
-         * The spectrum match to import.
+         * The spectrum matches left to import, shared between the runnables.
          */
-        private SpectrumMatch spectrumMatch;
+        private LinkedList<SpectrumMatch> idFileSpectrumMatches;
+
+        /**
+         * The batch of matches currently imported by this thread.
+         */
+        private ArrayList<SpectrumMatch> batch = new ArrayList<SpectrumMatch>(BATCH_SIZE);
 
         /**
          * The waiting handler.
@@ -1456,12 +1485,13 @@ public class PsmImporter {
         /**
          * Constructor.
          *
-         * @param spectrumMatch the match to import
+         * @param idFileSpectrumMatches the matches to import, shared between
+         * the runnables
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          */
-        public PsmImporterRunnable(SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) {
-            this.spectrumMatch = spectrumMatch;
+        public PsmImporterRunnable(LinkedList<SpectrumMatch> idFileSpectrumMatches, WaitingHandler waitingHandler) {
+            this.idFileSpectrumMatches = idFileSpectrumMatches;
             this.waitingHandler = waitingHandler;
         }
 
@@ -1469,9 +1499,15 @@ public class PsmImporter {
         public void run() {
 
             try {
-                if (!waitingHandler.isRunCanceled()) {
-                    importPsm(spectrumMatch, peptideSpectrumAnnotator, waitingHandler);
+                while (!waitingHandler.isRunCanceled() && getNextBatch(idFileSpectrumMatches, batch)) {
+                    for (SpectrumMatch spectrumMatch : batch) {
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        importPsm(spectrumMatch, peptideSpectrumAnnotator, waitingHandler);
+                    }
                 }
+                batch.clear();
             } catch (Exception e) {
                 if (!waitingHandler.isRunCanceled()) {
                     exceptionHandler.catchException(e);
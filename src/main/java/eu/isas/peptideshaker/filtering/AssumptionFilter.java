@@ -19,6 +19,7 @@ import com.compomics.util.math.statistics.distributions.NonSymmetricalNormalDist
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.items.AssumptionFilterItem;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
@@ -97,9 +98,15 @@ public class AssumptionFilter extends MatchFilter {
     @Override
     public boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String spectrumKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+        return isValidated(compileItem(itemName, filterItemComparator, value), spectrumKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+    }
+
+    @Override
+    protected boolean isValidated(CompiledFilterItem compiledItem, String spectrumKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
         SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
         PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-        return isValidated(itemName, filterItemComparator, value, spectrumKey, peptideAssumption, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+        return isValidated(compiledItem, spectrumKey, peptideAssumption, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
     }
 
     /**
@@ -136,17 +143,15 @@ public class AssumptionFilter extends MatchFilter {
     public boolean isValidated(String matchKey, PeptideAssumption peptideAssumption, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        if (exceptions.contains(matchKey)) {
+        if (isException(matchKey)) {
             return false;
         }
 
-        if (manualValidation.contains(matchKey)) {
+        if (isManuallyValidated(matchKey)) {
             return true;
         }
-        for (String itemName : valuesMap.keySet()) {
-            FilterItemComparator filterItemComparator = comparatorsMap.get(itemName);
-            Object value = valuesMap.get(itemName);
-            if (!isValidated(itemName, filterItemComparator, value, matchKey, peptideAssumption, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator)) {
+        for (CompiledFilterItem compiledItem : getCompiledItems()) {
+            if (!isValidated(compiledItem, matchKey, peptideAssumption, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator)) {
                 return false;
             }
         }
@@ -191,46 +196,83 @@ public class AssumptionFilter extends MatchFilter {
      */
     public boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String spectrumKey, PeptideAssumption peptideAssumption, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+        return isValidated(compileItem(itemName, filterItemComparator, value), spectrumKey, peptideAssumption, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+    }
 
-        AssumptionFilterItem filterItem = AssumptionFilterItem.getItem(itemName);
-        if (filterItem == null) {
-            throw new IllegalArgumentException("Filter item " + itemName + "not recognized as spectrum assumption filter item.");
+    /**
+     * Indicates whether the match designated by the match key validates the
+     * given compiled item.
+     *
+     * @param compiledItem the compiled item
+     * @param spectrumKey the key of the match of interest
+     * @param peptideAssumption the assumption to validate
+     * @param identification the identification objects where to get
+     * identification matches from
+     * @param identificationFeaturesGenerator the identification feature
+     * generator where to get identification features
+     * @param shotgunProtocol information on the protocol used
+     * @param identificationParameters the identification parameters used
+     * @param peptideSpectrumAnnotator the annotator to use to annotate spectra
+     * when filtering on PSM or assumptions
+     *
+     * @return a boolean indicating whether the match designated by the key
+     * validates the given item
+     *
+     * @throws java.io.IOException exception thrown whenever an exception
+     * occurred while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while validating that the match passes the
+     * filter
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserilalizing a match
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    protected boolean isValidated(CompiledFilterItem compiledItem, String spectrumKey, PeptideAssumption peptideAssumption, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+
+        if (!(compiledItem.filterItem instanceof AssumptionFilterItem)) {
+            throw new IllegalArgumentException("Filter item " + compiledItem.itemName + "not recognized as spectrum assumption filter item.");
         }
-        String input = value.toString();
+        AssumptionFilterItem filterItem = (AssumptionFilterItem) compiledItem.filterItem;
+        FilterItemComparator filterItemComparator = compiledItem.comparator;
+        String input = compiledItem.input;
         switch (filterItem) {
             case precrusorMz:
                 Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                Double mz = precursor.getMz();
-                return filterItemComparator.passes(input, mz.toString());
+                return passes(compiledItem, precursor.getMz());
             case precrusorRT:
                 precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                Double rt = precursor.getRt();
-                return filterItemComparator.passes(input, rt.toString());
+                return passes(compiledItem, precursor.getRt());
             case precrusorCharge:
-                Integer charge = peptideAssumption.getIdentificationCharge().value;
-                return filterItemComparator.passes(input, charge.toString());
+                int charge = peptideAssumption.getIdentificationCharge().value;
+                return passes(compiledItem, charge);
             case precrusorMzErrorDa:
                 precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                 SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                Double mzError = Math.abs(peptideAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                return filterItemComparator.passes(input, mzError.toString());
+                double mzError = Math.abs(peptideAssumption.getDeltaMass(precursor.getMz(), false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+                return passes(compiledItem, mzError);
             case precrusorMzErrorPpm:
                 searchParameters = identificationParameters.getSearchParameters();
                 precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                 mzError = Math.abs(peptideAssumption.getDeltaMass(precursor.getMz(), true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                return filterItemComparator.passes(input, mzError.toString());
+                return passes(compiledItem, mzError);
             case precrusorMzErrorStat:
                 searchParameters = identificationParameters.getSearchParameters();
                 precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                 mzError = peptideAssumption.getDeltaMass(precursor.getMz(), identificationParameters.getSearchParameters().isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
                 NonSymmetricalNormalDistribution precDeviationDistribution = identificationFeaturesGenerator.getMassErrorDistribution(Spectrum.getSpectrumFile(spectrumKey));
-                Double p;
+                double p;
                 if (mzError > precDeviationDistribution.getMean()) {
                     p = precDeviationDistribution.getDescendingCumulativeProbabilityAt(mzError);
                 } else {
                     p = precDeviationDistribution.getCumulativeProbabilityAt(mzError);
                 }
-                return filterItemComparator.passes(input, p.toString());
+                return passes(compiledItem, p);
             case sequenceCoverage:
                 SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
                 MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
@@ -246,21 +288,21 @@ public class AssumptionFilter extends MatchFilter {
                         nCovered++;
                     }
                 }
-                Double coverage = 100.0 * nCovered / nAA;
-                return filterItemComparator.passes(input, coverage.toString());
+                double coverage = 100.0 * nCovered / nAA;
+                return passes(compiledItem, coverage);
             case algorithmScore:
                 Double score = peptideAssumption.getRawScore();
                 if (score == null) {
                     score = peptideAssumption.getScore();
                 }
-                return filterItemComparator.passes(input, score.toString());
+                return passes(compiledItem, score);
             case fileNames:
                 return filterItemComparator.passes(input, Spectrum.getSpectrumFile(spectrumKey));
             case confidence:
                 PSParameter psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(spectrumKey, psParameter);
-                Double confidence = psParameter.getProteinConfidence();
-                return filterItemComparator.passes(input, confidence.toString());
+                double confidence = psParameter.getProteinConfidence();
+                return passes(compiledItem, confidence);
             case validationStatus:
                 psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(spectrumKey, psParameter);
@@ -290,4 +332,38 @@ public class AssumptionFilter extends MatchFilter {
     public FilterItem getFilterItem(String itemName) {
         return AssumptionFilterItem.getItem(itemName);
     }
+
+    @Override
+    protected void loadMatches(ArrayList<String> matchKeys, CompiledFilterItem[] compiledItems, Identification identification, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        if (compiledItems.length > 0) {
+            identification.loadSpectrumMatches(matchKeys, waitingHandler, false);
+        }
+    }
+
+    @Override
+    protected int getItemCost(FilterItem filterItem) {
+        if (!(filterItem instanceof AssumptionFilterItem)) {
+            return Integer.MAX_VALUE;
+        }
+        switch ((AssumptionFilterItem) filterItem) {
+            case precrusorCharge:
+            case algorithmScore:
+            case fileNames:
+                return 0;
+            case confidence:
+            case validationStatus:
+            case stared:
+                return 1;
+            case precrusorMz:
+            case precrusorRT:
+            case precrusorMzErrorDa:
+            case precrusorMzErrorPpm:
+                return 2;
+            case precrusorMzErrorStat:
+                return 3;
+            default:
+                return 4;
+        }
+    }
 }
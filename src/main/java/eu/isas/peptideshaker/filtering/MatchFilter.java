@@ -9,11 +9,14 @@ import com.compomics.util.experiment.filtering.FilterItem;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import org.apache.commons.math.MathException;
@@ -74,6 +77,30 @@ public abstract class MatchFilter implements Serializable, Filter {
      * Map of the values to filter on.
      */
     protected HashMap<String, Object> valuesMap = new HashMap<String, Object>();
+    /**
+     * The filter items compiled for evaluation, cheapest first. Null if the
+     * items changed since they were last compiled.
+     */
+    private transient volatile CompiledFilterItem[] compiledItems = null;
+    /**
+     * The exceptions in a hash set. Null if the exceptions changed since the
+     * set was last built.
+     */
+    private transient volatile HashSet<String> exceptionsSet = null;
+    /**
+     * The manually validated matches in a hash set. Null if the manual
+     * validation changed since the set was last built.
+     */
+    private transient volatile HashSet<String> manualValidationSet = null;
+    /**
+     * The number of exceptions when the exceptions set was built.
+     */
+    private transient int exceptionsSize = 0;
+    /**
+     * The number of manually validated matches when the manual validation set
+     * was built.
+     */
+    private transient int manualValidationSize = 0;
 
     /**
      * Enum for the type of possible filter.
@@ -232,6 +259,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void addManualValidation(String matchKey) {
         manualValidation.add(matchKey);
+        manualValidationSet = null;
     }
 
     /**
@@ -241,6 +269,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void setManualValidation(ArrayList<String> manualValidation) {
         this.manualValidation = manualValidation;
+        manualValidationSet = null;
     }
 
     /**
@@ -250,6 +279,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void addException(String matchKey) {
         exceptions.add(matchKey);
+        exceptionsSet = null;
     }
 
     /**
@@ -259,6 +289,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void setExceptions(ArrayList<String> exceptions) {
         this.exceptions = exceptions;
+        exceptionsSet = null;
     }
 
     /**
@@ -268,6 +299,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void removeManualValidation(String matchKey) {
         manualValidation.remove(matchKey);
+        manualValidationSet = null;
     }
 
     /**
@@ -277,6 +309,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void removeException(String matchKey) {
         exceptions.remove(matchKey);
+        exceptionsSet = null;
     }
 
     /**
@@ -313,6 +346,7 @@ public abstract class MatchFilter implements Serializable, Filter {
     public void removeFilterItem(String itemName) {
         comparatorsMap.remove(itemName);
         valuesMap.remove(itemName);
+        compiledItems = null;
     }
 
     /**
@@ -335,6 +369,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void setComparatorForItem(String itemName, FilterItemComparator filterItemComparator) {
         comparatorsMap.put(itemName, filterItemComparator);
+        compiledItems = null;
     }
     
     /**
@@ -345,6 +380,7 @@ public abstract class MatchFilter implements Serializable, Filter {
      */
     public void setValueForItem(String itemName, Object value) {
         valuesMap.put(itemName, value);
+        compiledItems = null;
     }
 
     /**
@@ -384,6 +420,7 @@ public abstract class MatchFilter implements Serializable, Filter {
     public void clear() {
         valuesMap.clear();
         comparatorsMap.clear();
+        compiledItems = null;
     }
 
     /**
@@ -419,23 +456,254 @@ public abstract class MatchFilter implements Serializable, Filter {
     public boolean isValidated(String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        if (exceptions.contains(matchKey)) {
+        if (isException(matchKey)) {
             return false;
         }
 
-        if (manualValidation.contains(matchKey)) {
+        if (isManuallyValidated(matchKey)) {
             return true;
         }
-        for (String itemName : valuesMap.keySet()) {
-            FilterItemComparator filterItemComparator = comparatorsMap.get(itemName);
-            Object value = valuesMap.get(itemName);
-            if (!isValidated(itemName, filterItemComparator, value, matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator)) {
+        for (CompiledFilterItem compiledItem : getCompiledItems()) {
+            if (!isValidated(compiledItem, matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator)) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Tests whether the matches of a batch are validated by this filter. The
+     * matches and parameters needed by the filter items are loaded for the
+     * whole batch before filtering, and every item is evaluated over the
+     * matches which passed the previous items, cheapest item first.
+     *
+     * @param matchKeys the keys of the matches
+     * @param identification the identification where to get the information
+     * from
+     * @param geneMaps the gene maps
+     * @param identificationFeaturesGenerator the identification features
+     * generator providing identification features
+     * @param shotgunProtocol information on the protocol
+     * @param identificationParameters the identification parameters
+     * @param peptideSpectrumAnnotator the annotator to use to annotate spectra
+     * when filtering on psm or assumptions
+     * @param waitingHandler a waiting handler allowing the cancellation of the
+     * process, can be null
+     *
+     * @return an array indicating for every match, in the order of the given
+     * keys, whether it is validated by the filter
+     *
+     * @throws java.io.IOException exception thrown whenever an exception
+     * occurred while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while validating that the match passes the
+     * filter
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserilalizing a match
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    public boolean[] isValidated(ArrayList<String> matchKeys, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+
+        int nMatches = matchKeys.size();
+        boolean[] result = new boolean[nMatches];
+        int[] remaining = new int[nMatches];
+        int nRemaining = 0;
+
+        for (int i = 0; i < nMatches; i++) {
+            String matchKey = matchKeys.get(i);
+            if (!isException(matchKey)) {
+                if (isManuallyValidated(matchKey)) {
+                    result[i] = true;
+                } else {
+                    remaining[nRemaining++] = i;
+                }
+            }
+        }
+
+        CompiledFilterItem[] items = getCompiledItems();
+
+        if (nRemaining > 0 && items.length > 0) {
+            ArrayList<String> keysToLoad = new ArrayList<String>(nRemaining);
+            for (int j = 0; j < nRemaining; j++) {
+                keysToLoad.add(matchKeys.get(remaining[j]));
+            }
+            loadMatches(keysToLoad, items, identification, waitingHandler);
+        }
+
+        for (CompiledFilterItem compiledItem : items) {
+            int nPassed = 0;
+            for (int j = 0; j < nRemaining; j++) {
+                int i = remaining[j];
+                if (isValidated(compiledItem, matchKeys.get(i), identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator)) {
+                    remaining[nPassed++] = i;
+                }
+            }
+            nRemaining = nPassed;
+            if (nRemaining == 0 || waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+
+        for (int j = 0; j < nRemaining; j++) {
+            result[remaining[j]] = true;
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads in the identification cache the matches and parameters needed to
+     * evaluate the given items on the given matches.
+     *
+     * @param matchKeys the keys of the matches to load
+     * @param compiledItems the compiled items to evaluate
+     * @param identification the identification where to load the matches from
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @throws java.io.IOException exception thrown whenever an exception
+     * occurred while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while loading the matches
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserilalizing a match
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database
+     */
+    protected abstract void loadMatches(ArrayList<String> matchKeys, CompiledFilterItem[] compiledItems, Identification identification, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
+    /**
+     * Indicates whether the given match is an exception to the rule.
+     *
+     * @param matchKey the key of the match
+     *
+     * @return a boolean indicating whether the given match is an exception to
+     * the rule
+     */
+    protected boolean isException(String matchKey) {
+        HashSet<String> result = exceptionsSet;
+        if (result == null || exceptionsSize != exceptions.size()) {
+            result = new HashSet<String>(exceptions);
+            exceptionsSize = exceptions.size();
+            exceptionsSet = result;
+        }
+        return result.contains(matchKey);
+    }
+
+    /**
+     * Indicates whether the given match was manually validated.
+     *
+     * @param matchKey the key of the match
+     *
+     * @return a boolean indicating whether the given match was manually
+     * validated
+     */
+    protected boolean isManuallyValidated(String matchKey) {
+        HashSet<String> result = manualValidationSet;
+        if (result == null || manualValidationSize != manualValidation.size()) {
+            result = new HashSet<String>(manualValidation);
+            manualValidationSize = manualValidation.size();
+            manualValidationSet = result;
+        }
+        return result.contains(matchKey);
+    }
+
+    /**
+     * Returns the items of this filter compiled for evaluation and sorted by
+     * increasing cost.
+     *
+     * @return the compiled items of this filter
+     */
+    protected CompiledFilterItem[] getCompiledItems() {
+        CompiledFilterItem[] result = compiledItems;
+        if (result == null) {
+            ArrayList<CompiledFilterItem> items = new ArrayList<CompiledFilterItem>(valuesMap.size());
+            for (String itemName : valuesMap.keySet()) {
+                items.add(compileItem(itemName, comparatorsMap.get(itemName), valuesMap.get(itemName)));
+            }
+            Collections.sort(items, new Comparator<CompiledFilterItem>() {
+                @Override
+                public int compare(CompiledFilterItem o1, CompiledFilterItem o2) {
+                    return o1.cost < o2.cost ? -1 : o1.cost == o2.cost ? 0 : 1;
+                }
+            });
+            result = items.toArray(new CompiledFilterItem[items.size()]);
+            compiledItems = result;
+        }
+        return result;
+    }
+
+    /**
+     * Compiles a filter item: resolves the item from its name, converts the
+     * value to text once, and parses numeric thresholds for the comparators
+     * which compare numbers.
+     *
+     * @param itemName the name of the item
+     * @param filterItemComparator the comparator
+     * @param value the value to use as a threshold
+     *
+     * @return the compiled item
+     */
+    protected CompiledFilterItem compileItem(String itemName, FilterItemComparator filterItemComparator, Object value) {
+        FilterItem filterItem = getFilterItem(itemName);
+        String input = value.toString();
+        Double threshold = null;
+        if (filterItemComparator == FilterItemComparator.higherOrEqual || filterItemComparator == FilterItemComparator.lowerOrEqual) {
+            try {
+                threshold = new Double(input);
+            } catch (NumberFormatException e) {
+                // not a number, compared as text
+            }
+        }
+        int cost = filterItem == null ? Integer.MAX_VALUE : getItemCost(filterItem);
+        return new CompiledFilterItem(itemName, filterItem, filterItemComparator, input, threshold, cost);
+    }
+
+    /**
+     * Indicates whether a numeric value passes a compiled item.
+     *
+     * @param compiledItem the compiled item
+     * @param value the value of the match
+     *
+     * @return a boolean indicating whether the value passes the item
+     */
+    protected static boolean passes(CompiledFilterItem compiledItem, double value) {
+        if (compiledItem.threshold != null) {
+            if (compiledItem.comparator == FilterItemComparator.higherOrEqual) {
+                return value >= compiledItem.threshold;
+            } else if (compiledItem.comparator == FilterItemComparator.lowerOrEqual) {
+                return value <= compiledItem.threshold;
+            }
+        }
+        return compiledItem.comparator.passes(compiledItem.input, Double.toString(value));
+    }
+
+    /**
+     * Indicates whether an integer value passes a compiled item.
+     *
+     * @param compiledItem the compiled item
+     * @param value the value of the match
+     *
+     * @return a boolean indicating whether the value passes the item
+     */
+    protected static boolean passes(CompiledFilterItem compiledItem, int value) {
+        if (compiledItem.threshold != null) {
+            if (compiledItem.comparator == FilterItemComparator.higherOrEqual) {
+                return value >= compiledItem.threshold;
+            } else if (compiledItem.comparator == FilterItemComparator.lowerOrEqual) {
+                return value <= compiledItem.threshold;
+            }
+        }
+        return compiledItem.comparator.passes(compiledItem.input, Integer.toString(value));
+    }
+
     /**
      * Indicates whether the match designated by the match key validates the
      * given item using the given comparator and value threshold.
@@ -474,6 +742,51 @@ public abstract class MatchFilter implements Serializable, Filter {
     public abstract boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException;
 
+    /**
+     * Indicates whether the match designated by the match key validates the
+     * given compiled item.
+     *
+     * @param compiledItem the compiled item
+     * @param matchKey the key of the match of interest
+     * @param identification the identification objects where to get
+     * identification matches from
+     * @param geneMaps the gene maps
+     * @param identificationFeaturesGenerator the identification feature
+     * generator where to get identification features
+     * @param shotgunProtocol information on the protocol used
+     * @param identificationParameters the identification parameters used
+     * @param peptideSpectrumAnnotator the annotator to use to annotate spectra when filtering on psm or assumptions
+     *
+     * @return a boolean indicating whether the match designated by the key
+     * validates the given item
+     *
+     * @throws java.io.IOException exception thrown whenever an exception
+     * occurred while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while validating that the match passes the
+     * filter
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserilalizing a match
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    protected abstract boolean isValidated(CompiledFilterItem compiledItem, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException;
+
+    /**
+     * Returns the relative cost of evaluating the given item, items are
+     * evaluated by increasing cost.
+     *
+     * @param filterItem the filter item
+     *
+     * @return the relative cost of evaluating the given item
+     */
+    protected abstract int getItemCost(FilterItem filterItem);
+
     @Override
     public boolean isSameAs(Filter anotherFilter) {
         if (anotherFilter instanceof MatchFilter) {
@@ -551,5 +864,57 @@ public abstract class MatchFilter implements Serializable, Filter {
      * @return the filter item corresponding to the given name
      */
     public abstract FilterItem getFilterItem(String itemName);
-    
+
+    /**
+     * A filter item compiled for evaluation.
+     *
+     * @author Marc Vaudel
+     */
+    protected static class CompiledFilterItem {
+
+        /**
+         * The name of the item.
+         */
+        public final String itemName;
+        /**
+         * The item, null if not recognized by the filter.
+         */
+        public final FilterItem filterItem;
+        /**
+         * The comparator.
+         */
+        public final FilterItemComparator comparator;
+        /**
+         * The value to use as a threshold as text.
+         */
+        public final String input;
+        /**
+         * The value to use as a threshold as number, null if not a number or
+         * if the comparator does not compare numbers.
+         */
+        public final Double threshold;
+        /**
+         * The relative cost of the evaluation of this item.
+         */
+        public final int cost;
+
+        /**
+         * Constructor.
+         *
+         * @param itemName the name of the item
+         * @param filterItem the item
+         * @param comparator the comparator
+         * @param input the value to use as a threshold as text
+         * @param threshold the value to use as a threshold as number
+         * @param cost the relative cost of the evaluation of this item
+         */
+        public CompiledFilterItem(String itemName, FilterItem filterItem, FilterItemComparator comparator, String input, Double threshold, int cost) {
+            this.itemName = itemName;
+            this.filterItem = filterItem;
+            this.comparator = comparator;
+            this.input = input;
+            this.threshold = threshold;
+            this.cost = cost;
+        }
+    }
 }
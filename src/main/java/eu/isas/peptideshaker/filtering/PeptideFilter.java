@@ -11,6 +11,7 @@ import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.items.PeptideFilterItem;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.parameters.PSPtmScores;
@@ -92,12 +93,19 @@ public class PeptideFilter extends MatchFilter {
     @Override
     public boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+        return isValidated(compileItem(itemName, filterItemComparator, value), matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+    }
+
+    @Override
+    protected boolean isValidated(CompiledFilterItem compiledItem, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        PeptideFilterItem filterItem = PeptideFilterItem.getItem(itemName);
-        if (filterItem == null) {
-            throw new IllegalArgumentException("Filter item " + itemName + "not recognized as peptide filter item.");
+        if (!(compiledItem.filterItem instanceof PeptideFilterItem)) {
+            throw new IllegalArgumentException("Filter item " + compiledItem.itemName + "not recognized as peptide filter item.");
         }
-        String input = value.toString();
+        PeptideFilterItem filterItem = (PeptideFilterItem) compiledItem.filterItem;
+        FilterItemComparator filterItemComparator = compiledItem.comparator;
+        String input = compiledItem.input;
         switch (filterItem) {
             case proteinAccession:
                 PeptideMatch peptideMatch = identification.getPeptideMatch(matchKey);
@@ -126,19 +134,19 @@ public class PeptideFilter extends MatchFilter {
                 return filterItemComparator.passes(input, ptms);
             case nPSMs:
                 peptideMatch = identification.getPeptideMatch(matchKey);
-                Integer nPsms = peptideMatch.getSpectrumCount();
-                return filterItemComparator.passes(input, nPsms.toString());
+                int nPsms = peptideMatch.getSpectrumCount();
+                return passes(compiledItem, nPsms);
             case nValidatedPSMs:
                 nPsms = identificationFeaturesGenerator.getNValidatedSpectraForPeptide(matchKey);
-                return filterItemComparator.passes(input, nPsms.toString());
+                return passes(compiledItem, nPsms);
             case nConfidentPSMs:
                 nPsms = identificationFeaturesGenerator.getNConfidentSpectraForPeptide(matchKey);
-                return filterItemComparator.passes(input, nPsms.toString());
+                return passes(compiledItem, nPsms);
             case confidence:
                 PSParameter psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(matchKey, psParameter);
-                Double confidence = psParameter.getProteinConfidence();
-                return filterItemComparator.passes(input, confidence.toString());
+                double confidence = psParameter.getProteinConfidence();
+                return passes(compiledItem, confidence);
             case proteinInference:
                 psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(matchKey, psParameter);
@@ -173,4 +181,55 @@ public class PeptideFilter extends MatchFilter {
     public FilterItem getFilterItem(String itemName) {
         return PeptideFilterItem.getItem(itemName);
     }
+
+    @Override
+    protected void loadMatches(ArrayList<String> matchKeys, CompiledFilterItem[] compiledItems, Identification identification, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        boolean loadMatches = false, loadParameters = false;
+        for (CompiledFilterItem compiledItem : compiledItems) {
+            if (compiledItem.filterItem instanceof PeptideFilterItem) {
+                switch ((PeptideFilterItem) compiledItem.filterItem) {
+                    case proteinAccession:
+                    case proteinDescription:
+                    case ptm:
+                    case nPSMs:
+                        loadMatches = true;
+                        break;
+                    case confidence:
+                    case proteinInference:
+                    case validationStatus:
+                    case stared:
+                        loadParameters = true;
+                        break;
+                }
+            }
+        }
+        if (loadMatches) {
+            identification.loadPeptideMatches(matchKeys, waitingHandler, false);
+        }
+        if (loadParameters) {
+            identification.loadPeptideMatchParameters(matchKeys, new PSParameter(), waitingHandler, false);
+        }
+    }
+
+    @Override
+    protected int getItemCost(FilterItem filterItem) {
+        if (!(filterItem instanceof PeptideFilterItem)) {
+            return Integer.MAX_VALUE;
+        }
+        switch ((PeptideFilterItem) filterItem) {
+            case sequence:
+                return 0;
+            case confidence:
+            case proteinInference:
+            case validationStatus:
+            case stared:
+                return 1;
+            case proteinDescription:
+                return 3;
+            default:
+                return 2;
+        }
+    }
 }
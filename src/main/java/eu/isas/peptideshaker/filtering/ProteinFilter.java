@@ -13,6 +13,7 @@ import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.items.ProteinFilterItem;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.parameters.PSPtmScores;
@@ -93,12 +94,19 @@ public class ProteinFilter extends MatchFilter {
     @Override
     public boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+        return isValidated(compileItem(itemName, filterItemComparator, value), matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+    }
+
+    @Override
+    protected boolean isValidated(CompiledFilterItem compiledItem, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        ProteinFilterItem filterItem = ProteinFilterItem.getItem(itemName);
-        if (filterItem == null) {
-            throw new IllegalArgumentException("Filter item " + itemName + "not recognized as protein filter item.");
+        if (!(compiledItem.filterItem instanceof ProteinFilterItem)) {
+            throw new IllegalArgumentException("Filter item " + compiledItem.itemName + "not recognized as protein filter item.");
         }
-        String input = value.toString();
+        ProteinFilterItem filterItem = (ProteinFilterItem) compiledItem.filterItem;
+        FilterItemComparator filterItemComparator = compiledItem.comparator;
+        String input = compiledItem.input;
         switch (filterItem) {
             case proteinAccession:
                 return filterItemComparator.passes(input, ProteinMatch.getAccessions(matchKey));
@@ -138,19 +146,19 @@ public class ProteinFilter extends MatchFilter {
             case GO:
                 return filterItemComparator.passes(input, new ArrayList<String>(geneMaps.getGoNamesForProtein(matchKey)));
             case expectedCoverage:
-                Double coverage = 100 * identificationFeaturesGenerator.getObservableCoverage(matchKey);
-                return filterItemComparator.passes(input, coverage.toString());
+                double coverage = 100 * identificationFeaturesGenerator.getObservableCoverage(matchKey);
+                return passes(compiledItem, coverage);
             case validatedCoverage:
                 coverage = 100 * identificationFeaturesGenerator.getValidatedSequenceCoverage(matchKey);
-                return filterItemComparator.passes(input, coverage.toString());
+                return passes(compiledItem, coverage);
             case confidentCoverage:
                 HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(matchKey);
                 coverage = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                return filterItemComparator.passes(input, coverage.toString());
+                return passes(compiledItem, coverage);
             case spectrumCounting:
                 sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(matchKey);
                 coverage = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                return filterItemComparator.passes(input, coverage.toString());
+                return passes(compiledItem, coverage);
             case ptm:
                 ProteinMatch proteinMatch = identification.getProteinMatch(matchKey);
                 ArrayList<String> ptms;
@@ -164,28 +172,28 @@ public class ProteinFilter extends MatchFilter {
                 return filterItemComparator.passes(input, ptms);
             case nPeptides:
                 proteinMatch = identification.getProteinMatch(matchKey);
-                Integer nPeptides = proteinMatch.getPeptideCount();
-                return filterItemComparator.passes(input, nPeptides.toString());
+                int nPeptides = proteinMatch.getPeptideCount();
+                return passes(compiledItem, nPeptides);
             case nValidatedPeptides:
                 nPeptides = identificationFeaturesGenerator.getNValidatedPeptides(matchKey);
-                return filterItemComparator.passes(input, nPeptides.toString());
+                return passes(compiledItem, nPeptides);
             case nConfidentPeptides:
                 nPeptides = identificationFeaturesGenerator.getNConfidentPeptides(matchKey);
-                return filterItemComparator.passes(input, nPeptides.toString());
+                return passes(compiledItem, nPeptides);
             case nPSMs:
-                Integer nPsms = identificationFeaturesGenerator.getNSpectra(matchKey);
-                return filterItemComparator.passes(input, nPsms.toString());
+                int nPsms = identificationFeaturesGenerator.getNSpectra(matchKey);
+                return passes(compiledItem, nPsms);
             case nValidatedPSMs:
                 nPsms = identificationFeaturesGenerator.getNValidatedSpectra(matchKey);
-                return filterItemComparator.passes(input, nPsms.toString());
+                return passes(compiledItem, nPsms);
             case nConfidentPSMs:
                 nPsms = identificationFeaturesGenerator.getNConfidentSpectra(matchKey);
-                return filterItemComparator.passes(input, nPsms.toString());
+                return passes(compiledItem, nPsms);
             case confidence:
                 PSParameter psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getProteinMatchParameter(matchKey, psParameter);
-                Double confidence = psParameter.getProteinConfidence();
-                return filterItemComparator.passes(input, confidence.toString());
+                double confidence = psParameter.getProteinConfidence();
+                return passes(compiledItem, confidence);
             case proteinInference:
                 psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getProteinMatchParameter(matchKey, psParameter);
@@ -220,4 +228,59 @@ public class ProteinFilter extends MatchFilter {
     public FilterItem getFilterItem(String itemName) {
         return ProteinFilterItem.getItem(itemName);
     }
+
+    @Override
+    protected void loadMatches(ArrayList<String> matchKeys, CompiledFilterItem[] compiledItems, Identification identification, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        boolean loadMatches = false, loadParameters = false;
+        for (CompiledFilterItem compiledItem : compiledItems) {
+            if (compiledItem.filterItem instanceof ProteinFilterItem) {
+                switch ((ProteinFilterItem) compiledItem.filterItem) {
+                    case ptm:
+                    case nPeptides:
+                        loadMatches = true;
+                        break;
+                    case confidence:
+                    case proteinInference:
+                    case validationStatus:
+                    case stared:
+                        loadParameters = true;
+                        break;
+                }
+            }
+        }
+        if (loadMatches) {
+            identification.loadProteinMatches(matchKeys, waitingHandler, false);
+        }
+        if (loadParameters) {
+            identification.loadProteinMatchParameters(matchKeys, new PSParameter(), waitingHandler, false);
+        }
+    }
+
+    @Override
+    protected int getItemCost(FilterItem filterItem) {
+        if (!(filterItem instanceof ProteinFilterItem)) {
+            return Integer.MAX_VALUE;
+        }
+        switch ((ProteinFilterItem) filterItem) {
+            case proteinAccession:
+                return 0;
+            case confidence:
+            case proteinInference:
+            case validationStatus:
+            case stared:
+                return 1;
+            case nPeptides:
+            case nValidatedPeptides:
+            case nConfidentPeptides:
+            case nPSMs:
+            case nValidatedPSMs:
+            case nConfidentPSMs:
+            case ptm:
+                return 2;
+            default:
+                return 3;
+        }
+    }
 }
@@ -7,12 +7,14 @@ import com.compomics.util.experiment.filtering.FilterItem;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.items.AssumptionFilterItem;
 import eu.isas.peptideshaker.filtering.items.PsmFilterItem;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -88,18 +90,25 @@ public class PsmFilter extends MatchFilter {
     @Override
     public boolean isValidated(String itemName, FilterItemComparator filterItemComparator, Object value, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+        return isValidated(compileItem(itemName, filterItemComparator, value), matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+    }
+
+    @Override
+    protected boolean isValidated(CompiledFilterItem compiledItem, String matchKey, Identification identification, GeneMaps geneMaps, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        PsmFilterItem filterItem = PsmFilterItem.getItem(itemName);
-        if (filterItem == null) {
-            return assumptionFilter.isValidated(itemName, filterItemComparator, value, matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
+        if (!(compiledItem.filterItem instanceof PsmFilterItem)) {
+            return assumptionFilter.isValidated(compiledItem, matchKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
         }
-        String input = value.toString();
+        PsmFilterItem filterItem = (PsmFilterItem) compiledItem.filterItem;
+        FilterItemComparator filterItemComparator = compiledItem.comparator;
+        String input = compiledItem.input;
         switch (filterItem) {
             case confidence:
                 PSParameter psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(matchKey, psParameter);
-                Double confidence = psParameter.getProteinConfidence();
-                return filterItemComparator.passes(input, confidence.toString());
+                double confidence = psParameter.getProteinConfidence();
+                return passes(compiledItem, confidence);
             case validationStatus:
                 psParameter = new PSParameter();
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(matchKey, psParameter);
@@ -133,4 +142,23 @@ public class PsmFilter extends MatchFilter {
         }
         return AssumptionFilterItem.getItem(itemName);
     }
+
+    @Override
+    protected int getItemCost(FilterItem filterItem) {
+        if (filterItem instanceof PsmFilterItem) {
+            return 1;
+        }
+        return assumptionFilter.getItemCost(filterItem);
+    }
+
+    @Override
+    protected void loadMatches(ArrayList<String> matchKeys, CompiledFilterItem[] compiledItems, Identification identification, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        for (CompiledFilterItem compiledItem : compiledItems) {
+            if (!(compiledItem.filterItem instanceof PsmFilterItem)) {
+                assumptionFilter.loadMatches(matchKeys, compiledItems, identification, waitingHandler);
+                break;
+            }
+        }
+    }
 }
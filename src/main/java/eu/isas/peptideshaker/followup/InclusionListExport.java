@@ -14,12 +14,14 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.preferences.FilterPreferences;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.OrderedResultsWriter;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -29,6 +31,15 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
  */
 public class InclusionListExport {
 
+    /**
+     * The number of proteins exported at a time by a worker.
+     */
+    private static final int BLOCK_SIZE = 100;
+    /**
+     * The line separator.
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
     /**
      * Writes an inclusion list based on the validated PSMs of the validated
      * peptides of the validated proteins.
@@ -47,6 +58,7 @@ public class InclusionListExport {
      * (can be null)
      * @param filterPreferences the general filtering preferences of this
      * project
+     * @param nThreads the number of threads to use to generate the lines
      *
      * @throws IOException thrown if an IOException occurs
      * @throws SQLException thrown if an SQLException occurs
@@ -57,15 +69,19 @@ public class InclusionListExport {
      */
     public static void exportInclusionList(File destinationFile, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ArrayList<Integer> proteinFilters, ArrayList<PeptideFilterType> peptideFilters, ExportFormat exportFormat, SearchParameters searchParameters, double rtWindow,
-            WaitingHandler waitingHandler, FilterPreferences filterPreferences) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+            WaitingHandler waitingHandler, FilterPreferences filterPreferences, int nThreads) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         FileWriter f = new FileWriter(destinationFile);
 
         try {
-            BufferedWriter b = new BufferedWriter(f);
+            final BufferedWriter b = new BufferedWriter(f);
+            OrderedResultsWriter<String> blocksWriter = new OrderedResultsWriter<String>(nThreads) {
+                @Override
+                protected void write(String lines, int nItems) throws IOException {
+                    b.write(lines);
+                }
+            };
             try {
-                SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
-
                 if (waitingHandler != null) {
                     if (waitingHandler.isRunCanceled()) {
                         return;
@@ -79,6 +95,7 @@ public class InclusionListExport {
                 ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
                 parameters.add(psParameter);
                 ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
+                ArrayList<ProteinMatch> blockMatches = new ArrayList<ProteinMatch>(BLOCK_SIZE);
 
                 while (proteinMatchesIterator.hasNext()) {
 
@@ -87,70 +104,10 @@ public class InclusionListExport {
                     psParameter = (PSParameter) identification.getProteinMatchParameter(proteinMatchKey, psParameter);
 
                     if (!proteinFilters.contains(psParameter.getProteinInferenceClass())) {
-
-                        ArrayList<String> peptideMatches = new ArrayList<String>();
-
-                        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
-                            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-                            if (psParameter.getMatchValidationLevel().isValidated()) {
-                                boolean passesFilter = true;
-                                for (PeptideFilterType filterType : peptideFilters) {
-                                    String sequence = Peptide.getSequence(peptideKey);
-                                    if (filterType == PeptideFilterType.degenerated) {
-                                        if (psParameter.getProteinInferenceClass() != PSParameter.NOT_GROUP) {
-                                            passesFilter = false;
-                                            break;
-                                        }
-                                    } else if (filterType == PeptideFilterType.miscleaved) {
-                                        if (searchParameters.getEnzyme().getNmissedCleavages(sequence) > 0) {
-                                            passesFilter = false;
-                                            break;
-                                        }
-                                    } else if (filterType == PeptideFilterType.reactive) {
-                                        if (sequence.contains("M")
-                                                || sequence.contains("C")
-                                                || sequence.contains("W")
-                                                || sequence.contains("NG")
-                                                || sequence.contains("DG")
-                                                || sequence.contains("QG")
-                                                || sequence.startsWith("N")
-                                                || sequence.startsWith("Q")) {
-                                            passesFilter = false;
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (passesFilter) {
-                                    peptideMatches.add(peptideKey);
-                                }
-                            }
-                        }
-
-                        if (!peptideMatches.isEmpty()) {
-                            for (String peptideKey : peptideMatches) {
-                                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                                ArrayList<String> validatedPsms = new ArrayList<String>();
-                                for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-                                    psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                                    if (psParameter.getMatchValidationLevel().isValidated()) {
-                                        validatedPsms.add(spectrumKey);
-                                    }
-                                }
-                                if (!validatedPsms.isEmpty()) {
-                                    ArrayList<Double> retentionTimes = new ArrayList<Double>();
-                                    for (String spectrumKey : validatedPsms) {
-                                        retentionTimes.add(spectrumFactory.getPrecursor(spectrumKey).getRt());
-                                    }
-                                    for (String spectrumKey : validatedPsms) {
-                                        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                                        if (spectrumMatch.getBestPeptideAssumption() != null) {
-                                            String line = getInclusionListLine(spectrumMatch, retentionTimes, rtWindow, exportFormat, searchParameters);
-                                            b.write(line);
-                                            b.newLine();
-                                        }
-                                    }
-                                }
-                            }
+                        blockMatches.add(proteinMatch);
+                        if (blockMatches.size() == BLOCK_SIZE) {
+                            blocksWriter.submit(new ProteinLinesCallable(blockMatches, identification, peptideFilters, exportFormat, searchParameters, rtWindow), blockMatches.size());
+                            blockMatches = new ArrayList<ProteinMatch>(BLOCK_SIZE);
                         }
                     }
 
@@ -161,7 +118,12 @@ public class InclusionListExport {
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
                 }
+                if (!blockMatches.isEmpty()) {
+                    blocksWriter.submit(new ProteinLinesCallable(blockMatches, identification, peptideFilters, exportFormat, searchParameters, rtWindow), blockMatches.size());
+                }
+                blocksWriter.flush();
             } finally {
+                blocksWriter.shutdown();
                 b.close();
             }
         } finally {
@@ -169,6 +131,161 @@ public class InclusionListExport {
         }
     }
 
+    /**
+     * Appends the inclusion list lines of the validated PSMs of the validated
+     * peptides of a protein.
+     *
+     * @param lines the builder where to append the lines
+     * @param proteinMatch the protein match
+     * @param identification the identification object containing all matches
+     * and match parameters
+     * @param peptideFilters the inclusion list peptide filters
+     * @param exportFormat the export format
+     * @param searchParameters the identification parameters
+     * @param rtWindow the window to use for retention time
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    private static void appendProteinLines(StringBuilder lines, ProteinMatch proteinMatch, Identification identification, ArrayList<PeptideFilterType> peptideFilters,
+            ExportFormat exportFormat, SearchParameters searchParameters, double rtWindow) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        PSParameter psParameter = new PSParameter();
+
+        ArrayList<String> peptideMatches = new ArrayList<String>();
+
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            if (psParameter.getMatchValidationLevel().isValidated()) {
+                boolean passesFilter = true;
+                for (PeptideFilterType filterType : peptideFilters) {
+                    String sequence = Peptide.getSequence(peptideKey);
+                    if (filterType == PeptideFilterType.degenerated) {
+                        if (psParameter.getProteinInferenceClass() != PSParameter.NOT_GROUP) {
+                            passesFilter = false;
+                            break;
+                        }
+                    } else if (filterType == PeptideFilterType.miscleaved) {
+                        if (searchParameters.getEnzyme().getNmissedCleavages(sequence) > 0) {
+                            passesFilter = false;
+                            break;
+                        }
+                    } else if (filterType == PeptideFilterType.reactive) {
+                        if (sequence.contains("M")
+                                || sequence.contains("C")
+                                || sequence.contains("W")
+                                || sequence.contains("NG")
+                                || sequence.contains("DG")
+                                || sequence.contains("QG")
+                                || sequence.startsWith("N")
+                                || sequence.startsWith("Q")) {
+                            passesFilter = false;
+                            break;
+                        }
+                    }
+                }
+                if (passesFilter) {
+                    peptideMatches.add(peptideKey);
+                }
+            }
+        }
+
+        if (!peptideMatches.isEmpty()) {
+            for (String peptideKey : peptideMatches) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                ArrayList<String> validatedPsms = new ArrayList<String>();
+                for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                    psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                    if (psParameter.getMatchValidationLevel().isValidated()) {
+                        validatedPsms.add(spectrumKey);
+                    }
+                }
+                if (!validatedPsms.isEmpty()) {
+                    ArrayList<Double> retentionTimes = new ArrayList<Double>();
+                    for (String spectrumKey : validatedPsms) {
+                        retentionTimes.add(spectrumFactory.getPrecursor(spectrumKey).getRt());
+                    }
+                    for (String spectrumKey : validatedPsms) {
+                        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            lines.append(getInclusionListLine(spectrumMatch, retentionTimes, rtWindow, exportFormat, searchParameters));
+                            lines.append(LINE_SEPARATOR);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Callable generating the inclusion list lines of a block of proteins.
+     *
+     * @author Marc Vaudel
+     */
+    private static class ProteinLinesCallable implements Callable<String> {
+
+        /**
+         * The protein matches of the block.
+         */
+        private final ArrayList<ProteinMatch> proteinMatches;
+        /**
+         * The identification object containing all matches and match
+         * parameters.
+         */
+        private final Identification identification;
+        /**
+         * The inclusion list peptide filters.
+         */
+        private final ArrayList<PeptideFilterType> peptideFilters;
+        /**
+         * The export format.
+         */
+        private final ExportFormat exportFormat;
+        /**
+         * The identification parameters.
+         */
+        private final SearchParameters searchParameters;
+        /**
+         * The window to use for retention time.
+         */
+        private final double rtWindow;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatches the protein matches of the block
+         * @param identification the identification object containing all
+         * matches and match parameters
+         * @param peptideFilters the inclusion list peptide filters
+         * @param exportFormat the export format
+         * @param searchParameters the identification parameters
+         * @param rtWindow the window to use for retention time
+         */
+        public ProteinLinesCallable(ArrayList<ProteinMatch> proteinMatches, Identification identification, ArrayList<PeptideFilterType> peptideFilters,
+                ExportFormat exportFormat, SearchParameters searchParameters, double rtWindow) {
+            this.proteinMatches = proteinMatches;
+            this.identification = identification;
+            this.peptideFilters = peptideFilters;
+            this.exportFormat = exportFormat;
+            this.searchParameters = searchParameters;
+            this.rtWindow = rtWindow;
+        }
+
+        @Override
+        public String call() throws Exception {
+            StringBuilder lines = new StringBuilder();
+            for (ProteinMatch proteinMatch : proteinMatches) {
+                appendProteinLines(lines, proteinMatch, identification, peptideFilters, exportFormat, searchParameters, rtWindow);
+            }
+            return lines.toString();
+        }
+    }
+
     /**
      * Returns a line to be output in an inclusion list according to the user's
      * input.
@@ -5,15 +5,23 @@ import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.waiting.WaitingHandler;
-import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.IdentificationParameters;
 import eu.isas.peptideshaker.recalibration.RunMzDeviation;
 import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
+import eu.isas.peptideshaker.utils.OrderedResultsWriter;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -34,10 +42,21 @@ public class RecalibrationExporter {
      * Suffix for the mgf file containing all recalibrated spectra.
      */
     public static final String recalibrated = "_recalibrated";
+    /**
+     * The number of spectra recalibrated together by a worker.
+     */
+    private static final int blockSize = 100;
+    /**
+     * The size of the buffer of the writers in characters.
+     */
+    private static final int writerBufferSize = 1 << 20;
 
     /**
      * Writes the recalibrated spectra in files named according to
-     * getRecalibratedFileName in the given folder.
+     * getRecalibratedFileName in the given folder. Spectrum files are
+     * processed concurrently up to the given number of threads, the remaining
+     * threads are used to recalibrate the spectra of every file ahead of its
+     * writer.
      *
      * @param recalibratePrecursors boolean indicating whether precursor ions
      * shall be recalibrated
@@ -46,13 +65,14 @@ public class RecalibrationExporter {
      * @param folder folder where recalibrated files shall be written
      * @param identification identification of the project
      * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use
      * @param waitingHandler waiting handler displaying progress and used to
      * cancel the process. Can be null. The method does not call RunFinished.
      *
      * @throws IOException exception thrown whenever an IO exception occurred
      * while reading or writing to a file
      * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while
+     * occurred while recalibrating the spectra
      * @throws SQLException exception thrown whenever an SQL exception occurred
      * while interacting with the database
      * @throws ClassNotFoundException exception thrown whenever an exception
@@ -61,115 +81,249 @@ public class RecalibrationExporter {
      * occurred while reading an mzML file
      */
     public static void writeRecalibratedSpectra(boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
-            Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+            Identification identification, IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler)
             throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
 
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
-        SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+        ArrayList<String> fileNames = spectrumFactory.getMgfFileNames();
 
-        int progress = 1;
+        int nFileThreads = Math.max(Math.min(nThreads, fileNames.size()), 1);
+        int nWorkers = Math.max(nThreads / nFileThreads, 1);
 
-        for (String fileName : spectrumFactory.getMgfFileNames()) {
+        if (nFileThreads == 1) {
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    break;
+            int progress = 1;
+
+            for (String fileName : fileNames) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+
+                    waitingHandler.setWaitingText("Recalibrating Spectra. Inspecting Mass Deviations. Please Wait... (" + progress + "/" + fileNames.size() + ")");
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                    waitingHandler.setMaxSecondaryProgressCounter(2 * spectrumFactory.getNSpectra(fileName));
                 }
 
-                waitingHandler.setWaitingText("Recalibrating Spectra. Inspecting Mass Deviations. Please Wait... (" + progress + "/" + spectrumFactory.getMgfFileNames().size() + ")");
-                waitingHandler.resetSecondaryProgressCounter();
-                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-                waitingHandler.setMaxSecondaryProgressCounter(2 * spectrumFactory.getNSpectra(fileName));
+                SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+                spectrumRecalibrator.estimateErrors(fileName, identification, identificationParameters, waitingHandler);
+
+                if (debug) {
+                    writeDebugFiles(folder, fileName, spectrumRecalibrator.getRunMzDeviations(fileName), waitingHandler);
+                }
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.setWaitingText("Recalibrating Spectra. Writing Spectra. Please Wait... (" + progress + "/" + fileNames.size() + ")");
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setMaxSecondaryProgressCounter(spectrumFactory.getNSpectra(fileName));
+                }
+
+                writeRecalibratedFile(fileName, folder, spectrumRecalibrator, recalibratePrecursors, recalibrateFragmentIons, nWorkers, waitingHandler);
+                spectrumRecalibrator.clearErrors(fileName);
+
+                progress++;
             }
 
-            spectrumRecalibrator.estimateErrors(fileName, identification, identificationParameters, waitingHandler);
+        } else {
 
-            // Debug part
-            if (debug) {
+            if (waitingHandler != null) {
+                int nSpectra = 0;
+                for (String fileName : fileNames) {
+                    nSpectra += spectrumFactory.getNSpectra(fileName);
+                }
+                waitingHandler.setWaitingText("Recalibrating Spectra. Please Wait...");
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
+            }
 
-                RunMzDeviation runMzDeviation = spectrumRecalibrator.getRunMzDeviations(fileName);
+            AtomicReference<Exception> firstException = new AtomicReference<Exception>();
+            ExecutorService pool = Executors.newFixedThreadPool(nFileThreads);
+            for (String fileName : fileNames) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                RecalibrationFileRunnable runnable = new RecalibrationFileRunnable(fileName, folder, recalibratePrecursors, recalibrateFragmentIons,
+                        identification, identificationParameters, nWorkers, waitingHandler, firstException);
+                pool.submit(runnable);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+            } else {
+                pool.shutdown();
+            }
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Spectrum recalibration timed out. Please contact the developers.");
+            }
+            // the run is canceled by a failing worker, its exception is passed to the caller
+            Exception exception = firstException.get();
+            if (exception != null) {
+                rethrow(exception);
+            }
+        }
+    }
 
-                File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileName) + "_precursors.txt");
-                BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
-                debugWriter.write("rt\tgrade\toffset");
-                debugWriter.newLine();
+    /**
+     * Rethrows an exception encountered by a file worker.
+     *
+     * @param exception the exception encountered by the worker
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while recalibrating the spectra
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an exception
+     * occurred while reading an mzML file
+     */
+    private static void rethrow(Exception exception) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+        if (exception instanceof IOException) {
+            throw (IOException) exception;
+        } else if (exception instanceof MzMLUnmarshallerException) {
+            throw (MzMLUnmarshallerException) exception;
+        } else if (exception instanceof SQLException) {
+            throw (SQLException) exception;
+        } else if (exception instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) exception;
+        } else if (exception instanceof InterruptedException) {
+            throw (InterruptedException) exception;
+        } else if (exception instanceof RuntimeException) {
+            throw (RuntimeException) exception;
+        }
+        throw new IOException("An error occurred while recalibrating the spectra: " + exception.getMessage(), exception);
+    }
 
-                for (double key : runMzDeviation.getPrecursorRTList()) {
+    /**
+     * Writes the recalibrated spectra of a file. Blocks of spectra are
+     * recalibrated by the given number of workers while the writer writes the
+     * completed blocks in the order of the original file.
+     *
+     * @param fileName the name of the spectrum file
+     * @param folder folder where recalibrated files shall be written
+     * @param spectrumRecalibrator the spectrum recalibrator containing the
+     * errors of the file
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param nWorkers the number of workers recalibrating spectra
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null.
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while waiting for the workers
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an exception
+     * occurred while reading an mzML file
+     */
+    private static void writeRecalibratedFile(String fileName, File folder, SpectrumRecalibrator spectrumRecalibrator, boolean recalibratePrecursors,
+            boolean recalibrateFragmentIons, int nWorkers, final WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
+
+        ArrayList<String> spectrumTitles = SpectrumFactory.getInstance().getSpectrumTitles(fileName);
+        File file = new File(folder, getRecalibratedFileName(fileName));
+        final BufferedWriter writer = new BufferedWriter(new FileWriter(file), writerBufferSize);
+        OrderedResultsWriter<String> blocksWriter = new OrderedResultsWriter<String>(nWorkers) {
+            @Override
+            protected void write(String spectra, int nSpectra) throws IOException {
+                writer.write(spectra);
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter(nSpectra);
+                }
+            }
+        };
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+        try {
+            for (int blockStart = 0; blockStart < spectrumTitles.size(); blockStart += blockSize) {
 
-                    debugWriter.write(key + "\t");
-                    debugWriter.write(runMzDeviation.getSlope(key) + "\t");
-                    debugWriter.write(runMzDeviation.getOffset(key) + "\t");
-                    debugWriter.newLine();
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
                 }
 
-                debugWriter.flush();
-                debugWriter.close();
+                int blockEnd = Math.min(blockStart + blockSize, spectrumTitles.size());
+                RecalibrationBlockCallable callable = new RecalibrationBlockCallable(fileName, spectrumTitles.subList(blockStart, blockEnd),
+                        spectrumRecalibrator, recalibratePrecursors, recalibrateFragmentIons);
+                blocksWriter.submit(callable, blockEnd - blockStart);
+            }
+            blocksWriter.flush();
+        } finally {
+            blocksWriter.shutdown();
+            writer.close();
+        }
+    }
 
-                debugFile = new File(folder, getRecalibratedFileName(fileName) + "_fragments.txt");
-                debugWriter = new BufferedWriter(new FileWriter(debugFile));
+    /**
+     * Writes the debug files of a spectrum file.
+     *
+     * @param folder folder where the debug files shall be written
+     * @param fileName the name of the spectrum file
+     * @param runMzDeviation the m/z deviations of the file
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null.
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writeDebugFiles(File folder, String fileName, RunMzDeviation runMzDeviation, WaitingHandler waitingHandler) throws IOException {
 
-                for (double rtKey : runMzDeviation.getPrecursorRTList()) {
+        File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileName) + "_precursors.txt");
+        BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
+        debugWriter.write("rt\tgrade\toffset");
+        debugWriter.newLine();
 
-                    debugWriter.write(rtKey + "\nm/z");
+        for (double key : runMzDeviation.getPrecursorRTList()) {
 
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
 
-                        debugWriter.write("\t" + mzKey);
+            debugWriter.write(key + "\t");
+            debugWriter.write(runMzDeviation.getSlope(key) + "\t");
+            debugWriter.write(runMzDeviation.getOffset(key) + "\t");
+            debugWriter.newLine();
+        }
 
-                    }
-                    debugWriter.newLine();
-                    debugWriter.write("Error");
+        debugWriter.flush();
+        debugWriter.close();
 
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+        debugFile = new File(folder, getRecalibratedFileName(fileName) + "_fragments.txt");
+        debugWriter = new BufferedWriter(new FileWriter(debugFile));
 
-                        debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
+        for (double rtKey : runMzDeviation.getPrecursorRTList()) {
 
-                    }
+            debugWriter.write(rtKey + "\nm/z");
 
-                    debugWriter.newLine();
-                }
-                debugWriter.flush();
-                debugWriter.close();
-                // End of debug part
-            }
+            for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
-            }
+                debugWriter.write("\t" + mzKey);
 
-            File file = new File(folder, getRecalibratedFileName(fileName));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            if (waitingHandler != null) {
-                waitingHandler.setWaitingText("Recalibrating Spectra. Writing Spectra. Please Wait... (" + progress + "/" + spectrumFactory.getMgfFileNames().size() + ")");
-                waitingHandler.resetSecondaryProgressCounter();
-                waitingHandler.setMaxSecondaryProgressCounter(spectrumFactory.getNSpectra(fileName));
             }
+            debugWriter.newLine();
+            debugWriter.write("Error");
 
-            for (String spectrumTitle : spectrumFactory.getSpectrumTitles(fileName)) {
-
-                if (debug) {
-                    //System.out.println(new Date() + " recalibrating " + spectrumTitle + "\n");
-                }
+            for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
 
-                MSnSpectrum recalibratedSpectrum = spectrumRecalibrator.recalibrateSpectrum(fileName, spectrumTitle, recalibratePrecursors, recalibrateFragmentIons);
-                recalibratedSpectrum.writeMgf(writer);
-                writer.flush();
+                debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
 
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                    waitingHandler.increasePrimaryProgressCounter();
-                }
             }
 
-            spectrumRecalibrator.clearErrors(fileName);
-            writer.close();
+            debugWriter.newLine();
         }
+        debugWriter.flush();
+        debugWriter.close();
     }
 
     /**
@@ -182,4 +336,167 @@ public class RecalibrationExporter {
     public static String getRecalibratedFileName(String fileName) {
         return Util.appendSuffix(fileName, recalibrated);
     }
+
+    /**
+     * Runnable estimating the errors of a spectrum file and writing its
+     * recalibrated spectra.
+     *
+     * @author Marc Vaudel
+     */
+    private static class RecalibrationFileRunnable implements Runnable {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private String fileName;
+        /**
+         * The folder where recalibrated files shall be written.
+         */
+        private File folder;
+        /**
+         * Boolean indicating whether precursor ions shall be recalibrated.
+         */
+        private boolean recalibratePrecursors;
+        /**
+         * Boolean indicating whether fragment ions shall be recalibrated.
+         */
+        private boolean recalibrateFragmentIons;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The number of workers recalibrating spectra.
+         */
+        private int nWorkers;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Holder for the first exception encountered by the file workers.
+         */
+        private AtomicReference<Exception> firstException;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the spectrum file
+         * @param folder the folder where recalibrated files shall be written
+         * @param recalibratePrecursors boolean indicating whether precursor
+         * ions shall be recalibrated
+         * @param recalibrateFragmentIons boolean indicating whether fragment
+         * ions shall be recalibrated
+         * @param identification the identification of the project
+         * @param identificationParameters the identification parameters
+         * @param nWorkers the number of workers recalibrating spectra
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process, can be null
+         * @param firstException holder for the first exception encountered by
+         * the file workers
+         */
+        public RecalibrationFileRunnable(String fileName, File folder, boolean recalibratePrecursors, boolean recalibrateFragmentIons, Identification identification,
+                IdentificationParameters identificationParameters, int nWorkers, WaitingHandler waitingHandler, AtomicReference<Exception> firstException) {
+            this.fileName = fileName;
+            this.folder = folder;
+            this.recalibratePrecursors = recalibratePrecursors;
+            this.recalibrateFragmentIons = recalibrateFragmentIons;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.nWorkers = nWorkers;
+            this.waitingHandler = waitingHandler;
+            this.firstException = firstException;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // the waiting handler is not passed to the error estimation as its progress is reset per file
+                SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+                spectrumRecalibrator.estimateErrors(fileName, identification, identificationParameters, null);
+
+                if (debug) {
+                    writeDebugFiles(folder, fileName, spectrumRecalibrator.getRunMzDeviations(fileName), waitingHandler);
+                }
+
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    writeRecalibratedFile(fileName, folder, spectrumRecalibrator, recalibratePrecursors, recalibrateFragmentIons, nWorkers, waitingHandler);
+                }
+
+                spectrumRecalibrator.clearErrors(fileName);
+            } catch (Exception e) {
+                firstException.compareAndSet(null, e);
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+    }
+
+    /**
+     * Callable recalibrating a block of spectra and returning them as mgf
+     * text.
+     *
+     * @author Marc Vaudel
+     */
+    private static class RecalibrationBlockCallable implements Callable<String> {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private String fileName;
+        /**
+         * The titles of the spectra to recalibrate.
+         */
+        private List<String> spectrumTitles;
+        /**
+         * The spectrum recalibrator containing the errors of the file.
+         */
+        private SpectrumRecalibrator spectrumRecalibrator;
+        /**
+         * Boolean indicating whether precursor ions shall be recalibrated.
+         */
+        private boolean recalibratePrecursors;
+        /**
+         * Boolean indicating whether fragment ions shall be recalibrated.
+         */
+        private boolean recalibrateFragmentIons;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the spectrum file
+         * @param spectrumTitles the titles of the spectra to recalibrate
+         * @param spectrumRecalibrator the spectrum recalibrator containing the
+         * errors of the file
+         * @param recalibratePrecursors boolean indicating whether precursor
+         * ions shall be recalibrated
+         * @param recalibrateFragmentIons boolean indicating whether fragment
+         * ions shall be recalibrated
+         */
+        public RecalibrationBlockCallable(String fileName, List<String> spectrumTitles, SpectrumRecalibrator spectrumRecalibrator,
+                boolean recalibratePrecursors, boolean recalibrateFragmentIons) {
+            this.fileName = fileName;
+            this.spectrumTitles = spectrumTitles;
+            this.spectrumRecalibrator = spectrumRecalibrator;
+            this.recalibratePrecursors = recalibratePrecursors;
+            this.recalibrateFragmentIons = recalibrateFragmentIons;
+        }
+
+        @Override
+        public String call() throws Exception {
+            StringWriter stringWriter = new StringWriter();
+            BufferedWriter blockWriter = new BufferedWriter(stringWriter);
+            for (String spectrumTitle : spectrumTitles) {
+                MSnSpectrum recalibratedSpectrum = spectrumRecalibrator.recalibrateSpectrum(fileName, spectrumTitle, recalibratePrecursors, recalibrateFragmentIons);
+                recalibratedSpectrum.writeMgf(blockWriter);
+            }
+            blockWriter.flush();
+            return stringWriter.toString();
+        }
+    }
 }
@@ -6,6 +6,7 @@ import com.compomics.util.experiment.identification.protein_sequences.SequenceFa
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -13,8 +14,13 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -39,6 +45,15 @@ public class SpectrumExporter {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The size of the buffer used to read the mgf files.
+     */
+    private static final int BUFFER_SIZE = 1048576;
+    /**
+     * The number of characters of the lines of the mgf files which are kept
+     * when looking for spectrum boundaries and titles.
+     */
+    private static final int MAX_LINE_START = 4096;
 
     /**
      * Constructor.
@@ -93,42 +108,255 @@ public class SpectrumExporter {
         for (int i = 0; i < spectrumFactory.getMgfFileNames().size(); i++) {
 
             String mgfFile = spectrumFactory.getMgfFileNames().get(i);
+            File destinationFile = new File(destinationFolder, getFileName(mgfFile, exportType));
+
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait... (" + (i + 1) + "/" + spectrumFactory.getMgfFileNames().size() + ")");
+                // reset the progress bar
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(spectrumFactory.getSpectrumTitles(mgfFile).size());
+            }
+
+            // select the spectra to export
+            ArrayList<String> spectrumKeys = new ArrayList<String>();
+            PsmIterator psmIterator = identification.getPsmIterator(mgfFile, parameters, false, waitingHandler);
+
+            while (psmIterator.hasNext()) {
+
+                SpectrumMatch spectrumMatch = psmIterator.next();
+
+                if (shallExport(spectrumMatch, exportType, sequenceMatchingPreferences)) {
+                    spectrumKeys.add(spectrumMatch.getKey());
+                }
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
 
-            FileWriter f = new FileWriter(new File(destinationFolder, getFileName(mgfFile, exportType)));
+            // the spectra are copied from the original mgf file when possible, parsed and formatted otherwise
+            File spectrumFile = spectrumFactory.getSpectrumFileFromIdName(mgfFile);
+            if (spectrumFile == null || !spectrumFile.exists() || !mgfFile.toLowerCase().endsWith(".mgf")
+                    || !copySpectra(spectrumFile, destinationFile, spectrumKeys, waitingHandler)) {
+                writeSpectra(destinationFile, spectrumKeys, waitingHandler);
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+    }
 
+    /**
+     * Writes the given spectra in a new mgf file by parsing them and formatting
+     * them.
+     *
+     * @param destinationFile the file where to write the spectra
+     * @param spectrumKeys the keys of the spectra to write
+     * @param waitingHandler waiting handler used to display progress and cancel
+     * the process. Can be null.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    private void writeSpectra(File destinationFile, ArrayList<String> spectrumKeys, WaitingHandler waitingHandler)
+            throws IOException, MzMLUnmarshallerException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(spectrumKeys.size());
+        }
+
+        FileWriter f = new FileWriter(destinationFile);
+
+        try {
+            BufferedWriter b = new BufferedWriter(f);
             try {
-                BufferedWriter b = new BufferedWriter(f);
-                try {
+                for (String spectrumKey : spectrumKeys) {
+                    b.write(((MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey)).asMgf());
                     if (waitingHandler != null) {
-                        waitingHandler.setWaitingText("Exporting Spectra - Writing File. Please Wait... (" + (i + 1) + "/" + spectrumFactory.getMgfFileNames().size() + ")");
-                        // reset the progress bar
-                        waitingHandler.resetSecondaryProgressCounter();
-                        waitingHandler.setMaxSecondaryProgressCounter(spectrumFactory.getSpectrumTitles(mgfFile).size());
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
                     }
+                }
+            } finally {
+                b.close();
+            }
+        } finally {
+            f.close();
+        }
+    }
 
-                    PsmIterator psmIterator = identification.getPsmIterator(mgfFile, parameters, false, waitingHandler);
+    /**
+     * Copies the given spectra from the original mgf file without parsing
+     * them. The file is read once, the byte ranges of the spectra to export
+     * are copied in the order of the original file together with the header
+     * of the file. Returns false if the spectra could not be mapped
+     * unambiguously to the original file based on their title, in which case
+     * the destination file should be written again. The progress is counted
+     * in blocks read from the original file.
+     *
+     * @param spectrumFile the original mgf file
+     * @param destinationFile the file where to write the spectra
+     * @param spectrumKeys the keys of the spectra to write
+     * @param waitingHandler waiting handler used to display progress and cancel
+     * the process. Can be null.
+     *
+     * @return a boolean indicating whether all spectra were copied or the
+     * process was canceled
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private boolean copySpectra(File spectrumFile, File destinationFile, ArrayList<String> spectrumKeys, WaitingHandler waitingHandler) throws IOException {
+
+        HashSet<String> titles = new HashSet<String>(spectrumKeys.size());
+        for (String spectrumKey : spectrumKeys) {
+            titles.add(Spectrum.getSpectrumTitle(spectrumKey));
+        }
+        HashSet<String> copiedTitles = new HashSet<String>(titles.size());
 
-                    while (psmIterator.hasNext()) {
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter((int) (spectrumFile.length() / BUFFER_SIZE) + 1);
+        }
 
-                        SpectrumMatch spectrumMatch = psmIterator.next();
-                        String spectrumKey = spectrumMatch.getKey();
+        FileInputStream inputStream = new FileInputStream(spectrumFile);
 
-                        if (shallExport(spectrumMatch, exportType, sequenceMatchingPreferences)) {
-                            b.write(((MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey)).asMgf());
-                        }
+        try {
+            FileChannel inputChannel = inputStream.getChannel();
+            FileOutputStream outputStream = new FileOutputStream(destinationFile);
+
+            try {
+                FileChannel outputChannel = outputStream.getChannel();
+
+                // byte range to copy, starting with the header of the file, contiguous spectra are copied at once
+                long rangeStart = 0, rangeEnd = 0;
+                long offset = 0, lineOffset = 0, spectrumStart = -1;
+                String title = null;
+                boolean inSpectrum = false;
+                StringBuilder line = new StringBuilder();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length = 0, position = 0;
+                boolean endOfFile = false;
+
+                while (!endOfFile) {
+
+                    if (position == length) {
                         if (waitingHandler != null) {
                             if (waitingHandler.isRunCanceled()) {
-                                return;
+                                return true;
                             }
                             waitingHandler.increaseSecondaryProgressCounter();
                         }
+                        length = inputStream.read(buffer);
+                        position = 0;
+                        if (length == -1) {
+                            endOfFile = true;
+                            length = 0;
+                            if (offset == lineOffset) {
+                                break;
+                            }
+                        }
+                    }
+
+                    if (!endOfFile) {
+                        byte nextByte = buffer[position++];
+                        offset++;
+                        if (nextByte != '\n') {
+                            if (line.length() < MAX_LINE_START) {
+                                line.append((char) nextByte);
+                            }
+                            continue;
+                        }
+                    }
+
+                    String lineContent = line.toString().trim();
+                    line.setLength(0);
+
+                    if (lineContent.startsWith("BEGIN IONS")) {
+                        if (spectrumStart == -1) {
+                            rangeEnd = lineOffset;
+                        }
+                        spectrumStart = lineOffset;
+                        inSpectrum = true;
+                        title = null;
+                    } else if (inSpectrum && lineContent.startsWith("TITLE=")) {
+                        if (lineContent.length() >= MAX_LINE_START) {
+                            // title truncated, cannot be matched
+                            return false;
+                        }
+                        title = getTitle(lineContent.substring(lineContent.indexOf('=') + 1));
+                    } else if (inSpectrum && lineContent.startsWith("END IONS")) {
+                        inSpectrum = false;
+                        if (title != null && titles.contains(title)) {
+                            if (!copiedTitles.add(title)) {
+                                // duplicate title, cannot be matched
+                                return false;
+                            }
+                            if (spectrumStart != rangeEnd) {
+                                copy(inputChannel, outputChannel, rangeStart, rangeEnd);
+                                rangeStart = spectrumStart;
+                            }
+                            rangeEnd = offset;
+                        }
                     }
-                } finally {
-                    b.close();
+
+                    lineOffset = offset;
                 }
+
+                if (copiedTitles.size() != titles.size()) {
+                    return false;
+                }
+
+                copy(inputChannel, outputChannel, rangeStart, rangeEnd);
+
             } finally {
-                f.close();
+                outputStream.close();
             }
+        } finally {
+            inputStream.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the title of a spectrum as found in the spectrum keys.
+     *
+     * @param mgfTitle the title as written in the mgf file
+     *
+     * @return the title of a spectrum as found in the spectrum keys
+     */
+    private static String getTitle(String mgfTitle) {
+        try {
+            return URLDecoder.decode(mgfTitle, "utf-8");
+        } catch (UnsupportedEncodingException e) {
+            return mgfTitle;
+        } catch (IllegalArgumentException e) {
+            return mgfTitle;
+        }
+    }
+
+    /**
+     * Copies a byte range from a channel to another.
+     *
+     * @param inputChannel the channel to copy from
+     * @param outputChannel the channel to copy to
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static void copy(FileChannel inputChannel, FileChannel outputChannel, long start, long end) throws IOException {
+        long position = start;
+        while (position < end) {
+            position += inputChannel.transferTo(position, end - position, outputChannel);
         }
     }
 
@@ -23,10 +23,9 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Annotati
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.pride.CvTerm;
-import com.compomics.util.pride.PrideObjectsFactory;
-import com.compomics.util.pride.PtmToPrideMap;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.utils.OrderedResultsWriter;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -34,6 +33,8 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -47,6 +48,14 @@ public class SwathExport {
      * The separator (tab by default).
      */
     public static final String SEPARATOR = "\t";
+    /**
+     * The number of PSMs exported at a time by a worker.
+     */
+    private static final int BLOCK_SIZE = 100;
+    /**
+     * The line separator.
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
     /**
      * Writes a text export containing the information for a swath library.
@@ -65,6 +74,7 @@ public class SwathExport {
      * peptide to protein mapping
      * @param ptmSequenceMatchingPreferences the sequence matching preferences
      * for PTM to peptide mapping
+     * @param nThreads the number of threads to use to annotate the spectra
      *
      * @throws IOException exception thrown whenever an error occurred while
      * interacting with a file
@@ -78,7 +88,8 @@ public class SwathExport {
      * reading an mzML file
      */
     public static void writeSwathExport(File destinationFile, Identification identification, ExportType exportType, WaitingHandler waitingHandler,
-            ArrayList<String> targetedPTMs, AnnotationSettings annotationPreferences, SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences)
+            ArrayList<String> targetedPTMs, AnnotationSettings annotationPreferences, SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences,
+            int nThreads)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         if (exportType == ExportType.confident_ptms) {
@@ -91,7 +102,6 @@ public class SwathExport {
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
 
         if (exportType == ExportType.validated_psms_peptides || exportType == ExportType.validated_psms_peptides_proteins || exportType == ExportType.confident_ptms) {
             if (waitingHandler != null) {
@@ -112,7 +122,14 @@ public class SwathExport {
 
         FileWriter f = new FileWriter(destinationFile);
         try {
-            BufferedWriter writer = new BufferedWriter(f);
+            final BufferedWriter writer = new BufferedWriter(f);
+            OrderedResultsWriter<String> blocksWriter = new OrderedResultsWriter<String>(nThreads) {
+                @Override
+                protected void write(String lines, int nItems) throws IOException {
+                    writer.write(lines);
+                }
+            };
+            PsmLinesFactory psmLinesFactory = new PsmLinesFactory(sequenceMatchingPreferences, ptmSequenceMatchingPreferences, annotationPreferences);
 
             try {
                 writer.write("Q1" + SEPARATOR);
@@ -130,6 +147,9 @@ public class SwathExport {
                 writer.write("frg_nr" + SEPARATOR);
                 writer.newLine();
 
+                ArrayList<SpectrumMatch> blockMatches = new ArrayList<SpectrumMatch>(BLOCK_SIZE);
+                ArrayList<ArrayList<String>> blockAccessions = new ArrayList<ArrayList<String>>(BLOCK_SIZE);
+
                 for (int i = 0; i < spectrumFactory.getMgfFileNames().size(); i++) {
 
                     String mgfFile = spectrumFactory.getMgfFileNames().get(i);
@@ -167,13 +187,15 @@ public class SwathExport {
                                         }
                                         if (!decoy) {
                                             if (exportType == ExportType.validated_psms) {
-                                                writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, annotationPreferences, spectrumAnnotator);
+                                                blockMatches.add(spectrumMatch);
+                                                blockAccessions.add(null);
                                             } else {
                                                 String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
                                                 psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
                                                 if (psParameter.getMatchValidationLevel().isValidated()) {
                                                     if (exportType == ExportType.validated_psms_peptides) {
-                                                        writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, annotationPreferences, spectrumAnnotator);
+                                                        blockMatches.add(spectrumMatch);
+                                                        blockAccessions.add(null);
                                                     } else {
                                                         ArrayList<String> accessions = new ArrayList<String>();
                                                         for (String accession : peptide.getParentProteins(sequenceMatchingPreferences)) {
@@ -192,7 +214,8 @@ public class SwathExport {
                                                             }
                                                         }
                                                         if (!accessions.isEmpty()) {
-                                                            writePsm(writer, spectrumKey, accessions, identification, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, annotationPreferences, spectrumAnnotator);
+                                                            blockMatches.add(spectrumMatch);
+                                                            blockAccessions.add(accessions);
                                                         }
                                                     }
                                                 }
@@ -201,6 +224,11 @@ public class SwathExport {
                                     }
                                 }
                             }
+                            if (blockMatches.size() == BLOCK_SIZE) {
+                                blocksWriter.submit(new PsmLinesCallable(blockMatches, blockAccessions, psmLinesFactory), blockMatches.size());
+                                blockMatches = new ArrayList<SpectrumMatch>(BLOCK_SIZE);
+                                blockAccessions = new ArrayList<ArrayList<String>>(BLOCK_SIZE);
+                            }
                             if (waitingHandler != null) {
                                 if (waitingHandler.isRunCanceled()) {
                                     return;
@@ -210,7 +238,12 @@ public class SwathExport {
                         }
                     }
                 }
+                if (!blockMatches.isEmpty()) {
+                    blocksWriter.submit(new PsmLinesCallable(blockMatches, blockAccessions, psmLinesFactory), blockMatches.size());
+                }
+                blocksWriter.flush();
             } finally {
+                blocksWriter.shutdown();
                 writer.close();
             }
         } finally {
@@ -245,170 +278,266 @@ public class SwathExport {
     }
 
     /**
-     * Writes the lines corresponding to a PSM in the export file in the
-     * Progenesis format.
-     *
-     * @param writer the writer
-     * @param spectrumKey the key of the PSM to export
-     * @param identification the identification
-     * @param sequenceMatchingPreferences the sequence matching preferences for
-     * peptide to protein mapping
-     * @param ptmSequenceMatchingPreferences the sequence matching preferences
-     * for PTM to peptide mapping
-     * @param annotationPreferences the annotation preferences to use for
-     * spectrum annotation
-     * @param spectrumAnnotator the spectrum annotator to use
+     * Callable generating the lines of a block of PSMs.
      *
-     * @throws IOException exception thrown whenever an error occurred while
-     * interacting with a file
-     * @throws SQLException thrown whenever an error occurred while interacting
-     * with the database
-     * @throws ClassNotFoundException thrown whenever an error occurred while
-     * deserializing a match from the database
-     * @throws InterruptedException thrown whenever a threading error occurred
-     * while interacting with the database
-     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
-     * reading an mzML file
+     * @author Marc Vaudel
      */
-    private static void writePsm(BufferedWriter writer, String spectrumKey, Identification identification, SequenceMatchingPreferences sequenceMatchingPreferences,
-            SequenceMatchingPreferences ptmSequenceMatchingPreferences, AnnotationSettings annotationPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
-            throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
-        writePsm(writer, spectrumKey, null, identification, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, annotationPreferences, spectrumAnnotator);
+    private static class PsmLinesCallable implements Callable<String> {
+
+        /**
+         * The spectrum matches of the block.
+         */
+        private final ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The accessions to report for every spectrum match, null elements to
+         * report all proteins.
+         */
+        private final ArrayList<ArrayList<String>> accessions;
+        /**
+         * The factory generating the lines.
+         */
+        private final PsmLinesFactory psmLinesFactory;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatches the spectrum matches of the block
+         * @param accessions the accessions to report for every spectrum match,
+         * null elements to report all proteins
+         * @param psmLinesFactory the factory generating the lines
+         */
+        public PsmLinesCallable(ArrayList<SpectrumMatch> spectrumMatches, ArrayList<ArrayList<String>> accessions, PsmLinesFactory psmLinesFactory) {
+            this.spectrumMatches = spectrumMatches;
+            this.accessions = accessions;
+            this.psmLinesFactory = psmLinesFactory;
+        }
+
+        @Override
+        public String call() throws Exception {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < spectrumMatches.size(); i++) {
+                psmLinesFactory.appendPsmLines(lines, spectrumMatches.get(i), accessions.get(i));
+            }
+            return lines.toString();
+        }
     }
 
     /**
-     * Writes the lines corresponding to a PSM in the export file in the
-     * Progenesis format. Note: proteins must be set for every exported peptide.
-     *
-     * @param writer the writer
-     * @param spectrumKey the key of the PSM to export
-     * @param accessions the accessions corresponding to that peptide according
-     * to protein inference. If null all proteins will be reported.
-     * @param identification the identification
-     * @param sequenceMatchingPreferences the sequence matching preferences for
-     * peptide to protein mapping
-     * @param ptmSequenceMatchingPreferences the sequence matching preferences
-     * for PTM to peptide mapping
-     * @param annotationPreferences the annotation preferences to use for
-     * spectrum annotation
-     * @param spectrumAnnotator the spectrum annotator to use
+     * Generates the lines of the PSMs in the Progenesis format. The protein
+     * names are computed once and reused when the same protein recurs. This
+     * class is thread safe, every thread annotates the spectra with its own
+     * annotator.
      *
-     * @throws IOException exception thrown whenever an error occurred while
-     * interacting with a file
-     * @throws SQLException thrown whenever an error occurred while interacting
-     * with the database
-     * @throws ClassNotFoundException thrown whenever an error occurred while
-     * deserializing a match from the database
-     * @throws InterruptedException thrown whenever a threading error occurred
-     * while interacting with the database
-     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
-     * reading an mzML file
+     * @author Marc Vaudel
      */
-    private static void writePsm(BufferedWriter writer, String spectrumKey, ArrayList<String> accessions, Identification identification,
-            SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences,
-            AnnotationSettings annotationPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
-            throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
-
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-        PeptideAssumption bestAssumption = spectrumMatch.getBestPeptideAssumption();
-        Peptide peptide = bestAssumption.getPeptide();
-        MSnSpectrum spectrum = (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey);
-
-        if (accessions == null) {
-            accessions = peptide.getParentProteins(sequenceMatchingPreferences);
-        }
-        PTMFactory ptmFactory = PTMFactory.getInstance();
-        PtmToPrideMap ptmToPrideMap = null;
-        // get the psi-mod mappings
-        try {
-            PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance();
-            ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static class PsmLinesFactory {
+
+        /**
+         * The sequence matching preferences for peptide to protein mapping.
+         */
+        private final SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The sequence matching preferences for PTM to peptide mapping.
+         */
+        private final SequenceMatchingPreferences ptmSequenceMatchingPreferences;
+        /**
+         * The annotation preferences to use for spectrum annotation.
+         */
+        private final AnnotationSettings annotationPreferences;
+        /**
+         * The spectrum annotator of every thread.
+         */
+        private final ThreadLocal<PeptideSpectrumAnnotator> spectrumAnnotators = new ThreadLocal<PeptideSpectrumAnnotator>() {
+            @Override
+            protected PeptideSpectrumAnnotator initialValue() {
+                return new PeptideSpectrumAnnotator();
+            }
+        };
+        /**
+         * The protein names indexed by accession.
+         */
+        private final ConcurrentHashMap<String, String> proteinNames = new ConcurrentHashMap<String, String>();
+
+        /**
+         * Constructor.
+         *
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * for peptide to protein mapping
+         * @param ptmSequenceMatchingPreferences the sequence matching
+         * preferences for PTM to peptide mapping
+         * @param annotationPreferences the annotation preferences to use for
+         * spectrum annotation
+         */
+        public PsmLinesFactory(SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences,
+                AnnotationSettings annotationPreferences) {
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.ptmSequenceMatchingPreferences = ptmSequenceMatchingPreferences;
+            this.annotationPreferences = annotationPreferences;
         }
 
-        for (String accession : accessions) {
+        /**
+         * Appends the lines corresponding to a PSM. Note: proteins must be set
+         * for every exported peptide.
+         *
+         * @param lines the builder where to append the lines
+         * @param spectrumMatch the PSM to export
+         * @param accessions the accessions corresponding to that peptide
+         * according to protein inference. If null all proteins will be
+         * reported.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading a file
+         * @throws SQLException thrown whenever an error occurred while
+         * interacting with the database
+         * @throws ClassNotFoundException thrown whenever an error occurred while
+         * deserializing a match from the database
+         * @throws InterruptedException thrown whenever a threading error
+         * occurred while interacting with the database
+         * @throws MzMLUnmarshallerException thrown whenever an error occurred
+         * while reading an mzML file
+         */
+        public void appendPsmLines(StringBuilder lines, SpectrumMatch spectrumMatch, ArrayList<String> accessions)
+                throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+            String spectrumKey = spectrumMatch.getKey();
+            PeptideAssumption bestAssumption = spectrumMatch.getBestPeptideAssumption();
+            Peptide peptide = bestAssumption.getPeptide();
+            MSnSpectrum spectrum = (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+
+            if (accessions == null) {
+                accessions = peptide.getParentProteins(sequenceMatchingPreferences);
+            }
+
+            Charge charge = bestAssumption.getIdentificationCharge();
+            String[] features = getPeptideFeatures(peptide, charge);
+            double rt = spectrum.getPrecursor().getRt();
 
             SpecificAnnotationSettings specificAnnotationPreferences
                     = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), bestAssumption, sequenceMatchingPreferences, ptmSequenceMatchingPreferences);
-            ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
-                    (MSnSpectrum) spectrum, bestAssumption.getPeptide());
-
-            for (IonMatch ionMatch : matches) {
-
-                if (ionMatch.ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
-
-                    PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ionMatch.ion;
-
-                    if (!peptideFragmentIon.hasNeutralLosses()) {
-
-                        //Q1
-                        Charge charge = bestAssumption.getIdentificationCharge();
-                        double theoreticPrecMz = (peptide.getMass() + charge.value * ElementaryIon.proton.getTheoreticMass()) / charge.value;
-                        writer.write(theoreticPrecMz + SEPARATOR);
-
-                        //Q3
-                        double theoreticFragMz = ionMatch.ion.getTheoreticMz(charge.value);
-                        writer.write(theoreticFragMz + SEPARATOR);
-
-                        // RT_detected
-                        double rt = spectrum.getPrecursor().getRt();
-                        writer.write(rt + SEPARATOR);
-
-                        // isotope
-                        writer.write("Light" + SEPARATOR);
-
-                        // uniprot_id
-                        writer.write(accession + SEPARATOR);
-
-                        // relative intensity
-                        double intensity = ionMatch.peak.intensity; //@TODO: normalize in some way?
-                        writer.write(intensity + SEPARATOR);
-
-                        // sequence
-                        String sequence = peptide.getSequence();
-                        writer.write(sequence + SEPARATOR);
-
-                        // modified sequence
-                        String modifiedSequence = "";
-                        for (int aa = 0; aa < sequence.length(); aa++) {
-                            modifiedSequence += sequence.charAt(aa);
-                            if (peptide.isModified()) {
-                                for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                    if (modificationMatch.getModificationSite() == aa + 1) {
-                                        String ptmName = modificationMatch.getTheoreticPtm();
-                                        PTM ptm = ptmFactory.getPTM(ptmName);
-                                        CvTerm cvTerm = ptm.getCvTerm();
-                                        if (cvTerm != null) {
-                                            modifiedSequence += "[" + cvTerm.getName() + "]";
-                                        } else {
-                                            modifiedSequence += "[" + ptm.getShortName() + "]";
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        writer.write(modifiedSequence + SEPARATOR);
+            ArrayList<IonMatch> matches = spectrumAnnotators.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
+                    spectrum, peptide);
+
+            for (String accession : accessions) {
+
+                String proteinName = getProteinName(accession);
+
+                for (IonMatch ionMatch : matches) {
+
+                    if (ionMatch.ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
+
+                        PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ionMatch.ion;
+
+                        if (!peptideFragmentIon.hasNeutralLosses()) {
 
-                        // prec_z
-                        writer.write(charge.value + SEPARATOR);
+                            //Q1
+                            lines.append(features[0]).append(SEPARATOR);
 
-                        // protein name
-                        writer.write(SequenceFactory.getInstance().getHeader(accession).getDescriptionProteinName() + SEPARATOR);
+                            //Q3
+                            double theoreticFragMz = ionMatch.ion.getTheoreticMz(charge.value);
+                            lines.append(theoreticFragMz).append(SEPARATOR);
 
-                        // fragment type
-                        writer.write(peptideFragmentIon.getSubTypeAsString() + SEPARATOR);
+                            // RT_detected
+                            lines.append(rt).append(SEPARATOR);
 
-                        // fragment z
-                        writer.write(ionMatch.charge.value + SEPARATOR);
+                            // isotope
+                            lines.append("Light").append(SEPARATOR);
 
-                        // fragment number
-                        writer.write(peptideFragmentIon.getNumber() + SEPARATOR);
+                            // uniprot_id
+                            lines.append(accession).append(SEPARATOR);
 
-                        writer.newLine();
+                            // relative intensity
+                            double intensity = ionMatch.peak.intensity; //@TODO: normalize in some way?
+                            lines.append(intensity).append(SEPARATOR);
+
+                            // sequence
+                            lines.append(peptide.getSequence()).append(SEPARATOR);
+
+                            // modified sequence
+                            lines.append(features[1]).append(SEPARATOR);
+
+                            // prec_z
+                            lines.append(charge.value).append(SEPARATOR);
+
+                            // protein name
+                            lines.append(proteinName).append(SEPARATOR);
+
+                            // fragment type
+                            lines.append(peptideFragmentIon.getSubTypeAsString()).append(SEPARATOR);
+
+                            // fragment z
+                            lines.append(ionMatch.charge.value).append(SEPARATOR);
+
+                            // fragment number
+                            lines.append(peptideFragmentIon.getNumber()).append(SEPARATOR);
+
+                            lines.append(LINE_SEPARATOR);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the theoretic precursor m/z and the modified sequence of a
+         * peptide at a given charge. The features are computed for every PSM
+         * as the modified sequence depends on the modification sites of the
+         * PSM, which are not all part of the peptide key.
+         *
+         * @param peptide the peptide
+         * @param charge the charge of the precursor
+         *
+         * @return the theoretic precursor m/z and the modified sequence
+         */
+        private String[] getPeptideFeatures(Peptide peptide, Charge charge) {
+
+            double theoreticPrecMz = (peptide.getMass() + charge.value * ElementaryIon.proton.getTheoreticMass()) / charge.value;
+
+            PTMFactory ptmFactory = PTMFactory.getInstance();
+            String sequence = peptide.getSequence();
+            StringBuilder modifiedSequence = new StringBuilder(sequence.length());
+            for (int aa = 0; aa < sequence.length(); aa++) {
+                modifiedSequence.append(sequence.charAt(aa));
+                if (peptide.isModified()) {
+                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                        if (modificationMatch.getModificationSite() == aa + 1) {
+                            String ptmName = modificationMatch.getTheoreticPtm();
+                            PTM ptm = ptmFactory.getPTM(ptmName);
+                            CvTerm cvTerm = ptm.getCvTerm();
+                            if (cvTerm != null) {
+                                modifiedSequence.append('[').append(cvTerm.getName()).append(']');
+                            } else {
+                                modifiedSequence.append('[').append(ptm.getShortName()).append(']');
+                            }
+                        }
                     }
                 }
             }
+
+            return new String[]{Double.toString(theoreticPrecMz), modifiedSequence.toString()};
+        }
+
+        /**
+         * Returns the name of a protein as found in the fasta header.
+         *
+         * @param accession the accession of the protein
+         *
+         * @return the name of the protein
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the fasta file
+         * @throws InterruptedException thrown whenever a threading error
+         * occurred while reading the fasta file
+         */
+        private String getProteinName(String accession) throws IOException, InterruptedException {
+            String proteinName = proteinNames.get(accession);
+            if (proteinName == null) {
+                proteinName = SequenceFactory.getInstance().getHeader(accession).getDescriptionProteinName();
+                if (proteinName == null) {
+                    proteinName = "null";
+                }
+                proteinNames.put(accession, proteinName);
+            }
+            return proteinName;
         }
     }
 
@@ -9,6 +9,7 @@ import com.compomics.util.experiment.identification.matches_iterators.PeptideMat
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.protein.Header;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
@@ -25,6 +26,12 @@ import java.util.HashMap;
  */
 public class JumpToPanel extends javax.swing.JPanel {
 
+    /**
+     * Separator between the fields of an indexed text, not expected in user
+     * input.
+     */
+    private static final char FIELD_SEPARATOR = '\u0000';
+
     /**
      * Enum of the types of data to jump to.
      */
@@ -95,6 +102,32 @@ public class JumpToPanel extends javax.swing.JPanel {
      * Type of each possible item.
      */
     private HashMap<JumpType, ArrayList<Type>> types = new HashMap<JumpType, ArrayList<Type>>();
+    /**
+     * The search index of the processed proteins, by protein key, description
+     * and gene name.
+     */
+    private SearchIndex proteinIndex = null;
+    /**
+     * The list of processed protein keys indexed in the protein index.
+     */
+    private ArrayList<String> indexedProteinKeys = null;
+    /**
+     * The search index of the peptides by peptide key.
+     */
+    private SearchIndex peptideIndex = null;
+    /**
+     * The identification indexed in the peptide index.
+     */
+    private Identification indexedIdentification = null;
+    /**
+     * The search indexes of the spectra of the inspected spectrum file by
+     * spectrum key, precursor m/z and retention time.
+     */
+    private SearchIndex[] spectrumIndexes = null;
+    /**
+     * The spectrum file indexed in the spectrum indexes.
+     */
+    private String indexedSpectrumFile = null;
 
     /**
      * Creates a new JumpToPanel.
@@ -245,6 +278,154 @@ public class JumpToPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Builds the search indexes of the peptides and spectra of the inspected
+     * spectrum file in a background thread, so that the search does not need
+     * to go through the matches while the user types. The protein index is
+     * built at the first protein search, as the processed protein list is not
+     * available before the overview tab is loaded.
+     */
+    public void buildIndexes() {
+        clearIndexes();
+        new Thread("JumpToIndexThread") {
+            @Override
+            public void run() {
+                try {
+                    if (peptideShakerGUI.getIdentification() != null) {
+                        getPeptideIndex();
+                        String currentSpectrumFile = spectrumfile;
+                        if (currentSpectrumFile != null) {
+                            getSpectrumIndexes(currentSpectrumFile);
+                        }
+                    }
+                } catch (Exception e) {
+                    peptideShakerGUI.catchException(e);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Clears the search indexes.
+     */
+    private synchronized void clearIndexes() {
+        proteinIndex = null;
+        indexedProteinKeys = null;
+        peptideIndex = null;
+        indexedIdentification = null;
+        spectrumIndexes = null;
+        indexedSpectrumFile = null;
+    }
+
+    /**
+     * Returns the search index of the processed proteins, building it if the
+     * processed proteins changed.
+     *
+     * @return the search index of the processed proteins
+     *
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    private synchronized SearchIndex getProteinIndex() throws SQLException, ClassNotFoundException, IOException, InterruptedException {
+
+        ArrayList<String> processedProteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterPreferences());
+
+        if (proteinIndex == null || indexedProteinKeys != processedProteinKeys) {
+
+            ArrayList<String> keys = new ArrayList<String>(processedProteinKeys.size());
+            ArrayList<String> texts = new ArrayList<String>(processedProteinKeys.size());
+
+            for (String proteinKey : processedProteinKeys) {
+                if (!ProteinMatch.isDecoy(proteinKey)) {
+                    StringBuilder text = new StringBuilder(proteinKey);
+                    for (String accession : ProteinMatch.getAccessions(proteinKey)) {
+                        try {
+                            Header header = sequenceFactory.getHeader(accession);
+                            String description = header.getSimpleProteinDescription();
+                            if (description != null) {
+                                text.append(FIELD_SEPARATOR).append(description);
+                            }
+                            String geneName = header.getGeneName();
+                            if (geneName != null) {
+                                text.append(FIELD_SEPARATOR).append(geneName);
+                            }
+                        } catch (Exception e) {
+                            // cannot get description, ignore
+                        }
+                    }
+                    keys.add(proteinKey);
+                    texts.add(text.toString());
+                }
+            }
+
+            proteinIndex = new SearchIndex(keys, texts, true, false);
+            indexedProteinKeys = processedProteinKeys;
+        }
+
+        return proteinIndex;
+    }
+
+    /**
+     * Returns the search index of the peptides, building it if needed.
+     *
+     * @return the search index of the peptides
+     */
+    private synchronized SearchIndex getPeptideIndex() {
+
+        Identification identification = peptideShakerGUI.getIdentification();
+
+        if (peptideIndex == null || indexedIdentification != identification) {
+            ArrayList<String> keys = new ArrayList<String>(identification.getPeptideIdentification());
+            peptideIndex = new SearchIndex(keys, keys, true, false);
+            indexedIdentification = identification;
+        }
+
+        return peptideIndex;
+    }
+
+    /**
+     * Returns the search indexes of the spectra of a file by spectrum key,
+     * precursor m/z and retention time, building them if needed.
+     *
+     * @param spectrumFile the name of the spectrum file
+     *
+     * @return the search indexes of the spectra of the file
+     */
+    private synchronized SearchIndex[] getSpectrumIndexes(String spectrumFile) {
+
+        if (spectrumIndexes == null || !spectrumFile.equals(indexedSpectrumFile)) {
+
+            ArrayList<String> spectrumTitles = spectrumFactory.getSpectrumTitles(spectrumFile);
+            ArrayList<String> keys = new ArrayList<String>(spectrumTitles.size());
+            ArrayList<String> mzs = new ArrayList<String>(spectrumTitles.size());
+            ArrayList<String> rts = new ArrayList<String>(spectrumTitles.size());
+
+            for (String spectrumTitle : spectrumTitles) {
+                String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
+                keys.add(spectrumKey);
+                try {
+                    Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+                    mzs.add(precursor.getMz() + "");
+                    rts.add(precursor.getRt() + "");
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    mzs.add("");
+                    rts.add("");
+                }
+            }
+
+            spectrumIndexes = new SearchIndex[]{
+                new SearchIndex(keys, keys, true, false),
+                new SearchIndex(keys, mzs, false, true),
+                new SearchIndex(keys, rts, false, true)};
+            indexedSpectrumFile = spectrumFile;
+        }
+
+        return spectrumIndexes;
+    }
+
     /**
      * Returns the index of the selected item.
      *
@@ -420,7 +601,7 @@ public class JumpToPanel extends javax.swing.JPanel {
                                 types.get(jumpType).clear();
                             }
                             currentSelection.put(jumpType, 0);
-                            String doubleString, input = inputTxt.getText().trim().toLowerCase();
+                            String input = inputTxt.getText().trim().toLowerCase();
                             lastInput.put(jumpType, input);
 
                             if (!input.equals("")) {
@@ -430,25 +611,10 @@ public class JumpToPanel extends javax.swing.JPanel {
 
                                 if (jumpType == JumpType.proteinAndPeptides) {
 
-                                    for (String proteinKey : peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterPreferences())) {
-                                        if (!ProteinMatch.isDecoy(proteinKey)) {
-                                            if (proteinKey.toLowerCase().contains(input)) {
-                                                possibilities.get(jumpType).add(proteinKey);
-                                                types.get(jumpType).add(Type.PROTEIN);
-                                            } else {
-                                                try {
-                                                    for (String accession : ProteinMatch.getAccessions(proteinKey)) {
-                                                        if (sequenceFactory.getHeader(accession).getSimpleProteinDescription().toLowerCase().contains(input)) {
-                                                            possibilities.get(jumpType).add(proteinKey);
-                                                            types.get(jumpType).add(Type.PROTEIN);
-                                                            break;
-                                                        }
-                                                    }
-                                                } catch (Exception e) {
-                                                    // cannot get description, ignore
-                                                }
-                                            }
-                                        }
+                                    SearchIndex index = getProteinIndex();
+                                    for (int i : index.getContaining(input)) {
+                                        possibilities.get(jumpType).add(index.getKey(i));
+                                        types.get(jumpType).add(Type.PROTEIN);
                                     }
 
                                     // check if it's a valid peptide sequence
@@ -470,7 +636,9 @@ public class JumpToPanel extends javax.swing.JPanel {
                                         identification.loadPeptideMatchParameters(psParameter, null, false);
                                         String matchingInput = AminoAcid.getMatchingSequence(input, peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences());
 
-                                        for (String peptideKey : identification.getPeptideIdentification()) {
+                                        index = getPeptideIndex();
+                                        for (int i : index.getContaining(matchingInput)) {
+                                            String peptideKey = index.getKey(i);
                                             try {
                                                 psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
                                             } catch (Exception e) {
@@ -511,29 +679,12 @@ public class JumpToPanel extends javax.swing.JPanel {
                                         }
                                     }
                                 } else {
-                                    for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumfile)) {
-                                        String spectrumKey = Spectrum.getSpectrumKey(spectrumfile, spectrumTitle);
-                                        if (spectrumKey.toLowerCase().contains(input)) {
-                                            possibilities.get(jumpType).add(spectrumKey);
-                                            types.get(jumpType).add(Type.SPECTRUM);
-                                        } else {
-                                            try {
-                                                Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
-                                                doubleString = precursor.getMz() + "";
-                                                if (doubleString.startsWith(input)) {
-                                                    possibilities.get(jumpType).add(spectrumKey);
-                                                    types.get(jumpType).add(Type.SPECTRUM);
-                                                } else {
-                                                    doubleString = precursor.getRt() + "";
-                                                    if (doubleString.startsWith(input)) {
-                                                        possibilities.get(jumpType).add(spectrumKey);
-                                                        types.get(jumpType).add(Type.SPECTRUM);
-                                                    }
-                                                }
-                                            } catch (Exception e) {
-                                                e.printStackTrace();
-                                            }
-                                        }
+                                    SearchIndex[] indexes = getSpectrumIndexes(spectrumfile);
+                                    int[] matches = SearchIndex.union(indexes[0].getContaining(input),
+                                            SearchIndex.union(indexes[1].getStartingWith(input), indexes[2].getStartingWith(input)));
+                                    for (int i : matches) {
+                                        possibilities.get(jumpType).add(indexes[0].getKey(i));
+                                        types.get(jumpType).add(Type.SPECTRUM);
                                     }
                                 }
 
@@ -78,6 +78,10 @@ public class MatchValidationDialog extends javax.swing.JDialog {
      * Indicates whether the validation status of the match changed.
      */
     private boolean validationChanged = false;
+    /**
+     * The keys of the protein matches whose validation or counts were updated.
+     */
+    private HashSet<String> updatedProteinMatches = new HashSet<String>();
     /**
      * The type of match selected.
      */
@@ -568,6 +572,16 @@ public class MatchValidationDialog extends javax.swing.JDialog {
         return validationChanged;
     }
 
+    /**
+     * Returns the keys of the protein matches whose validation level or
+     * number of validated peptides and spectra were updated.
+     *
+     * @return the keys of the protein matches updated
+     */
+    public HashSet<String> getUpdatedProteinMatches() {
+        return updatedProteinMatches;
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -915,6 +929,7 @@ public class MatchValidationDialog extends javax.swing.JDialog {
 
                 if (type == Type.PROTEIN) {
                     identification.updateProteinMatchParameter(matchKey, psParameter);
+                    updatedProteinMatches.add(matchKey);
                     if (matchValidationLevel == MatchValidationLevel.confident) {
                         metrics.setnConfidentProteins(metrics.getnConfidentProteins() + 1);
                     } else if (matchValidationLevel == MatchValidationLevel.doubtful) {
@@ -938,6 +953,7 @@ public class MatchValidationDialog extends javax.swing.JDialog {
 
                             for (String proteinMatchKey : proteinMatches) {
 
+                                updatedProteinMatches.add(proteinMatchKey);
                                 identificationFeaturesGenerator.updateNConfidentPeptides(proteinMatchKey);
                                 PSParameter proteinPSParameter = (PSParameter) identification.getProteinMatchParameter(proteinMatchKey, psParameter);
                                 MatchValidationLevel proteinValidation = proteinPSParameter.getMatchValidationLevel();
@@ -986,6 +1002,7 @@ public class MatchValidationDialog extends javax.swing.JDialog {
 
                                     for (String proteinMatchKey : proteinMatches) {
 
+                                        updatedProteinMatches.add(proteinMatchKey);
                                         identificationFeaturesGenerator.updateNConfidentPeptides(proteinMatchKey);
                                         identificationFeaturesGenerator.updateNConfidentSpectra(proteinMatchKey);
                                         PSParameter proteinPSParameter = (PSParameter) identification.getProteinMatchParameter(proteinMatchKey, psParameter);
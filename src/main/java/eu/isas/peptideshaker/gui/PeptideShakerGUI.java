@@ -3323,6 +3323,9 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         ProcessingPreferencesDialog processingPreferencesDialog = new ProcessingPreferencesDialog(this, processingPreferences, true);
         if (!processingPreferencesDialog.isCanceled()) {
             processingPreferences = processingPreferencesDialog.getProcessingPreferences();
+            if (getIdentificationFeaturesGenerator() != null) {
+                getIdentificationFeaturesGenerator().setnThreads(processingPreferences.getnThreads());
+            }
         }
     }//GEN-LAST:event_processingMenuItemActionPerformed
 
@@ -3434,6 +3437,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
             // enable the menu items depending on a project being open
             jumpToPanel.setEnabled(true);
+            jumpToPanel.buildIndexes();
             saveMenuItem.setEnabled(true);
             saveAsMenuItem.setEnabled(true);
             identificationFeaturesMenuItem.setEnabled(true);
@@ -3985,6 +3989,9 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      */
     public void setProcessingPreferences(ProcessingPreferences processingPreferences) {
         this.processingPreferences = processingPreferences;
+        if (getIdentificationFeaturesGenerator() != null) {
+            getIdentificationFeaturesGenerator().setnThreads(getProcessingPreferences().getnThreads());
+        }
     }
 
     /**
@@ -5457,6 +5464,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                     openingExistingProject = true;
 
                     cpsParent.loadCpsFile(PeptideShaker.getMatchesFolder(), progressDialog);
+                    getIdentificationFeaturesGenerator().setnThreads(getProcessingPreferences().getnThreads());
 
                     // load project specific PTMs
                     String error = PeptideShaker.loadModifications(getIdentificationParameters().getSearchParameters());
@@ -6241,6 +6249,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      */
     public void resetIdentificationFeaturesGenerator() {
         cpsParent.resetIdentificationFeaturesGenerator();
+        getIdentificationFeaturesGenerator().setnThreads(getProcessingPreferences().getnThreads());
     }
 
     /**
@@ -6251,6 +6260,9 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      */
     public void setIdentificationFeaturesGenerator(IdentificationFeaturesGenerator identificationFeaturesGenerator) {
         cpsParent.setIdentificationFeaturesGenerator(identificationFeaturesGenerator);
+        if (identificationFeaturesGenerator != null) {
+            identificationFeaturesGenerator.setnThreads(getProcessingPreferences().getnThreads());
+        }
     }
 
     /**
@@ -0,0 +1,347 @@
+package eu.isas.peptideshaker.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * In memory index of texts supporting case insensitive substring and prefix
+ * search. Substring search uses an index of the trigrams of the texts, prefix
+ * search a sorted array of the texts. Search results are the indexes of the
+ * matching texts in the order they were given.
+ *
+ * @author Marc Vaudel
+ */
+public class SearchIndex {
+
+    /**
+     * The length of the n-grams indexed.
+     */
+    private static final int N_GRAM_LENGTH = 3;
+    /**
+     * The keys of the items indexed.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The lower case texts of the items indexed.
+     */
+    private final String[] texts;
+    /**
+     * The sorted indexes of the texts containing every trigram, indexed by
+     * trigram.
+     */
+    private final HashMap<Long, int[]> nGramIndex;
+    /**
+     * The indexes of the texts in alphabetical order of the texts.
+     */
+    private final int[] sortedIndexes;
+    /**
+     * The last substring searched.
+     */
+    private String lastQuery = null;
+    /**
+     * The result of the last substring search.
+     */
+    private int[] lastResult = null;
+
+    /**
+     * Constructor.
+     *
+     * @param keys the keys of the items to index
+     * @param texts the texts of the items to index in the same order as the
+     * keys
+     * @param substringSearch if true substring search will be possible
+     * @param prefixSearch if true prefix search will be possible
+     */
+    public SearchIndex(ArrayList<String> keys, ArrayList<String> texts, boolean substringSearch, boolean prefixSearch) {
+
+        this.keys = keys;
+        this.texts = new String[texts.size()];
+        for (int i = 0; i < this.texts.length; i++) {
+            this.texts[i] = texts.get(i).toLowerCase();
+        }
+
+        if (substringSearch) {
+            nGramIndex = buildNGramIndex(this.texts);
+        } else {
+            nGramIndex = null;
+        }
+
+        if (prefixSearch) {
+            Integer[] order = new Integer[this.texts.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final String[] sortedTexts = this.texts;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return sortedTexts[o1].compareTo(sortedTexts[o2]);
+                }
+            });
+            sortedIndexes = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedIndexes[i] = order[i];
+            }
+        } else {
+            sortedIndexes = null;
+        }
+    }
+
+    /**
+     * Builds the index of the trigrams of the given texts.
+     *
+     * @param texts the texts to index
+     *
+     * @return the sorted indexes of the texts containing every trigram
+     */
+    private static HashMap<Long, int[]> buildNGramIndex(String[] texts) {
+
+        HashMap<Long, int[]> postings = new HashMap<Long, int[]>();
+        HashMap<Long, Integer> sizes = new HashMap<Long, Integer>();
+
+        for (int i = 0; i < texts.length; i++) {
+            String text = texts[i];
+            for (int j = 0; j + N_GRAM_LENGTH <= text.length(); j++) {
+                Long nGram = getNGram(text, j);
+                int[] textIndexes = postings.get(nGram);
+                if (textIndexes == null) {
+                    textIndexes = new int[4];
+                    textIndexes[0] = i;
+                    postings.put(nGram, textIndexes);
+                    sizes.put(nGram, 1);
+                } else {
+                    int size = sizes.get(nGram);
+                    if (textIndexes[size - 1] != i) {
+                        if (size == textIndexes.length) {
+                            textIndexes = Arrays.copyOf(textIndexes, 2 * size);
+                            postings.put(nGram, textIndexes);
+                        }
+                        textIndexes[size] = i;
+                        sizes.put(nGram, size + 1);
+                    }
+                }
+            }
+        }
+
+        for (Long nGram : sizes.keySet()) {
+            int size = sizes.get(nGram);
+            int[] textIndexes = postings.get(nGram);
+            if (textIndexes.length > size) {
+                postings.put(nGram, Arrays.copyOf(textIndexes, size));
+            }
+        }
+
+        return postings;
+    }
+
+    /**
+     * Returns the trigram starting at the given position of a text encoded as
+     * a long.
+     *
+     * @param text the text
+     * @param start the start position of the trigram
+     *
+     * @return the trigram encoded as a long
+     */
+    private static Long getNGram(String text, int start) {
+        long nGram = 0;
+        for (int i = start; i < start + N_GRAM_LENGTH; i++) {
+            nGram = (nGram << 16) | text.charAt(i);
+        }
+        return nGram;
+    }
+
+    /**
+     * Returns the number of items indexed.
+     *
+     * @return the number of items indexed
+     */
+    public int size() {
+        return texts.length;
+    }
+
+    /**
+     * Returns the key of an item.
+     *
+     * @param index the index of the item
+     *
+     * @return the key of the item
+     */
+    public String getKey(int index) {
+        return keys.get(index);
+    }
+
+    /**
+     * Returns the indexes of the items whose text contains the given query,
+     * ignoring case. If the query extends the previous query only the previous
+     * results are inspected.
+     *
+     * @param query the query
+     *
+     * @return the indexes of the matching items in increasing order
+     */
+    public synchronized int[] getContaining(String query) {
+
+        if (nGramIndex == null) {
+            throw new IllegalStateException("Substring search not indexed.");
+        }
+
+        query = query.toLowerCase();
+
+        int[] candidates;
+        if (lastQuery != null && query.contains(lastQuery)) {
+            candidates = lastResult;
+        } else if (query.length() >= N_GRAM_LENGTH) {
+            candidates = getNGramCandidates(query);
+        } else {
+            candidates = null;
+        }
+
+        int[] result;
+        int nMatches = 0;
+        if (candidates == null) {
+            result = new int[texts.length];
+            for (int i = 0; i < texts.length; i++) {
+                if (texts[i].contains(query)) {
+                    result[nMatches++] = i;
+                }
+            }
+        } else {
+            result = new int[candidates.length];
+            for (int i : candidates) {
+                if (texts[i].contains(query)) {
+                    result[nMatches++] = i;
+                }
+            }
+        }
+        result = Arrays.copyOf(result, nMatches);
+
+        lastQuery = query;
+        lastResult = result;
+
+        return result;
+    }
+
+    /**
+     * Returns the indexes of the texts containing all trigrams of the query.
+     *
+     * @param query the query
+     *
+     * @return the indexes of the candidate texts in increasing order
+     */
+    private int[] getNGramCandidates(String query) {
+
+        HashSet<Long> queryNGrams = new HashSet<Long>();
+        for (int j = 0; j + N_GRAM_LENGTH <= query.length(); j++) {
+            queryNGrams.add(getNGram(query, j));
+        }
+
+        int[] candidates = null;
+        for (Long nGram : queryNGrams) {
+            int[] textIndexes = nGramIndex.get(nGram);
+            if (textIndexes == null) {
+                return new int[0];
+            }
+            if (candidates == null) {
+                candidates = textIndexes;
+            } else {
+                candidates = intersect(candidates, textIndexes);
+            }
+            if (candidates.length == 0) {
+                return candidates;
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Returns the intersection of two sorted arrays.
+     *
+     * @param array1 the first array
+     * @param array2 the second array
+     *
+     * @return the sorted intersection of the arrays
+     */
+    private static int[] intersect(int[] array1, int[] array2) {
+        int[] result = new int[Math.min(array1.length, array2.length)];
+        int n = 0, i = 0, j = 0;
+        while (i < array1.length && j < array2.length) {
+            if (array1[i] == array2[j]) {
+                result[n++] = array1[i];
+                i++;
+                j++;
+            } else if (array1[i] < array2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the indexes of the items whose text starts with the given
+     * query, ignoring case.
+     *
+     * @param query the query
+     *
+     * @return the indexes of the matching items in increasing order
+     */
+    public int[] getStartingWith(String query) {
+
+        if (sortedIndexes == null) {
+            throw new IllegalStateException("Prefix search not indexed.");
+        }
+
+        query = query.toLowerCase();
+
+        // find the first text not smaller than the query
+        int low = 0, high = sortedIndexes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (texts[sortedIndexes[middle]].compareTo(query) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        int end = low;
+        while (end < sortedIndexes.length && texts[sortedIndexes[end]].startsWith(query)) {
+            end++;
+        }
+
+        int[] result = Arrays.copyOfRange(sortedIndexes, low, end);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the sorted union of two sorted arrays.
+     *
+     * @param array1 the first array
+     * @param array2 the second array
+     *
+     * @return the sorted union of the arrays
+     */
+    public static int[] union(int[] array1, int[] array2) {
+        int[] result = new int[array1.length + array2.length];
+        int n = 0, i = 0, j = 0;
+        while (i < array1.length || j < array2.length) {
+            if (j == array2.length || i < array1.length && array1[i] < array2[j]) {
+                result[n++] = array1[i++];
+            } else if (i == array1.length || array2[j] < array1[i]) {
+                result[n++] = array2[j++];
+            } else {
+                result[n++] = array1[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
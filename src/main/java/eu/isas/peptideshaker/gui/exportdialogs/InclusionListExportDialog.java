@@ -357,7 +357,8 @@ public class InclusionListExportDialog extends javax.swing.JDialog {
                                 Double rtWindowDouble = new Double(rtWindow.getText());
                                 InclusionListExport.exportInclusionList(outputFile, peptideShakerGUI.getIdentification(),
                                         peptideShakerGUI.getIdentificationFeaturesGenerator(), getProteinFilters(), getPeptideFilters(),
-                                        exportFormat, peptideShakerGUI.getIdentificationParameters().getSearchParameters(), rtWindowDouble, progressDialog, peptideShakerGUI.getFilterPreferences());
+                                        exportFormat, peptideShakerGUI.getIdentificationParameters().getSearchParameters(), rtWindowDouble, progressDialog, peptideShakerGUI.getFilterPreferences(),
+                                        peptideShakerGUI.getProcessingPreferences().getnThreads());
 
                                 boolean processCancelled = progressDialog.isRunCanceled();
                                 progressDialog.setRunFinished();
@@ -649,7 +649,7 @@ public class MzIdentMLExportDialog extends javax.swing.JDialog {
                     MzIdentMLExport mzIdentMLExport = new MzIdentMLExport(PeptideShaker.getVersion(), peptideShakerGUI.getIdentification(), peptideShakerGUI.getProjectDetails(),
                             peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getIdentificationFeaturesGenerator(),
                             finalOutputFile, progressDialog, MatchValidationLevel.none, MatchValidationLevel.none, MatchValidationLevel.none);
-                    mzIdentMLExport.createMzIdentMLFile(mzIdentML_v1_2);
+                    mzIdentMLExport.createMzIdentMLFile(mzIdentML_v1_2, peptideShakerGUI.getProcessingPreferences().getnThreads());
 
                     // validate the mzidentml file
                     if (validateMzIdentML && !progressDialog.isRunCanceled()) {
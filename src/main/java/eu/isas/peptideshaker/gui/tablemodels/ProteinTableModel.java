@@ -1,24 +1,18 @@
 package eu.isas.peptideshaker.gui.tablemodels;
 
 import com.compomics.util.exceptions.ExceptionHandler;
-import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.biology.genes.GeneMaps;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
-import com.compomics.util.experiment.identification.matches.ProteinMatch;
-import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
-import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.gui.TableProperties;
 import com.compomics.util.gui.tablemodels.SelfUpdatingTableModel;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
-import eu.isas.peptideshaker.preferences.DisplayPreferences;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
 import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import java.awt.Color;
 import java.awt.Component;
-import java.sql.SQLNonTransientConnectionException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -46,10 +40,6 @@ import org.jfree.chart.plot.PlotOrientation;
  */
 public class ProteinTableModel extends SelfUpdatingTableModel {
 
-    /**
-     * The sequence factory.
-     */
-    private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
     /**
      * The identification of this project.
      */
@@ -75,14 +65,14 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      * If true the scores will be shown.
      */
     private boolean showScores = false;
-    /**
-     * The batch size.
-     */
-    private int batchSize = 20;
     /**
      * The gene maps.
      */
     private GeneMaps geneMaps;
+    /**
+     * The snapshot of the attributes of the displayed proteins.
+     */
+    private ProteinTableSnapshot snapshot = null;
 
     /**
      * Constructor which sets a new empty table.
@@ -102,15 +92,20 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      * the display elements
      * @param exceptionHandler an exception handler catching exceptions
      * @param proteinKeys the keys of the protein matches to display
+     * @param nThreads the number of threads to use to gather the attributes of
+     * the proteins
+     * @param waitingHandler waiting handler displaying progress to the user
+     * (can be null)
      */
     public ProteinTableModel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps, 
-            DisplayFeaturesGenerator displayFeaturesGenerator, ExceptionHandler exceptionHandler, ArrayList<String> proteinKeys) {
+            DisplayFeaturesGenerator displayFeaturesGenerator, ExceptionHandler exceptionHandler, ArrayList<String> proteinKeys, int nThreads, WaitingHandler waitingHandler) {
         this.identification = identification;
         this.identificationFeaturesGenerator = identificationFeaturesGenerator;
         this.geneMaps = geneMaps;
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.exceptionHandler = exceptionHandler;
         this.proteinKeys = proteinKeys;
+        loadSnapshot(nThreads, waitingHandler);
     }
 
     /**
@@ -126,15 +121,58 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      * the display elements
      * @param exceptionHandler an exception handler catching exceptions
      * @param proteinKeys the keys of the protein matches to display
+     * @param nThreads the number of threads to use to gather the attributes of
+     * the proteins
+     * @param waitingHandler waiting handler displaying progress to the user
+     * (can be null)
      */
     public void updateDataModel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps, 
-            DisplayFeaturesGenerator displayFeaturesGenerator, ExceptionHandler exceptionHandler, ArrayList<String> proteinKeys) {
+            DisplayFeaturesGenerator displayFeaturesGenerator, ExceptionHandler exceptionHandler, ArrayList<String> proteinKeys, int nThreads, WaitingHandler waitingHandler) {
         this.identification = identification;
         this.identificationFeaturesGenerator = identificationFeaturesGenerator;
         this.geneMaps = geneMaps;
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.exceptionHandler = exceptionHandler;
         this.proteinKeys = proteinKeys;
+        loadSnapshot(nThreads, waitingHandler);
+    }
+
+    /**
+     * Gathers the attributes of the displayed proteins in a new snapshot. No
+     * snapshot is installed if the process is canceled.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress to the user
+     * (can be null)
+     */
+    private void loadSnapshot(int nThreads, WaitingHandler waitingHandler) {
+        snapshot = null;
+        if (proteinKeys != null) {
+            try {
+                snapshot = ProteinTableSnapshot.getSnapshot(identification, identificationFeaturesGenerator, geneMaps, proteinKeys, nThreads, waitingHandler);
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+    }
+
+    /**
+     * Updates the attributes of a protein after its match or the matches it
+     * contains were modified, e.g. upon starring or manual validation.
+     *
+     * @param proteinKey the key of the protein match
+     */
+    public void updateProtein(String proteinKey) {
+        if (snapshot != null) {
+            int index = snapshot.indexOf(proteinKey);
+            if (index >= 0) {
+                try {
+                    snapshot.update(index);
+                } catch (Exception e) {
+                    exceptionHandler.catchException(e);
+                }
+            }
+        }
     }
 
     /**
@@ -152,12 +190,13 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      */
     public void reset() {
         proteinKeys = null;
+        snapshot = null;
     }
 
     @Override
     public int getRowCount() {
-        if (proteinKeys != null) {
-            return proteinKeys.size();
+        if (snapshot != null) {
+            return snapshot.size();
         } else {
             return 0;
         }
@@ -209,121 +248,35 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
     @Override
     public Object getValueAt(int row, int column) {
 
-        if (proteinKeys != null) {
+        if (snapshot != null) {
 
             int viewIndex = getViewIndex(row);
 
             try {
-                boolean useDB = !isSelfUpdating();
-                String proteinKey = proteinKeys.get(viewIndex);
-
                 switch (column) {
                     case 0:
                         return viewIndex + 1;
                     case 1:
-                        PSParameter psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter(), useDB && !isScrolling);
-                        if (psParameter == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        return psParameter.isStarred();
+                        return snapshot.isStarred(viewIndex);
                     case 2:
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter(), useDB && !isScrolling);
-                        if (psParameter == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        return psParameter.getProteinInferenceClass();
+                        return snapshot.getProteinInferenceClass(viewIndex);
                     case 3:
-                        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey, useDB && !isScrolling);
-                        if (proteinMatch == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
+                        String mainMatch = snapshot.getMainAccession(viewIndex);
                         if (!isScrolling) {
-                            return displayFeaturesGenerator.addDatabaseLink(proteinMatch.getMainMatch());
+                            return displayFeaturesGenerator.addDatabaseLink(mainMatch);
                         } else {
-                            return proteinMatch.getMainMatch();
+                            return mainMatch;
                         }
                     case 4:
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB && !isScrolling);
-                        if (proteinMatch == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        String description = null;
-                        try {
-                            description = sequenceFactory.getHeader(proteinMatch.getMainMatch()).getSimpleProteinDescription();
-
-                            // if description is not set, return the accession instead - fix for home made fasta headers
-                            if (description == null || description.trim().isEmpty()) {
-                                description = proteinMatch.getMainMatch();
-                            }
-                        } catch (Exception e) {
-                            exceptionHandler.catchException(e);
-                        }
-                        return description;
+                        return snapshot.getDescription(viewIndex);
                     case 5:
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB && !isScrolling);
-                        if (proteinMatch == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        String geneName = sequenceFactory.getHeader(proteinMatch.getMainMatch()).getGeneName();
-                        String chromosomeName = geneMaps.getChromosome(geneName);
-                        if (chromosomeName == null || chromosomeName.length() == 0) {
-                            return new Chromosome(null);
-                        } else {
-                            return new Chromosome(chromosomeName);
-                        }
+                        return new Chromosome(snapshot.getChromosome(viewIndex));
                     case 6:
-                        if (isScrolling) {
-                            return null;
-                        }
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB);
-                        if (!useDB && (!identificationFeaturesGenerator.sequenceCoverageInCache(proteinKey)
-                                || !identificationFeaturesGenerator.observableCoverageInCache(proteinKey))
-                                && (proteinMatch == null || !identification.proteinDetailsInCache(proteinKey))) {
-                            dataMissingAtRow(row);
-                            return DisplayPreferences.LOADING_MESSAGE;
-                        }
-                        HashMap<Integer, Double> sequenceCoverage;
-                        try {
-                            sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
-                        } catch (Exception e) {
-                            exceptionHandler.catchException(e);
-                            return Double.NaN;
-                        }
-                        Double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                        Double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
-                        Double sequenceCoverageNotValidated = 100 * sequenceCoverage.get(MatchValidationLevel.not_validated.getIndex());
-                        double possibleCoverage = 100;
-                        try {
-                            possibleCoverage = 100 * identificationFeaturesGenerator.getObservableCoverage(proteinKey);
-                        } catch (Exception e) {
-                            exceptionHandler.catchException(e);
-                        }
-                        ArrayList<Double> doubleValues = new ArrayList<Double>();
+                        double sequenceCoverageConfident = snapshot.getConfidentCoverage(viewIndex);
+                        double sequenceCoverageDoubtful = snapshot.getDoubtfulCoverage(viewIndex);
+                        double sequenceCoverageNotValidated = snapshot.getNotValidatedCoverage(viewIndex);
+                        double possibleCoverage = snapshot.getPossibleCoverage(viewIndex);
+                        ArrayList<Double> doubleValues = new ArrayList<Double>(4);
                         doubleValues.add(sequenceCoverageConfident);
                         doubleValues.add(sequenceCoverageDoubtful);
                         doubleValues.add(sequenceCoverageNotValidated);
@@ -331,114 +284,46 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
                         ArrrayListDataPoints arrrayListDataPoints = new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumExceptLastNumber);
                         return arrrayListDataPoints;
                     case 7:
-                        if (isScrolling) {
-                            return null;
-                        }
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB);
-                        if (!useDB && (proteinMatch == null
-                                || !identificationFeaturesGenerator.nValidatedPeptidesInCache(proteinKey)
-                                && !identification.proteinDetailsInCache(proteinKey))) {
-                            dataMissingAtRow(row);
-                            return DisplayPreferences.LOADING_MESSAGE;
-                        }
-                        double nConfidentPeptides = identificationFeaturesGenerator.getNConfidentPeptides(proteinKey);
-                        double nDoubtfulPeptides = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey) - nConfidentPeptides;
-
-                        doubleValues = new ArrayList<Double>();
+                        double nConfidentPeptides = snapshot.getNConfidentPeptides(viewIndex);
+                        double nDoubtfulPeptides = snapshot.getNValidatedPeptides(viewIndex) - nConfidentPeptides;
+                        doubleValues = new ArrayList<Double>(3);
                         doubleValues.add(nConfidentPeptides);
                         doubleValues.add(nDoubtfulPeptides);
-                        doubleValues.add(proteinMatch.getPeptideCount() - nConfidentPeptides - nDoubtfulPeptides);
+                        doubleValues.add(snapshot.getNPeptides(viewIndex) - nConfidentPeptides - nDoubtfulPeptides);
                         arrrayListDataPoints = new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
                         return arrrayListDataPoints;
                     case 8:
-                        if (isScrolling) {
-                            return null;
-                        }
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB);
-                        if (!useDB
-                                && (!identificationFeaturesGenerator.nValidatedSpectraInCache(proteinKey)
-                                || !identificationFeaturesGenerator.nSpectraInCache(proteinKey))
-                                && (proteinMatch == null || !identification.proteinDetailsInCache(proteinKey))) {
-                            dataMissingAtRow(row);
-                            return DisplayPreferences.LOADING_MESSAGE;
-                        }
-                        double nConfidentSpectra = identificationFeaturesGenerator.getNConfidentSpectra(proteinKey);
-                        double nDoubtfulSpectra = identificationFeaturesGenerator.getNValidatedSpectra(proteinKey) - nConfidentSpectra;
-                        int nSpectra = identificationFeaturesGenerator.getNSpectra(proteinKey);
-
-                        doubleValues = new ArrayList<Double>();
+                        double nConfidentSpectra = snapshot.getNConfidentSpectra(viewIndex);
+                        double nDoubtfulSpectra = snapshot.getNValidatedSpectra(viewIndex) - nConfidentSpectra;
+                        doubleValues = new ArrayList<Double>(3);
                         doubleValues.add(nConfidentSpectra);
                         doubleValues.add(nDoubtfulSpectra);
-                        doubleValues.add(nSpectra - nConfidentSpectra - nDoubtfulSpectra);
+                        doubleValues.add(snapshot.getNSpectra(viewIndex) - nConfidentSpectra - nDoubtfulSpectra);
                         arrrayListDataPoints = new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
                         return arrrayListDataPoints;
                     case 9:
-                        if (isScrolling) {
+                        double spectrumCounting = snapshot.getSpectrumCounting(viewIndex);
+                        if (Double.isNaN(spectrumCounting)) {
                             return null;
                         }
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB);
-                        if (!useDB && !identificationFeaturesGenerator.spectrumCountingInCache(proteinKey)
-                                && (proteinMatch == null || !identification.proteinDetailsInCache(proteinKey))) {
-                            dataMissingAtRow(row);
-                            return DisplayPreferences.LOADING_MESSAGE;
-                        }
-                        return identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                        return spectrumCounting;
                     case 10:
-                        if (isScrolling) {
-                            return null;
-                        }
-                        proteinMatch = identification.getProteinMatch(proteinKey, useDB);
-                        if (!useDB && proteinMatch == null) {
-                            dataMissingAtRow(row);
-                            return DisplayPreferences.LOADING_MESSAGE;
-                        }
-                        String mainMatch = proteinMatch.getMainMatch();
-                        Protein currentProtein = sequenceFactory.getProtein(mainMatch);
-                        if (currentProtein != null) {
-                            return sequenceFactory.computeMolecularWeight(mainMatch);
-                        } else {
+                        double molecularWeight = snapshot.getMolecularWeight(viewIndex);
+                        if (Double.isNaN(molecularWeight)) {
                             return null;
                         }
+                        return molecularWeight;
                     case 11:
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter(), useDB && !isScrolling);
-                        if (psParameter == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        if (psParameter != null) {
-                            if (showScores) {
-                                return psParameter.getProteinScore();
-                            } else {
-                                return psParameter.getProteinConfidence();
-                            }
+                        if (showScores) {
+                            return snapshot.getScore(viewIndex);
                         } else {
-                            return null;
+                            return snapshot.getConfidence(viewIndex);
                         }
                     case 12:
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter(), useDB && !isScrolling);
-                        if (psParameter == null) {
-                            if (isScrolling) {
-                                return null;
-                            } else if (!useDB) {
-                                dataMissingAtRow(row);
-                                return DisplayPreferences.LOADING_MESSAGE;
-                            }
-                        }
-                        if (psParameter != null) {
-                            return psParameter.getMatchValidationLevel().getIndex();
-                        } else {
-                            return null;
-                        }
+                        return snapshot.getValidationLevel(viewIndex);
                     default:
                         return null;
                 }
-            } catch (SQLNonTransientConnectionException e) {
-                // this one can be ignored i think?
-                return null;
             } catch (Exception e) {
                 if (exceptionHandler != null) {
                     exceptionHandler.catchException(e);
@@ -484,85 +369,13 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
 
     @Override
     protected int loadDataForRows(ArrayList<Integer> rows, WaitingHandler waitingHandler) {
-
-        ArrayList<String> tempKeys = new ArrayList<String>();
-        for (int i : rows) {
-            String proteinKey = proteinKeys.get(i);
-            tempKeys.add(proteinKey);
-        }
-
-        try {
-            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-            parameters.add(new PSParameter());
-
-            ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(tempKeys, parameters, true, parameters, true, parameters, waitingHandler);
-            proteinMatchesIterator.setBatchSize(batchSize);
-
-            int i = 0;
-            while (proteinMatchesIterator.hasNext()) {
-                ProteinMatch proteinMatch = proteinMatchesIterator.next();
-                String proteinKey = proteinMatch.getKey();
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getObservableCoverage(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getNValidatedSpectra(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getNSpectra(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
-                if (waitingHandler.isRunCanceled()) {
-                    return rows.get(i);
-                }
-                i++;
-            }
-        } catch (SQLNonTransientConnectionException e) {
-            // connection has been closed
-            return rows.get(rows.size() - 1);
-        } catch (Exception e) {
-            catchException(e);
-            return rows.get(0);
-        }
-
+        // all attributes are in the snapshot
         return rows.get(rows.size() - 1);
     }
 
     @Override
     protected void loadDataForColumn(int column, WaitingHandler waitingHandler) {
-        try {
-            if (column == 1
-                    || column == 2
-                    || column == 11
-                    || column == 12) {
-                identification.loadProteinMatchParameters(proteinKeys, new PSParameter(), waitingHandler, false);
-            } else if (column == 3
-                    || column == 4
-                    || column == 5
-                    || column == 6
-                    || column == 7
-                    || column == 8
-                    || column == 9
-                    || column == 10) {
-                identification.loadProteinMatches(proteinKeys, waitingHandler, false);
-            }
-        } catch (Exception e) {
-            catchException(e);
-        }
+        // all attributes are in the snapshot
     }
 
     /**
@@ -0,0 +1,616 @@
+package eu.isas.peptideshaker.gui.tablemodels;
+
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Column oriented snapshot of the attributes displayed in the protein table.
+ * The attributes of all proteins are gathered once, in parallel, and stored in
+ * arrays indexed by the position of the protein in the list of keys, so that
+ * displaying, scrolling and sorting the table do not need to access the
+ * database.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinTableSnapshot {
+
+    /**
+     * The number of proteins processed at a time by a worker.
+     */
+    private static final int BLOCK_SIZE = 100;
+    /**
+     * The identification of this project.
+     */
+    private final Identification identification;
+    /**
+     * The identification features generator provides identification
+     * information on the matches.
+     */
+    private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The gene maps.
+     */
+    private final GeneMaps geneMaps;
+    /**
+     * The keys of the proteins in the snapshot.
+     */
+    private final ArrayList<String> proteinKeys;
+    /**
+     * The index of every protein in the list of keys, indexed by protein key.
+     */
+    private final HashMap<String, Integer> proteinIndexes;
+    /**
+     * Indicates whether the proteins are starred.
+     */
+    private final boolean[] starred;
+    /**
+     * The protein inference classes.
+     */
+    private final int[] proteinInferenceClasses;
+    /**
+     * The main accessions of the protein groups.
+     */
+    private final String[] mainAccessions;
+    /**
+     * The descriptions of the main accessions.
+     */
+    private final String[] descriptions;
+    /**
+     * The chromosomes of the main accessions, null if not found.
+     */
+    private final String[] chromosomes;
+    /**
+     * The sequence coverage by confident peptides in percent.
+     */
+    private final double[] confidentCoverages;
+    /**
+     * The sequence coverage by doubtful peptides in percent.
+     */
+    private final double[] doubtfulCoverages;
+    /**
+     * The sequence coverage by not validated peptides in percent.
+     */
+    private final double[] notValidatedCoverages;
+    /**
+     * The possible sequence coverage in percent.
+     */
+    private final double[] possibleCoverages;
+    /**
+     * The number of confident peptides.
+     */
+    private final int[] nConfidentPeptides;
+    /**
+     * The number of validated peptides.
+     */
+    private final int[] nValidatedPeptides;
+    /**
+     * The number of peptides.
+     */
+    private final int[] nPeptides;
+    /**
+     * The number of confident spectra.
+     */
+    private final int[] nConfidentSpectra;
+    /**
+     * The number of validated spectra.
+     */
+    private final int[] nValidatedSpectra;
+    /**
+     * The number of spectra.
+     */
+    private final int[] nSpectra;
+    /**
+     * The normalized spectrum counting values, NaN if not available.
+     */
+    private final double[] spectrumCountings;
+    /**
+     * The molecular weights of the main accessions, NaN if the protein is not
+     * found.
+     */
+    private final double[] molecularWeights;
+    /**
+     * The protein scores.
+     */
+    private final double[] scores;
+    /**
+     * The protein confidences.
+     */
+    private final double[] confidences;
+    /**
+     * The indexes of the validation levels.
+     */
+    private final int[] validationLevels;
+
+    /**
+     * Returns a snapshot of the attributes of the given proteins, null if the
+     * process was canceled before all attributes were gathered.
+     *
+     * @param identification the identification containing the protein
+     * information
+     * @param identificationFeaturesGenerator the identification features
+     * generator generating the features of the identification
+     * @param geneMaps the gene maps
+     * @param proteinKeys the keys of the protein matches to display
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress to the user
+     * (can be null)
+     *
+     * @return the snapshot of the attributes of the given proteins
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * gathering the attributes of a protein
+     */
+    public static ProteinTableSnapshot getSnapshot(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ArrayList<String> proteinKeys, int nThreads, WaitingHandler waitingHandler) throws Exception {
+        ProteinTableSnapshot snapshot = new ProteinTableSnapshot(identification, identificationFeaturesGenerator, geneMaps, proteinKeys);
+        if (!snapshot.gatherAttributes(nThreads, waitingHandler)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification containing the protein
+     * information
+     * @param identificationFeaturesGenerator the identification features
+     * generator generating the features of the identification
+     * @param geneMaps the gene maps
+     * @param proteinKeys the keys of the protein matches to display
+     */
+    private ProteinTableSnapshot(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ArrayList<String> proteinKeys) {
+
+        this.identification = identification;
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.geneMaps = geneMaps;
+        this.proteinKeys = proteinKeys;
+
+        int nProteins = proteinKeys.size();
+        proteinIndexes = new HashMap<String, Integer>(nProteins);
+        for (int i = 0; i < nProteins; i++) {
+            proteinIndexes.put(proteinKeys.get(i), i);
+        }
+        starred = new boolean[nProteins];
+        proteinInferenceClasses = new int[nProteins];
+        mainAccessions = new String[nProteins];
+        descriptions = new String[nProteins];
+        chromosomes = new String[nProteins];
+        confidentCoverages = new double[nProteins];
+        doubtfulCoverages = new double[nProteins];
+        notValidatedCoverages = new double[nProteins];
+        possibleCoverages = new double[nProteins];
+        nConfidentPeptides = new int[nProteins];
+        nValidatedPeptides = new int[nProteins];
+        nPeptides = new int[nProteins];
+        nConfidentSpectra = new int[nProteins];
+        nValidatedSpectra = new int[nProteins];
+        nSpectra = new int[nProteins];
+        spectrumCountings = new double[nProteins];
+        molecularWeights = new double[nProteins];
+        scores = new double[nProteins];
+        confidences = new double[nProteins];
+        validationLevels = new int[nProteins];
+    }
+
+    /**
+     * Gathers the attributes of all proteins.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress to the user
+     * (can be null)
+     *
+     * @return a boolean indicating whether the attributes of all proteins were
+     * gathered, false if the process was canceled
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * gathering the attributes of a protein
+     */
+    private boolean gatherAttributes(int nThreads, WaitingHandler waitingHandler) throws Exception {
+
+        int nProteins = proteinKeys.size();
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Loading Protein Table. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nProteins);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int start = 0; start < nProteins; start += BLOCK_SIZE) {
+                int end = Math.min(start + BLOCK_SIZE, nProteins);
+                futures.add(pool.submit(new SnapshotCallable(start, end, waitingHandler)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw e;
+                }
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return waitingHandler == null || !waitingHandler.isRunCanceled();
+    }
+
+    /**
+     * Gathers the attributes of the protein at the given index.
+     *
+     * @param index the index of the protein in the list of keys
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * gathering the attributes of the protein
+     */
+    public final void update(int index) throws Exception {
+
+        String proteinKey = proteinKeys.get(index);
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+        PSParameter psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter());
+        starred[index] = psParameter.isStarred();
+        proteinInferenceClasses[index] = psParameter.getProteinInferenceClass();
+        scores[index] = psParameter.getProteinScore();
+        confidences[index] = psParameter.getProteinConfidence();
+        validationLevels[index] = psParameter.getMatchValidationLevel().getIndex();
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        String mainMatch = proteinMatch.getMainMatch();
+        mainAccessions[index] = mainMatch;
+
+        // if description is not set, use the accession instead - fix for home made fasta headers
+        String description = sequenceFactory.getHeader(mainMatch).getSimpleProteinDescription();
+        if (description == null || description.trim().isEmpty()) {
+            description = mainMatch;
+        }
+        descriptions[index] = description;
+
+        String geneName = sequenceFactory.getHeader(mainMatch).getGeneName();
+        String chromosomeName = geneMaps.getChromosome(geneName);
+        if (chromosomeName == null || chromosomeName.length() == 0) {
+            chromosomes[index] = null;
+        } else {
+            chromosomes[index] = chromosomeName;
+        }
+
+        HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+        confidentCoverages[index] = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
+        doubtfulCoverages[index] = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
+        notValidatedCoverages[index] = 100 * sequenceCoverage.get(MatchValidationLevel.not_validated.getIndex());
+        possibleCoverages[index] = 100 * identificationFeaturesGenerator.getObservableCoverage(proteinKey);
+
+        nConfidentPeptides[index] = identificationFeaturesGenerator.getNConfidentPeptides(proteinKey);
+        nValidatedPeptides[index] = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
+        nPeptides[index] = proteinMatch.getPeptideCount();
+
+        nConfidentSpectra[index] = identificationFeaturesGenerator.getNConfidentSpectra(proteinKey);
+        nValidatedSpectra[index] = identificationFeaturesGenerator.getNValidatedSpectra(proteinKey);
+        nSpectra[index] = identificationFeaturesGenerator.getNSpectra(proteinKey);
+
+        Double spectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+        spectrumCountings[index] = spectrumCounting != null ? spectrumCounting : Double.NaN;
+
+        if (sequenceFactory.getProtein(mainMatch) != null) {
+            molecularWeights[index] = sequenceFactory.computeMolecularWeight(mainMatch);
+        } else {
+            molecularWeights[index] = Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the number of proteins in the snapshot.
+     *
+     * @return the number of proteins in the snapshot
+     */
+    public int size() {
+        return proteinKeys.size();
+    }
+
+    /**
+     * Returns the index of a protein in the snapshot, -1 if not found.
+     *
+     * @param proteinKey the key of the protein
+     *
+     * @return the index of the protein in the snapshot
+     */
+    public int indexOf(String proteinKey) {
+        Integer index = proteinIndexes.get(proteinKey);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Indicates whether a protein is starred.
+     *
+     * @param index the index of the protein
+     *
+     * @return a boolean indicating whether the protein is starred
+     */
+    public boolean isStarred(int index) {
+        return starred[index];
+    }
+
+    /**
+     * Returns the protein inference class of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the protein inference class of the protein
+     */
+    public int getProteinInferenceClass(int index) {
+        return proteinInferenceClasses[index];
+    }
+
+    /**
+     * Returns the main accession of a protein group.
+     *
+     * @param index the index of the protein
+     *
+     * @return the main accession of the protein group
+     */
+    public String getMainAccession(int index) {
+        return mainAccessions[index];
+    }
+
+    /**
+     * Returns the description of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the description of the protein
+     */
+    public String getDescription(int index) {
+        return descriptions[index];
+    }
+
+    /**
+     * Returns the chromosome of a protein, null if not found.
+     *
+     * @param index the index of the protein
+     *
+     * @return the chromosome of the protein
+     */
+    public String getChromosome(int index) {
+        return chromosomes[index];
+    }
+
+    /**
+     * Returns the sequence coverage by confident peptides in percent.
+     *
+     * @param index the index of the protein
+     *
+     * @return the sequence coverage by confident peptides
+     */
+    public double getConfidentCoverage(int index) {
+        return confidentCoverages[index];
+    }
+
+    /**
+     * Returns the sequence coverage by doubtful peptides in percent.
+     *
+     * @param index the index of the protein
+     *
+     * @return the sequence coverage by doubtful peptides
+     */
+    public double getDoubtfulCoverage(int index) {
+        return doubtfulCoverages[index];
+    }
+
+    /**
+     * Returns the sequence coverage by not validated peptides in percent.
+     *
+     * @param index the index of the protein
+     *
+     * @return the sequence coverage by not validated peptides
+     */
+    public double getNotValidatedCoverage(int index) {
+        return notValidatedCoverages[index];
+    }
+
+    /**
+     * Returns the possible sequence coverage in percent.
+     *
+     * @param index the index of the protein
+     *
+     * @return the possible sequence coverage
+     */
+    public double getPossibleCoverage(int index) {
+        return possibleCoverages[index];
+    }
+
+    /**
+     * Returns the number of confident peptides of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of confident peptides
+     */
+    public int getNConfidentPeptides(int index) {
+        return nConfidentPeptides[index];
+    }
+
+    /**
+     * Returns the number of validated peptides of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of validated peptides
+     */
+    public int getNValidatedPeptides(int index) {
+        return nValidatedPeptides[index];
+    }
+
+    /**
+     * Returns the number of peptides of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of peptides
+     */
+    public int getNPeptides(int index) {
+        return nPeptides[index];
+    }
+
+    /**
+     * Returns the number of confident spectra of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of confident spectra
+     */
+    public int getNConfidentSpectra(int index) {
+        return nConfidentSpectra[index];
+    }
+
+    /**
+     * Returns the number of validated spectra of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of validated spectra
+     */
+    public int getNValidatedSpectra(int index) {
+        return nValidatedSpectra[index];
+    }
+
+    /**
+     * Returns the number of spectra of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the number of spectra
+     */
+    public int getNSpectra(int index) {
+        return nSpectra[index];
+    }
+
+    /**
+     * Returns the normalized spectrum counting value of a protein, NaN if not
+     * available.
+     *
+     * @param index the index of the protein
+     *
+     * @return the normalized spectrum counting value
+     */
+    public double getSpectrumCounting(int index) {
+        return spectrumCountings[index];
+    }
+
+    /**
+     * Returns the molecular weight of the main accession of a protein, NaN if
+     * the protein is not found.
+     *
+     * @param index the index of the protein
+     *
+     * @return the molecular weight
+     */
+    public double getMolecularWeight(int index) {
+        return molecularWeights[index];
+    }
+
+    /**
+     * Returns the score of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the score of the protein
+     */
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Returns the confidence of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the confidence of the protein
+     */
+    public double getConfidence(int index) {
+        return confidences[index];
+    }
+
+    /**
+     * Returns the index of the validation level of a protein.
+     *
+     * @param index the index of the protein
+     *
+     * @return the index of the validation level
+     */
+    public int getValidationLevel(int index) {
+        return validationLevels[index];
+    }
+
+    /**
+     * Callable gathering the attributes of a range of proteins.
+     *
+     * @author Marc Vaudel
+     */
+    private class SnapshotCallable implements Callable<Object> {
+
+        /**
+         * The index of the first protein of the range.
+         */
+        private final int start;
+        /**
+         * The index after the last protein of the range.
+         */
+        private final int end;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param start the index of the first protein of the range
+         * @param end the index after the last protein of the range
+         * @param waitingHandler the waiting handler
+         */
+        public SnapshotCallable(int start, int end, WaitingHandler waitingHandler) {
+            this.start = start;
+            this.end = end;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            for (int i = start; i < end; i++) {
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return null;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+                update(i);
+            }
+            return null;
+        }
+    }
+}
@@ -2066,6 +2066,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
                     if (matchValidationDialog.isValidationChanged()) {
                         updatePsmPanelTitle();
+                        updateProteinRows(matchValidationDialog.getUpdatedProteinMatches());
                         peptidesPanel.repaint();
                         proteinsLayeredPanel.repaint();
                     }
@@ -2132,6 +2133,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                         } else {
                             peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                         }
+                        updateProteinRows(Arrays.asList(proteinKey));
                     } catch (Exception e) {
                         peptideShakerGUI.catchException(e);
                     }
@@ -2175,6 +2177,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                                 peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
                         if (matchValidationDialog.isValidationChanged()) {
                             updateProteinPanelTitle();
+                            updateProteinRows(matchValidationDialog.getUpdatedProteinMatches());
                         }
                     } catch (Exception e) {
                         peptideShakerGUI.catchException(e);
@@ -2258,6 +2261,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     if (matchValidationDialog.isValidationChanged()) {
                         updateProteinPanelTitle();
                         updatePeptidePanelTitle();
+                        updateProteinRows(matchValidationDialog.getUpdatedProteinMatches());
                     }
                 } catch (Exception e) {
                     peptideShakerGUI.catchException(e);
@@ -5125,10 +5129,12 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     // update the table model
                     if (proteinTable.getModel() instanceof ProteinTableModel && ((ProteinTableModel) proteinTable.getModel()).isInstantiated()) {
                         ((ProteinTableModel) proteinTable.getModel()).updateDataModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                                peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                     } else {
                         ProteinTableModel proteinTableModel = new ProteinTableModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                                peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                         proteinTable.setModel(proteinTableModel);
                     }
 
@@ -6197,6 +6203,22 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
         }
     }
 
+    /**
+     * Updates the rows of the given proteins in the protein table after their
+     * matches were modified, e.g. upon starring or manual validation, and
+     * marks the protein tables of the other tabs for reload.
+     *
+     * @param proteinKeys the keys of the protein matches modified
+     */
+    private void updateProteinRows(Collection<String> proteinKeys) {
+        ProteinTableModel proteinTableModel = (ProteinTableModel) proteinTable.getModel();
+        for (String proteinKey : proteinKeys) {
+            proteinTableModel.updateProtein(proteinKey);
+        }
+        peptideShakerGUI.setUpdated(PeptideShakerGUI.PROTEIN_FRACTIONS_TAB_INDEX, false);
+        peptideShakerGUI.setUpdated(PeptideShakerGUI.STRUCTURES_TAB_INDEX, false);
+    }
+
     /**
      * Update the protein table cell renderers.
      */
@@ -271,10 +271,12 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                 // update the table model
                 if (proteinTable.getModel() instanceof ProteinTableModel && ((ProteinTableModel) proteinTable.getModel()).isInstantiated()) {
                     ((ProteinTableModel) proteinTable.getModel()).updateDataModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                            peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                            peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                            peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                 } else {
                     ProteinTableModel proteinTableModel = new ProteinTableModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                            peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                            peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                            peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                     proteinTable.setModel(proteinTableModel);
                 }
 
@@ -1373,6 +1375,9 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                         } else {
                             peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                         }
+                        ((ProteinTableModel) proteinTable.getModel()).updateProtein(proteinKey);
+                        peptideShakerGUI.setUpdated(PeptideShakerGUI.OVER_VIEW_TAB_INDEX, false);
+                        peptideShakerGUI.setUpdated(PeptideShakerGUI.STRUCTURES_TAB_INDEX, false);
                     } catch (Exception e) {
                         peptideShakerGUI.catchException(e);
                     }
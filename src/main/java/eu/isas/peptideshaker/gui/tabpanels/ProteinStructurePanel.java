@@ -1498,6 +1498,9 @@ public class ProteinStructurePanel extends javax.swing.JPanel {
                         } else {
                             peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                         }
+                        ((ProteinTableModel) proteinTable.getModel()).updateProtein(proteinKey);
+                        peptideShakerGUI.setUpdated(PeptideShakerGUI.OVER_VIEW_TAB_INDEX, false);
+                        peptideShakerGUI.setUpdated(PeptideShakerGUI.PROTEIN_FRACTIONS_TAB_INDEX, false);
                     } catch (Exception e) {
                         peptideShakerGUI.catchException(e);
                     }
@@ -2750,10 +2753,12 @@ public class ProteinStructurePanel extends javax.swing.JPanel {
                     // update the table model
                     if (proteinTable.getModel() instanceof ProteinTableModel && ((ProteinTableModel) proteinTable.getModel()).isInstantiated()) {
                         ((ProteinTableModel) proteinTable.getModel()).updateDataModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                                peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                     } else {
                         ProteinTableModel proteinTableModel = new ProteinTableModel(peptideShakerGUI.getIdentification(), peptideShakerGUI.getIdentificationFeaturesGenerator(), 
-                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys);
+                                peptideShakerGUI.getGeneMaps(), peptideShakerGUI.getDisplayFeaturesGenerator(), peptideShakerGUI.getExceptionHandler(), proteinKeys,
+                                peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
                         proteinTable.setModel(proteinTableModel);
                     }
 
@@ -95,10 +95,35 @@ public class PeptideMapper {
      */
     public void mapPeptides(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException,
             ClassNotFoundException {
+        mapPeptides(peptideMap, nThreads, waitingHandler, true);
+    }
+
+    /**
+     * Maps the peptides found to the proteins.
+     *
+     * @param peptideMap a map of the peptides to map: start of the sequence
+     * &gt; list of peptides
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler
+     * @param displayProgress boolean indicating whether the progress of the
+     * mapping should be displayed on the secondary progress bar, false when
+     * the mapping is only a part of a larger task with its own progress
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     */
+    public void mapPeptides(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException, SQLException,
+            ClassNotFoundException {
         if (nThreads == 1) {
-            mapPeptidesSingleThreaded(peptideMap, waitingHandler);
+            mapPeptidesSingleThreaded(peptideMap, waitingHandler, displayProgress);
         } else {
-            mapPeptidesThreadingPerKey(peptideMap, nThreads, waitingHandler);
+            mapPeptidesThreadingPerKey(peptideMap, nThreads, waitingHandler, displayProgress);
         }
     }
 
@@ -110,6 +135,8 @@ public class PeptideMapper {
      * @param sequenceMatchingPreferences The sequence matching preferences
      * @param idFilter The import filter
      * @param waitingHandler A waiting handler
+     * @param displayProgress boolean indicating whether the progress should be
+     * displayed
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -120,20 +147,22 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptidesSingleThreaded(HashMap<String, LinkedList<Peptide>> peptideMap, WaitingHandler waitingHandler)
+    private void mapPeptidesSingleThreaded(HashMap<String, LinkedList<Peptide>> peptideMap, WaitingHandler waitingHandler, boolean displayProgress)
             throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
+            if (displayProgress) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
+                waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
+            }
             HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
             for (String key : keys) {
                 LinkedList<Peptide> peptides = peptideMap.get(key);
                 Iterator<Peptide> peptideIterator = peptides.iterator();
                 while (peptideIterator.hasNext()) {
                     Peptide peptide = peptideIterator.next();
-                    mapPeptide(peptide, !peptideIterator.hasNext());
+                    mapPeptide(peptide, displayProgress && !peptideIterator.hasNext());
                 }
                 peptideMap.remove(key);
             }
@@ -149,6 +178,8 @@ public class PeptideMapper {
      * @param idFilter the import filter
      * @param nThreads the number of threads to use
      * @param waitingHandler a waiting handler
+     * @param displayProgress boolean indicating whether the progress should be
+     * displayed
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -160,17 +191,19 @@ public class PeptideMapper {
      * occurred while deserializing an object from the database
      */
     private void mapPeptidesThreadingPerKey(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+            WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
+            if (displayProgress) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
+                waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
+            }
             HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
             ExecutorService pool = Executors.newFixedThreadPool(nThreads);
             for (String key : keys) {
                 LinkedList<Peptide> peptides = peptideMap.get(key);
-                PeptideListMapperRunnable peptideMapperRunnable = new PeptideListMapperRunnable(peptides);
+                PeptideListMapperRunnable peptideMapperRunnable = new PeptideListMapperRunnable(peptides, displayProgress);
                 pool.submit(peptideMapperRunnable);
                 if (canceled || waitingHandler.isRunCanceled()) {
                     pool.shutdownNow();
@@ -531,14 +564,21 @@ public class PeptideMapper {
          * The peptides to map.
          */
         private LinkedList<Peptide> peptideList;
+        /**
+         * Boolean indicating whether the progress bar should be increased.
+         */
+        private boolean displayProgress;
 
         /**
          * Constructor.
          *
          * @param peptideList the peptides to map
+         * @param displayProgress boolean indicating whether the progress bar
+         * should be increased after mapping the list
          */
-        public PeptideListMapperRunnable(LinkedList<Peptide> peptideList) {
+        public PeptideListMapperRunnable(LinkedList<Peptide> peptideList, boolean displayProgress) {
             this.peptideList = peptideList;
+            this.displayProgress = displayProgress;
         }
 
         @Override
@@ -549,7 +589,7 @@ public class PeptideMapper {
                 while (peptideIterator.hasNext()) {
                     Peptide peptide = peptideIterator.next();
                     if (!canceled && !waitingHandler.isRunCanceled()) {
-                        mapPeptide(peptide, !peptideIterator.hasNext());
+                        mapPeptide(peptide, displayProgress && !peptideIterator.hasNext());
                     }
                 }
             } catch (Exception e) {
@@ -0,0 +1,334 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * In memory graph of the protein groups and their accessions. Groups and
+ * accessions are indexed by integers and group members are stored as sorted
+ * integer arrays, so that inclusion and overlap tests between groups do not
+ * need to parse group keys or load matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinGroupGraph {
+
+    /**
+     * The keys of the groups indexed by group index.
+     */
+    private final String[] groupKeys;
+    /**
+     * Map of the group indexes indexed by group key.
+     */
+    private final HashMap<String, Integer> groupIndexes;
+    /**
+     * The accessions indexed by accession index.
+     */
+    private final String[] accessions;
+    /**
+     * The sorted accession indexes of every group.
+     */
+    private final int[][] groupMembers;
+    /**
+     * The sorted group indexes of the groups containing every accession.
+     */
+    private final int[][] accessionGroups;
+
+    /**
+     * Constructor. Builds the graph from the protein group keys.
+     *
+     * @param proteinKeys the keys of the protein groups
+     */
+    public ProteinGroupGraph(Iterable<String> proteinKeys) {
+
+        ArrayList<String> groupKeysList = new ArrayList<String>();
+        groupIndexes = new HashMap<String, Integer>();
+        ArrayList<String> accessionsList = new ArrayList<String>();
+        HashMap<String, Integer> accessionIndexes = new HashMap<String, Integer>();
+        ArrayList<int[]> groupMembersList = new ArrayList<int[]>();
+
+        for (String proteinKey : proteinKeys) {
+            if (!groupIndexes.containsKey(proteinKey)) {
+                groupIndexes.put(proteinKey, groupKeysList.size());
+                groupKeysList.add(proteinKey);
+                String[] groupAccessions = ProteinMatch.getAccessions(proteinKey);
+                int[] members = new int[groupAccessions.length];
+                for (int i = 0; i < groupAccessions.length; i++) {
+                    String accession = groupAccessions[i];
+                    Integer accessionIndex = accessionIndexes.get(accession);
+                    if (accessionIndex == null) {
+                        accessionIndex = accessionsList.size();
+                        accessionIndexes.put(accession, accessionIndex);
+                        accessionsList.add(accession);
+                    }
+                    members[i] = accessionIndex;
+                }
+                groupMembersList.add(members);
+            }
+        }
+
+        groupKeys = groupKeysList.toArray(new String[groupKeysList.size()]);
+        groupMembers = groupMembersList.toArray(new int[groupMembersList.size()][]);
+
+        // index the accessions in alphabetical order so that members are sorted like in the group keys
+        accessions = accessionsList.toArray(new String[accessionsList.size()]);
+        Arrays.sort(accessions);
+        int[] sortedIndexes = new int[accessions.length];
+        for (int i = 0; i < accessions.length; i++) {
+            sortedIndexes[accessionIndexes.get(accessions[i])] = i;
+        }
+        for (int[] members : groupMembers) {
+            for (int i = 0; i < members.length; i++) {
+                members[i] = sortedIndexes[members[i]];
+            }
+            Arrays.sort(members);
+        }
+
+        int[] nGroups = new int[accessions.length];
+        for (int[] members : groupMembers) {
+            for (int accessionIndex : members) {
+                nGroups[accessionIndex]++;
+            }
+        }
+        accessionGroups = new int[accessions.length][];
+        for (int i = 0; i < accessions.length; i++) {
+            accessionGroups[i] = new int[nGroups[i]];
+        }
+        int[] filled = new int[accessions.length];
+        for (int groupIndex = 0; groupIndex < groupMembers.length; groupIndex++) {
+            for (int accessionIndex : groupMembers[groupIndex]) {
+                accessionGroups[accessionIndex][filled[accessionIndex]++] = groupIndex;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of groups in the graph.
+     *
+     * @return the number of groups in the graph
+     */
+    public int getNGroups() {
+        return groupKeys.length;
+    }
+
+    /**
+     * Returns the index of a group, null if not in the graph.
+     *
+     * @param groupKey the key of the group
+     *
+     * @return the index of the group
+     */
+    public Integer getGroupIndex(String groupKey) {
+        return groupIndexes.get(groupKey);
+    }
+
+    /**
+     * Returns the key of a group.
+     *
+     * @param groupIndex the index of the group
+     *
+     * @return the key of the group
+     */
+    public String getGroupKey(int groupIndex) {
+        return groupKeys[groupIndex];
+    }
+
+    /**
+     * Returns the accession corresponding to an accession index.
+     *
+     * @param accessionIndex the index of the accession
+     *
+     * @return the accession
+     */
+    public String getAccession(int accessionIndex) {
+        return accessions[accessionIndex];
+    }
+
+    /**
+     * Returns the sorted indexes of the accessions of a group. The returned
+     * array should not be modified.
+     *
+     * @param groupIndex the index of the group
+     *
+     * @return the sorted indexes of the accessions of the group
+     */
+    public int[] getMembers(int groupIndex) {
+        return groupMembers[groupIndex];
+    }
+
+    /**
+     * Returns the number of accessions in a group.
+     *
+     * @param groupIndex the index of the group
+     *
+     * @return the number of accessions in the group
+     */
+    public int getGroupSize(int groupIndex) {
+        return groupMembers[groupIndex].length;
+    }
+
+    /**
+     * Returns the sorted indexes of the groups containing an accession. The
+     * returned array should not be modified.
+     *
+     * @param accessionIndex the index of the accession
+     *
+     * @return the sorted indexes of the groups containing the accession
+     */
+    public int[] getGroups(int accessionIndex) {
+        return accessionGroups[accessionIndex];
+    }
+
+    /**
+     * Indicates whether a group contains all accessions of another group.
+     *
+     * @param groupIndex the index of the group
+     * @param otherGroupIndex the index of the other group
+     *
+     * @return a boolean indicating whether the group contains all accessions
+     * of the other group
+     */
+    public boolean contains(int groupIndex, int otherGroupIndex) {
+        int[] members = groupMembers[groupIndex];
+        int[] otherMembers = groupMembers[otherGroupIndex];
+        if (otherMembers.length > members.length) {
+            return false;
+        }
+        int i = 0;
+        for (int accessionIndex : otherMembers) {
+            while (i < members.length && members[i] < accessionIndex) {
+                i++;
+            }
+            if (i == members.length || members[i] != accessionIndex) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether two groups have at least one accession in common.
+     *
+     * @param groupIndex the index of the first group
+     * @param otherGroupIndex the index of the second group
+     *
+     * @return a boolean indicating whether two groups have at least one
+     * accession in common
+     */
+    public boolean hasCommonMembers(int groupIndex, int otherGroupIndex) {
+        int[] members = groupMembers[groupIndex];
+        int[] otherMembers = groupMembers[otherGroupIndex];
+        int i = 0, j = 0;
+        while (i < members.length && j < otherMembers.length) {
+            if (members[i] == otherMembers[j]) {
+                return true;
+            } else if (members[i] < otherMembers[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the connected components of the graph: sets of groups linked
+     * by shared accessions. Groups of different components have no accession
+     * in common and can be processed independently. Every component is
+     * sorted by increasing group index, and components are sorted by their
+     * first group index.
+     *
+     * @return the group indexes of every connected component
+     */
+    public int[][] getComponents() {
+
+        int nGroups = groupKeys.length;
+        int[] parents = new int[nGroups];
+        for (int i = 0; i < nGroups; i++) {
+            parents[i] = i;
+        }
+        for (int[] groups : accessionGroups) {
+            for (int i = 1; i < groups.length; i++) {
+                int root1 = getRoot(parents, groups[0]);
+                int root2 = getRoot(parents, groups[i]);
+                if (root1 < root2) {
+                    parents[root2] = root1;
+                } else if (root2 < root1) {
+                    parents[root1] = root2;
+                }
+            }
+        }
+
+        int[] componentIndexes = new int[nGroups];
+        int[] componentSizes = new int[nGroups];
+        int nComponents = 0;
+        for (int i = 0; i < nGroups; i++) {
+            int root = getRoot(parents, i);
+            if (root == i) {
+                componentIndexes[i] = nComponents++;
+            }
+            componentSizes[componentIndexes[root]]++;
+        }
+        int[][] components = new int[nComponents][];
+        for (int i = 0; i < nComponents; i++) {
+            components[i] = new int[componentSizes[i]];
+        }
+        int[] filled = new int[nComponents];
+        for (int i = 0; i < nGroups; i++) {
+            int componentIndex = componentIndexes[getRoot(parents, i)];
+            components[componentIndex][filled[componentIndex]++] = i;
+        }
+        return components;
+    }
+
+    /**
+     * Returns the root of an element in a union-find forest, compressing the
+     * path on the way.
+     *
+     * @param parents the parent of every element
+     * @param element the element of interest
+     *
+     * @return the root of the element
+     */
+    private static int getRoot(int[] parents, int element) {
+        int root = element;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        while (parents[element] != root) {
+            int parent = parents[element];
+            parents[element] = root;
+            element = parent;
+        }
+        return root;
+    }
+
+    /**
+     * Returns the indexes of the accessions of a group which are not in
+     * another group.
+     *
+     * @param groupIndex the index of the group
+     * @param otherGroupIndex the index of the other group
+     *
+     * @return the sorted indexes of the accessions of the group which are not
+     * in the other group
+     */
+    public int[] getOtherMembers(int groupIndex, int otherGroupIndex) {
+        int[] members = groupMembers[groupIndex];
+        int[] otherMembers = groupMembers[otherGroupIndex];
+        int[] result = new int[members.length];
+        int n = 0, j = 0;
+        for (int accessionIndex : members) {
+            while (j < otherMembers.length && otherMembers[j] < accessionIndex) {
+                j++;
+            }
+            if (j == otherMembers.length || otherMembers[j] != accessionIndex) {
+                result[n++] = accessionIndex;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.protein_inference;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Enzyme;
 import com.compomics.util.experiment.biology.Protein;
@@ -11,7 +12,9 @@ import com.compomics.util.experiment.identification.matches_iterators.PeptideMat
 import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.preferences.ProteinInferencePreferences;
+import com.compomics.util.protein.Header;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.maps.ProteinMap;
@@ -22,8 +25,14 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class groups the methods for protein inference.
@@ -53,20 +62,34 @@ public class ProteinInference {
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
     /**
-     * Map of the most complex groups: key | proteins
+     * The maximal number of accession pairs kept in the similarity cache.
      */
-    private HashMap<String, ArrayList<String>> proteinGroupCache = new HashMap<String, ArrayList<String>>(100);
+    private static final int SIMILARITY_CACHE_SIZE = 100000;
     /**
-     * Size of the protein groups cahce
+     * The features of the accessions extracted from the FASTA headers indexed
+     * by accession.
      */
-    private int cacheSize = 100;
+    private final HashMap<String, AccessionFeatures> accessionFeatures = new HashMap<String, AccessionFeatures>();
     /**
-     * The minimal group size to include a protein in the cache
+     * The similarity of the ordered accession pairs indexed by pair key. The
+     * least recently used pairs are removed when the cache is full.
      */
-    private int sizeOfProteinsInCache = 10;
+    private final LinkedHashMap<String, Boolean> similarityCache = new LinkedHashMap<String, Boolean>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SIMILARITY_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Index of the next connected component to simplify.
+     */
+    private int nextComponent = 0;
 
     /**
-     * Reduce artifact groups which can be explained by a simpler group.
+     * Reduce artifact groups which can be explained by a simpler group. The
+     * groups are split in connected components of groups sharing proteins
+     * which are simplified in parallel.
      *
      * @param identification the identification class containing all
      * identification matches
@@ -74,7 +97,9 @@ public class ProteinInference {
      * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator the identification feature
      * generator
+     * @param processingPreferences the processing preferences
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      *
      * @throws IOException thrown if an IOException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
@@ -84,7 +109,7 @@ public class ProteinInference {
      * occurs
      */
     public void removeRedundantGroups(Identification identification, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
-            IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler)
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ProcessingPreferences processingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
 
         ArrayList<String> toRemove = new ArrayList<String>();
@@ -96,29 +121,83 @@ public class ProteinInference {
             waitingHandler.setMaxSecondaryProgressCounter(max);
         }
 
-        HashSet<String> toDelete = new HashSet<String>();
-        HashMap<String, String> processedKeys = new HashMap<String, String>();
+        ProteinGroupGraph proteinGroupGraph = new ProteinGroupGraph(identification.getProteinIdentification());
+        boolean[] toDelete = new boolean[proteinGroupGraph.getNGroups()];
+        int[] processedGroups = new int[proteinGroupGraph.getNGroups()];
+        Arrays.fill(processedGroups, -1);
+
+        // only the components containing a shared group need to be simplified, largest first to balance the threads
+        ArrayList<int[]> components = new ArrayList<int[]>();
+        for (int[] component : proteinGroupGraph.getComponents()) {
+            for (int group : component) {
+                if (proteinGroupGraph.getGroupSize(group) > 1) {
+                    components.add(component);
+                    break;
+                }
+            }
+        }
+        Collections.sort(components, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] component1, int[] component2) {
+                return component2.length - component1.length;
+            }
+        });
+        long[] componentTimes = new long[components.size()];
+        nextComponent = 0;
+
+        int nThreads = processingPreferences.getnThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            ComponentRunnable runnable = new ComponentRunnable(components, componentTimes, identification, proteinGroupGraph, processedGroups, toDelete,
+                    shotgunProtocol, identificationParameters, identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein groups simplification timed out. Please contact the developers.");
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, false, null, false, null, waitingHandler);
-        while (proteinMatchesIterator.hasNext()) {
-            ProteinMatch proteinSharedGroup = proteinMatchesIterator.next();
-            if (proteinSharedGroup.getNProteins() > 1) {
-                String proteinSharedKey = proteinSharedGroup.getKey();
-                if (!processedKeys.containsKey(proteinSharedKey)) {
-                    String uniqueKey = getSubgroup(identification, proteinSharedKey, proteinSharedGroup, processedKeys, toDelete, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
-                    if (uniqueKey != null) {
-                        mergeProteinGroups(identification, proteinSharedKey, uniqueKey, toDelete);
-                        processedKeys.put(proteinSharedKey, uniqueKey);
-                    } else {
-                        processedKeys.put(proteinSharedKey, proteinSharedKey);
-                    }
+        if (waitingHandler != null && !components.isEmpty()) {
+            int slowestComponent = 0;
+            for (int i = 1; i < componentTimes.length; i++) {
+                if (componentTimes[i] > componentTimes[slowestComponent]) {
+                    slowestComponent = i;
                 }
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                    waitingHandler.increaseSecondaryProgressCounter();
+            }
+            waitingHandler.appendReport(components.size() + " connected components of shared protein groups. Largest: " + components.get(0).length + " groups ("
+                    + componentTimes[0] + " ms), slowest: " + components.get(slowestComponent).length + " groups (" + componentTimes[slowestComponent] + " ms).", true, true);
+
+            // distribution of the processing time according to the component size, by order of magnitude of the number of groups
+            int nSizeClasses = String.valueOf(components.get(0).length).length();
+            int[] classComponents = new int[nSizeClasses];
+            long[] classTimes = new long[nSizeClasses];
+            long[] classMaxTimes = new long[nSizeClasses];
+            for (int i = 0; i < components.size(); i++) {
+                int sizeClass = String.valueOf(components.get(i).length).length() - 1;
+                classComponents[sizeClass]++;
+                classTimes[sizeClass] += componentTimes[i];
+                classMaxTimes[sizeClass] = Math.max(classMaxTimes[sizeClass], componentTimes[i]);
+            }
+            StringBuilder distribution = new StringBuilder("Component simplification time per size:");
+            int minSize = 1;
+            for (int sizeClass = 0; sizeClass < nSizeClasses; sizeClass++) {
+                if (classComponents[sizeClass] > 0) {
+                    distribution.append(" ").append(minSize).append("-").append(10 * minSize - 1).append(" groups: ").append(classComponents[sizeClass])
+                            .append(" components, ").append(classTimes[sizeClass]).append(" ms total, ").append(classMaxTimes[sizeClass]).append(" ms max;");
                 }
+                minSize *= 10;
+            }
+            distribution.setCharAt(distribution.length() - 1, '.');
+            waitingHandler.appendReport(distribution.toString(), true, true);
+        }
+
+        int nToDelete = 0;
+        for (boolean delete : toDelete) {
+            if (delete) {
+                nToDelete++;
             }
         }
 
@@ -126,7 +205,7 @@ public class ProteinInference {
 
             if (waitingHandler != null) {
                 waitingHandler.setWaitingText("Removing Mapping Artifacts. Please Wait...");
-                waitingHandler.appendReport(toDelete.size() + " unlikely protein mappings found:", true, true);
+                waitingHandler.appendReport(nToDelete + " unlikely protein mappings found:", true, true);
 
                 String padding = "    ";
 
@@ -160,22 +239,22 @@ public class ProteinInference {
     }
 
     /**
-     * Returns the best subgroup of a protein key, null if none found. If
-     * intermediate groups are found they will be processed. Processed keys are
-     * stored in processedKeys. Keys to delete are stored in keysToDelete.
-     * Returns null if no simpler group is found.
+     * Returns the best subgroup of a protein group, -1 if none found. If
+     * intermediate groups are found they will be processed. The best smaller
+     * group of processed groups is stored in processedGroups, -1 for groups
+     * not processed yet. Groups to delete are flagged in groupsToDelete.
      *
      * @param identification the identification where to get the matches from.
-     * @param sharedKey the key of the group to inspect
-     * @param processedKeys map of already processed keys and their best smaller
-     * key
-     * @param keysToDelete list of keys to delete
+     * @param proteinGroupGraph the graph of the protein groups
+     * @param sharedGroup the index of the group to inspect
+     * @param processedGroups the best smaller group of the processed groups
+     * @param groupsToDelete the groups to delete
      * @param shotgunProtocol the protocol containing the enzyme used
+     * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator the identification features
      * generator
-     * @param proteinInferencePreferences the protein inference preferences
      *
-     * @return the best smaller group, null if none found.
+     * @return the index of the best smaller group, -1 if none found.
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -186,93 +265,67 @@ public class ProteinInference {
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the back-end database
      */
-    private String getSubgroup(Identification identification, String sharedKey, ProteinMatch sharedProteinMatch, HashMap<String, String> processedKeys,
-            HashSet<String> keysToDelete, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator)
+    private int getSubgroup(Identification identification, ProteinGroupGraph proteinGroupGraph, int sharedGroup, int[] processedGroups,
+            boolean[] groupsToDelete, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         ProteinInferencePreferences proteinInferencePreferences = identificationParameters.getProteinInferencePreferences();
 
-        ArrayList<String> sharedAccessions;
-        if (sharedProteinMatch == null) {
-            sharedAccessions = proteinGroupCache.get(sharedKey);
-            if (sharedAccessions == null) {
-                sharedProteinMatch = identification.getProteinMatch(sharedKey, false);
-            }
-        }
-        if (sharedProteinMatch != null) {
-            sharedAccessions = sharedProteinMatch.getTheoreticProteinsAccessions();
-        } else {
-            sharedAccessions = getProteins(sharedKey);
-        }
         HashSet<String> candidateUnique = new HashSet<String>(1);
-        HashSet<String> sharedAccessionsAsSet = null;
-
-        for (String accession : sharedAccessions) {
-            HashSet<String> otherGroups = identification.getProteinMap().get(accession);
-            for (String uniqueKey : otherGroups) {
-                if (!uniqueKey.equals(sharedKey)) {
-                    ArrayList<String> uniqueAccessions = proteinGroupCache.get(uniqueKey);
-                    if (uniqueAccessions == null) {
-                        ProteinMatch uniqueProteinMatch = identification.getProteinMatch(uniqueKey, false);
-                        if (uniqueProteinMatch != null) {
-                            uniqueAccessions = uniqueProteinMatch.getTheoreticProteinsAccessions();
-                        } else {
-                            uniqueAccessions = getProteins(uniqueKey);
-                        }
-                    }
-                    if (sharedAccessions.size() >= uniqueAccessions.size()) {
-                        if (sharedAccessionsAsSet == null) {
-                            sharedAccessionsAsSet = new HashSet<String>(sharedAccessions);
-                        }
-                        if (ProteinMatch.contains(sharedAccessionsAsSet, uniqueAccessions) && !keysToDelete.contains(uniqueKey)) {
-                            String subGroup = uniqueKey;
-                            if (uniqueAccessions.size() > 1) {
-                                String reducedGroup = processedKeys.get(uniqueKey);
-                                if (reducedGroup == null) {
-                                    reducedGroup = getSubgroup(identification, uniqueKey, null, processedKeys, keysToDelete, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
-                                    if (reducedGroup != null) {
-                                        mergeProteinGroups(identification, uniqueKey, reducedGroup, keysToDelete);
-                                        processedKeys.put(uniqueKey, reducedGroup);
-                                        subGroup = reducedGroup;
-                                    } else {
-                                        processedKeys.put(uniqueKey, uniqueKey);
-                                    }
-                                }
-                            }
-                            if (!candidateUnique.contains(subGroup)) {
-                                candidateUnique.add(subGroup);
+
+        for (int accession : proteinGroupGraph.getMembers(sharedGroup)) {
+            for (int uniqueGroup : proteinGroupGraph.getGroups(accession)) {
+                if (uniqueGroup != sharedGroup && proteinGroupGraph.contains(sharedGroup, uniqueGroup) && !groupsToDelete[uniqueGroup]) {
+                    int subGroup = uniqueGroup;
+                    if (proteinGroupGraph.getGroupSize(uniqueGroup) > 1) {
+                        int reducedGroup = processedGroups[uniqueGroup];
+                        if (reducedGroup == -1) {
+                            reducedGroup = getSubgroup(identification, proteinGroupGraph, uniqueGroup, processedGroups, groupsToDelete, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
+                            if (reducedGroup != -1) {
+                                mergeProteinGroups(identification, proteinGroupGraph, uniqueGroup, reducedGroup, groupsToDelete);
+                                processedGroups[uniqueGroup] = reducedGroup;
+                                subGroup = reducedGroup;
+                            } else {
+                                processedGroups[uniqueGroup] = uniqueGroup;
                             }
                         }
                     }
+                    candidateUnique.add(proteinGroupGraph.getGroupKey(subGroup));
                 }
             }
         }
 
-        String minimalKey = null;
+        int minimalGroup = -1;
 
         if (!candidateUnique.isEmpty()) {
-            ArrayList<String> keys = new ArrayList<String>(candidateUnique.size());
-            for (String accession : candidateUnique) {
-                if (!keysToDelete.contains(accession)) {
-                    keys.add(accession);
+            int[] groups = new int[candidateUnique.size()];
+            int nGroups = 0;
+            for (String groupKey : candidateUnique) {
+                int group = proteinGroupGraph.getGroupIndex(groupKey);
+                if (!groupsToDelete[group]) {
+                    groups[nGroups++] = group;
                 }
             }
 
-            if (!keys.isEmpty()) {
-                ProteinMatch match = identification.getProteinMatch(sharedKey);
+            if (nGroups > 0) {
+                ProteinMatch match = identification.getProteinMatch(proteinGroupGraph.getGroupKey(sharedGroup));
                 HashMap<String, Integer> preferenceReason = new HashMap<String, Integer>();
-                for (String key1 : keys) {
-                    for (String accession1 : ProteinMatch.getAccessions(key1)) {
-                        if (minimalKey == null) {
+                for (int i1 = 0; i1 < nGroups; i1++) {
+                    int group1 = groups[i1];
+                    for (int accessionIndex1 : proteinGroupGraph.getMembers(group1)) {
+                        if (minimalGroup == -1) {
+                            String accession1 = proteinGroupGraph.getAccession(accessionIndex1);
                             preferenceReason = new HashMap<String, Integer>();
                             boolean best = true;
-                            for (String key2 : keys) {
-                                if (!key1.equals(key2)) {
-                                    if (!ProteinMatch.contains(key1, key2)) {
-                                        if (!ProteinMatch.getCommonProteins(key1, key2).isEmpty()) {
+                            for (int i2 = 0; i2 < nGroups; i2++) {
+                                int group2 = groups[i2];
+                                if (group1 != group2) {
+                                    if (!proteinGroupGraph.contains(group1, group2)) {
+                                        if (proteinGroupGraph.hasCommonMembers(group1, group2)) {
                                             best = false;
                                         }
-                                        for (String accession2 : ProteinMatch.getAccessions(key2)) {
+                                        for (int accessionIndex2 : proteinGroupGraph.getMembers(group2)) {
+                                            String accession2 = proteinGroupGraph.getAccession(accessionIndex2);
                                             int tempPrefernce = compareMainProtein(match, accession2, match, accession1, shotgunProtocol, identificationFeaturesGenerator, proteinInferencePreferences);
                                             if (tempPrefernce != 1) {
                                                 best = false;
@@ -287,8 +340,8 @@ public class ProteinInference {
                                 }
                             }
                             if (best) {
-                                ArrayList<String> accessions = ProteinMatch.getOtherProteins(sharedKey, key1);
-                                for (String accession2 : accessions) {
+                                for (int accessionIndex2 : proteinGroupGraph.getOtherMembers(sharedGroup, group1)) {
+                                    String accession2 = proteinGroupGraph.getAccession(accessionIndex2);
                                     int tempPrefernce = compareMainProtein(match, accession2, match, accession1, shotgunProtocol, identificationFeaturesGenerator, proteinInferencePreferences);
                                     if (tempPrefernce == 0) {
                                         best = false;
@@ -300,29 +353,32 @@ public class ProteinInference {
                                         preferenceReason.put(accession2, tempPrefernce);
                                     }
                                 }
-                                if (best && minimalKey == null) {
-                                    minimalKey = key1;
+                                if (best && minimalGroup == -1) {
+                                    minimalGroup = group1;
                                 }
                             }
                         } else {
                             break;
                         }
                     }
-                    if (minimalKey != null) {
-                        for (String key2 : keys) {
-                            if (!key2.equals(minimalKey) && !keysToDelete.contains(key2)) {
-                                keysToDelete.add(key2);
+                    if (minimalGroup != -1) {
+                        for (int i2 = 0; i2 < nGroups; i2++) {
+                            int group2 = groups[i2];
+                            if (group2 != minimalGroup && !groupsToDelete[group2]) {
+                                groupsToDelete[group2] = true;
+                                int enzymatic = 0, evidence = 0, uncharacterized = 0;
                                 for (int reason : preferenceReason.values()) {
                                     if (reason == 1) {
-                                        enzymaticIssue++;
+                                        enzymatic++;
                                     }
                                     if (reason == 2) {
-                                        evidenceIssue++;
+                                        evidence++;
                                     }
                                     if (reason == 3) {
-                                        uncharacterizedIssue++;
+                                        uncharacterized++;
                                     }
                                 }
+                                increaseIssues(enzymatic, evidence, uncharacterized, 0);
                             }
                         }
                         break;
@@ -331,7 +387,32 @@ public class ProteinInference {
             }
         }
 
-        return minimalKey;
+        return minimalGroup;
+    }
+
+    /**
+     * Returns the index of the next connected component to simplify.
+     *
+     * @return the index of the next connected component to simplify
+     */
+    private synchronized int getNextComponent() {
+        return nextComponent++;
+    }
+
+    /**
+     * Increases the counters of deleted groups.
+     *
+     * @param enzymatic the number of enzymatic issues to add
+     * @param evidence the number of protein evidence issues to add
+     * @param uncharacterized the number of characterization issues to add
+     * @param explained the number of groups explained by a simpler group to
+     * add
+     */
+    private synchronized void increaseIssues(int enzymatic, int evidence, int uncharacterized, int explained) {
+        enzymaticIssue += enzymatic;
+        evidenceIssue += evidence;
+        uncharacterizedIssue += uncharacterized;
+        explainedGroup += explained;
     }
 
     /**
@@ -339,28 +420,29 @@ public class ProteinInference {
      * shared group to the list of proteins to delete.
      *
      * @param identification the identification whether to get the matches
-     * @param sharedGroup the key of the shared group
-     * @param uniqueGroup the key of the unique group
-     * @param keysToDelete list of keys to be deleted where sharedGroup will be
-     * added
+     * @param proteinGroupGraph the graph of the protein groups
+     * @param sharedGroup the index of the shared group
+     * @param uniqueGroup the index of the unique group
+     * @param groupsToDelete the groups to be deleted where sharedGroup will be
+     * flagged
      *
      * @throws IllegalArgumentException
      * @throws SQLException
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    private void mergeProteinGroups(Identification identification, String sharedGroup, String uniqueGroup, HashSet<String> keysToDelete)
+    private void mergeProteinGroups(Identification identification, ProteinGroupGraph proteinGroupGraph, int sharedGroup, int uniqueGroup, boolean[] groupsToDelete)
             throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ProteinMatch sharedMatch = identification.getProteinMatch(sharedGroup);
-        ProteinMatch uniqueMatch = identification.getProteinMatch(uniqueGroup);
+        ProteinMatch sharedMatch = identification.getProteinMatch(proteinGroupGraph.getGroupKey(sharedGroup));
+        ProteinMatch uniqueMatch = identification.getProteinMatch(proteinGroupGraph.getGroupKey(uniqueGroup));
 
         for (String peptideKey : sharedMatch.getPeptideMatchesKeys()) {
             uniqueMatch.addPeptideMatchKey(peptideKey);
         }
 
-        keysToDelete.add(sharedGroup);
-        explainedGroup++;
+        groupsToDelete[sharedGroup] = true;
+        increaseIssues(0, 0, 0, 1);
     }
 
     /**
@@ -405,6 +487,10 @@ public class ProteinInference {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
         if (proteinInferencePreferences.getSimplifyGroups() && proteinInferencePreferences.getSimplifyGroupsScore()) {
+            ProteinGroupGraph proteinGroupGraph = new ProteinGroupGraph(identification.getProteinIdentification());
+            int[] inspectedGroups = new int[proteinGroupGraph.getNGroups()];
+            Arrays.fill(inspectedGroups, -1);
+
             ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
             while (proteinMatchesIterator.hasNext()) {
@@ -416,42 +502,31 @@ public class ProteinInference {
                 }
 
                 String proteinSharedKey = proteinMatch.getKey();
-                ArrayList<String> sharedAccessions = proteinMatch.getTheoreticProteinsAccessions();
+                int sharedGroup = proteinGroupGraph.getGroupIndex(proteinSharedKey);
 
-                if (sharedAccessions.size() > 1) {
+                if (proteinGroupGraph.getGroupSize(sharedGroup) > 1) {
 
-                    HashSet<String> sharedAccessionsAsSet = null;
                     psParameter = (PSParameter) identification.getProteinMatchParameter(proteinSharedKey, psParameter);
                     double sharedProteinProbabilityScore = psParameter.getProteinProbabilityScore();
                     boolean better = false;
-
-                    for (String accession : sharedAccessions) {
-                        HashSet<String> otherGroups = identification.getProteinMap().get(accession);
-                        for (String proteinUniqueKey : otherGroups) {
-                            if (!proteinUniqueKey.equals(proteinSharedKey)) {
-                                ProteinMatch uniqueProteinMatch = identification.getProteinMatch(proteinUniqueKey, false);
-                                ArrayList<String> uniqueAccessions;
-                                if (uniqueProteinMatch != null) {
-                                    uniqueAccessions = uniqueProteinMatch.getTheoreticProteinsAccessions();
-                                } else {
-                                    uniqueAccessions = getProteins(proteinUniqueKey);
-                                }
-                                if (sharedAccessions.size() >= uniqueAccessions.size()) {
-                                    if (sharedAccessionsAsSet == null) {
-                                        sharedAccessionsAsSet = new HashSet<String>(sharedAccessions);
+                    inspectedGroups[sharedGroup] = sharedGroup;
+
+                    for (int accession : proteinGroupGraph.getMembers(sharedGroup)) {
+                        for (int uniqueGroup : proteinGroupGraph.getGroups(accession)) {
+                            if (inspectedGroups[uniqueGroup] != sharedGroup) {
+                                inspectedGroups[uniqueGroup] = sharedGroup;
+                                if (proteinGroupGraph.contains(sharedGroup, uniqueGroup)) {
+                                    String proteinUniqueKey = proteinGroupGraph.getGroupKey(uniqueGroup);
+                                    psParameter = (PSParameter) identification.getProteinMatchParameter(proteinUniqueKey, psParameter);
+                                    double uniqueProteinProbabilityScore = psParameter.getProteinProbabilityScore();
+                                    ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
+                                    ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
+                                    for (String sharedPeptideKey : proteinShared.getPeptideMatchesKeys()) {
+                                        proteinUnique.addPeptideMatchKey(sharedPeptideKey);
                                     }
-                                    if (ProteinMatch.contains(sharedAccessionsAsSet, uniqueAccessions)) {
-                                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinUniqueKey, psParameter);
-                                        double uniqueProteinProbabilityScore = psParameter.getProteinProbabilityScore();
-                                        ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
-                                        ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
-                                        for (String sharedPeptideKey : proteinShared.getPeptideMatchesKeys()) {
-                                            proteinUnique.addPeptideMatchKey(sharedPeptideKey);
-                                        }
-                                        identification.updateProteinMatch(proteinUnique);
-                                        if (uniqueProteinProbabilityScore <= sharedProteinProbabilityScore) {
-                                            better = true;
-                                        }
+                                    identification.updateProteinMatch(proteinUnique);
+                                    if (uniqueProteinProbabilityScore <= sharedProteinProbabilityScore) {
+                                        better = true;
                                     }
                                 }
                             }
@@ -480,7 +555,6 @@ public class ProteinInference {
             }
         }
 
-        clearCache();
         ProteinMatch.clearCache();
 
         int nSolved = toRemove.size();
@@ -731,26 +805,34 @@ public class ProteinInference {
     }
 
     /**
-     * Parses a protein description retaining only words longer than 3
-     * characters.
+     * Returns the features of an accession extracted from its FASTA header.
+     * The features are extracted at the first call and stored for the next
+     * ones.
      *
      * @param proteinAccession the accession of the inspected protein
-     * @return description words longer than 3 characters
+     *
+     * @return the features of the accession
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
      */
-    private ArrayList<String> parseDescription(String proteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
-        String description = sequenceFactory.getHeader(proteinAccession).getSimpleProteinDescription();
+    private AccessionFeatures getAccessionFeatures(String proteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
 
-        if (description == null) {
-            return new ArrayList<String>();
+        AccessionFeatures features;
+        synchronized (accessionFeatures) {
+            features = accessionFeatures.get(proteinAccession);
         }
-
-        ArrayList<String> result = new ArrayList<String>();
-        for (String component : description.split(" ")) {
-            if (component.length() > 3) {
-                result.add(component);
+        if (features == null) {
+            features = new AccessionFeatures(proteinAccession, sequenceFactory.getHeader(proteinAccession));
+            synchronized (accessionFeatures) {
+                accessionFeatures.put(proteinAccession, features);
             }
         }
-        return result;
+        return features;
     }
 
     /**
@@ -799,56 +881,31 @@ public class ProteinInference {
         }
 
         if (proteinInferencePreferences.getSimplifyGroupsEvidence()) {
-            String evidenceLevelOld = sequenceFactory.getHeader(oldAccession).getProteinEvidence();
-            String evidenceLevelNew = sequenceFactory.getHeader(newAccession).getProteinEvidence();
+            AccessionFeatures oldFeatures = getAccessionFeatures(oldAccession);
+            AccessionFeatures newFeatures = getAccessionFeatures(newAccession);
 
             // compare protein evidence levels
-            if (evidenceLevelOld != null && evidenceLevelNew != null) {
-                try {
-                    Integer levelOld = new Integer(evidenceLevelOld);
-                    Integer levelNew = new Integer(evidenceLevelNew);
-                    if (levelNew < levelOld) {
-                        return 2;
-                    } else if (levelOld < levelNew) {
-                        return 0;
-                    }
-                } catch (NumberFormatException e) {
-                    // ignore
+            if (oldFeatures.evidenceLevel != null && newFeatures.evidenceLevel != null) {
+                if (newFeatures.evidenceLevel < oldFeatures.evidenceLevel) {
+                    return 2;
+                } else if (oldFeatures.evidenceLevel < newFeatures.evidenceLevel) {
+                    return 0;
                 }
             }
             // only the new match has evidence information
-            if (evidenceLevelOld == null && evidenceLevelNew != null) {
+            if (!oldFeatures.hasEvidence && newFeatures.hasEvidence) {
                 return 2;
             }
             // only the old match has evidence information
-            if (evidenceLevelOld != null && evidenceLevelNew == null) {
+            if (oldFeatures.hasEvidence && !newFeatures.hasEvidence) {
                 return 0;
             }
         }
 
         if (proteinInferencePreferences.getSimplifyGroupsUncharacterized()) {
             // Compare descriptions for keywords of uncharacterized proteins
-            String oldDescription = sequenceFactory.getHeader(oldAccession).getSimpleProteinDescription();
-            String newDescription = sequenceFactory.getHeader(newAccession).getSimpleProteinDescription();
-
-            // if the description is not set, return the accessions instead - fix for home made fasta headers
-            if (oldDescription == null || oldDescription.trim().isEmpty()) {
-                oldDescription = oldAccession;
-            }
-            if (newDescription == null || newDescription.trim().isEmpty()) {
-                newDescription = newAccession;
-            }
-
-            boolean oldUncharacterized = false, newUncharacterized = false;
-            String[] keyWords = {"Uncharacterized", "Putative"};
-            for (String keyWord : keyWords) {
-                if (newDescription.contains(keyWord)) {
-                    newUncharacterized = true;
-                }
-                if (oldDescription.contains(keyWord)) {
-                    oldUncharacterized = true;
-                }
-            }
+            boolean oldUncharacterized = getAccessionFeatures(oldAccession).uncharacterized;
+            boolean newUncharacterized = getAccessionFeatures(newAccession).uncharacterized;
             if (oldUncharacterized && !newUncharacterized) {
                 return 3;
             } else if (!oldUncharacterized && newUncharacterized) {
@@ -862,7 +919,9 @@ public class ProteinInference {
     /**
      * Simplistic method comparing protein similarity. Returns true if both
      * proteins come from the same gene or if the descriptions are of same
-     * length and present more than half similar words.
+     * length and present more than half similar words. The result is cached
+     * per ordered pair of accessions as the comparison of descriptions of
+     * same length depends on which protein is given first.
      *
      * @param primaryProteinAccession accession number of the first protein
      * @param secondaryProteinAccession accession number of the second protein
@@ -870,8 +929,33 @@ public class ProteinInference {
      */
     private boolean getSimilarity(String primaryProteinAccession, String secondaryProteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
 
-        String geneNamePrimaryProtein = sequenceFactory.getHeader(primaryProteinAccession).getGeneName();
-        String geneNameSecondaryProtein = sequenceFactory.getHeader(secondaryProteinAccession).getGeneName();
+        String pairKey = primaryProteinAccession + " " + secondaryProteinAccession;
+        Boolean result;
+        synchronized (similarityCache) {
+            result = similarityCache.get(pairKey);
+        }
+        if (result == null) {
+            result = computeSimilarity(getAccessionFeatures(primaryProteinAccession), getAccessionFeatures(secondaryProteinAccession));
+            synchronized (similarityCache) {
+                similarityCache.put(pairKey, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares the similarity of two proteins based on the features of their
+     * accessions. See getSimilarity.
+     *
+     * @param primaryFeatures the features of the first protein
+     * @param secondaryFeatures the features of the second protein
+     *
+     * @return a boolean indicating whether the proteins are similar
+     */
+    private boolean computeSimilarity(AccessionFeatures primaryFeatures, AccessionFeatures secondaryFeatures) {
+
+        String geneNamePrimaryProtein = primaryFeatures.geneName;
+        String geneNameSecondaryProtein = secondaryFeatures.geneName;
         boolean sameGene = false;
 
         // compare the gene names
@@ -907,13 +991,13 @@ public class ProteinInference {
             }
 
             // compare the protein descriptions, less secure than gene names
-            ArrayList<String> primaryDescription = parseDescription(primaryProteinAccession);
-            ArrayList<String> secondaryDescription = parseDescription(secondaryProteinAccession);
+            ArrayList<String> primaryDescription = primaryFeatures.descriptionWords;
+            ArrayList<String> secondaryDescription = secondaryFeatures.descriptionWords;
 
             if (primaryDescription.size() > secondaryDescription.size()) {
                 int nMatch = 0;
                 for (String secondaryDescription1 : secondaryDescription) {
-                    if (primaryDescription.contains(secondaryDescription1)) {
+                    if (primaryFeatures.descriptionWordsSet.contains(secondaryDescription1)) {
                         nMatch++;
                     }
                 }
@@ -921,7 +1005,7 @@ public class ProteinInference {
             } else {
                 int nMatch = 0;
                 for (String primaryDescription1 : primaryDescription) {
-                    if (secondaryDescription.contains(primaryDescription1)) {
+                    if (secondaryFeatures.descriptionWordsSet.contains(primaryDescription1)) {
                         nMatch++;
                     }
                 }
@@ -931,43 +1015,203 @@ public class ProteinInference {
     }
 
     /**
-     * Returns the proteins of a group key. Uses
-     * ProteinMatch.getAccessions(groupKey) after checking if the protein group
-     * is in cache. Manages cache update and size.
-     *
-     * @param groupKey the group key of interest
+     * The features of an accession used to compare proteins, extracted once
+     * from the FASTA header.
      *
-     * @return the proteins of a group key
+     * @author Marc Vaudel
      */
-    private ArrayList<String> getProteins(String groupKey) {
-        ArrayList<String> result = proteinGroupCache.get(groupKey);
-        if (result == null) {
-            result = new ArrayList<String>(Arrays.asList(ProteinMatch.getAccessions(groupKey)));
-            if (result.size() > sizeOfProteinsInCache) {
-                proteinGroupCache.put(groupKey, result);
-                if (proteinGroupCache.size() > cacheSize) {
-                    int smallestSize = sizeOfProteinsInCache;
-                    String smallestGroup = null;
-                    for (String key : proteinGroupCache.keySet()) {
-                        ArrayList<String> group = proteinGroupCache.get(key);
-                        if (smallestGroup == null || group.size() < smallestSize) {
-                            smallestGroup = key;
-                            smallestSize = group.size();
-                        }
+    private static class AccessionFeatures {
+
+        /**
+         * The gene name, null if not set.
+         */
+        private final String geneName;
+        /**
+         * Indicates whether the header contains a protein evidence level.
+         */
+        private final boolean hasEvidence;
+        /**
+         * The protein evidence level, null if not set or not a number.
+         */
+        private final Integer evidenceLevel;
+        /**
+         * Indicates whether the description flags the protein as
+         * uncharacterized.
+         */
+        private final boolean uncharacterized;
+        /**
+         * The words of the description longer than 3 characters.
+         */
+        private final ArrayList<String> descriptionWords;
+        /**
+         * The set of the words of the description longer than 3 characters.
+         */
+        private final HashSet<String> descriptionWordsSet;
+
+        /**
+         * Constructor.
+         *
+         * @param accession the protein accession
+         * @param header the FASTA header of the protein
+         */
+        public AccessionFeatures(String accession, Header header) {
+
+            geneName = header.getGeneName();
+
+            String proteinEvidence = header.getProteinEvidence();
+            hasEvidence = proteinEvidence != null;
+            Integer level = null;
+            if (proteinEvidence != null) {
+                try {
+                    level = new Integer(proteinEvidence);
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+            evidenceLevel = level;
+
+            String description = header.getSimpleProteinDescription();
+
+            descriptionWords = new ArrayList<String>();
+            if (description != null) {
+                for (String component : description.split(" ")) {
+                    if (component.length() > 3) {
+                        descriptionWords.add(component);
                     }
-                    proteinGroupCache.remove(smallestGroup);
-                    sizeOfProteinsInCache = smallestSize;
                 }
             }
+            descriptionWordsSet = new HashSet<String>(descriptionWords);
+
+            // if the description is not set, use the accession instead - fix for home made fasta headers
+            if (description == null || description.trim().isEmpty()) {
+                description = accession;
+            }
+            uncharacterized = description.contains("Uncharacterized") || description.contains("Putative");
         }
-        return result;
     }
 
     /**
-     * Clears the cache.
+     * Runnable simplifying the protein groups of connected components.
+     *
+     * @author Marc Vaudel
      */
-    private void clearCache() {
-        proteinGroupCache.clear();
-        sizeOfProteinsInCache = 10;
+    private class ComponentRunnable implements Runnable {
+
+        /**
+         * The connected components to simplify.
+         */
+        private ArrayList<int[]> components;
+        /**
+         * The processing time in milliseconds of every component.
+         */
+        private long[] componentTimes;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The graph of the protein groups.
+         */
+        private ProteinGroupGraph proteinGroupGraph;
+        /**
+         * The best smaller group of the processed groups, -1 if not processed.
+         */
+        private int[] processedGroups;
+        /**
+         * The groups to delete.
+         */
+        private boolean[] groupsToDelete;
+        /**
+         * The shotgun protocol.
+         */
+        private ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The identification features generator.
+         */
+        private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param components the connected components to simplify
+         * @param componentTimes the processing time in milliseconds of every
+         * component
+         * @param identification the identification containing the matches
+         * @param proteinGroupGraph the graph of the protein groups
+         * @param processedGroups the best smaller group of the processed groups
+         * @param groupsToDelete the groups to delete
+         * @param shotgunProtocol the shotgun protocol
+         * @param identificationParameters the identification parameters
+         * @param identificationFeaturesGenerator the identification features
+         * generator
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ComponentRunnable(ArrayList<int[]> components, long[] componentTimes, Identification identification, ProteinGroupGraph proteinGroupGraph,
+                int[] processedGroups, boolean[] groupsToDelete, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+                IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.components = components;
+            this.componentTimes = componentTimes;
+            this.identification = identification;
+            this.proteinGroupGraph = proteinGroupGraph;
+            this.processedGroups = processedGroups;
+            this.groupsToDelete = groupsToDelete;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int componentIndex = getNextComponent();
+                while (componentIndex < components.size() && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    long start = System.currentTimeMillis();
+                    for (int sharedGroup : components.get(componentIndex)) {
+                        if (proteinGroupGraph.getGroupSize(sharedGroup) > 1) {
+                            if (processedGroups[sharedGroup] == -1) {
+                                int uniqueGroup = getSubgroup(identification, proteinGroupGraph, sharedGroup, processedGroups, groupsToDelete, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
+                                if (uniqueGroup != -1) {
+                                    mergeProteinGroups(identification, proteinGroupGraph, sharedGroup, uniqueGroup, groupsToDelete);
+                                    processedGroups[sharedGroup] = uniqueGroup;
+                                } else {
+                                    processedGroups[sharedGroup] = sharedGroup;
+                                }
+                            }
+                            if (waitingHandler != null) {
+                                if (waitingHandler.isRunCanceled()) {
+                                    return;
+                                }
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                    }
+                    componentTimes[componentIndex] = System.currentTimeMillis() - start;
+                    componentIndex = getNextComponent();
+                }
+            } catch (Exception e) {
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(e);
+                    if (waitingHandler != null) {
+                        waitingHandler.setRunCanceled();
+                    }
+                }
+            }
+        }
     }
 }
@@ -970,15 +970,33 @@ public class PtmScorer {
 
         String newKey = peptide.getMatchingKey(sequenceMatchingPreferences);
         if (!newKey.equals(originalKey)) {
-            if (identification.getPeptideIdentification().contains(newKey)) {
-                throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + " from peptide " + originalKey + ".");
-            }
-            identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
+            updatePeptideMatchKey(identification, originalKey, newKey, peptideMatch);
         } else {
             identification.updatePeptideMatch(peptideMatch);
         }
     }
 
+    /**
+     * Updates the key of a peptide match. Key changes are made one at a time
+     * so that peptides scored by different threads cannot end up with the
+     * same key.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param originalKey the original key of the peptide match
+     * @param newKey the new key of the peptide match
+     * @param peptideMatch the peptide match
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * updating the match in the database
+     */
+    private synchronized void updatePeptideMatchKey(Identification identification, String originalKey, String newKey, PeptideMatch peptideMatch) throws Exception {
+        if (identification.getPeptideIdentification().contains(newKey)) {
+            throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + " from peptide " + originalKey + ".");
+        }
+        identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
+    }
+
     /**
      * Returns a representative to secondary sites map (representative site &gt;
      * secondary site &gt; list of PTM names) based on an ambiguous sites scores
@@ -1456,17 +1474,20 @@ public class PtmScorer {
 
     /**
      * Scores the PTMs of all peptide matches contained in an identification
-     * object.
+     * object using one runnable per thread.
      *
      * @param identification identification object containing the identification
      * matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, IdentificationParameters identificationParameters) throws Exception {
+    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Peptide PTMs. Please Wait...");
 
@@ -1477,13 +1498,19 @@ public class PtmScorer {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(new PSParameter());
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, null, waitingHandler);
-        while (peptideMatchesIterator.hasNext()) {
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            scorePTMs(identification, peptideMatch, identificationParameters, waitingHandler);
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptidePtmScorerRunnable runnable = new PeptidePtmScorerRunnable(peptideMatchesIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide PTM scoring timed out. Please contact the developers.");
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -1491,22 +1518,26 @@ public class PtmScorer {
 
     /**
      * Scores the PTMs of all protein matches contained in an identification
-     * object.
+     * object using one runnable per thread. The protein metrics gathered by
+     * the different threads are combined once all proteins are scored.
      *
      * @param identification identification object containing the identification
      * matches
      * @param metrics if provided, metrics on proteins will be saved while
      * iterating the matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param shotgunProtocol information on the protocol used
      * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator identification features generator
      * used to generate metrics which will be stored for later reuse
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator) throws Exception {
+    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Protein PTMs. Please Wait...");
 
@@ -1514,44 +1545,42 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
-        int nValidatedProteins = 0;
-        int nConfidentProteins = 0;
-        double tempSpectrumCounting, maxSpectrumCounting = 0;
-
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
-        while (proteinMatchesIterator.hasNext()) {
-
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
-
-            scorePTMs(identification, proteinMatch, identificationParameters, false, waitingHandler);
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinPtmScorerRunnable> runnables = new ArrayList<ProteinPtmScorerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinPtmScorerRunnable runnable = new ProteinPtmScorerRunnable(proteinMatchesIterator, identification, metrics != null, identificationParameters,
+                    identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein PTM scoring timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            if (metrics != null) {
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    nValidatedProteins++;
-                    if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                        nConfidentProteins++;
-                    }
-                }
-                if (identificationFeaturesGenerator != null) {
-                    tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
-                    if (tempSpectrumCounting > maxSpectrumCounting) {
-                        maxSpectrumCounting = tempSpectrumCounting;
-                    }
+        if (metrics != null) {
+            // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
+            int nValidatedProteins = 0;
+            int nConfidentProteins = 0;
+            double maxSpectrumCounting = 0;
+            for (ProteinPtmScorerRunnable runnable : runnables) {
+                nValidatedProteins += runnable.getnValidatedProteins();
+                nConfidentProteins += runnable.getnConfidentProteins();
+                if (runnable.getMaxSpectrumCounting() > maxSpectrumCounting) {
+                    maxSpectrumCounting = runnable.getMaxSpectrumCounting();
                 }
             }
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
-        }
-        if (metrics != null) {
             metrics.setMaxSpectrumCounting(maxSpectrumCounting);
             metrics.setnValidatedProteins(nValidatedProteins);
             metrics.setnConfidentProteins(nConfidentProteins);
@@ -1562,12 +1591,16 @@ public class PtmScorer {
 
     /**
      * Infers the PTM localization and its confidence for the best match of
-     * every spectrum.
+     * every spectrum. The PSMs are processed by one runnable per thread, the
+     * sites found by the different threads are gathered in the order of the
+     * spectra.
      *
      * @param identification identification object containing the identification
      * matches
-     * @param waitingHandler waiting handler displaying progress to the user
      * @param identificationParameters the identification parameters
+     * @param waitingHandler waiting handler displaying progress to the user
+     * @param exceptionHandler handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws SQLException exception thrown whenever a problem occurred while
      * interacting with the database
@@ -1580,7 +1613,8 @@ public class PtmScorer {
      * @throws InterruptedException exception thrown whenever an error occurred
      * while reading a protein sequence
      */
-    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences)
             throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
 
         waitingHandler.setWaitingText("Peptide Inference. Please Wait...");
@@ -1588,112 +1622,79 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences(),
-                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        PtmSettings ptmSettings = searchParameters.getPtmSettings();
+        int nThreads = processingPreferences.getnThreads();
 
         // PSMs with confidently localized PTMs in a map: PTM mass -> peptide sequence -> spectrum keys
         HashMap<Double, HashMap<String, ArrayList<String>>> confidentPeptideInference = new HashMap<Double, HashMap<String, ArrayList<String>>>();
         // PSMs with ambiguously localized PTMs in a map: File -> PTM mass -> spectrum keys
         HashMap<String, HashMap<Double, ArrayList<String>>> notConfidentPeptideInference = new HashMap<String, HashMap<Double, ArrayList<String>>>();
+        // Matching keys of the PSMs with confidently localized PTMs before inference, the only view of the other PSMs used by the inference workers
+        HashMap<String, String> confidentMatchingKeys = new HashMap<String, String>();
 
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, true, waitingHandler);
+            ArrayList<PeptideInferenceSitesRunnable> runnables = new ArrayList<PeptideInferenceSitesRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PeptideInferenceSitesRunnable runnable = new PeptideInferenceSitesRunnable(psmIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+                runnables.add(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
 
-            while (psmIterator.hasNext()) {
+            HashMap<String, ArrayList<Double>> confidentMasses = new HashMap<String, ArrayList<Double>>();
+            HashMap<String, ArrayList<Double>> notConfidentMasses = new HashMap<String, ArrayList<Double>>();
+            HashMap<String, String> sequences = new HashMap<String, String>();
+            for (PeptideInferenceSitesRunnable runnable : runnables) {
+                confidentMasses.putAll(runnable.getConfidentMasses());
+                notConfidentMasses.putAll(runnable.getNotConfidentMasses());
+                sequences.putAll(runnable.getSequences());
+                confidentMatchingKeys.putAll(runnable.getMatchingKeys());
+            }
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    boolean variableAA = false;
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    if (peptide.isModified()) {
-                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                            if (modificationMatch.isVariable()) {
-                                String modName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                if (ptm.getType() == PTM.MODAA) {
-                                    variableAA = true;
-                                    break;
-                                } else {
-                                    double ptmMass = ptm.getMass();
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                variableAA = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (variableAA) {
-                        boolean confident = true;
-                        for (ModificationMatch modMatch : peptide.getModificationMatches()) {
-                            if (modMatch.isVariable()) {
-                                String modName = modMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                double ptmMass = ptm.getMass();
-                                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                                if (!maybeNotTerminal) {
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                maybeNotTerminal = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                                if (maybeNotTerminal) {
-                                    if (!modMatch.isConfident()) {
-                                        HashMap<Double, ArrayList<String>> fileMap = notConfidentPeptideInference.get(spectrumFileName);
-                                        if (fileMap == null) {
-                                            fileMap = new HashMap<Double, ArrayList<String>>(2);
-                                            notConfidentPeptideInference.put(spectrumFileName, fileMap);
-                                        }
-                                        ArrayList<String> spectra = fileMap.get(ptmMass);
-                                        if (spectra == null) {
-                                            spectra = new ArrayList<String>(2);
-                                            fileMap.put(ptmMass, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
-                                        confident = false;
-                                    } else {
-                                        HashMap<String, ArrayList<String>> modMap = confidentPeptideInference.get(ptmMass);
-                                        if (modMap == null) {
-                                            modMap = new HashMap<String, ArrayList<String>>(2);
-                                            confidentPeptideInference.put(ptmMass, modMap);
-                                        }
-                                        String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                                        ArrayList<String> spectra = modMap.get(sequence);
-                                        if (spectra == null) {
-                                            spectra = new ArrayList<String>(2);
-                                            modMap.put(sequence, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
-                                    }
-                                }
-                            }
+            for (String spectrumKey : identification.getSpectrumIdentification(spectrumFileName)) {
+                ArrayList<Double> ptmMasses = notConfidentMasses.get(spectrumKey);
+                if (ptmMasses != null) {
+                    for (Double ptmMass : ptmMasses) {
+                        HashMap<Double, ArrayList<String>> fileMap = notConfidentPeptideInference.get(spectrumFileName);
+                        if (fileMap == null) {
+                            fileMap = new HashMap<Double, ArrayList<String>>(2);
+                            notConfidentPeptideInference.put(spectrumFileName, fileMap);
                         }
-                        identification.updateSpectrumMatch(spectrumMatch);
-                        if (confident) {
-                            waitingHandler.increaseSecondaryProgressCounter();
+                        ArrayList<String> spectra = fileMap.get(ptmMass);
+                        if (spectra == null) {
+                            spectra = new ArrayList<String>(2);
+                            fileMap.put(ptmMass, spectra);
                         }
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                        spectra.add(spectrumKey);
+                    }
+                }
+                ptmMasses = confidentMasses.get(spectrumKey);
+                if (ptmMasses != null) {
+                    String sequence = sequences.get(spectrumKey);
+                    for (Double ptmMass : ptmMasses) {
+                        HashMap<String, ArrayList<String>> modMap = confidentPeptideInference.get(ptmMass);
+                        if (modMap == null) {
+                            modMap = new HashMap<String, ArrayList<String>>(2);
+                            confidentPeptideInference.put(ptmMass, modMap);
                         }
-                    } else {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                        ArrayList<String> spectra = modMap.get(sequence);
+                        if (spectra == null) {
+                            spectra = new ArrayList<String>(2);
+                            modMap.put(sequence, spectra);
                         }
+                        spectra.add(spectrumKey);
                     }
                 }
             }
@@ -1707,189 +1708,327 @@ public class PtmScorer {
 
             for (Double ptmMass : peptidesOfFile.keySet()) {
 
+                // spectra carrying multiple ambiguous modifications of this mass are processed multiple times by the same thread
                 ArrayList<String> spectrumKeys = peptidesOfFile.get(ptmMass);
-                PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, true, waitingHandler);
+                ArrayList<String> distinctKeys = new ArrayList<String>(spectrumKeys.size());
+                HashMap<String, Integer> occurrences = new HashMap<String, Integer>(spectrumKeys.size());
+                for (String spectrumKey : spectrumKeys) {
+                    Integer nOccurrences = occurrences.get(spectrumKey);
+                    if (nOccurrences == null) {
+                        occurrences.put(spectrumKey, 1);
+                        distinctKeys.add(spectrumKey);
+                    } else {
+                        occurrences.put(spectrumKey, nOccurrences + 1);
+                    }
+                }
+                HashSet<String> newKeys = new HashSet<String>(distinctKeys.size());
+                for (String spectrumKey : distinctKeys) {
+                    if (!progress.contains(spectrumKey)) {
+                        progress.add(spectrumKey);
+                        newKeys.add(spectrumKey);
+                    }
+                }
 
-                while (psmIterator.hasNext()) {
+                ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+                PsmIterator psmIterator = identification.getPsmIterator(distinctKeys, true, waitingHandler);
+                for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                    PeptideInferenceRunnable runnable = new PeptideInferenceRunnable(psmIterator, identification, ptmMass, occurrences, newKeys,
+                            confidentPeptideInference, confidentMatchingKeys, identificationParameters, waitingHandler, exceptionHandler);
+                    pool.submit(runnable);
+                }
+                if (waitingHandler.isRunCanceled()) {
+                    pool.shutdownNow();
+                    return;
+                }
+                pool.shutdown();
+                if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                    throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+                }
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+    }
 
-                    SpectrumMatch spectrumMatch = psmIterator.next();
-                    String spectrumKey = spectrumMatch.getKey();
-
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    String sequence = peptide.getSequence();
-                    String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
-                    int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
-                    ArrayList<Integer> tempLocalizations, oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
-                    ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
-
-                    HashMap<String, ArrayList<String>> ptmConfidentPeptides = confidentPeptideInference.get(ptmMass);
-
-                    if (ptmConfidentPeptides != null) {
-
-                        // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
-                        ArrayList<String> keys = ptmConfidentPeptides.get(sequence);
-
-                        if (keys != null) {
-                            for (String tempKey : keys) {
-                                SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                if (Peptide.getModificationCount(secondaryKey, ptmMass) == nMod) {
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
+    /**
+     * Lists the modifications of the best peptide of a spectrum match which
+     * could be localized on another amino acid, and sorts their masses
+     * according to the confidence of the localization.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumMatch the spectrum match
+     * @param ptmSettings the PTM settings
+     * @param confidentMasses list where to store the masses of the confidently
+     * localized modifications
+     * @param notConfidentMasses list where to store the masses of the
+     * ambiguously localized modifications
+     *
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever a problem occurred while
+     * writing/reading the database
+     * @throws ClassNotFoundException exception thrown whenever a problem
+     * occurred while deserializing an object from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the database
+     */
+    private void getPeptideInferenceSites(Identification identification, SpectrumMatch spectrumMatch, PtmSettings ptmSettings, ArrayList<Double> confidentMasses,
+            ArrayList<Double> notConfidentMasses) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        boolean variableAA = false;
+        Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+        if (peptide.isModified()) {
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                if (modificationMatch.isVariable()) {
+                    String modName = modificationMatch.getTheoreticPtm();
+                    PTM ptm = ptmFactory.getPTM(modName);
+                    if (ptm.getType() == PTM.MODAA) {
+                        variableAA = true;
+                        break;
+                    } else {
+                        double ptmMass = ptm.getMass();
+                        for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
+                            if (!otherPtmName.equals(modName)) {
+                                PTM ptm2 = ptmFactory.getPTM(otherPtmName);
+                                if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
+                                    variableAA = true;
+                                    break;
                                 }
                             }
-                            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                                // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
-                                for (String tempKey : keys) {
-                                    SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                    String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
+                        }
+                    }
+                }
+            }
+        }
+        if (variableAA) {
+            for (ModificationMatch modMatch : peptide.getModificationMatches()) {
+                if (modMatch.isVariable()) {
+                    String modName = modMatch.getTheoreticPtm();
+                    PTM ptm = ptmFactory.getPTM(modName);
+                    double ptmMass = ptm.getMass();
+                    boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
+                    if (!maybeNotTerminal) {
+                        for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
+                            if (!otherPtmName.equals(modName)) {
+                                PTM ptm2 = ptmFactory.getPTM(otherPtmName);
+                                if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
+                                    maybeNotTerminal = true;
+                                    break;
                                 }
                             }
                         }
-                        if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                            // There are still unexplained sites, let's see if we find a related peptide which can help.
-                            HashMap<String, ArrayList<String>> confidentAtMass = confidentPeptideInference.get(ptmMass);
-                            for (String otherSequence : confidentAtMass.keySet()) {
-                                if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = sequence;
-                                        while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = ref + localization;
-                                                if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
-                                                }
+                    }
+                    if (maybeNotTerminal) {
+                        if (!modMatch.isConfident()) {
+                            notConfidentMasses.add(ptmMass);
+                        } else {
+                            confidentMasses.add(ptmMass);
+                        }
+                    }
+                }
+            }
+            identification.updateSpectrumMatch(spectrumMatch);
+        }
+    }
+
+    /**
+     * Tries to infer the ambiguously localized modifications of the given
+     * mass on the best peptide of a spectrum match based on the confidently
+     * localized modifications of related peptides.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumMatch the spectrum match
+     * @param ptmMass the mass of the modification
+     * @param confidentPeptideInference the PSMs with confidently localized
+     * PTMs: PTM mass -&gt; peptide sequence -&gt; spectrum keys
+     * @param confidentMatchingKeys the matching keys of the best peptides of
+     * the PSMs with confidently localized PTMs taken before the inference:
+     * spectrum key -&gt; matching key
+     * @param identificationParameters the identification parameters
+     *
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever a problem occurred while
+     * writing/reading the database or the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever a problem
+     * occurred while deserializing an object from the database
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein sequence
+     */
+    private void inferPeptideSites(Identification identification, SpectrumMatch spectrumMatch, Double ptmMass, HashMap<Double, HashMap<String, ArrayList<String>>> confidentPeptideInference,
+            HashMap<String, String> confidentMatchingKeys, IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
+
+        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences(),
+                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        String spectrumKey = spectrumMatch.getKey();
+
+        Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+        String sequence = peptide.getSequence();
+        String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+        int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
+        ArrayList<Integer> tempLocalizations, oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
+        ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
+
+        HashMap<String, ArrayList<String>> ptmConfidentPeptides = confidentPeptideInference.get(ptmMass);
+
+        if (ptmConfidentPeptides != null) {
+
+            // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
+            ArrayList<String> keys = ptmConfidentPeptides.get(sequence);
+
+            if (keys != null) {
+                for (String tempKey : keys) {
+                    String secondaryKey = confidentMatchingKeys.get(tempKey);
+                    if (Peptide.getModificationCount(secondaryKey, ptmMass) == nMod) {
+                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                        for (int localization : tempLocalizations) {
+                            if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                                newLocalizationCandidates.add(localization);
+                            }
+                        }
+                    }
+                }
+                if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+                    // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
+                    for (String tempKey : keys) {
+                        String secondaryKey = confidentMatchingKeys.get(tempKey);
+                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                        for (int localization : tempLocalizations) {
+                            if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                                newLocalizationCandidates.add(localization);
+                            }
+                        }
+                    }
+                }
+            }
+            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+                // There are still unexplained sites, let's see if we find a related peptide which can help.
+                HashMap<String, ArrayList<String>> confidentAtMass = confidentPeptideInference.get(ptmMass);
+                for (String otherSequence : confidentAtMass.keySet()) {
+                    if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
+                        for (String tempKey : confidentAtMass.get(otherSequence)) {
+                            String secondaryKey = confidentMatchingKeys.get(tempKey);
+                            tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                            int tempIndex, ref = 0;
+                            String tempSequence = sequence;
+                            while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
+                                ref += tempIndex;
+                                for (int localization : tempLocalizations) {
+                                    int shiftedLocalization = ref + localization;
+                                    if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
+                                        boolean siteOccupied = false;
+                                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                                            PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                                            if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
+                                                siteOccupied = true;
                                             }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
                                         }
-                                    }
-                                } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = otherSequence;
-                                        while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = localization - ref;
-                                                if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
-                                                        && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
+                                        boolean candidatePtm = false;
+                                        if (!siteOccupied) {
+                                            for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
+                                                PTM ptm = ptmFactory.getPTM(ptmName);
+                                                if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
+                                                    candidatePtm = true;
+                                                    break;
                                                 }
                                             }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
+                                        }
+                                        if (candidatePtm && !siteOccupied) {
+                                            newLocalizationCandidates.add(shiftedLocalization);
                                         }
                                     }
                                 }
+                                tempSequence = tempSequence.substring(tempIndex + 1);
+                                ref++;
                             }
                         }
-                        // Map the most likely inferred sites
-                        if (!newLocalizationCandidates.isEmpty()) {
-                            HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
-                            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                String ptmName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(ptmName);
-                                if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
-                                    nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
-                                }
-                            }
-                            HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
-                            for (Integer oldLocalization : mapping.keySet()) {
-                                ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
-                                Integer newLocalization = mapping.get(oldLocalization);
-                                if (modificationMatch == null) {
-                                    throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
-                                }
-                                if (newLocalization != null) {
-                                    if (!newLocalization.equals(oldLocalization)) {
-                                        String ptmCandidateName = null;
-                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(newLocalization)) { // @TODO: compare against the accuracy
-                                                ptmCandidateName = ptm.getName();
-                                                break;
+                    } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
+                        for (String tempKey : confidentAtMass.get(otherSequence)) {
+                            String secondaryKey = confidentMatchingKeys.get(tempKey);
+                            tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                            int tempIndex, ref = 0;
+                            String tempSequence = otherSequence;
+                            while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
+                                ref += tempIndex;
+                                for (int localization : tempLocalizations) {
+                                    int shiftedLocalization = localization - ref;
+                                    if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
+                                            && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
+                                        boolean siteOccupied = false;
+                                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                                            PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                                            if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
+                                                siteOccupied = true;
                                             }
                                         }
-                                        if (ptmCandidateName == null) {
-                                            throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
+                                        boolean candidatePtm = false;
+                                        if (!siteOccupied) {
+                                            for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
+                                                PTM ptm = ptmFactory.getPTM(ptmName);
+                                                if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
+                                                    candidatePtm = true;
+                                                    break;
+                                                }
+                                            }
+                                        }
+                                        if (candidatePtm && !siteOccupied) {
+                                            newLocalizationCandidates.add(shiftedLocalization);
                                         }
-                                        modificationMatch.setModificationSite(newLocalization);
-                                        modificationMatch.setTheoreticPtm(ptmCandidateName);
-                                        PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                                        psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
                                     }
-                                    modificationMatch.setInferred(true);
                                 }
+                                tempSequence = tempSequence.substring(tempIndex + 1);
+                                ref++;
                             }
                         }
-                        identification.updateSpectrumMatch(spectrumMatch);
                     }
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
+                }
+            }
+            // Map the most likely inferred sites
+            if (!newLocalizationCandidates.isEmpty()) {
+                HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
+                for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                    String ptmName = modificationMatch.getTheoreticPtm();
+                    PTM ptm = ptmFactory.getPTM(ptmName);
+                    if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
+                        nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
                     }
-                    if (!progress.contains(spectrumKey)) {
-                        progress.add(spectrumKey);
-                        waitingHandler.increaseSecondaryProgressCounter();
+                }
+                HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
+                for (Integer oldLocalization : mapping.keySet()) {
+                    ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
+                    Integer newLocalization = mapping.get(oldLocalization);
+                    if (modificationMatch == null) {
+                        throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
+                    }
+                    if (newLocalization != null) {
+                        if (!newLocalization.equals(oldLocalization)) {
+                            String ptmCandidateName = null;
+                            for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
+                                PTM ptm = ptmFactory.getPTM(ptmName);
+                                if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(newLocalization)) { // @TODO: compare against the accuracy
+                                    ptmCandidateName = ptm.getName();
+                                    break;
+                                }
+                            }
+                            if (ptmCandidateName == null) {
+                                throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
+                            }
+                            modificationMatch.setModificationSite(newLocalization);
+                            modificationMatch.setTheoreticPtm(ptmCandidateName);
+                            PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+                            psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
+                        }
+                        modificationMatch.setInferred(true);
                     }
                 }
             }
+            identification.updateSpectrumMatch(spectrumMatch);
         }
     }
 
@@ -2373,4 +2512,454 @@ public class PtmScorer {
             }
         }
     }
+
+    /**
+     * Runnable scoring peptide PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptidePtmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches.
+         */
+        private PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator a peptide matches iterator
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptidePtmScorerRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                    if (peptideMatch != null) {
+                        scorePTMs(identification, peptideMatch, identificationParameters, waitingHandler);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable scoring protein PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinPtmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * Boolean indicating whether the protein metrics should be gathered.
+         */
+        private boolean gatherMetrics;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The identification features generator, can be null.
+         */
+        private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The number of validated proteins scored by this runnable.
+         */
+        private int nValidatedProteins = 0;
+        /**
+         * The number of confident proteins scored by this runnable.
+         */
+        private int nConfidentProteins = 0;
+        /**
+         * The maximal spectrum counting of the proteins scored by this
+         * runnable.
+         */
+        private double maxSpectrumCounting = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param gatherMetrics boolean indicating whether the protein metrics
+         * should be gathered
+         * @param identificationParameters the identification parameters
+         * @param identificationFeaturesGenerator the identification features
+         * generator, can be null
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinPtmScorerRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, boolean gatherMetrics, IdentificationParameters identificationParameters,
+                IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.gatherMetrics = gatherMetrics;
+            this.identificationParameters = identificationParameters;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        String proteinKey = proteinMatch.getKey();
+                        scorePTMs(identification, proteinMatch, identificationParameters, false, waitingHandler);
+                        if (gatherMetrics) {
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                            if (psParameter.getMatchValidationLevel().isValidated()) {
+                                nValidatedProteins++;
+                                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                                    nConfidentProteins++;
+                                }
+                            }
+                            if (identificationFeaturesGenerator != null) {
+                                double tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                                if (tempSpectrumCounting > maxSpectrumCounting) {
+                                    maxSpectrumCounting = tempSpectrumCounting;
+                                }
+                            }
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the number of validated proteins scored by this runnable.
+         *
+         * @return the number of validated proteins scored by this runnable
+         */
+        public int getnValidatedProteins() {
+            return nValidatedProteins;
+        }
+
+        /**
+         * Returns the number of confident proteins scored by this runnable.
+         *
+         * @return the number of confident proteins scored by this runnable
+         */
+        public int getnConfidentProteins() {
+            return nConfidentProteins;
+        }
+
+        /**
+         * Returns the maximal spectrum counting of the proteins scored by this
+         * runnable.
+         *
+         * @return the maximal spectrum counting of the proteins scored by this
+         * runnable
+         */
+        public double getMaxSpectrumCounting() {
+            return maxSpectrumCounting;
+        }
+    }
+
+    /**
+     * Runnable listing the modification sites to use for peptide inference.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideInferenceSitesRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The masses of the confidently localized modifications of every
+         * spectrum processed by this runnable.
+         */
+        private HashMap<String, ArrayList<Double>> confidentMasses = new HashMap<String, ArrayList<Double>>();
+        /**
+         * The masses of the ambiguously localized modifications of every
+         * spectrum processed by this runnable.
+         */
+        private HashMap<String, ArrayList<Double>> notConfidentMasses = new HashMap<String, ArrayList<Double>>();
+        /**
+         * The sequence of the best peptide of the spectra carrying confidently
+         * localized modifications.
+         */
+        private HashMap<String, String> sequences = new HashMap<String, String>();
+        /**
+         * The matching key of the best peptide of the spectra carrying
+         * confidently localized modifications.
+         */
+        private HashMap<String, String> matchingKeys = new HashMap<String, String>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideInferenceSitesRunnable(PsmIterator psmIterator, Identification identification,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PtmSettings ptmSettings = identificationParameters.getSearchParameters().getPtmSettings();
+                SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null && spectrumMatch.getBestPeptideAssumption() != null) {
+                        String spectrumKey = spectrumMatch.getKey();
+                        ArrayList<Double> spectrumConfidentMasses = new ArrayList<Double>(0);
+                        ArrayList<Double> spectrumNotConfidentMasses = new ArrayList<Double>(0);
+                        getPeptideInferenceSites(identification, spectrumMatch, ptmSettings, spectrumConfidentMasses, spectrumNotConfidentMasses);
+                        if (!spectrumConfidentMasses.isEmpty()) {
+                            confidentMasses.put(spectrumKey, spectrumConfidentMasses);
+                            Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                            sequences.put(spectrumKey, peptide.getSequence());
+                            matchingKeys.put(spectrumKey, peptide.getMatchingKey(sequenceMatchingPreferences));
+                        }
+                        if (!spectrumNotConfidentMasses.isEmpty()) {
+                            notConfidentMasses.put(spectrumKey, spectrumNotConfidentMasses);
+                        } else {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the masses of the confidently localized modifications of
+         * every spectrum processed by this runnable.
+         *
+         * @return the masses of the confidently localized modifications
+         */
+        public HashMap<String, ArrayList<Double>> getConfidentMasses() {
+            return confidentMasses;
+        }
+
+        /**
+         * Returns the masses of the ambiguously localized modifications of
+         * every spectrum processed by this runnable.
+         *
+         * @return the masses of the ambiguously localized modifications
+         */
+        public HashMap<String, ArrayList<Double>> getNotConfidentMasses() {
+            return notConfidentMasses;
+        }
+
+        /**
+         * Returns the sequence of the best peptide of the spectra carrying
+         * confidently localized modifications.
+         *
+         * @return the sequence of the best peptide of the spectra carrying
+         * confidently localized modifications
+         */
+        public HashMap<String, String> getSequences() {
+            return sequences;
+        }
+
+        /**
+         * Returns the matching key of the best peptide of the spectra carrying
+         * confidently localized modifications.
+         *
+         * @return the matching key of the best peptide of the spectra carrying
+         * confidently localized modifications
+         */
+        public HashMap<String, String> getMatchingKeys() {
+            return matchingKeys;
+        }
+    }
+
+    /**
+     * Runnable inferring the ambiguously localized modifications of a given
+     * mass.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideInferenceRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The mass of the modification.
+         */
+        private Double ptmMass;
+        /**
+         * The number of ambiguously localized modifications of this mass per
+         * spectrum.
+         */
+        private HashMap<String, Integer> occurrences;
+        /**
+         * The keys of the spectra not yet counted in the progress.
+         */
+        private HashSet<String> newKeys;
+        /**
+         * The PSMs with confidently localized PTMs.
+         */
+        private HashMap<Double, HashMap<String, ArrayList<String>>> confidentPeptideInference;
+        /**
+         * The matching keys of the PSMs with confidently localized PTMs taken
+         * before the inference.
+         */
+        private HashMap<String, String> confidentMatchingKeys;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param identification the identification containing the matches
+         * @param ptmMass the mass of the modification
+         * @param occurrences the number of ambiguously localized modifications
+         * of this mass per spectrum
+         * @param newKeys the keys of the spectra not yet counted in the
+         * progress
+         * @param confidentPeptideInference the PSMs with confidently localized
+         * PTMs
+         * @param confidentMatchingKeys the matching keys of the PSMs with
+         * confidently localized PTMs taken before the inference
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideInferenceRunnable(PsmIterator psmIterator, Identification identification, Double ptmMass, HashMap<String, Integer> occurrences, HashSet<String> newKeys,
+                HashMap<Double, HashMap<String, ArrayList<String>>> confidentPeptideInference, HashMap<String, String> confidentMatchingKeys,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identification = identification;
+            this.ptmMass = ptmMass;
+            this.occurrences = occurrences;
+            this.newKeys = newKeys;
+            this.confidentPeptideInference = confidentPeptideInference;
+            this.confidentMatchingKeys = confidentMatchingKeys;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        String spectrumKey = spectrumMatch.getKey();
+                        int nOccurrences = occurrences.get(spectrumKey);
+                        for (int i = 0; i < nOccurrences; i++) {
+                            inferPeptideSites(identification, spectrumMatch, ptmMass, confidentPeptideInference, confidentMatchingKeys, identificationParameters);
+                        }
+                        if (newKeys.contains(spectrumKey)) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
 }
@@ -18,8 +18,10 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Specific
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -50,6 +52,26 @@ public class RunMzDeviation {
      * theoretic (identification) value.
      */
     private HashMap<Double, HashMap<Double, Double>> fragmentsRtDeviations = new HashMap<Double, HashMap<Double, Double>>();
+    /**
+     * The sorted precursor RT bins.
+     */
+    private double[] precursorRTs;
+    /**
+     * The precursor slopes indexed by RT bin.
+     */
+    private double[] precursorSlopesGrid;
+    /**
+     * The precursor offsets indexed by RT bin.
+     */
+    private double[] precursorOffsetsGrid;
+    /**
+     * The sorted fragment m/z bins indexed by RT bin.
+     */
+    private double[][] fragmentMzGrid;
+    /**
+     * The fragment errors indexed by RT bin and m/z bin.
+     */
+    private double[][] fragmentErrorGrid;
     /**
      * The bin size used for ms2 correction.
      */
@@ -119,29 +141,11 @@ public class RunMzDeviation {
      */
     public double getPrecursorMzCorrection(Double precursorMz, Double precursorRT) {
 
-        double key1 = precursorRTList.get(0);
-        double key2 = key1;
-
-        if (precursorRT > key1) {
-            key1 = precursorRTList.get(precursorRTList.size() - 1);
-            key2 = key1;
-            if (precursorRT < key1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    key1 = precursorRTList.get(i);
-                    if (precursorRT == key1) {
-                        key2 = precursorRT;
-                        break;
-                    }
-                    key2 = precursorRTList.get(i + 1);
-                    if (key1 < precursorRT && precursorRT < key2) {
-                        break;
-                    }
-                }
-            }
-        }
+        int index1 = getLowerIndex(precursorRTs, precursorRT);
+        int index2 = getUpperIndex(precursorRTs, precursorRT, index1);
 
-        double grade = (precursorSlopes.get(key1) + precursorSlopes.get(key2)) / 2;
-        double offset = (precursorOffsets.get(key1) + precursorOffsets.get(key2)) / 2;
+        double grade = (precursorSlopesGrid[index1] + precursorSlopesGrid[index2]) / 2;
+        double offset = (precursorOffsetsGrid[index1] + precursorOffsetsGrid[index2]) / 2;
         return grade * precursorMz + offset;
     }
 
@@ -155,84 +159,60 @@ public class RunMzDeviation {
      */
     public Double getFragmentMzError(double precursorRT, double fragmentMZ) {
 
-        double rtKey1 = precursorRTList.get(0);
-        double rtKey2 = rtKey1;
-
-        if (precursorRT > rtKey1) {
-            rtKey1 = precursorRTList.get(precursorRTList.size() - 1);
-            rtKey2 = rtKey1;
-            if (precursorRT < rtKey1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    rtKey1 = precursorRTList.get(i);
-                    if (precursorRT == rtKey1) {
-                        rtKey2 = precursorRT;
-                        break;
-                    }
-                    rtKey2 = precursorRTList.get(i + 1);
-                    if (rtKey1 < precursorRT && precursorRT < rtKey2) {
-                        break;
-                    }
-                }
-            }
-        }
+        int rtIndex1 = getLowerIndex(precursorRTs, precursorRT);
+        int rtIndex2 = getUpperIndex(precursorRTs, precursorRT, rtIndex1);
 
-        ArrayList<Double> mzList = new ArrayList<Double>(fragmentsRtDeviations.get(rtKey1).keySet());
-        Collections.sort(mzList);
-        double mzKey1 = mzList.get(0);
-        double mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
-        }
+        return getFragmentMzError(rtIndex1, rtIndex2, fragmentMZ);
+    }
 
-        double correction11 = fragmentsRtDeviations.get(rtKey1).get(mzKey1);
-        double correction12 = fragmentsRtDeviations.get(rtKey1).get(mzKey2);
-        double correction1 = correction11 * mzKey1 / (mzKey1 + mzKey2) + correction12 * mzKey2 / (mzKey1 + mzKey2);
-
-        mzList = new ArrayList<Double>(fragmentsRtDeviations.get(rtKey2).keySet());
-        Collections.sort(mzList);
-        mzKey1 = mzList.get(0);
-        mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
-        }
+    /**
+     * Returns the fragment error at the given retention time bins and fragment
+     * m/z.
+     *
+     * @param rtIndex1 the index of the retention time bin below the precursor
+     * retention time
+     * @param rtIndex2 the index of the retention time bin above the precursor
+     * retention time
+     * @param fragmentMZ the fragment m/z
+     *
+     * @return the error found
+     */
+    private double getFragmentMzError(int rtIndex1, int rtIndex2, double fragmentMZ) {
 
-        double correction21 = fragmentsRtDeviations.get(rtKey2).get(mzKey1);
-        double correction22 = fragmentsRtDeviations.get(rtKey2).get(mzKey2);
-        double correction2 = correction21 * mzKey1 / (mzKey1 + mzKey2) + correction22 * mzKey2 / (mzKey1 + mzKey2);
+        double rtKey1 = precursorRTs[rtIndex1];
+        double rtKey2 = precursorRTs[rtIndex2];
+
+        double correction1 = getFragmentMzError(rtIndex1, fragmentMZ);
+        double correction2 = getFragmentMzError(rtIndex2, fragmentMZ);
 
         return correction1 * rtKey1 / (rtKey1 + rtKey2) + correction2 * rtKey2 / (rtKey1 + rtKey2);
     }
 
+    /**
+     * Returns the fragment error interpolated in the m/z bins of the given
+     * retention time bin. Zero if no fragment error was found in this bin.
+     *
+     * @param rtIndex the index of the retention time bin
+     * @param fragmentMZ the fragment m/z
+     *
+     * @return the error found
+     */
+    private double getFragmentMzError(int rtIndex, double fragmentMZ) {
+
+        double[] mzGrid = fragmentMzGrid[rtIndex];
+        if (mzGrid.length == 0) {
+            return 0;
+        }
+        double[] errorGrid = fragmentErrorGrid[rtIndex];
+
+        int mzIndex1 = getLowerIndex(mzGrid, fragmentMZ);
+        int mzIndex2 = getUpperIndex(mzGrid, fragmentMZ, mzIndex1);
+        double mzKey1 = mzGrid[mzIndex1];
+        double mzKey2 = mzGrid[mzIndex2];
+
+        return errorGrid[mzIndex1] * mzKey1 / (mzKey1 + mzKey2) + errorGrid[mzIndex2] * mzKey2 / (mzKey1 + mzKey2);
+    }
+
     /**
      * Recalibrate a peak list.
      *
@@ -242,17 +222,126 @@ public class RunMzDeviation {
      * @return the recalibrated peak list
      */
     public HashMap<Double, Peak> recalibratePeakList(double precursorRT, HashMap<Double, Peak> originalPeakList) {
-        HashMap<Double, Peak> recalibratedPeakList = new HashMap<Double, Peak>(originalPeakList.size());
 
-        for (double mz : originalPeakList.keySet()) {
-            double correction = getFragmentMzError(precursorRT, mz);
-            double newMz = mz - correction;
-            Peak peak = new Peak(newMz, originalPeakList.get(mz).intensity);
-            recalibratedPeakList.put(newMz, peak);
+        int nPeaks = originalPeakList.size();
+        double[] mzArray = new double[nPeaks];
+        double[] intensityArray = new double[nPeaks];
+        int i = 0;
+        for (Map.Entry<Double, Peak> entry : originalPeakList.entrySet()) {
+            mzArray[i] = entry.getKey();
+            intensityArray[i] = entry.getValue().intensity;
+            i++;
+        }
+
+        recalibrateMzArray(precursorRT, mzArray);
+
+        HashMap<Double, Peak> recalibratedPeakList = new HashMap<Double, Peak>(nPeaks);
+        for (i = 0; i < nPeaks; i++) {
+            double newMz = mzArray[i];
+            recalibratedPeakList.put(newMz, new Peak(newMz, intensityArray[i]));
         }
         return recalibratedPeakList;
     }
 
+    /**
+     * Recalibrates an array of fragment m/z in place. The retention time bins
+     * are only looked up once for the whole array.
+     *
+     * @param precursorRT the precursor retention time
+     * @param mzArray the fragment m/z to recalibrate
+     */
+    public void recalibrateMzArray(double precursorRT, double[] mzArray) {
+
+        int rtIndex1 = getLowerIndex(precursorRTs, precursorRT);
+        int rtIndex2 = getUpperIndex(precursorRTs, precursorRT, rtIndex1);
+
+        for (int i = 0; i < mzArray.length; i++) {
+            double mz = mzArray[i];
+            mzArray[i] = mz - getFragmentMzError(rtIndex1, rtIndex2, mz);
+        }
+    }
+
+    /**
+     * Returns the index of the largest key lower than or equal to the given
+     * value, the first key if the value is below all keys.
+     *
+     * @param keys the sorted keys
+     * @param value the value
+     *
+     * @return the index of the key below the value
+     */
+    private static int getLowerIndex(double[] keys, double value) {
+        if (value <= keys[0]) {
+            return 0;
+        }
+        int lastIndex = keys.length - 1;
+        if (value >= keys[lastIndex]) {
+            return lastIndex;
+        }
+        int index = Arrays.binarySearch(keys, value);
+        if (index >= 0) {
+            return index;
+        }
+        return -index - 2;
+    }
+
+    /**
+     * Returns the index of the smallest key higher than or equal to the given
+     * value, the lower index if the value matches a key or lies outside the
+     * keys.
+     *
+     * @param keys the sorted keys
+     * @param value the value
+     * @param lowerIndex the index returned by getLowerIndex for this value
+     *
+     * @return the index of the key above the value
+     */
+    private static int getUpperIndex(double[] keys, double value, int lowerIndex) {
+        if (keys[lowerIndex] >= value || lowerIndex == keys.length - 1) {
+            return lowerIndex;
+        }
+        return lowerIndex + 1;
+    }
+
+    /**
+     * Builds the sorted interpolation grids from the deviation maps.
+     */
+    private void buildGrids() {
+
+        int nRtBins = precursorRTList.size();
+        precursorRTs = new double[nRtBins];
+        precursorSlopesGrid = new double[nRtBins];
+        precursorOffsetsGrid = new double[nRtBins];
+        fragmentMzGrid = new double[nRtBins][];
+        fragmentErrorGrid = new double[nRtBins][];
+
+        for (int i = 0; i < nRtBins; i++) {
+
+            Double rtKey = precursorRTList.get(i);
+            precursorRTs[i] = rtKey;
+            precursorSlopesGrid[i] = precursorSlopes.get(rtKey);
+            precursorOffsetsGrid[i] = precursorOffsets.get(rtKey);
+
+            HashMap<Double, Double> mzErrors = fragmentsRtDeviations.get(rtKey);
+            if (mzErrors == null) {
+                fragmentMzGrid[i] = new double[0];
+                fragmentErrorGrid[i] = new double[0];
+            } else {
+                ArrayList<Double> mzList = new ArrayList<Double>(mzErrors.keySet());
+                Collections.sort(mzList);
+                double[] mzGrid = new double[mzList.size()];
+                double[] errorGrid = new double[mzList.size()];
+                for (int j = 0; j < mzList.size(); j++) {
+                    Double mzKey = mzList.get(j);
+                    mzGrid[j] = mzKey;
+                    errorGrid[j] = mzErrors.get(mzKey);
+                }
+                fragmentMzGrid[i] = mzGrid;
+                fragmentErrorGrid[i] = errorGrid;
+            }
+        }
+    }
+
     /**
      * Creates a map of m/z deviations for a given run.
      *
@@ -774,5 +863,6 @@ public class RunMzDeviation {
 
         precursorRTList = new ArrayList<Double>(precursorSlopes.keySet());
         Collections.sort(precursorRTList);
+        buildGrids();
     }
 }
@@ -12,7 +12,9 @@ import java.util.Set;
 
 /**
  * This class contains basic information about the hits as imported from the
- * various search engine result files.
+ * various search engine result files. The maps of target/decoy maps are
+ * copied on write so that entries can be added concurrently without locking
+ * the readers.
  *
  * @author Marc Vaudel
  */
@@ -26,17 +28,17 @@ public class InputMap implements Serializable {
      * Map of the hits as imported. One target/decoy map per identification
      * advocate (referenced by their compomics utilities index).
      */
-    private HashMap<Integer, TargetDecoyMap> inputMap = new HashMap<Integer, TargetDecoyMap>();
+    private volatile HashMap<Integer, TargetDecoyMap> inputMap = new HashMap<Integer, TargetDecoyMap>();
     /**
      * Map of the hits per file as imported. advocate index &gt; file name &gt;
      * target decoy map
      */
-    private HashMap<Integer, HashMap<String, TargetDecoyMap>> inputSpecificMap = new HashMap<Integer, HashMap<String, TargetDecoyMap>>();
+    private volatile HashMap<Integer, HashMap<String, TargetDecoyMap>> inputSpecificMap = new HashMap<Integer, HashMap<String, TargetDecoyMap>>();
     /**
      * Map of the intermediate scores. Name of the file &gt; advocate index &gt;
      * score index
      */
-    private HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>> intermediateScores = new HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>>();
+    private volatile HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>> intermediateScores = new HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>>();
     /**
      * Map of the search engine contribution. Advocate Id &gt; Spectrum file
      * name &gt; number of validated hits.
@@ -251,12 +253,9 @@ public class InputMap implements Serializable {
         }
         targetDecoyMap.put(eValue, isDecoy);
         HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(searchEngine);
-        if (algorithmMap == null) {
-            algorithmMap = createIntermediateInputSpecificMap(searchEngine);
-        }
-        targetDecoyMap = algorithmMap.get(spectrumFileName);
+        targetDecoyMap = algorithmMap == null ? null : algorithmMap.get(spectrumFileName);
         if (targetDecoyMap == null) {
-            targetDecoyMap = createTargetDecoySpecificMap(spectrumFileName, algorithmMap);
+            targetDecoyMap = createTargetDecoySpecificMap(searchEngine, spectrumFileName);
         }
         targetDecoyMap.put(eValue, isDecoy);
     }
@@ -272,40 +271,37 @@ public class InputMap implements Serializable {
         TargetDecoyMap targetDecoyMap = inputMap.get(searchEngine);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
-            inputMap.put(searchEngine, targetDecoyMap);
+            HashMap<Integer, TargetDecoyMap> newInputMap = new HashMap<Integer, TargetDecoyMap>(inputMap);
+            newInputMap.put(searchEngine, targetDecoyMap);
+            inputMap = newInputMap;
         }
         return targetDecoyMap;
     }
 
     /**
-     * Creates the intermediate input specific map for the given search engine unless already done by another thread.
-     * 
+     * Creates the target-decoy input specific map for the given search engine
+     * and spectrum file unless already done by another thread.
+     *
      * @param searchEngine the index of the search engine
-     * 
-     * @return the corresponding map
-     */
-    private synchronized HashMap<String, TargetDecoyMap> createIntermediateInputSpecificMap(Integer searchEngine) {
-        HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(searchEngine);
-        if (algorithmMap == null) {
-            algorithmMap = new HashMap<String, TargetDecoyMap>(2);
-            inputSpecificMap.put(searchEngine, algorithmMap);
-        }
-        return algorithmMap;
-    }
-
-    /**
-     * Creates the target-decoy input specific map for the given search engine unless already done by another thread.
-     * 
      * @param spectrumFileName the name of the spectrum file
-     * @param algorithmMap the algorithm map
-     * 
+     *
      * @return the corresponding map
      */
-    private synchronized TargetDecoyMap createTargetDecoySpecificMap(String spectrumFileName, HashMap<String, TargetDecoyMap> algorithmMap) {
-        TargetDecoyMap targetDecoyMap = algorithmMap.get(spectrumFileName);
+    private synchronized TargetDecoyMap createTargetDecoySpecificMap(Integer searchEngine, String spectrumFileName) {
+        HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(searchEngine);
+        TargetDecoyMap targetDecoyMap = algorithmMap == null ? null : algorithmMap.get(spectrumFileName);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
-            algorithmMap.put(spectrumFileName, targetDecoyMap);
+            HashMap<String, TargetDecoyMap> newAlgorithmMap;
+            if (algorithmMap == null) {
+                newAlgorithmMap = new HashMap<String, TargetDecoyMap>(2);
+            } else {
+                newAlgorithmMap = new HashMap<String, TargetDecoyMap>(algorithmMap);
+            }
+            newAlgorithmMap.put(spectrumFileName, targetDecoyMap);
+            HashMap<Integer, HashMap<String, TargetDecoyMap>> newInputSpecificMap = new HashMap<Integer, HashMap<String, TargetDecoyMap>>(inputSpecificMap);
+            newInputSpecificMap.put(searchEngine, newAlgorithmMap);
+            inputSpecificMap = newInputSpecificMap;
         }
         return targetDecoyMap;
     }
@@ -618,71 +614,48 @@ public class InputMap implements Serializable {
      * @param psmScoringPreferences the psm scoring preferences
      */
     public void setIntermediateScore(String fileName, Integer advocateIndex, Integer scoreIndex, double score, boolean decoy, PsmScoringPreferences psmScoringPreferences) {
-        HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap = intermediateScores.get(fileName);
-        if (advocateMap == null) {
-            advocateMap = createIntermediateScoreMap(fileName);
-        }
-        HashMap<Integer, TargetDecoyMap> scoreMap = advocateMap.get(advocateIndex);
-        if (scoreMap == null) {
-            scoreMap = createIntermediateScoreMap(advocateIndex, advocateMap);
-        }
-        TargetDecoyMap targetDecoyMap = scoreMap.get(scoreIndex);
+        TargetDecoyMap targetDecoyMap = getIntermediateScoreMap(fileName, advocateIndex, scoreIndex);
         if (targetDecoyMap == null) {
-            targetDecoyMap = createTargetDecoyMap(scoreIndex, scoreMap, psmScoringPreferences);
+            targetDecoyMap = createTargetDecoyMap(fileName, advocateIndex, scoreIndex, psmScoringPreferences);
         }
         targetDecoyMap.put(score, decoy);
     }
 
     /**
-     * Creates the intermediate score map for the given file if not set before
-     * by another thread.
+     * Creates the target-decoy map for the given file, advocate and score
+     * index if not created before by another thread.
      *
      * @param fileName the name of the file
-     *
-     * @return the intermediate score map
-     */
-    private synchronized HashMap<Integer, HashMap<Integer, TargetDecoyMap>> createIntermediateScoreMap(String fileName) {
-        HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap = intermediateScores.get(fileName);
-        if (advocateMap == null) {
-            advocateMap = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>();
-            intermediateScores.put(fileName, advocateMap);
-        }
-        return advocateMap;
-    }
-
-    /**
-     * Creates the intermediate score map for the given advocate if not set
-     * before by another thread.
-     *
      * @param advocateIndex the index of the advocate
-     * @param advocateMap the map for the current file
-     *
-     * @return the intermediate score map
-     */
-    private synchronized HashMap<Integer, TargetDecoyMap> createIntermediateScoreMap(Integer advocateIndex, HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap) {
-        HashMap<Integer, TargetDecoyMap> scoreMap = advocateMap.get(advocateIndex);
-        if (scoreMap == null) {
-            scoreMap = new HashMap<Integer, TargetDecoyMap>();
-            advocateMap.put(advocateIndex, scoreMap);
-        }
-        return scoreMap;
-    }
-
-    /**
-     * Creates the target-decoy map for the given score index if not created
-     * before by another thread.
-     *
      * @param scoreIndex the index of the score
-     * @param scoreMap the intermediate map for this advocate
      * @param psmScoringPreferences the psm scoring preferences
      *
      * @return the target-decoy map
      */
-    private synchronized TargetDecoyMap createTargetDecoyMap(Integer scoreIndex, HashMap<Integer, TargetDecoyMap> scoreMap, PsmScoringPreferences psmScoringPreferences) {
-        TargetDecoyMap targetDecoyMap = scoreMap.get(scoreIndex);
+    private synchronized TargetDecoyMap createTargetDecoyMap(String fileName, Integer advocateIndex, Integer scoreIndex, PsmScoringPreferences psmScoringPreferences) {
+        TargetDecoyMap targetDecoyMap = getIntermediateScoreMap(fileName, advocateIndex, scoreIndex);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap(psmScoringPreferences.getDecoysInFirstBin());
-            scoreMap.put(scoreIndex, targetDecoyMap);
+            HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap = intermediateScores.get(fileName);
+            HashMap<Integer, HashMap<Integer, TargetDecoyMap>> newAdvocateMap;
+            HashMap<Integer, TargetDecoyMap> newScoreMap;
+            if (advocateMap == null) {
+                newAdvocateMap = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>();
+                newScoreMap = new HashMap<Integer, TargetDecoyMap>();
+            } else {
+                newAdvocateMap = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>(advocateMap);
+                HashMap<Integer, TargetDecoyMap> scoreMap = advocateMap.get(advocateIndex);
+                if (scoreMap == null) {
+                    newScoreMap = new HashMap<Integer, TargetDecoyMap>();
+                } else {
+                    newScoreMap = new HashMap<Integer, TargetDecoyMap>(scoreMap);
+                }
+            }
+            newScoreMap.put(scoreIndex, targetDecoyMap);
+            newAdvocateMap.put(advocateIndex, newScoreMap);
+            HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>> newIntermediateScores = new HashMap<String, HashMap<Integer, HashMap<Integer, TargetDecoyMap>>>(intermediateScores);
+            newIntermediateScores.put(fileName, newAdvocateMap);
+            intermediateScores = newIntermediateScores;
         }
         return targetDecoyMap;
     }
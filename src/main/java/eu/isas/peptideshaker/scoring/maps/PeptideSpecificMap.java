@@ -114,6 +114,24 @@ public class PeptideSpecificMap implements Serializable {
         peptideMaps.get(key).put(probabilityScore, peptideMatch.getTheoreticPeptide().isDecoy(sequenceMatchingPreferences));
     }
 
+    /**
+     * Adds the points of another peptide map to this map. Note: the grouping
+     * of the other map is not transferred, this method should be used before
+     * cleaning the map.
+     *
+     * @param anOtherMap the other peptide map
+     */
+    public void addAll(PeptideSpecificMap anOtherMap) {
+        for (String key : anOtherMap.peptideMaps.keySet()) {
+            TargetDecoyMap targetDecoyMap = peptideMaps.get(key);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                peptideMaps.put(key, targetDecoyMap);
+            }
+            targetDecoyMap.addAll(anOtherMap.peptideMaps.get(key));
+        }
+    }
+
     /**
      * Returns a list of keys from maps presenting a suspicious input.
      *
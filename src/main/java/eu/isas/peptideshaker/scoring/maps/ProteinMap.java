@@ -55,6 +55,15 @@ public class ProteinMap implements Serializable {
         proteinMatchMap.put(probabilityScore, isDecoy);
     }
 
+    /**
+     * Adds the points of another protein map to this map.
+     *
+     * @param anOtherMap the other protein map
+     */
+    public void addAll(ProteinMap anOtherMap) {
+        proteinMatchMap.addAll(anOtherMap.proteinMatchMap);
+    }
+
     /**
      * Removes a point in the target/decoy map. Note: it is necessary to run
      * cleanUp() afterwards to clean up the map.
@@ -159,6 +159,32 @@ public class PsmSpecificMap implements Serializable {
         targetDecoyMap.put(probabilityScore, spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences));
     }
 
+    /**
+     * Adds the points of another PSM map to this map. Note: the grouping of
+     * the other map is not transferred, this method should be used before
+     * cleaning the map.
+     *
+     * @param anOtherMap the other PSM map
+     */
+    public void addAll(PsmSpecificMap anOtherMap) {
+        for (Integer charge : anOtherMap.fileSpecificPsmsMaps.keySet()) {
+            HashMap<String, TargetDecoyMap> otherFileMapping = anOtherMap.fileSpecificPsmsMaps.get(charge);
+            HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
+            if (fileMapping == null) {
+                fileMapping = new HashMap<String, TargetDecoyMap>();
+                fileSpecificPsmsMaps.put(charge, fileMapping);
+            }
+            for (String file : otherFileMapping.keySet()) {
+                TargetDecoyMap targetDecoyMap = fileMapping.get(file);
+                if (targetDecoyMap == null) {
+                    targetDecoyMap = new TargetDecoyMap();
+                    fileMapping.put(file, targetDecoyMap);
+                }
+                targetDecoyMap.addAll(otherFileMapping.get(file));
+            }
+        }
+    }
+
     /**
      * This method groups the statistically non significant PSMs between files
      * and with the ones having a charge directly smaller until statistical
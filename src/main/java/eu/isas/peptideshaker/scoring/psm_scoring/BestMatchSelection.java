@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
@@ -23,9 +24,11 @@ import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.preferences.IdMatchValidationPreferences;
+import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
 import eu.isas.peptideshaker.utils.Metrics;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.io.IOException;
@@ -34,6 +37,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -86,12 +92,18 @@ public class BestMatchSelection {
     }
 
     /**
-     * Fills the PSM specific map.
+     * Fills the PSM specific map. The PSMs of every spectrum file are
+     * distributed among the threads, each thread filling its own PSM map and
+     * peptide grouping. These are merged in the order of the spectra once all
+     * PSMs of the file are processed so that the result does not depend on
+     * the threading.
      *
      * @param inputMap The input map
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for the exceptions
      * @param shotgunProtocol information about the protocol
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with the back-end database
@@ -104,23 +116,14 @@ public class BestMatchSelection {
      * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
      * whenever an error occurred while reading an mzML file
      */
-    public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+    public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
         boolean multiSE = inputMap.isMultipleAlgorithms();
-
-        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
-        IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
-
-        PeptideAssumptionFilter idFilter = identificationParameters.getPeptideAssumptionFilter();
+        int nThreads = processingPreferences.getnThreads();
 
         // Keep a map of the spectrum keys grouped by peptide
         HashMap<String, ArrayList<String>> orderedPsmMap = null;
@@ -128,263 +131,346 @@ public class BestMatchSelection {
             orderedPsmMap = new HashMap<String, ArrayList<String>>(identification.getSpectrumIdentificationMap().size());
         }
 
-        PSParameter psParameter = new PSParameter();
-
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-            HashMap<String, ArrayList<String>> keysMap = null;
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+            ArrayList<BestMatchSelectionRunnable> runnables = new ArrayList<BestMatchSelectionRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                BestMatchSelectionRunnable runnable = new BestMatchSelectionRunnable(psmIterator, multiSE, orderedPsmMap != null, identificationParameters, waitingHandler, exceptionHandler);
+                runnables.add(runnable);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Best match selection timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            PsmSpecificMap psmMap = matchesValidator.getPsmMap();
+            for (BestMatchSelectionRunnable runnable : runnables) {
+                psmMap.addAll(runnable.getPsmMap());
+            }
+
             if (orderedPsmMap != null) {
-                keysMap = new HashMap<String, ArrayList<String>>();
+
+                HashMap<String, String> peptideKeys = new HashMap<String, String>(identification.getSpectrumIdentification(spectrumFileName).size());
+                for (BestMatchSelectionRunnable runnable : runnables) {
+                    peptideKeys.putAll(runnable.getPeptideKeys());
+                }
+
+                // group the keys in the order of the spectra
+                HashMap<String, ArrayList<String>> keysMap = new HashMap<String, ArrayList<String>>();
+                for (String spectrumKey : identification.getSpectrumIdentification(spectrumFileName)) {
+                    String peptideKey = peptideKeys.get(spectrumKey);
+                    if (peptideKey != null) {
+                        ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                        if (spectrumKeys == null) {
+                            spectrumKeys = new ArrayList<String>();
+                            keysMap.put(peptideKey, spectrumKeys);
+                        }
+                        spectrumKeys.add(spectrumKey);
+                    }
+                }
+
+                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
+                for (ArrayList<String> keys : keysMap.values()) {
+                    orderedKeys.addAll(keys);
+                }
+                orderedPsmMap.put(spectrumFileName, orderedKeys);
+
+                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                    orderedPsmMap = null;
+                }
             }
+        }
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+        if (orderedPsmMap != null) {
+            metrics.setOrderedSpectrumKeys(orderedPsmMap);
+        }
 
-            while (psmIterator.hasNext()) {
+        // the protein count map is no longer needed
+        proteinCount.clear();
 
-                SpectrumMatch advocateMatch = psmIterator.next();
-                String spectrumKey = advocateMatch.getKey();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-                // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
-                HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
-                        = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
+    /**
+     * Selects the best hit of the given spectrum and fills the given PSM map.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param multiSE boolean indicating whether multiple search engines were
+     * used
+     * @param psmMap the PSM map to fill
+     * @param peptideKeys map where to store the key of the best peptide of
+     * every spectrum, ignored if null
+     * @param identificationParameters the identification parameters
+     * @param spectrumAnnotator the spectrum annotator to use
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the back-end database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading an external file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     */
+    private void selectBestHit(String spectrumKey, boolean multiSE, PsmSpecificMap psmMap, HashMap<String, String> peptideKeys,
+            IdentificationParameters identificationParameters, PeptideSpectrumAnnotator spectrumAnnotator) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-                // map of the tag first hits: score -> assumptions
-                HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
+        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
+        IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
 
-                HashSet<String> identifications = new HashSet<String>();
+        PeptideAssumptionFilter idFilter = identificationParameters.getPeptideAssumptionFilter();
 
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+        PSParameter psParameter = new PSParameter();
 
-                for (int searchEngine1 : assumptions.keySet()) {
+        // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
+        HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
+                = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
 
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
+        // map of the tag first hits: score -> assumptions
+        HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
 
-                    ArrayList<Double> eValues1 = new ArrayList<Double>(advocate1Map.keySet());
-                    Collections.sort(eValues1);
+        HashSet<String> identifications = new HashSet<String>();
 
-                    for (Double eValue1 : eValues1) {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
 
-                        boolean bestPeptideFound = false;
+        for (int searchEngine1 : assumptions.keySet()) {
 
-                        for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(eValue1)) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
 
-                            if (assumption1 instanceof PeptideAssumption) {
+            ArrayList<Double> eValues1 = new ArrayList<Double>(advocate1Map.keySet());
+            Collections.sort(eValues1);
 
-                                PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
-                                Peptide peptide1 = peptideAssumption1.getPeptide();
-                                String id = peptide1.getKey();
+            for (Double eValue1 : eValues1) {
 
-                                if (!identifications.contains(id)) {
+                boolean bestPeptideFound = false;
 
-                                    boolean filterPassed1 = true;
-                                    if (!peptideAssumptionFilter.validatePeptide(peptide1, sequenceMatchingPreferences, searchParameters.getEnzyme())
-                                            || !peptideAssumptionFilter.validateModifications(peptide1, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())
-                                            || !peptideAssumptionFilter.validatePrecursor(peptideAssumption1, spectrumKey, spectrumFactory, searchParameters)
-                                            || !peptideAssumptionFilter.validateProteins(peptide1, sequenceMatchingPreferences)) {
-                                        filterPassed1 = false;
-                                    } else {
-                                        ArrayList<String> accessions = peptide1.getParentProteins(sequenceMatchingPreferences);
-                                        if (accessions == null || accessions.isEmpty()) {
-                                            filterPassed1 = false;
-                                        }
-                                    }
+                for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(eValue1)) {
 
-                                    if (filterPassed1) {
+                    if (assumption1 instanceof PeptideAssumption) {
 
-                                        bestPeptideFound = true;
+                        PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
+                        Peptide peptide1 = peptideAssumption1.getPeptide();
+                        String id = peptide1.getKey();
 
-                                        psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
-                                        double p;
+                        if (!identifications.contains(id)) {
 
-                                        if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
-                                            p = psParameter.getSearchEngineProbability();
-                                        } else {
-                                            p = peptideAssumption1.getScore();
-                                        }
+                            boolean filterPassed1 = true;
+                            if (!peptideAssumptionFilter.validatePeptide(peptide1, sequenceMatchingPreferences, searchParameters.getEnzyme())
+                                    || !peptideAssumptionFilter.validateModifications(peptide1, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())
+                                    || !peptideAssumptionFilter.validatePrecursor(peptideAssumption1, spectrumKey, spectrumFactory, searchParameters)
+                                    || !peptideAssumptionFilter.validateProteins(peptide1, sequenceMatchingPreferences)) {
+                                filterPassed1 = false;
+                            } else {
+                                ArrayList<String> accessions = peptide1.getParentProteins(sequenceMatchingPreferences);
+                                if (accessions == null || accessions.isEmpty()) {
+                                    filterPassed1 = false;
+                                }
+                            }
 
-                                        int nSE = 1;
-                                        int proteinMax = 1;
-                                        for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
-                                            Integer tempCount = proteinCount.get(protein);
-                                            if (tempCount != null && tempCount > proteinMax) {
-                                                proteinMax = tempCount;
-                                            }
-                                        }
+                            if (filterPassed1) {
+
+                                bestPeptideFound = true;
 
-                                        for (int searchEngine2 : assumptions.keySet()) {
+                                psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
+                                double p;
 
-                                            if (searchEngine1 != searchEngine2) {
+                                if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
+                                    p = psParameter.getSearchEngineProbability();
+                                } else {
+                                    p = peptideAssumption1.getScore();
+                                }
 
-                                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
+                                int nSE = 1;
+                                int proteinMax = 1;
+                                for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
+                                    Integer tempCount = proteinCount.get(protein);
+                                    if (tempCount != null && tempCount > proteinMax) {
+                                        proteinMax = tempCount;
+                                    }
+                                }
 
-                                                boolean found = false;
-                                                ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
-                                                Collections.sort(eValues2);
+                                for (int searchEngine2 : assumptions.keySet()) {
 
-                                                for (double eValue2 : eValues2) {
+                                    if (searchEngine1 != searchEngine2) {
 
-                                                    for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
+                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
 
-                                                        if (assumption2 instanceof PeptideAssumption) {
+                                        boolean found = false;
+                                        ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
+                                        Collections.sort(eValues2);
 
-                                                            PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
+                                        for (double eValue2 : eValues2) {
 
-                                                            if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
-                                                                    sequenceMatchingPreferences)) {
-                                                                PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
-                                                                p = p * psParameter2.getSearchEngineProbability();
-                                                                nSE++;
-                                                                found = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (found) {
+                                            for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
+
+                                                if (assumption2 instanceof PeptideAssumption) {
+
+                                                    PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
+
+                                                    if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
+                                                            sequenceMatchingPreferences)) {
+                                                        PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
+                                                        p = p * psParameter2.getSearchEngineProbability();
+                                                        nSE++;
+                                                        found = true;
                                                         break;
                                                     }
                                                 }
                                             }
+                                            if (found) {
+                                                break;
+                                            }
                                         }
+                                    }
+                                }
 
-                                        identifications.add(id);
-
-                                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                                        if (pMap == null) {
-                                            pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
-                                            peptideAssumptions.put(p, pMap);
-                                        }
+                                identifications.add(id);
 
-                                        HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                                        if (proteinMaxMap == null) {
-                                            proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
-                                            pMap.put(proteinMax, proteinMaxMap);
-                                        }
+                                HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
+                                if (pMap == null) {
+                                    pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
+                                    peptideAssumptions.put(p, pMap);
+                                }
 
-                                        HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                        if (nSeMap == null) {
-                                            nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
-                                            proteinMaxMap.put(nSE, nSeMap);
-                                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                            nSeMap.put(-1, coverageMap);
-                                            HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                            coverageMap.put(-1.0, assumptionMap);
-                                            assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                        } else {
-                                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
-
-                                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
-                                            if (coverageMap != null) {
-                                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                                for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                    Peptide peptide = tempAssumption.getPeptide();
-                                                    SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), tempAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
-                                                    HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
-                                                    int nIons = coveredAminoAcids.size();
-                                                    nSeMap.put(nIons, coverageMap);
-                                                }
-                                                nSeMap.remove(-1);
-                                            }
+                                HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
+                                if (proteinMaxMap == null) {
+                                    proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
+                                    pMap.put(proteinMax, proteinMaxMap);
+                                }
 
-                                            Peptide peptide = peptideAssumption1.getPeptide();
-                                            SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption1, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
+                                if (nSeMap == null) {
+                                    nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
+                                    proteinMaxMap.put(nSE, nSeMap);
+                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
+                                    nSeMap.put(-1, coverageMap);
+                                    HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                                    coverageMap.put(-1.0, assumptionMap);
+                                    assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                                } else {
+                                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+
+                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
+                                    if (coverageMap != null) {
+                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
+                                        for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
+                                            Peptide peptide = tempAssumption.getPeptide();
+                                            SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), tempAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
                                             HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
                                             int nIons = coveredAminoAcids.size();
+                                            nSeMap.put(nIons, coverageMap);
+                                        }
+                                        nSeMap.remove(-1);
+                                    }
 
-                                            coverageMap = nSeMap.get(nIons);
-                                            if (coverageMap == null) {
-                                                coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                                HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                                coverageMap.put(-1.0, assumptionMap);
-                                                nSeMap.put(nIons, coverageMap);
-                                            } else {
-                                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                                if (assumptionMap != null) {
-                                                    for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                        double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                                                        coverageMap.put(massError, assumptionMap);
-                                                    }
-                                                    coverageMap.remove(-1.0);
-                                                }
-
-                                                double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                                                assumptionMap = coverageMap.get(massError);
-                                                if (assumptionMap == null) {
-                                                    assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                                    coverageMap.put(massError, assumptionMap);
-                                                }
-                                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                                    Peptide peptide = peptideAssumption1.getPeptide();
+                                    SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption1, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+                                    HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
+                                    int nIons = coveredAminoAcids.size();
+
+                                    coverageMap = nSeMap.get(nIons);
+                                    if (coverageMap == null) {
+                                        coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
+                                        HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                                        coverageMap.put(-1.0, assumptionMap);
+                                        nSeMap.put(nIons, coverageMap);
+                                    } else {
+                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
+                                        if (assumptionMap != null) {
+                                            for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
+                                                double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+                                                coverageMap.put(massError, assumptionMap);
                                             }
+                                            coverageMap.remove(-1.0);
+                                        }
+
+                                        double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+                                        assumptionMap = coverageMap.get(massError);
+                                        if (assumptionMap == null) {
+                                            assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                                            coverageMap.put(massError, assumptionMap);
                                         }
+                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
                                     }
                                 }
-                            } else if (assumption1 instanceof TagAssumption) {
-                                TagAssumption tagAssumption = (TagAssumption) assumption1;
-                                ArrayList<TagAssumption> assumptionList = tagAssumptions.get(eValue1);
-                                if (assumptionList == null) {
-                                    assumptionList = new ArrayList<TagAssumption>();
-                                    tagAssumptions.put(eValue1, assumptionList);
-                                }
-                                assumptionList.add(tagAssumption);
                             }
                         }
-                        if (bestPeptideFound) {
-                            break;
+                    } else if (assumption1 instanceof TagAssumption) {
+                        TagAssumption tagAssumption = (TagAssumption) assumption1;
+                        ArrayList<TagAssumption> assumptionList = tagAssumptions.get(eValue1);
+                        if (assumptionList == null) {
+                            assumptionList = new ArrayList<TagAssumption>();
+                            tagAssumptions.put(eValue1, assumptionList);
                         }
+                        assumptionList.add(tagAssumption);
                     }
                 }
+                if (bestPeptideFound) {
+                    break;
+                }
+            }
+        }
 
-                SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
-                if (!peptideAssumptions.isEmpty()) {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+        if (!peptideAssumptions.isEmpty()) {
 
-                    PeptideAssumption bestPeptideAssumption = null;
-                    ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
-                    Collections.sort(ps);
-                    double retainedP = 0;
+            PeptideAssumption bestPeptideAssumption = null;
+            ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
+            Collections.sort(ps);
+            double retainedP = 0;
 
-                    for (double p : ps) {
+            for (double p : ps) {
 
-                        retainedP = p;
-                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                        ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
-                        Collections.sort(proteinMaxs, Collections.reverseOrder());
+                retainedP = p;
+                HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
+                ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
+                Collections.sort(proteinMaxs, Collections.reverseOrder());
 
-                        for (int proteinMax : proteinMaxs) {
+                for (int proteinMax : proteinMaxs) {
 
-                            HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                            ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
-                            Collections.sort(nSEs, Collections.reverseOrder());
+                    HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
+                    ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
+                    Collections.sort(nSEs, Collections.reverseOrder());
 
-                            for (int nSE : nSEs) {
+                    for (int nSE : nSEs) {
 
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
-                                Collections.sort(coverages, Collections.reverseOrder());
+                        HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
+                        ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
+                        Collections.sort(coverages, Collections.reverseOrder());
 
-                                for (Integer coverage : coverages) {
+                        for (Integer coverage : coverages) {
 
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
-                                    ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
-                                    Collections.sort(minErrors);
+                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
+                            ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
+                            Collections.sort(minErrors);
 
-                                    for (double minError : minErrors) {
+                            for (double minError : minErrors) {
 
-                                        HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
-                                        ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
-                                        Collections.sort(sequences);
+                                HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
+                                ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
+                                Collections.sort(sequences);
 
-                                        for (String sequence : sequences) {
-                                            PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
-                                            if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
-                                                bestPeptideAssumption = peptideAssumption;
-                                                break;
-                                            }
-                                        }
-                                        if (bestPeptideAssumption != null) {
-                                            break;
-                                        }
-                                    }
-                                    if (bestPeptideAssumption != null) {
+                                for (String sequence : sequences) {
+                                    PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
+                                    if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
+                                        bestPeptideAssumption = peptideAssumption;
                                         break;
                                     }
                                 }
@@ -401,170 +487,145 @@ public class BestMatchSelection {
                         }
                     }
                     if (bestPeptideAssumption != null) {
+                        break;
+                    }
+                }
+                if (bestPeptideAssumption != null) {
+                    break;
+                }
+            }
+            if (bestPeptideAssumption != null) {
 
-                        if (multiSE) {
-
-                            // try to find the most likely modification localization based on the search engine results
-                            HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
-                            String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
+                if (multiSE) {
 
-                            for (int searchEngine : assumptions.keySet()) {
+                    // try to find the most likely modification localization based on the search engine results
+                    HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
+                    String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
 
-                                boolean found = false;
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
-                                ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
-                                Collections.sort(eValues);
+                    for (int searchEngine : assumptions.keySet()) {
 
-                                for (double eValue : eValues) {
-                                    for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
+                        boolean found = false;
+                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
+                        ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
+                        Collections.sort(eValues);
 
-                                        if (assumption instanceof PeptideAssumption) {
+                        for (double eValue : eValues) {
+                            for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
 
-                                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                                if (assumption instanceof PeptideAssumption) {
 
-                                            if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
+                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
 
-                                                found = true;
-                                                boolean found2 = false;
+                                    if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
 
-                                                for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
-                                                    if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
-                                                        found2 = true;
-                                                        psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                        ArrayList<Double> peps = assumptionPEPs.get(assumption1);
-                                                        peps.add(psParameter.getSearchEngineProbability());
-                                                        break;
-                                                    }
-                                                }
+                                        found = true;
+                                        boolean found2 = false;
 
-                                                if (!found2) {
-                                                    ArrayList<Double> peps = new ArrayList<Double>(1);
-                                                    assumptionPEPs.put(peptideAssumption, peps);
-                                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                    peps.add(psParameter.getSearchEngineProbability());
-                                                }
+                                        for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
+                                            if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
+                                                found2 = true;
+                                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                                ArrayList<Double> peps = assumptionPEPs.get(assumption1);
+                                                peps.add(psParameter.getSearchEngineProbability());
+                                                break;
                                             }
                                         }
-                                    }
 
-                                    if (found) {
-                                        break;
+                                        if (!found2) {
+                                            ArrayList<Double> peps = new ArrayList<Double>(1);
+                                            assumptionPEPs.put(peptideAssumption, peps);
+                                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                            peps.add(psParameter.getSearchEngineProbability());
+                                        }
                                     }
                                 }
                             }
 
-                            Double bestSeP = null;
-                            int nSe = -1;
-
-                            for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
-
-                                ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
-                                Double sep = Collections.min(peps);
-
-                                if (bestSeP == null || bestSeP > sep) {
-                                    bestSeP = sep;
-                                    nSe = peps.size();
-                                    bestPeptideAssumption = peptideAssumption;
-                                } else if (peps.size() > nSe) {
-                                    if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
-                                        nSe = peps.size();
-                                        bestPeptideAssumption = peptideAssumption;
-                                    }
-                                }
+                            if (found) {
+                                break;
                             }
                         }
+                    }
 
-                        // create a PeptideShaker match based on the best search engine match
-                        Peptide sePeptide = bestPeptideAssumption.getPeptide();
-                        ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
-                        ArrayList<ModificationMatch> psModificationMatches = null;
-                        if (sePeptide.isModified()) {
-                            psModificationMatches = new ArrayList<ModificationMatch>(sePeptide.getNModifications());
-                            for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
-                                psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
-                            }
-                        }
+                    Double bestSeP = null;
+                    int nSe = -1;
 
-                        Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
-                        psPeptide.setParentProteins(psProteins);
-                        PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
+                    for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
 
-                        spectrumMatch.setBestPeptideAssumption(psAssumption);
+                        ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
+                        Double sep = Collections.min(peps);
 
-                        if (orderedPsmMap != null) {
-                            String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
-                            ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
-                            if (spectrumKeys == null) {
-                                spectrumKeys = new ArrayList<String>();
-                                keysMap.put(peptideKey, spectrumKeys);
+                        if (bestSeP == null || bestSeP > sep) {
+                            bestSeP = sep;
+                            nSe = peps.size();
+                            bestPeptideAssumption = peptideAssumption;
+                        } else if (peps.size() > nSe) {
+                            if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
+                                nSe = peps.size();
+                                bestPeptideAssumption = peptideAssumption;
                             }
-                            spectrumKeys.add(spectrumKey);
-                        }
-
-                        psParameter = new PSParameter();
-                        psParameter.setSpectrumProbabilityScore(retainedP);
-
-                        PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-
-                        matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
-                        String validationMapKey = "";
-                        if (idMatchValidationPreferences.getSeparatePsms()) {
-                            validationMapKey += psAssumption.getIdentificationCharge().value;
                         }
-                        psParameter.setSpecificMapKey(validationMapKey);
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-                        identification.updateSpectrumMatch(spectrumMatch);
                     }
                 }
-                if (!tagAssumptions.isEmpty()) {
-                    ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
-                    Double bestEvalue = Collections.min(evalues);
-                    TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
-                    spectrumMatch.setBestTagAssumption(bestAssumption);
-                    identification.updateSpectrumMatch(spectrumMatch);
-                    if (spectrumMatch.getBestPeptideAssumption() == null) {
-                        psParameter = new PSParameter();
-                        if (!multiSE) {
-                            psParameter.setSpectrumProbabilityScore(bestEvalue);
-                        }
-                        PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+
+                // create a PeptideShaker match based on the best search engine match
+                Peptide sePeptide = bestPeptideAssumption.getPeptide();
+                ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
+                ArrayList<ModificationMatch> psModificationMatches = null;
+                if (sePeptide.isModified()) {
+                    psModificationMatches = new ArrayList<ModificationMatch>(sePeptide.getNModifications());
+                    for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
+                        psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
                     }
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
-            }
 
-            if (orderedPsmMap != null) {
-                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
-                for (ArrayList<String> keys : keysMap.values()) {
-                    orderedKeys.addAll(keys);
+                Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
+                psPeptide.setParentProteins(psProteins);
+                PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
+
+                spectrumMatch.setBestPeptideAssumption(psAssumption);
+
+                if (peptideKeys != null) {
+                    peptideKeys.put(spectrumKey, psPeptide.getMatchingKey(sequenceMatchingPreferences));
                 }
-                orderedPsmMap.put(spectrumFileName, orderedKeys);
 
-                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-                    orderedPsmMap = null;
+                psParameter = new PSParameter();
+                psParameter.setSpectrumProbabilityScore(retainedP);
+
+                PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+
+                psmMap.addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
+                String validationMapKey = "";
+                if (idMatchValidationPreferences.getSeparatePsms()) {
+                    validationMapKey += psAssumption.getIdentificationCharge().value;
                 }
+                psParameter.setSpecificMapKey(validationMapKey);
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                identification.updateSpectrumMatch(spectrumMatch);
             }
         }
-
-        if (orderedPsmMap != null) {
-            metrics.setOrderedSpectrumKeys(orderedPsmMap);
+        if (!tagAssumptions.isEmpty()) {
+            ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
+            Double bestEvalue = Collections.min(evalues);
+            TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
+            spectrumMatch.setBestTagAssumption(bestAssumption);
+            identification.updateSpectrumMatch(spectrumMatch);
+            if (spectrumMatch.getBestPeptideAssumption() == null) {
+                psParameter = new PSParameter();
+                if (!multiSE) {
+                    psParameter.setSpectrumProbabilityScore(bestEvalue);
+                }
+                PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+                psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+            }
         }
-
-        // the protein count map is no longer needed
-        proteinCount.clear();
-
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
     /**
@@ -690,4 +751,108 @@ public class BestMatchSelection {
         Collections.sort(sequences);
         return sequenceToPeptideAssumptionsMap.get(sequences.get(0));
     }
+
+    /**
+     * Runnable selecting the best match of the PSMs of an iterator. Every
+     * runnable fills its own PSM map and peptide grouping.
+     *
+     * @author Marc Vaudel
+     */
+    private class BestMatchSelectionRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * Boolean indicating whether multiple search engines were used.
+         */
+        private boolean multiSE;
+        /**
+         * The PSM map filled by this runnable.
+         */
+        private PsmSpecificMap psmMap = new PsmSpecificMap();
+        /**
+         * The key of the best peptide of every spectrum processed by this
+         * runnable, null if not needed.
+         */
+        private HashMap<String, String> peptideKeys = null;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The peptide spectrum annotator.
+         */
+        private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator an iterator of the PSMs to iterate
+         * @param multiSE boolean indicating whether multiple search engines
+         * were used
+         * @param groupByPeptide boolean indicating whether the spectrum keys
+         * should be grouped by peptide
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public BestMatchSelectionRunnable(PsmIterator psmIterator, boolean multiSE, boolean groupByPeptide, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.multiSE = multiSE;
+            if (groupByPeptide) {
+                peptideKeys = new HashMap<String, String>();
+            }
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        selectBestHit(spectrumMatch.getKey(), multiSE, psmMap, peptideKeys, identificationParameters, peptideSpectrumAnnotator);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the PSM map filled by this runnable.
+         *
+         * @return the PSM map filled by this runnable
+         */
+        public PsmSpecificMap getPsmMap() {
+            return psmMap;
+        }
+
+        /**
+         * Returns the key of the best peptide of every spectrum processed by
+         * this runnable, null if not needed.
+         *
+         * @return the key of the best peptide of every spectrum processed by
+         * this runnable
+         */
+        public HashMap<String, String> getPeptideKeys() {
+            return peptideKeys;
+        }
+    }
 }
@@ -50,6 +50,11 @@ public class PsmScorer {
      * The protein sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The time spent computing every intermediate score in nanoseconds:
+     * score index &gt; time.
+     */
+    private HashMap<Integer, Long> scoringTimes = new HashMap<Integer, Long>();
 
     /**
      * Scores the PSMs contained in an identification object.
@@ -80,12 +85,16 @@ public class PsmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
+        scoringTimes.clear();
+
         for (String spectrumFileName : identification.getSpectrumFiles()) {
             ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, null);
+            ArrayList<PsmScorerRunnable> runnables = new ArrayList<PsmScorerRunnable>(processingPreferences.getnThreads());
             for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
                 PsmScorerRunnable runnable = new PsmScorerRunnable(psmIterator, identification, inputMap, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
                 pool.submit(runnable);
+                runnables.add(runnable);
             }
             if (waitingHandler.isRunCanceled()) {
                 pool.shutdownNow();
@@ -95,6 +104,16 @@ public class PsmScorer {
             if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
                 throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
             }
+            for (PsmScorerRunnable runnable : runnables) {
+                HashMap<Integer, Long> runnableTimes = runnable.getScoringTimes();
+                for (Integer scoreIndex : runnableTimes.keySet()) {
+                    Long time = scoringTimes.get(scoreIndex);
+                    if (time == null) {
+                        time = 0L;
+                    }
+                    scoringTimes.put(scoreIndex, time + runnableTimes.get(scoreIndex));
+                }
+            }
         }
 
 //        for (BufferedWriter br : brs.values()) {
@@ -104,7 +123,21 @@ public class PsmScorer {
     }
 
     /**
-     * Scores the PSMs contained in an identification object.
+     * Returns the time spent computing every intermediate score during the
+     * last call to estimateIntermediateScores in nanoseconds. The native
+     * scores are not timed.
+     *
+     * @return the time spent computing every intermediate score: score index
+     * &gt; time in nanoseconds
+     */
+    public HashMap<Integer, Long> getScoringTimes() {
+        return scoringTimes;
+    }
+
+    /**
+     * Scores the PSMs contained in an identification object. The spectrum is
+     * loaded at most once per PSM and the annotation settings are computed
+     * once per peptide assumption and shared by all scores.
      *
      * @param identification the object containing the identification matches
      * @param spectrumMatch a spectrum match containing the peptides and
@@ -113,6 +146,8 @@ public class PsmScorer {
      * @param shotgunProtocol information on the protocol used
      * @param identificationParameters identification parameters used
      * @param peptideSpectrumAnnotator the spectrum annotator to use
+     * @param scoringTimes map where to add the time spent computing every
+     * score in nanoseconds, ignored if null
      * @param waitingHandler the handler displaying feedback to the user
      *
      * @throws IOException thrown if an IOException occurs
@@ -125,17 +160,22 @@ public class PsmScorer {
      * occurs
      */
     public void estimateIntermediateScores(Identification identification, SpectrumMatch spectrumMatch, InputMap inputMap,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator, WaitingHandler waitingHandler)
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            HashMap<Integer, Long> scoringTimes, WaitingHandler waitingHandler)
             throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
 
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
         PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
 
         String spectrumKey = spectrumMatch.getKey();
         String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
 
+        // the spectrum is only loaded if a score needs it, and only once for all assumptions
+        MSnSpectrum spectrum = null;
+
         HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
 
         for (int advocateIndex : assumptions.keySet()) {
@@ -153,19 +193,33 @@ public class PsmScorer {
 
                             PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
                             PSParameter psParameter = new PSParameter();
-                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                            Peptide peptide = peptideAssumption.getPeptide();
+                            boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
+                            SpecificAnnotationSettings specificAnnotationPreferences = null;
 
                             for (int scoreIndex : scoresForAdvocate) {
 
-                                Peptide peptide = peptideAssumption.getPeptide();
-                                boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
                                 double score;
 
                                 if (scoreIndex == PsmScore.native_score.index) {
                                     score = peptideAssumption.getScore();
                                 } else {
-                                    SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+                                    if (spectrum == null) {
+                                        spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                                    }
+                                    if (specificAnnotationPreferences == null) {
+                                        specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, sequenceMatchingPreferences, ptmSequenceMatchingPreferences);
+                                    }
+                                    // only the score computation is timed, the spectrum and annotation settings are shared by all scores
+                                    long start = System.nanoTime();
                                     score = PsmScore.getDecreasingScore(peptide, peptideAssumption.getIdentificationCharge().value, spectrum, shotgunProtocol, identificationParameters, specificAnnotationPreferences, peptideSpectrumAnnotator, scoreIndex);
+                                    if (scoringTimes != null) {
+                                        Long time = scoringTimes.get(scoreIndex);
+                                        if (time == null) {
+                                            time = 0L;
+                                        }
+                                        scoringTimes.put(scoreIndex, time + System.nanoTime() - start);
+                                    }
                                 }
 
                                 psParameter.setIntermediateScore(scoreIndex, score);
@@ -391,6 +445,11 @@ public class PsmScorer {
          * The peptide spectrum annotator.
          */
         private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The time spent by this runnable computing every score in
+         * nanoseconds.
+         */
+        private HashMap<Integer, Long> scoringTimes = new HashMap<Integer, Long>();
 
         /**
          * Constructor.
@@ -420,7 +479,7 @@ public class PsmScorer {
             try {
                 while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
                     SpectrumMatch spectrumMatch = psmIterator.next();
-                    estimateIntermediateScores(identification, spectrumMatch, inputMap, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, waitingHandler);
+                    estimateIntermediateScores(identification, spectrumMatch, inputMap, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, scoringTimes, waitingHandler);
                     if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
@@ -430,5 +489,15 @@ public class PsmScorer {
                 waitingHandler.setRunCanceled();
             }
         }
+
+        /**
+         * Returns the time spent by this runnable computing every score in
+         * nanoseconds.
+         *
+         * @return the time spent by this runnable computing every score
+         */
+        public HashMap<Integer, Long> getScoringTimes() {
+            return scoringTimes;
+        }
     }
 }
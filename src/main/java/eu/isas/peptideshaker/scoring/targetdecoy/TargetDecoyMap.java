@@ -1,14 +1,22 @@
 package eu.isas.peptideshaker.scoring.targetdecoy;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 
 /**
- * This map contains the information of a target/decoy strategy.
+ * This map contains the information of a target/decoy strategy. Hits are
+ * accumulated in a map of target/decoy points. When the map is used for
+ * estimation, it is frozen into sorted primitive arrays and the points are
+ * released. The arrays are published together in a single holder which readers
+ * take once. The points are restored if hits are added or removed afterwards.
+ * Hits added concurrently are first counted in stripes of points indexed by
+ * score, each stripe having its own lock, and merged into the map when needed.
  *
  * @author Marc Vaudel
  */
@@ -19,9 +27,27 @@ public class TargetDecoyMap implements Serializable {
      */
     static final long serialVersionUID = 7333389442377322662L;
     /**
-     * The hit map containing the indexed target/decoy points.
+     * The hit map containing the indexed target/decoy points. Null when the
+     * map is frozen.
      */
     private HashMap<Double, TargetDecoyPoint> hitMap = new HashMap<Double, TargetDecoyPoint>();
+    /**
+     * The arrays of the frozen map. Null when the map is not frozen.
+     */
+    private volatile FrozenMap frozenMap = null;
+    /**
+     * The number of stripes used to count hits added concurrently.
+     */
+    private static final int N_STRIPES = 32;
+    /**
+     * The stripes where hits are counted before being merged into the map.
+     * The stripe of a score is given by its hash code.
+     */
+    private transient volatile HashMap<Double, TargetDecoyPoint>[] stripes = null;
+    /**
+     * Indicates whether hits were added to the stripes since the last merge.
+     */
+    private transient volatile boolean pendingHits = false;
     /**
      * The estimated number of true positives in the bin centered on a given
      * score.
@@ -38,6 +64,8 @@ public class TargetDecoyMap implements Serializable {
     private HashMap<Double, Double> nFP;
     /**
      * The scores imported in the map.
+     *
+     * @deprecated replaced by frozenMap
      */
     private ArrayList<Double> scores;
     /**
@@ -90,24 +118,23 @@ public class TargetDecoyMap implements Serializable {
      * @return the estimated posterior error probability
      */
     public Double getProbability(double score) {
-        TargetDecoyPoint point = hitMap.get(score);
-        if (point != null) {
-            return point.p;
-        } else if (score >= scores.get(scores.size() - 1)) {
-            return hitMap.get(scores.get(scores.size() - 1)).p;
+        FrozenMap frozen = getFrozenMap();
+        double[] sortedScores = frozen.scores;
+        double[] peps = frozen.peps;
+        int lastIndex = sortedScores.length - 1;
+        int index = Arrays.binarySearch(sortedScores, score);
+        if (index >= 0) {
+            return peps[index];
+        } else if (score >= sortedScores[lastIndex]) {
+            return peps[lastIndex];
         } else {
-            int indexDown = 0;
-            int indexUp = scores.size() - 1;
-            int indexTemp;
-            while (indexUp - indexDown > 1) {
-                indexTemp = (indexUp - indexDown) / 2 + indexDown;
-                if (scores.get(indexTemp) > score) {
-                    indexUp = indexTemp;
-                } else {
-                    indexDown = indexTemp;
-                }
+            int indexUp = -index - 1;
+            int indexDown = indexUp - 1;
+            if (indexUp == 0) {
+                indexDown = 0;
+                indexUp = Math.min(1, lastIndex);
             }
-            return (hitMap.get(scores.get(indexUp)).p + hitMap.get(scores.get(indexDown)).p) / 2;
+            return (peps[indexUp] + peps[indexDown]) / 2;
         }
     }
 
@@ -118,7 +145,8 @@ public class TargetDecoyMap implements Serializable {
      * @return the number of target hits found at the given score
      */
     public int getNTarget(double score) {
-        return hitMap.get(score).nTarget;
+        FrozenMap frozen = getFrozenMap();
+        return frozen.nTargets[Arrays.binarySearch(frozen.scores, score)];
     }
 
     /**
@@ -128,24 +156,163 @@ public class TargetDecoyMap implements Serializable {
      * @return the number of decoy hits found at the given score
      */
     public int getNDecoy(double score) {
-        return hitMap.get(score).nDecoy;
+        FrozenMap frozen = getFrozenMap();
+        return frozen.nDecoys[Arrays.binarySearch(frozen.scores, score)];
+    }
+
+    /**
+     * Returns the arrays of the map, freezing it if needed.
+     *
+     * @return the arrays of the frozen map
+     */
+    private FrozenMap getFrozenMap() {
+        FrozenMap frozen = frozenMap;
+        if (frozen == null || pendingHits) {
+            frozen = freeze();
+        }
+        return frozen;
     }
 
     /**
-     * Puts a new point in the target/decoy map at the given score.
+     * Freezes the map: the target/decoy points are converted into sorted
+     * primitive arrays and the hit map is released.
+     *
+     * @return the arrays of the frozen map
+     */
+    private synchronized FrozenMap freeze() {
+        mergePendingHits();
+        if (frozenMap == null) {
+            int nScores = hitMap.size();
+            double[] newScores = new double[nScores];
+            int i = 0;
+            for (Double score : hitMap.keySet()) {
+                newScores[i++] = score;
+            }
+            Arrays.sort(newScores);
+            int[] newNTarget = new int[nScores];
+            int[] newNDecoy = new int[nScores];
+            double[] newPep = new double[nScores];
+            for (i = 0; i < nScores; i++) {
+                TargetDecoyPoint point = hitMap.get(newScores[i]);
+                newNTarget[i] = point.nTarget;
+                newNDecoy[i] = point.nDecoy;
+                newPep[i] = point.p;
+            }
+            frozenMap = new FrozenMap(newScores, newNTarget, newNDecoy, newPep);
+            hitMap = null;
+            scores = null;
+        }
+        return frozenMap;
+    }
+
+    /**
+     * Restores the target/decoy points of a frozen map so that hits can be
+     * added or removed. Readers which already took the arrays keep using
+     * them until they take the arrays of the next freeze.
+     */
+    private synchronized void thaw() {
+        if (hitMap == null) {
+            FrozenMap frozen = frozenMap;
+            HashMap<Double, TargetDecoyPoint> newHitMap = new HashMap<Double, TargetDecoyPoint>(frozen.scores.length);
+            for (int i = 0; i < frozen.scores.length; i++) {
+                TargetDecoyPoint point = new TargetDecoyPoint();
+                point.nTarget = frozen.nTargets[i];
+                point.nDecoy = frozen.nDecoys[i];
+                point.p = frozen.peps[i];
+                newHitMap.put(frozen.scores[i], point);
+            }
+            hitMap = newHitMap;
+            frozenMap = null;
+        }
+    }
+
+    /**
+     * Merges the hits counted in the stripes into the hit map.
+     */
+    private synchronized void mergePendingHits() {
+        if (pendingHits) {
+            pendingHits = false;
+            if (hitMap == null) {
+                thaw();
+            }
+            for (HashMap<Double, TargetDecoyPoint> stripe : stripes) {
+                synchronized (stripe) {
+                    for (Double score : stripe.keySet()) {
+                        TargetDecoyPoint stripePoint = stripe.get(score);
+                        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
+                        if (targetDecoyPoint == null) {
+                            hitMap.put(score, stripePoint);
+                        } else {
+                            targetDecoyPoint.nTarget += stripePoint.nTarget;
+                            targetDecoyPoint.nDecoy += stripePoint.nDecoy;
+                        }
+                    }
+                    stripe.clear();
+                }
+            }
+            nmax = null;
+            windowSize = null;
+        }
+    }
+
+    /**
+     * Returns the stripe where hits at the given score are counted.
+     *
+     * @param score the score of interest
+     *
+     * @return the stripe where hits at the given score are counted
+     */
+    private HashMap<Double, TargetDecoyPoint> getStripe(Double score) {
+        HashMap<Double, TargetDecoyPoint>[] currentStripes = stripes;
+        if (currentStripes == null) {
+            currentStripes = createStripes();
+        }
+        int hash = score.hashCode();
+        hash ^= hash >>> 16;
+        return currentStripes[(hash & 0x7fffffff) % N_STRIPES];
+    }
+
+    /**
+     * Creates the stripes unless already done by another thread.
+     *
+     * @return the stripes
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized HashMap<Double, TargetDecoyPoint>[] createStripes() {
+        if (stripes == null) {
+            HashMap<Double, TargetDecoyPoint>[] newStripes = new HashMap[N_STRIPES];
+            for (int i = 0; i < N_STRIPES; i++) {
+                newStripes[i] = new HashMap<Double, TargetDecoyPoint>();
+            }
+            stripes = newStripes;
+        }
+        return stripes;
+    }
+
+    /**
+     * Puts a new point in the target/decoy map at the given score. This
+     * method can be called concurrently from multiple threads, the hit is
+     * counted in the stripe of the score.
      *
      * @param score The given score
      * @param isDecoy boolean indicating whether the hit is decoy
      */
     public void put(Double score, boolean isDecoy) {
-        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-        if (targetDecoyPoint == null) {
-            targetDecoyPoint = createTargetDecoyPoint(score);
-        }
-        if (isDecoy) {
-            targetDecoyPoint.increaseDecoy();
-        } else {
-            targetDecoyPoint.increaseTarget();
+        HashMap<Double, TargetDecoyPoint> stripe = getStripe(score);
+        synchronized (stripe) {
+            TargetDecoyPoint targetDecoyPoint = stripe.get(score);
+            if (targetDecoyPoint == null) {
+                targetDecoyPoint = new TargetDecoyPoint();
+                stripe.put(score, targetDecoyPoint);
+            }
+            if (isDecoy) {
+                targetDecoyPoint.nDecoy++;
+            } else {
+                targetDecoyPoint.nTarget++;
+            }
+            if (!pendingHits) {
+                pendingHits = true;
+            }
         }
     }
 
@@ -158,6 +325,9 @@ public class TargetDecoyMap implements Serializable {
      * @return the target decoy point of the map at the given score
      */
     public synchronized TargetDecoyPoint createTargetDecoyPoint(Double score) {
+        if (hitMap == null) {
+            thaw();
+        }
         TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
         if (targetDecoyPoint == null) {
             targetDecoyPoint = new TargetDecoyPoint();
@@ -174,6 +344,10 @@ public class TargetDecoyMap implements Serializable {
      * @param isDecoy boolean indicating whether the hit is decoy
      */
     public void remove(Double score, boolean isDecoy) {
+        mergePendingHits();
+        if (hitMap == null) {
+            thaw();
+        }
         TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
         if (!isDecoy) {
             targetDecoyPoint.decreaseTarget();
@@ -186,6 +360,10 @@ public class TargetDecoyMap implements Serializable {
      * Removes empty points and clears dependent metrics if needed.
      */
     public synchronized void cleanUp() {
+        mergePendingHits();
+        if (hitMap == null) {
+            thaw();
+        }
         boolean removed = false;
         HashSet<Double> currentScores = new HashSet<Double>(hitMap.keySet());
         for (Double score : currentScores) {
@@ -197,7 +375,6 @@ public class TargetDecoyMap implements Serializable {
             }
         }
         if (removed) {
-            scores = null;
             nmax = null;
             windowSize = null;
         }
@@ -208,9 +385,10 @@ public class TargetDecoyMap implements Serializable {
      * and above will be skipped for Nmax.
      */
     private void estimateNs() {
-        if (scores == null) {
-            estimateScores();
-        }
+        FrozenMap frozen = getFrozenMap();
+        double[] sortedScores = frozen.scores;
+        int[] nTargets = frozen.nTargets;
+        int[] nDecoys = frozen.nDecoys;
         boolean onlyTarget = true;
         nmax = 0;
         int targetCpt = 0;
@@ -218,33 +396,35 @@ public class TargetDecoyMap implements Serializable {
         nTargetOnly = 0;
         int targetCount = 0, decoyCount = 0;
 
-        for (double score : scores) {
-            TargetDecoyPoint point = hitMap.get(score);
+        for (int i = 0; i < sortedScores.length; i++) {
+            double score = sortedScores[i];
+            int pointNTarget = nTargets[i];
+            int pointNDecoy = nDecoys[i];
             if (onlyTarget) {
-                if (point.nDecoy > 0) {
-                    nTargetOnly += point.nTarget / 2 + point.nTarget % 2;
-                    targetCpt += point.nTarget / 2;
+                if (pointNDecoy > 0) {
+                    nTargetOnly += pointNTarget / 2 + pointNTarget % 2;
+                    targetCpt += pointNTarget / 2;
                     onlyTarget = false;
-                    decoyCpt += point.nDecoy;
+                    decoyCpt += pointNDecoy;
 
                 } else {
-                    nTargetOnly += point.nTarget;
+                    nTargetOnly += pointNTarget;
                 }
-            } else if (point.nDecoy > 0) {
-                targetCpt += point.nTarget / 2 + point.nTarget % 2;
-                decoyCpt += point.nDecoy;
+            } else if (pointNDecoy > 0) {
+                targetCpt += pointNTarget / 2 + pointNTarget % 2;
+                decoyCpt += pointNDecoy;
                 if (targetCpt > nmax
                         && score < 1.0
                         && decoyCpt >= minDecoysInBin) {
                     nmax = targetCpt;
                 }
-                targetCpt = point.nTarget / 2;
-                decoyCpt = point.nDecoy;
+                targetCpt = pointNTarget / 2;
+                decoyCpt = pointNDecoy;
             } else {
-                targetCpt += point.nTarget;
+                targetCpt += pointNTarget;
             }
-            targetCount += point.nTarget;
-            decoyCount += point.nDecoy;
+            targetCount += pointNTarget;
+            decoyCount += pointNDecoy;
             if (targetCount > 0) {
                 Double fdr = ((double) decoyCount) / targetCount;
                 if (fdr < minFDR) {
@@ -255,15 +435,19 @@ public class TargetDecoyMap implements Serializable {
     }
 
     /**
-     * Estimates the posterior error probabilities in this map.
+     * Estimates the posterior error probabilities in this map. The
+     * probabilities are published with the arrays they were estimated from
+     * once all are estimated, unless the map was modified in the meantime.
      *
      * @param waitingHandler the handler displaying feedback to the user
      */
     public void estimateProbabilities(WaitingHandler waitingHandler) {
 
-        if (scores == null) {
-            estimateScores();
-        }
+        FrozenMap frozen = getFrozenMap();
+        double[] sortedScores = frozen.scores;
+        int[] nTargets = frozen.nTargets;
+        int[] nDecoys = frozen.nDecoys;
+        double[] peps = new double[sortedScores.length];
         if (nmax == null) {
             estimateNs();
         }
@@ -272,29 +456,27 @@ public class TargetDecoyMap implements Serializable {
         }
 
         // estimate p
-        Double currentScore = scores.get(0);
-        TargetDecoyPoint tempPoint, previousPoint = hitMap.get(currentScore);
+        int nScores = sortedScores.length;
+        int previousNTarget = nTargets[0];
         double nLimit = 0.5 * windowSize;
-        double nTargetUp = 1.5 * previousPoint.nTarget;
-        double nTargetDown = -0.5 * previousPoint.nTarget;
-        double nDecoy = previousPoint.nDecoy;
+        double nTargetUp = 1.5 * previousNTarget;
+        double nTargetDown = -0.5 * previousNTarget;
+        double nDecoy = nDecoys[0];
         int iDown = 0;
         int iUp = 1;
         boolean oneReached = false;
 
-        for (int i = 0; i < scores.size(); i++) {
-            currentScore = scores.get(i);
-            TargetDecoyPoint point = hitMap.get(currentScore);
+        for (int i = 0; i < nScores; i++) {
+            int pointNTarget = nTargets[i];
             if (!oneReached) {
-                double change = 0.5 * (previousPoint.nTarget + point.nTarget);
+                double change = 0.5 * (previousNTarget + pointNTarget);
                 nTargetDown += change;
                 nTargetUp -= change;
                 while (nTargetDown > nLimit) {
                     if (iDown < i) {
-                        tempPoint = hitMap.get(scores.get(iDown));
-                        double nTargetDownTemp = nTargetDown - tempPoint.nTarget;
+                        double nTargetDownTemp = nTargetDown - nTargets[iDown];
                         if (nTargetDownTemp >= nLimit) {
-                            nDecoy -= tempPoint.nDecoy;
+                            nDecoy -= nDecoys[iDown];
                             nTargetDown = nTargetDownTemp;
                             iDown++;
                         } else {
@@ -304,27 +486,33 @@ public class TargetDecoyMap implements Serializable {
                         break;
                     }
                 }
-                while (nTargetUp < nLimit && iUp < scores.size()) {
-                    tempPoint = hitMap.get(scores.get(iUp));
-                    nTargetUp += tempPoint.nTarget;
-                    nDecoy += tempPoint.nDecoy;
+                while (nTargetUp < nLimit && iUp < nScores) {
+                    nTargetUp += nTargets[iUp];
+                    nDecoy += nDecoys[iUp];
                     iUp++;
                 }
                 double nTarget = nTargetDown + nTargetUp;
-                point.p = Math.max(Math.min(nDecoy / nTarget, 1), 0);
-                if (point.p >= 0.98) {
+                double p = Math.max(Math.min(nDecoy / nTarget, 1), 0);
+                peps[i] = p;
+                if (p >= 0.98) {
                     oneReached = true;
                 }
             } else {
-                point.p = 1;
+                peps[i] = 1;
             }
-            previousPoint = point;
+            previousNTarget = pointNTarget;
 
             waitingHandler.increaseSecondaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
             }
         }
+
+        synchronized (this) {
+            if (frozenMap == frozen) {
+                frozenMap = new FrozenMap(sortedScores, nTargets, nDecoys, peps);
+            }
+        }
     }
 
     /**
@@ -372,23 +560,13 @@ public class TargetDecoyMap implements Serializable {
     }
 
     /**
-     * Sorts the scores implemented in this map.
-     */
-    private void estimateScores() {
-        scores = new ArrayList<Double>(hitMap.keySet());
-        Collections.sort(scores);
-    }
-
-    /**
-     * Returns the sorted scores implemented in this map.
+     * Returns a copy of the sorted scores implemented in this map.
      *
      * @return the sorted scores implemented in this map.
      */
-    public ArrayList<Double> getScores() {
-        if (scores == null) {
-            estimateScores();
-        }
-        return scores;
+    public double[] getScores() {
+        double[] sortedScores = getFrozenMap().scores;
+        return Arrays.copyOf(sortedScores, sortedScores.length);
     }
 
     /**
@@ -397,15 +575,15 @@ public class TargetDecoyMap implements Serializable {
      * @param anOtherMap another target/decoy map
      */
     public void addAll(TargetDecoyMap anOtherMap) {
-        for (double score : anOtherMap.getScores()) {
-            for (int i = 0; i < anOtherMap.getNDecoy(score); i++) {
-                put(score, true);
-            }
-            for (int i = 0; i < anOtherMap.getNTarget(score); i++) {
-                put(score, false);
-            }
+        FrozenMap otherFrozen = anOtherMap.getFrozenMap();
+        double[] otherScores = otherFrozen.scores;
+        int[] otherNTargets = otherFrozen.nTargets;
+        int[] otherNDecoys = otherFrozen.nDecoys;
+        for (int i = 0; i < otherScores.length; i++) {
+            TargetDecoyPoint point = createTargetDecoyPoint(otherScores[i]);
+            point.nDecoy += otherNDecoys[i];
+            point.nTarget += otherNTargets[i];
         }
-        scores = null;
         nmax = null;
         windowSize = null;
     }
@@ -442,7 +620,8 @@ public class TargetDecoyMap implements Serializable {
      * @return the target decoy series
      */
     public TargetDecoySeries getTargetDecoySeries() {
-        return new TargetDecoySeries(hitMap);
+        FrozenMap frozen = getFrozenMap();
+        return new TargetDecoySeries(frozen.scores, frozen.nTargets, frozen.nDecoys, frozen.peps);
     }
 
     /**
@@ -472,6 +651,68 @@ public class TargetDecoyMap implements Serializable {
      * @return the size of the map
      */
     public int getMapSize() {
+        mergePendingHits();
+        FrozenMap frozen = frozenMap;
+        if (frozen != null) {
+            return frozen.scores.length;
+        }
         return hitMap.size();
     }
+
+    /**
+     * Merges the pending hits before serialization.
+     *
+     * @param out the object output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        mergePendingHits();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * The arrays of a frozen map, published together.
+     *
+     * @author Marc Vaudel
+     */
+    private static class FrozenMap implements Serializable {
+
+        /**
+         * Serial version UID for post-serialization compatibility.
+         */
+        static final long serialVersionUID = -2710345185735201968L;
+        /**
+         * The sorted scores.
+         */
+        private final double[] scores;
+        /**
+         * The number of target hits at every score.
+         */
+        private final int[] nTargets;
+        /**
+         * The number of decoy hits at every score.
+         */
+        private final int[] nDecoys;
+        /**
+         * The posterior error probability at every score.
+         */
+        private final double[] peps;
+
+        /**
+         * Constructor.
+         *
+         * @param scores the sorted scores
+         * @param nTargets the number of target hits at every score
+         * @param nDecoys the number of decoy hits at every score
+         * @param peps the posterior error probability at every score
+         */
+        public FrozenMap(double[] scores, int[] nTargets, int[] nDecoys, double[] peps) {
+            this.scores = scores;
+            this.nTargets = nTargets;
+            this.nDecoys = nDecoys;
+            this.peps = peps;
+        }
+    }
 }
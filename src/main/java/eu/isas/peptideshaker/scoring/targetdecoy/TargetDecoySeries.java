@@ -2,7 +2,6 @@ package eu.isas.peptideshaker.scoring.targetdecoy;
 
 import eu.isas.peptideshaker.parameters.PSParameter;
 import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * This class will contain the PEP, FDR and FNR values of a target decoy map
@@ -88,24 +87,22 @@ public class TargetDecoySeries {
     /**
      * Constructor.
      *
-     * @param hitMap a map as present in target decoy maps
+     * @param sortedScores the sorted scores of a target decoy map
+     * @param pointsNTarget the number of target hits at every score
+     * @param pointsNDecoy the number of decoy hits at every score
+     * @param pointsPep the posterior error probability at every score
      */
-    public TargetDecoySeries(HashMap<Double, TargetDecoyPoint> hitMap) {
+    public TargetDecoySeries(double[] sortedScores, int[] pointsNTarget, int[] pointsNDecoy, double[] pointsPep) {
 
-        scores = new double[hitMap.size()];
+        scores = Arrays.copyOf(sortedScores, sortedScores.length);
         scoresLog = new double[scores.length];
         probaNTotal = 0;
-        int counter = 0;
-        TargetDecoyPoint currentPoint;
         double minScore = 0, maxScore = 100;
 
-        for (double score : hitMap.keySet()) {
-            currentPoint = hitMap.get(score);
-            double scoreLog = PSParameter.getScore(score);
-            scores[counter] = score;
-            scoresLog[counter] = scoreLog;
-            probaNTotal += (1 - currentPoint.p) * currentPoint.nTarget;
-            counter++;
+        for (int i = 0; i < scores.length; i++) {
+            double scoreLog = PSParameter.getScore(scores[i]);
+            scoresLog[i] = scoreLog;
+            probaNTotal += (1 - pointsPep[i]) * pointsNTarget[i];
             if (scoreLog < minScore) {
                 minScore = scoreLog;
             }
@@ -118,7 +115,6 @@ public class TargetDecoySeries {
         int histogramScoreMax = (int) maxScore;
         initiateTDHistogram(histogramScoreMin, histogramScoreMax);
 
-        Arrays.sort(scores);
         Arrays.sort(scoresLog);
 
         confidence = new double[scores.length];
@@ -140,15 +136,16 @@ public class TargetDecoySeries {
         double probaFnrTemp;
 
         for (int i = 0; i < scores.length; i++) {
-            double score = scores[i];
-            currentPoint = hitMap.get(score);
-            nTemp += currentPoint.nTarget;
-            classicalFPTemp += currentPoint.nDecoy;
-            probaFPTemp += currentPoint.nTarget * (currentPoint.p);
-            probaTP += currentPoint.nTarget * (1 - currentPoint.p);
+            int pointNTarget = pointsNTarget[i];
+            int pointNDecoy = pointsNDecoy[i];
+            double pointPep = pointsPep[i];
+            nTemp += pointNTarget;
+            classicalFPTemp += pointNDecoy;
+            probaFPTemp += pointNTarget * (pointPep);
+            probaTP += pointNTarget * (1 - pointPep);
             probaFnrTemp = 100 * (probaNTotal - probaTP) / probaNTotal;
-            pep[i] = 100 * currentPoint.p;
-            double confidenceAtI = 100 * (1 - currentPoint.p);
+            pep[i] = 100 * pointPep;
+            double confidenceAtI = 100 * (1 - pointPep);
             confidence[i] = confidenceAtI;
             int iInvert = scores.length - i - 1;
             confidenceLog[iInvert] = confidenceAtI;
@@ -159,12 +156,12 @@ public class TargetDecoySeries {
             probaFDR[i] = 100 * probaFPTemp / nTemp;
             probaFNR[i] = probaFnrTemp;
             probaBenefit[i] = 100 - probaFnrTemp;
-            decoy[i] = currentPoint.nTarget == 0;
+            decoy[i] = pointNTarget == 0;
 
             double scoreLog = scoresLog[iInvert];
             int bin = ((int) (Math.round((scoreLog - histogramScoreMin) / binSize)));
-            nDecoy[bin] += currentPoint.nDecoy;
-            nTarget[bin] += currentPoint.nTarget;
+            nDecoy[bin] += pointNDecoy;
+            nTarget[bin] += pointNTarget;
         }
     }
 
@@ -0,0 +1,243 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts items according to a composite key made of numeric columns stored in
+ * primitive arrays followed by the key of the item. Items are sorted by
+ * increasing value of the first column, then of the second column, etc., and
+ * finally by alphabetical order of their keys. The result is the permutation
+ * of the item indexes, obtained by a merge sort which is run in parallel on
+ * large arrays.
+ *
+ * @author Marc Vaudel
+ */
+public class CompositeKeySorter {
+
+    /**
+     * The minimal number of items per thread when sorting in parallel.
+     */
+    private static final int MIN_ITEMS_PER_THREAD = 10000;
+    /**
+     * The numeric columns of the composite key, integer values are stored as
+     * doubles.
+     */
+    private final double[][] columns;
+    /**
+     * The keys of the items, used as last sorting criterion.
+     */
+    private final String[] keys;
+
+    /**
+     * Constructor.
+     *
+     * @param columns the numeric columns of the composite key in order of
+     * priority
+     * @param keys the keys of the items
+     */
+    private CompositeKeySorter(double[][] columns, String[] keys) {
+        this.columns = columns;
+        this.keys = keys;
+    }
+
+    /**
+     * Returns the indexes of the items in the sorted order.
+     *
+     * @param columns the numeric columns of the composite key in order of
+     * priority, every column contains one value per item
+     * @param keys the keys of the items, used as last sorting criterion
+     * @param nThreads the number of threads to use
+     *
+     * @return the indexes of the items in the sorted order
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while sorting
+     */
+    public static int[] getSortedIndexes(double[][] columns, String[] keys, int nThreads) throws InterruptedException {
+
+        CompositeKeySorter sorter = new CompositeKeySorter(columns, keys);
+
+        int nItems = keys.length;
+        int[] indexes = new int[nItems];
+        for (int i = 0; i < nItems; i++) {
+            indexes[i] = i;
+        }
+        int[] buffer = new int[nItems];
+
+        int nChunks = Math.min(nThreads, nItems / MIN_ITEMS_PER_THREAD);
+
+        if (nChunks <= 1) {
+            sorter.sort(indexes, buffer, 0, nItems);
+            return indexes;
+        }
+
+        // sort chunks in parallel and merge them
+        int[] bounds = new int[nChunks + 1];
+        for (int i = 0; i <= nChunks; i++) {
+            bounds[i] = (int) ((long) nItems * i / nChunks);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nChunks);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nChunks);
+            for (int i = 0; i < nChunks; i++) {
+                futures.add(pool.submit(sorter.new SortRunnable(indexes, buffer, bounds[i], bounds[i + 1])));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int width = 1; width < nChunks; width *= 2) {
+            for (int i = 0; i + width < nChunks; i += 2 * width) {
+                int start = bounds[i];
+                int middle = bounds[i + width];
+                int end = bounds[Math.min(i + 2 * width, nChunks)];
+                System.arraycopy(indexes, start, buffer, start, end - start);
+                sorter.merge(buffer, indexes, start, middle, end);
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Compares two items according to the composite key.
+     *
+     * @param index1 the index of the first item
+     * @param index2 the index of the second item
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * item is to be sorted before, together with, or after the second
+     */
+    private int compare(int index1, int index2) {
+        for (double[] column : columns) {
+            int comparison = Double.compare(column[index1], column[index2]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return keys[index1].compareTo(keys[index2]);
+    }
+
+    /**
+     * Sorts a range of item indexes.
+     *
+     * @param indexes the item indexes
+     * @param buffer a buffer of the same length as the indexes
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     */
+    private void sort(int[] indexes, int[] buffer, int start, int end) {
+
+        if (end - start < 2) {
+            return;
+        }
+
+        // insertion sort for small ranges
+        if (end - start <= 16) {
+            for (int i = start + 1; i < end; i++) {
+                int index = indexes[i];
+                int j = i - 1;
+                while (j >= start && compare(indexes[j], index) > 0) {
+                    indexes[j + 1] = indexes[j];
+                    j--;
+                }
+                indexes[j + 1] = index;
+            }
+            return;
+        }
+
+        int middle = (start + end) >>> 1;
+        sort(indexes, buffer, start, middle);
+        sort(indexes, buffer, middle, end);
+
+        if (compare(indexes[middle - 1], indexes[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(indexes, start, buffer, start, end - start);
+        merge(buffer, indexes, start, middle, end);
+    }
+
+    /**
+     * Merges two consecutive sorted ranges.
+     *
+     * @param source the array containing the sorted ranges
+     * @param destination the array where to write the merged range
+     * @param start the start of the first range, inclusive
+     * @param middle the end of the first range and start of the second range
+     * @param end the end of the second range, exclusive
+     */
+    private void merge(int[] source, int[] destination, int start, int middle, int end) {
+        int i = start, j = middle;
+        for (int k = start; k < end; k++) {
+            if (j >= end || i < middle && compare(source[i], source[j]) <= 0) {
+                destination[k] = source[i++];
+            } else {
+                destination[k] = source[j++];
+            }
+        }
+    }
+
+    /**
+     * Runnable sorting a range of item indexes.
+     *
+     * @author Marc Vaudel
+     */
+    private class SortRunnable implements Runnable {
+
+        /**
+         * The item indexes.
+         */
+        private final int[] indexes;
+        /**
+         * The buffer.
+         */
+        private final int[] buffer;
+        /**
+         * The start of the range, inclusive.
+         */
+        private final int start;
+        /**
+         * The end of the range, exclusive.
+         */
+        private final int end;
+
+        /**
+         * Constructor.
+         *
+         * @param indexes the item indexes
+         * @param buffer a buffer of the same length as the indexes
+         * @param start the start of the range, inclusive
+         * @param end the end of the range, exclusive
+         */
+        public SortRunnable(int[] indexes, int[] buffer, int start, int end) {
+            this.indexes = indexes;
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            sort(indexes, buffer, start, end);
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package eu.isas.peptideshaker.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class caches the identification features calculated by the
- * IdentificationFeaturesGenerator for later reuse.
+ * IdentificationFeaturesGenerator for later reuse. Objects are stored in
+ * independently locked segments evicting the least recently used objects.
  *
  * @author Marc Vaudel
  */
@@ -113,29 +121,32 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     private final int smallObjectsCacheSize = 1000000;
     /**
-     * The number of values kept in memory for big objects.
+     * The summed weight of the big objects kept in memory, where the weight
+     * of an array or a collection is its length and the weight of other
+     * objects is one.
      */
-    private final int bigObjectsCacheSize = 1000;
+    private final int bigObjectsCacheWeight = 1000000;
     /**
-     * Separator used to concatenate strings.
+     * The number of segments of every cache, each segment is locked
+     * independently.
      */
-    private static final String cacheSeparator = "_ccs_";
+    private static final int nSegments = 16;
     /**
-     * The cached protein matches for small objects.
+     * The segments of the cache for small objects.
      */
-    private ArrayList<String> smallObjectsInCache = new ArrayList<String>();
+    private transient CacheSegment[] smallObjectsSegments;
     /**
-     * The cached protein matches for big objects.
+     * The segments of the cache for big objects.
      */
-    private ArrayList<String> bigObjectsInCache = new ArrayList<String>();
+    private transient CacheSegment[] bigObjectsSegments;
     /**
-     * Mapping of the stored big objects.
+     * Mapping of the stored big objects, only used to save the cache.
      */
-    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = null;
     /**
-     * Mapping of the stored small objects.
+     * Mapping of the stored small objects, only used to save the cache.
      */
-    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = null;
     /**
      * The protein list.
      */
@@ -184,149 +195,38 @@ public class IdentificationFeaturesCache implements Serializable {
     private boolean readOnly = false;
 
     /**
-     * Clears all objects of the given type.
-     *
-     * @param type the object type
+     * Constructor.
      */
-    public synchronized void removeObjects(ObjectType type) {
-        if (!readOnly) {
-            String typeKey = getTypeAsString(type);
-            ArrayList<String> toRemove = new ArrayList<String>();
-
-            switch (type) {
-                case coverable_AA_p:
-                case AA_coverage:
-                case tryptic_protein:
-                    bigObjectsCache.remove(type);
-                    for (String key : bigObjectsInCache) {
-                        if (key.contains(typeKey)) {
-                            toRemove.add(key);
-                        }
-                    }
-                    for (String key : toRemove) {
-                        bigObjectsInCache.remove(key);
-                    }
-                    break;
-                case sequence_coverage:
-                case sequence_validation_coverage:
-                case expected_coverage:
-                case spectrum_counting:
-                case number_of_spectra:
-                case number_of_validated_spectra:
-                case number_of_validated_peptides:
-                case number_of_confident_spectra:
-                case number_of_confident_peptides:
-                case max_psm_mz_for_peptides:
-                case unique_peptides:
-                case containsEnzymaticPeptides:
-                    smallObjectsCache.remove(type);
-                    for (String key : smallObjectsInCache) {
-                        if (key.contains(typeKey)) {
-                            toRemove.add(key);
-                        }
-                    }
-                    for (String key : toRemove) {
-                        smallObjectsInCache.remove(key);
-                    }
-                    break;
-            }
-        }
+    public IdentificationFeaturesCache() {
+        createSegments();
     }
 
     /**
-     * Adds an object in the cache.
-     *
-     * @param type the type of the object
-     * @param objectKey the object key
-     * @param object the object to store
+     * Creates the segments of the small and big objects caches.
      */
-    public synchronized void addObject(ObjectType type, String objectKey, Object object) {
-        if (!readOnly) {
-            switch (type) {
-                case coverable_AA_p:
-                case AA_coverage:
-                case tryptic_protein:
-                    if (!bigObjectsCache.containsKey(type)) {
-                        bigObjectsCache.put(type, new HashMap<String, Object>());
-                    }
-
-                    Object oldValue = bigObjectsCache.get(type).put(objectKey, object);
-
-                    if (oldValue == null) { // don't add if the object was already in the cache
-                        bigObjectsInCache.add(getCacheKey(type, objectKey));
-                    }
-
-                    while (bigObjectsInCache.size() >= bigObjectsCacheSize && !bigObjectsInCache.isEmpty()) {
-                        String firstObjectKey = bigObjectsInCache.get(0);
-                        ObjectType oldType = getType(firstObjectKey);
-                        String oldKey = getObjectKey(firstObjectKey);
-                        HashMap<String, Object> cacheForType = bigObjectsCache.get(oldType);
-                        if (cacheForType != null) {
-                            cacheForType.remove(oldKey);
-                            if (cacheForType.isEmpty()) {
-                                bigObjectsCache.remove(oldType);
-                            }
-                        }
-                        bigObjectsInCache.remove(0);
-                    }
-                    break;
-                case sequence_coverage:
-                case sequence_validation_coverage:
-                case expected_coverage:
-                case spectrum_counting:
-                case number_of_spectra:
-                case number_of_validated_spectra:
-                case number_of_validated_peptides:
-                case number_of_confident_spectra:
-                case number_of_confident_peptides:
-                case max_psm_mz_for_peptides:
-                case unique_peptides:
-                case containsEnzymaticPeptides:
-                    if (!smallObjectsCache.containsKey(type)) {
-                        smallObjectsCache.put(type, new HashMap<String, Object>());
-                    }
-
-                    oldValue = smallObjectsCache.get(type).put(objectKey, object);
-
-                    if (oldValue == null) {
-                        smallObjectsInCache.add(getCacheKey(type, objectKey));
-                    }
-
-                    while (smallObjectsInCache.size() >= smallObjectsCacheSize && !smallObjectsInCache.isEmpty()) {
-                        String firstObjectKey = smallObjectsInCache.get(0);
-                        ObjectType oldType = getType(firstObjectKey);
-                        String oldKey = getObjectKey(firstObjectKey);
-                        HashMap<String, Object> cacheForType = smallObjectsCache.get(oldType);
-                        if (cacheForType != null) {
-                            cacheForType.remove(oldKey);
-                            if (cacheForType.isEmpty()) {
-                                smallObjectsCache.remove(oldType);
-                            }
-                        }
-                        smallObjectsInCache.remove(0);
-                    }
-                    break;
-            }
+    private void createSegments() {
+        smallObjectsSegments = new CacheSegment[nSegments];
+        bigObjectsSegments = new CacheSegment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            smallObjectsSegments[i] = new CacheSegment(smallObjectsCacheSize / nSegments);
+            bigObjectsSegments[i] = new CacheSegment(bigObjectsCacheWeight / nSegments);
         }
     }
 
     /**
-     * Returns an object if present in the cache. Null if not.
+     * Returns the segments where objects of the given type are stored, null
+     * if objects of this type are not cached.
      *
-     * @param type the type of the object
-     * @param objectKey the key of the object
-     * @return the desired object
+     * @param type the object type
+     *
+     * @return the segments where objects of the given type are stored
      */
-    public Object getObject(ObjectType type, String objectKey) {
+    private CacheSegment[] getSegments(ObjectType type) {
         switch (type) {
             case coverable_AA_p:
             case AA_coverage:
             case tryptic_protein:
-                HashMap<String, Object> cacheForType = bigObjectsCache.get(type);
-                if (cacheForType != null) {
-                    return cacheForType.get(objectKey);
-                }
-                return null;
+                return bigObjectsSegments;
             case sequence_coverage:
             case sequence_validation_coverage:
             case expected_coverage:
@@ -339,16 +239,128 @@ public class IdentificationFeaturesCache implements Serializable {
             case max_psm_mz_for_peptides:
             case unique_peptides:
             case containsEnzymaticPeptides:
-                cacheForType = smallObjectsCache.get(type);
-                if (cacheForType != null) {
-                    return cacheForType.get(objectKey);
-                }
-                return null;
+                return smallObjectsSegments;
             default:
                 return null;
         }
     }
 
+    /**
+     * Returns the segment where the given key is stored.
+     *
+     * @param segments the segments of the cache
+     * @param cacheKey the key
+     *
+     * @return the segment where the given key is stored
+     */
+    private CacheSegment getSegment(CacheSegment[] segments, CacheKey cacheKey) {
+        int hash = cacheKey.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % nSegments];
+    }
+
+    /**
+     * Returns the weight of an object, i.e. its length for arrays and
+     * collections and one otherwise.
+     *
+     * @param object the object
+     *
+     * @return the weight of the object
+     */
+    private static int getWeight(Object object) {
+        if (object instanceof double[]) {
+            return Math.max(((double[]) object).length, 1);
+        } else if (object instanceof int[]) {
+            return Math.max(((int[]) object).length, 1);
+        } else if (object instanceof Collection) {
+            return Math.max(((Collection) object).size(), 1);
+        }
+        return 1;
+    }
+
+    /**
+     * Clears all objects of the given type.
+     *
+     * @param type the object type
+     */
+    public void removeObjects(ObjectType type) {
+        if (!readOnly) {
+            CacheSegment[] segments = getSegments(type);
+            if (segments != null) {
+                for (CacheSegment segment : segments) {
+                    segment.removeType(type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an object in the cache. The least recently used objects are
+     * evicted when the cache is full.
+     *
+     * @param type the type of the object
+     * @param objectKey the object key
+     * @param object the object to store
+     */
+    public void addObject(ObjectType type, String objectKey, Object object) {
+        if (!readOnly) {
+            CacheSegment[] segments = getSegments(type);
+            if (segments != null) {
+                CacheKey cacheKey = new CacheKey(type, objectKey);
+                int weight = segments == bigObjectsSegments ? getWeight(object) : 1;
+                getSegment(segments, cacheKey).put(cacheKey, object, weight);
+            }
+        }
+    }
+
+    /**
+     * Returns an object if present in the cache. Null if not.
+     *
+     * @param type the type of the object
+     * @param objectKey the key of the object
+     * @return the desired object
+     */
+    public Object getObject(ObjectType type, String objectKey) {
+        CacheSegment[] segments = getSegments(type);
+        if (segments == null) {
+            return null;
+        }
+        CacheKey cacheKey = new CacheKey(type, objectKey);
+        return getSegment(segments, cacheKey).get(cacheKey);
+    }
+
+    /**
+     * Returns the number of times an object was found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        long result = 0;
+        for (CacheSegment segment : smallObjectsSegments) {
+            result += segment.getHits();
+        }
+        for (CacheSegment segment : bigObjectsSegments) {
+            result += segment.getHits();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of times an object was not found in the cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        long result = 0;
+        for (CacheSegment segment : smallObjectsSegments) {
+            result += segment.getMisses();
+        }
+        for (CacheSegment segment : bigObjectsSegments) {
+            result += segment.getMisses();
+        }
+        return result;
+    }
+
     /**
      * Returns the current peptide key.
      *
@@ -535,127 +547,260 @@ public class IdentificationFeaturesCache implements Serializable {
     }
 
     /**
-     * Convenience method returning a string as key for the object of the given
-     * type identified by the given key.
+     * Sets the cache in read only.
      *
-     * @param type the type of object
-     * @param objectKey the key of the object
-     * @return the key to be used in cache
+     * @param readOnly boolean indicating whether the cache should be in read
+     * only
      */
-    private String getCacheKey(ObjectType type, String objectKey) {
-        return getTypeAsString(type) + cacheSeparator + objectKey;
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
     /**
-     * Returns the object type as string.
+     * Copies the content of the segments in the object maps before
+     * serialization.
+     *
+     * @param out the object output stream
      *
-     * @param type the type of object
-     * @return the corresponding key
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
      */
-    private String getTypeAsString(ObjectType type) {
-        switch (type) {
-            case coverable_AA_p:
-                return "coverable_AA_p";
-            case AA_coverage:
-                return "AA_coverage";
-            case sequence_coverage:
-                return "sequence_coverage";
-            case sequence_validation_coverage:
-                return "sequence_validation_coverage";
-            case expected_coverage:
-                return "expected_coverage";
-            case spectrum_counting:
-                return "spectrum_counting";
-            case number_of_spectra:
-                return "#spectra";
-            case number_of_validated_spectra:
-                return "#validated_spectra";
-            case number_of_validated_peptides:
-                return "#validated_peptides";
-            case number_of_confident_spectra:
-                return "#confident_spectra";
-            case number_of_confident_peptides:
-                return "#confident_peptides";
-            case max_psm_mz_for_peptides:
-                return "max_psm_mz_for_peptides";
-            case tryptic_protein:
-                return "tryptic_protein";
-            case unique_peptides:
-                return "unique_peptides";
-            case containsEnzymaticPeptides:
-                return "contains_enzymatic_peptides";
-            default:
-                return "default";
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        for (CacheSegment segment : smallObjectsSegments) {
+            segment.copyTo(smallObjectsCache);
+        }
+        bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        for (CacheSegment segment : bigObjectsSegments) {
+            segment.copyTo(bigObjectsCache);
+        }
+        try {
+            out.defaultWriteObject();
+        } finally {
+            smallObjectsCache = null;
+            bigObjectsCache = null;
         }
     }
 
     /**
-     * Convenience method returning the type of object base on the objects cache
-     * key.
-     *
-     * @param cacheKey the object cache key
-     * @return the type of object
-     */
-    private ObjectType getType(String cacheKey) {
-        String objectTypeAsString = cacheKey.split(cacheSeparator)[0];
-        if (objectTypeAsString.equals("coverable_AA_p")) {
-            return ObjectType.coverable_AA_p;
-        } else if (objectTypeAsString.equals("AA_coverage")) {
-            return ObjectType.AA_coverage;
-        } else if (objectTypeAsString.equals("sequence_coverage")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("sequence_validation_coverage")) {
-            return ObjectType.sequence_validation_coverage;
-        } else if (objectTypeAsString.equals("expected_coverage")) {
-            return ObjectType.expected_coverage;
-        } else if (objectTypeAsString.equals("spectrum_counting")) {
-            return ObjectType.spectrum_counting;
-        } else if (objectTypeAsString.equals("#spectra")) {
-            return ObjectType.number_of_spectra;
-        } else if (objectTypeAsString.equals("#validated_spectra")) {
-            return ObjectType.number_of_validated_spectra;
-        } else if (objectTypeAsString.equals("#validated_peptides")) {
-            return ObjectType.number_of_validated_peptides;
-        } else if (objectTypeAsString.equals("#confident_spectra")) {
-            return ObjectType.number_of_confident_spectra;
-        } else if (objectTypeAsString.equals("#confident_peptides")) {
-            return ObjectType.number_of_confident_peptides;
-        } else if (objectTypeAsString.equals("max_psm_mz_for_peptides")) {
-            return ObjectType.max_psm_mz_for_peptides;
-        } else if (objectTypeAsString.equals("tryptic_protein")) {
-            return ObjectType.tryptic_protein;
-        } else if (objectTypeAsString.equals("unique_peptides")) {
-            return ObjectType.unique_peptides;
-        } else if (objectTypeAsString.equals("contains_enzymatic_peptides")) { 
-            return ObjectType.containsEnzymaticPeptides;
-        } else {
-            return null;
+     * Restores the segments from the object maps after deserialization.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        createSegments();
+        boolean wasReadOnly = readOnly;
+        readOnly = false;
+        if (smallObjectsCache != null) {
+            for (ObjectType type : smallObjectsCache.keySet()) {
+                HashMap<String, Object> objects = smallObjectsCache.get(type);
+                for (String objectKey : objects.keySet()) {
+                    addObject(type, objectKey, objects.get(objectKey));
+                }
+            }
+        }
+        if (bigObjectsCache != null) {
+            for (ObjectType type : bigObjectsCache.keySet()) {
+                HashMap<String, Object> objects = bigObjectsCache.get(type);
+                for (String objectKey : objects.keySet()) {
+                    addObject(type, objectKey, objects.get(objectKey));
+                }
+            }
         }
+        readOnly = wasReadOnly;
+        smallObjectsCache = null;
+        bigObjectsCache = null;
     }
 
     /**
-     * Convenience method returning the object key based on the cache key.
+     * Key of an object in the cache.
      *
-     * @param cacheKey the cache key
-     * @return the object key
+     * @author Marc Vaudel
      */
-    private String getObjectKey(String cacheKey) {
-        StringBuilder buf = new StringBuilder();
-        String escapedString = java.util.regex.Pattern.quote(cacheKey);
-        String[] splittedKey = cacheKey.split(escapedString);
-        for (int i = 1; i < splittedKey.length; i++) {
-            buf.append(splittedKey[i]);
+    private static final class CacheKey {
+
+        /**
+         * The type of the object.
+         */
+        private final ObjectType type;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The hash code of the key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param type the type of the object
+         * @param objectKey the key of the object
+         */
+        public CacheKey(ObjectType type, String objectKey) {
+            this.type = type;
+            this.objectKey = objectKey;
+            this.hashCode = 31 * type.ordinal() + objectKey.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return type == other.type && objectKey.equals(other.objectKey);
         }
-        return buf.toString();
     }
 
     /**
-     * Sets the cache in read only.
+     * Segment of the cache keeping its objects in access order and evicting
+     * the least recently used ones when its maximal weight is reached.
      *
-     * @param readOnly boolean indicating whether the cache should be in read
-     * only
+     * @author Marc Vaudel
      */
-    public void setReadOnly(boolean readOnly) {
-        this.readOnly = readOnly;
+    private static final class CacheSegment {
+
+        /**
+         * The objects of the segment in access order.
+         */
+        private final LinkedHashMap<CacheKey, Object> objects = new LinkedHashMap<CacheKey, Object>(16, 0.75f, true);
+        /**
+         * The weight of the objects of the segment.
+         */
+        private final HashMap<CacheKey, Integer> weights = new HashMap<CacheKey, Integer>();
+        /**
+         * The maximal weight of the segment.
+         */
+        private final int maxWeight;
+        /**
+         * The current weight of the segment.
+         */
+        private long weight = 0;
+        /**
+         * The number of cache hits.
+         */
+        private long hits = 0;
+        /**
+         * The number of cache misses.
+         */
+        private long misses = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param maxWeight the maximal weight of the segment
+         */
+        public CacheSegment(int maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Returns the object stored under the given key, null if not found.
+         *
+         * @param cacheKey the key
+         *
+         * @return the object stored under the given key
+         */
+        public synchronized Object get(CacheKey cacheKey) {
+            Object object = objects.get(cacheKey);
+            if (object != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return object;
+        }
+
+        /**
+         * Stores an object and evicts the least recently used objects until
+         * the weight of the segment is within its limit. The last object is
+         * always kept.
+         *
+         * @param cacheKey the key
+         * @param object the object
+         * @param objectWeight the weight of the object
+         */
+        public synchronized void put(CacheKey cacheKey, Object object, int objectWeight) {
+            objects.put(cacheKey, object);
+            Integer oldWeight = weights.put(cacheKey, objectWeight);
+            if (oldWeight != null) {
+                weight -= oldWeight;
+            }
+            weight += objectWeight;
+            Iterator<Map.Entry<CacheKey, Object>> iterator = objects.entrySet().iterator();
+            while (weight > maxWeight && objects.size() > 1) {
+                CacheKey eldestKey = iterator.next().getKey();
+                iterator.remove();
+                weight -= weights.remove(eldestKey);
+            }
+        }
+
+        /**
+         * Removes all objects of the given type.
+         *
+         * @param type the object type
+         */
+        public synchronized void removeType(ObjectType type) {
+            Iterator<CacheKey> iterator = objects.keySet().iterator();
+            while (iterator.hasNext()) {
+                CacheKey cacheKey = iterator.next();
+                if (cacheKey.type == type) {
+                    iterator.remove();
+                    weight -= weights.remove(cacheKey);
+                }
+            }
+        }
+
+        /**
+         * Copies the objects of this segment in the given map.
+         *
+         * @param destination the map where to copy the objects: type &gt;
+         * object key &gt; object
+         */
+        public synchronized void copyTo(HashMap<ObjectType, HashMap<String, Object>> destination) {
+            for (Map.Entry<CacheKey, Object> entry : objects.entrySet()) {
+                CacheKey cacheKey = entry.getKey();
+                HashMap<String, Object> objectsOfType = destination.get(cacheKey.type);
+                if (objectsOfType == null) {
+                    objectsOfType = new HashMap<String, Object>();
+                    destination.put(cacheKey.type, objectsOfType);
+                }
+                objectsOfType.put(cacheKey.objectKey, entry.getValue());
+            }
+        }
+
+        /**
+         * Returns the number of cache hits.
+         *
+         * @return the number of cache hits
+         */
+        public synchronized long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of cache misses.
+         *
+         * @return the number of cache misses
+         */
+        public synchronized long getMisses() {
+            return misses;
+        }
     }
 }
@@ -41,9 +41,12 @@ import java.math.MathContext;
 import java.math.RoundingMode;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -93,10 +96,29 @@ public class IdentificationFeaturesGenerator {
      * The spectrum counting preferences.
      */
     private SpectrumCountingPreferences spectrumCountingPreferences;
+    /**
+     * The number of threads to use to sort the proteins.
+     */
+    private int nThreads = 1;
     /**
      * Map of the distributions of precursor mass errors.
      */
     private HashMap<String, NonSymmetricalNormalDistribution> massErrorDistribution = null;
+    /**
+     * The maximal number of peptides for which the PSM sorting columns are
+     * kept in cache.
+     */
+    private static final int PSM_COLUMNS_CACHE_SIZE = 1000;
+    /**
+     * Cache of the precursor charges and retention times of the PSMs of the
+     * last peptides inspected, indexed by peptide key.
+     */
+    private final LinkedHashMap<String, PsmSortingColumns> psmSortingColumnsCache = new LinkedHashMap<String, PsmSortingColumns>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PsmSortingColumns> eldest) {
+            return size() > PSM_COLUMNS_CACHE_SIZE;
+        }
+    };
 
     /**
      * Constructor.
@@ -116,6 +138,16 @@ public class IdentificationFeaturesGenerator {
         this.spectrumCountingPreferences = spectrumCountingPreferences;
     }
 
+    /**
+     * Sets the number of threads to use to sort the proteins, typically the
+     * number of threads of the processing preferences.
+     *
+     * @param nThreads the number of threads to use to sort the proteins
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     /**
      * Sets a mass error distribution in the massErrorDistribution map.
      *
@@ -2854,9 +2886,11 @@ public class IdentificationFeaturesGenerator {
                     || metrics.getMaxMW() <= 0;
 
             // sort the proteins according to the protein score, then number of peptides (inverted), then number of spectra (inverted).
-            HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>> orderMap
-                    = new HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>>();
-            ArrayList<Double> scores = new ArrayList<Double>();
+            int nProteins = identification.getProteinIdentification().size();
+            ArrayList<String> proteinKeys = new ArrayList<String>(nProteins);
+            double[] proteinScores = new double[nProteins];
+            double[] proteinNPeptides = new double[nProteins];
+            double[] proteinNSpectra = new double[nProteins];
             PSParameter probabilities = new PSParameter();
             int maxPeptides = 0, maxSpectra = 0;
             double maxSpectrumCounting = 0, maxMW = 0;
@@ -2913,20 +2947,17 @@ public class IdentificationFeaturesGenerator {
                             }
                         }
 
-                        if (!orderMap.containsKey(score)) {
-                            orderMap.put(score, new HashMap<Integer, HashMap<Integer, ArrayList<String>>>());
-                            scores.add(score);
-                        }
-
-                        if (!orderMap.get(score).containsKey(nPeptides)) {
-                            orderMap.get(score).put(nPeptides, new HashMap<Integer, ArrayList<String>>());
-                        }
-
-                        if (!orderMap.get(score).get(nPeptides).containsKey(nSpectra)) {
-                            orderMap.get(score).get(nPeptides).put(nSpectra, new ArrayList<String>());
+                        int index = proteinKeys.size();
+                        if (index == proteinScores.length) {
+                            int newLength = Math.max(2 * index, 1);
+                            proteinScores = Arrays.copyOf(proteinScores, newLength);
+                            proteinNPeptides = Arrays.copyOf(proteinNPeptides, newLength);
+                            proteinNSpectra = Arrays.copyOf(proteinNSpectra, newLength);
                         }
-
-                        orderMap.get(score).get(nPeptides).get(nSpectra).add(proteinKey);
+                        proteinScores[index] = score;
+                        proteinNPeptides[index] = nPeptides;
+                        proteinNSpectra[index] = nSpectra;
+                        proteinKeys.add(proteinKey);
                     }
                 }
 
@@ -2948,39 +2979,27 @@ public class IdentificationFeaturesGenerator {
                 metrics.setnConfidentProteins(nConfidentProteins);
             }
 
-            ArrayList<String> proteinList = new ArrayList<String>();
-
-            ArrayList<Double> scoreList = new ArrayList<Double>(orderMap.keySet());
-            Collections.sort(scoreList);
-
             if (waitingHandler != null) {
                 waitingHandler.resetSecondaryProgressCounter();
                 waitingHandler.setWaitingText("Updating Protein Table. Please Wait...");
-                waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
             }
 
-            for (double currentScore : scoreList) {
+            int nSorted = proteinKeys.size();
+            double[][] sortingColumns = new double[][]{Arrays.copyOf(proteinScores, nSorted), Arrays.copyOf(proteinNPeptides, nSorted), Arrays.copyOf(proteinNSpectra, nSorted)};
+            String[] sortingKeys = proteinKeys.toArray(new String[nSorted]);
+            int[] order = CompositeKeySorter.getSortedIndexes(sortingColumns, sortingKeys, nThreads);
 
-                ArrayList<Integer> nPeptideList = new ArrayList<Integer>(orderMap.get(currentScore).keySet());
-                Collections.sort(nPeptideList);
-
-                for (int currentNPeptides : nPeptideList) {
-
-                    ArrayList<Integer> nPsmList = new ArrayList<Integer>(orderMap.get(currentScore).get(currentNPeptides).keySet());
-                    Collections.sort(nPsmList);
+            ArrayList<String> proteinList = new ArrayList<String>(nSorted);
+            for (int index : order) {
+                proteinList.add(sortingKeys[index]);
+            }
 
-                    for (int currentNPsms : nPsmList) {
-                        ArrayList<String> tempList = orderMap.get(currentScore).get(currentNPeptides).get(currentNPsms);
-                        Collections.sort(tempList);
-                        proteinList.addAll(tempList);
-                        if (waitingHandler != null) {
-                            waitingHandler.setMaxSecondaryProgressCounter(tempList.size());
+            if (waitingHandler != null) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
 
-                            if (waitingHandler.isRunCanceled()) {
-                                return null;
-                            }
-                        }
-                    }
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
                 }
             }
 
@@ -3086,7 +3105,10 @@ public class IdentificationFeaturesGenerator {
         if (!proteinKey.equals(identificationFeaturesCache.getCurrentProteinKey()) || identificationFeaturesCache.getPeptideList() == null) {
 
             ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
-            HashMap<Double, HashMap<Integer, ArrayList<String>>> peptideMap = new HashMap<Double, HashMap<Integer, ArrayList<String>>>();
+            int nPeptides = proteinMatch.getPeptideCount();
+            ArrayList<String> peptideKeys = new ArrayList<String>(nPeptides);
+            double[] peptideScores = new double[nPeptides];
+            double[] peptideNSpectra = new double[nPeptides];
             int maxSpectrumCount = 0;
 
             PSParameter psParameter = new PSParameter();
@@ -3101,36 +3123,31 @@ public class IdentificationFeaturesGenerator {
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
                 if (!psParameter.isHidden()) {
-                    double peptideProbabilityScore = psParameter.getPeptideProbabilityScore();
-
-                    if (!peptideMap.containsKey(peptideProbabilityScore)) {
-                        peptideMap.put(peptideProbabilityScore, new HashMap<Integer, ArrayList<String>>());
+                    int index = peptideKeys.size();
+                    if (index == peptideScores.length) {
+                        int newLength = Math.max(2 * index, 1);
+                        peptideScores = Arrays.copyOf(peptideScores, newLength);
+                        peptideNSpectra = Arrays.copyOf(peptideNSpectra, newLength);
                     }
-                    int spectrumCount = -peptideMatch.getSpectrumCount();
+                    peptideScores[index] = psParameter.getPeptideProbabilityScore();
+                    peptideNSpectra[index] = -peptideMatch.getSpectrumCount();
+                    peptideKeys.add(peptideKey);
                     if (peptideMatch.getSpectrumCount() > maxSpectrumCount) {
                         maxSpectrumCount = peptideMatch.getSpectrumCount();
                     }
-                    if (!peptideMap.get(peptideProbabilityScore).containsKey(spectrumCount)) {
-                        peptideMap.get(peptideProbabilityScore).put(spectrumCount, new ArrayList<String>());
-                    }
-                    peptideMap.get(peptideProbabilityScore).get(spectrumCount).add(peptideKey);
                 }
             }
 
             identificationFeaturesCache.setMaxSpectrumCount(maxSpectrumCount);
 
-            ArrayList<Double> scores = new ArrayList<Double>(peptideMap.keySet());
-            Collections.sort(scores);
-            ArrayList<String> peptideList = new ArrayList<String>();
-
-            for (double currentScore : scores) {
-                ArrayList<Integer> nSpectra = new ArrayList<Integer>(peptideMap.get(currentScore).keySet());
-                Collections.sort(nSpectra);
-                for (int currentNPsm : nSpectra) {
-                    ArrayList<String> keys = peptideMap.get(currentScore).get(currentNPsm);
-                    Collections.sort(keys);
-                    peptideList.addAll(keys);
-                }
+            int nSorted = peptideKeys.size();
+            double[][] sortingColumns = new double[][]{Arrays.copyOf(peptideScores, nSorted), Arrays.copyOf(peptideNSpectra, nSorted)};
+            String[] sortingKeys = peptideKeys.toArray(new String[nSorted]);
+            int[] order = CompositeKeySorter.getSortedIndexes(sortingColumns, sortingKeys, 1);
+
+            ArrayList<String> peptideList = new ArrayList<String>(nSorted);
+            for (int index : order) {
+                peptideList.add(sortingKeys[index]);
             }
 
             identificationFeaturesCache.setPeptideList(peptideList);
@@ -3167,22 +3184,48 @@ public class IdentificationFeaturesGenerator {
         if (!peptideKey.equals(identificationFeaturesCache.getCurrentPeptideKey()) || identificationFeaturesCache.getPsmList() == null || forceUpdate) {
 
             PeptideMatch currentPeptideMatch = identification.getPeptideMatch(peptideKey);
-            HashMap<Integer, HashMap<Double, ArrayList<String>>> orderingMap = new HashMap<Integer, HashMap<Double, ArrayList<String>>>();
-            boolean hasRT = sortOnRt;
-            double rt = -1;
-            int nValidatedPsms = 0;
-
             ArrayList<String> spectrumKeys = currentPeptideMatch.getSpectrumMatchesKeys();
             PSParameter psParameter = new PSParameter();
-            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-            parameters.add(psParameter);
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, parameters, false, null);
+            PsmSortingColumns psmColumns;
+            synchronized (psmSortingColumnsCache) {
+                psmColumns = psmSortingColumnsCache.get(peptideKey);
+            }
+            if (psmColumns == null || psmColumns.charges.length != spectrumKeys.size()) {
 
-            while (psmIterator.hasNext()) {
+                // first inspection of the peptide, load the charges from the matches
+                psmColumns = new PsmSortingColumns(spectrumKeys.size());
+                HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>(spectrumKeys.size());
+                for (int i = 0; i < spectrumKeys.size(); i++) {
+                    spectrumIndexes.put(spectrumKeys.get(i), i);
+                }
+                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+                parameters.add(psParameter);
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, parameters, false, null);
+                while (psmIterator.hasNext()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    Integer index = spectrumIndexes.get(spectrumMatch.getKey());
+                    if (index != null) {
+                        psmColumns.charges[index] = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
+                    }
+                }
+                synchronized (psmSortingColumnsCache) {
+                    psmSortingColumnsCache.put(peptideKey, psmColumns);
+                }
+            } else {
+                identification.loadSpectrumMatchParameters(spectrumKeys, psParameter, null, false);
+            }
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+            boolean hasRT = sortOnRt;
+            int nValidatedPsms = 0;
+            int nPsms = 0;
+            String[] sortingKeys = new String[spectrumKeys.size()];
+            double[] charges = new double[spectrumKeys.size()];
+            double[] rts = new double[spectrumKeys.size()];
+
+            for (int i = 0; i < spectrumKeys.size(); i++) {
+
+                String spectrumKey = spectrumKeys.get(i);
                 psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
 
                 if (!psParameter.isHidden()) {
@@ -3190,46 +3233,42 @@ public class IdentificationFeaturesGenerator {
                         nValidatedPsms++;
                     }
 
-                    int charge = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
-                    if (!orderingMap.containsKey(charge)) {
-                        orderingMap.put(charge, new HashMap<Double, ArrayList<String>>());
-                    }
+                    double rt = -1;
                     if (hasRT) {
-                        try {
-                            Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
-                            rt = precursor.getRt();
-                            if (rt == -1) {
-                                hasRT = false;
+                        if (Double.isNaN(psmColumns.rts[i])) {
+                            try {
+                                Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+                                psmColumns.rts[i] = precursor.getRt();
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                                psmColumns.rts[i] = -1;
                             }
-                        } catch (Exception e) {
-                            e.printStackTrace();
+                        }
+                        rt = psmColumns.rts[i];
+                        if (rt == -1) {
                             hasRT = false;
                         }
                     }
                     if (!hasRT) {
                         rt = psParameter.getPsmProbabilityScore();
                     }
-                    if (!orderingMap.get(charge).containsKey(rt)) {
-                        orderingMap.get(charge).put(rt, new ArrayList<String>());
-                    }
-                    orderingMap.get(charge).get(rt).add(spectrumKey);
+
+                    sortingKeys[nPsms] = spectrumKey;
+                    charges[nPsms] = psmColumns.charges[i];
+                    rts[nPsms] = rt;
+                    nPsms++;
                 }
             }
 
             identificationFeaturesCache.setnValidatedPsms(nValidatedPsms);
 
-            ArrayList<Integer> charges = new ArrayList<Integer>(orderingMap.keySet());
-            Collections.sort(charges);
-            ArrayList<String> psmList = new ArrayList<String>();
-
-            for (int currentCharge : charges) {
-                ArrayList<Double> rts = new ArrayList<Double>(orderingMap.get(currentCharge).keySet());
-                Collections.sort(rts);
-                for (double currentRT : rts) {
-                    ArrayList<String> tempResult = orderingMap.get(currentCharge).get(currentRT);
-                    Collections.sort(tempResult);
-                    psmList.addAll(tempResult);
-                }
+            double[][] sortingColumns = new double[][]{Arrays.copyOf(charges, nPsms), Arrays.copyOf(rts, nPsms)};
+            sortingKeys = Arrays.copyOf(sortingKeys, nPsms);
+            int[] order = CompositeKeySorter.getSortedIndexes(sortingColumns, sortingKeys, 1);
+
+            ArrayList<String> psmList = new ArrayList<String>(nPsms);
+            for (int index : order) {
+                psmList.add(sortingKeys[index]);
             }
 
             identificationFeaturesCache.setPsmList(psmList);
@@ -3372,4 +3411,33 @@ public class IdentificationFeaturesGenerator {
         }
         return nValidated;
     }
+
+    /**
+     * The precursor charges and retention times of the PSMs of a peptide in
+     * the order of its spectrum match keys.
+     *
+     * @author Marc Vaudel
+     */
+    private static class PsmSortingColumns {
+
+        /**
+         * The precursor charges.
+         */
+        private final int[] charges;
+        /**
+         * The retention times, NaN if not loaded yet and -1 if not available.
+         */
+        private final double[] rts;
+
+        /**
+         * Constructor.
+         *
+         * @param nPsms the number of PSMs of the peptide
+         */
+        public PsmSortingColumns(int nPsms) {
+            charges = new int[nPsms];
+            rts = new double[nPsms];
+            Arrays.fill(rts, Double.NaN);
+        }
+    }
 }
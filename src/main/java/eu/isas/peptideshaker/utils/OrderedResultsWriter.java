@@ -0,0 +1,175 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Writes the results of tasks run by parallel workers in the order the tasks
+ * were submitted, so that the output does not depend on the number of
+ * threads. A bounded number of results is queued ahead of the writer, and the
+ * exceptions encountered by the workers are rethrown on the writing thread.
+ *
+ * @param <V> the type of result written
+ *
+ * @author Marc Vaudel
+ */
+public abstract class OrderedResultsWriter<V> {
+
+    /**
+     * The number of tasks queued per worker before writing.
+     */
+    private static final int TASKS_PER_WORKER = 4;
+    /**
+     * The number of workers.
+     */
+    private final int nWorkers;
+    /**
+     * The pool of workers.
+     */
+    private final ExecutorService pool;
+    /**
+     * The results being generated in the order of writing.
+     */
+    private final LinkedList<Future<V>> pendingResults = new LinkedList<Future<V>>();
+    /**
+     * The number of items covered by every pending result.
+     */
+    private final LinkedList<Integer> pendingSizes = new LinkedList<Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param nWorkers the number of workers to use to run the tasks
+     */
+    public OrderedResultsWriter(int nWorkers) {
+        this.nWorkers = nWorkers;
+        pool = Executors.newFixedThreadPool(nWorkers);
+    }
+
+    /**
+     * Writes the result of a task. This method is called from the thread
+     * submitting the tasks, in the order of submission.
+     *
+     * @param result the result of the task
+     * @param nItems the number of items covered by the task
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the result
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    protected abstract void write(V result, int nItems) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException;
+
+    /**
+     * Submits a task to the workers, writing the oldest result first if the
+     * queue is full.
+     *
+     * @param task the task generating the result
+     * @param nItems the number of items covered by the task, passed back when
+     * writing the result
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a result or running a task
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public void submit(Callable<V> task, int nItems) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        if (pendingResults.size() >= TASKS_PER_WORKER * nWorkers) {
+            writeNext();
+        }
+        pendingResults.add(pool.submit(task));
+        pendingSizes.add(nItems);
+    }
+
+    /**
+     * Writes all remaining results.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a result or running a task
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public void flush() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        while (!pendingResults.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Stops the workers. Results not flushed are discarded.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Writes the oldest pending result once generated, rethrowing the
+     * exceptions encountered by the worker.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the result or running the task
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    private void writeNext() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        Future<V> future = pendingResults.removeFirst();
+        int nItems = pendingSizes.removeFirst();
+
+        V result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("An error occurred while generating the output: " + cause.getMessage(), cause);
+        }
+
+        write(result, nItems);
+    }
+}
@@ -88,6 +88,10 @@ public class MatchesValidator {
      * The protein sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The number of matches taken from the iterators and validated together.
+     */
+    private static final int VALIDATION_BATCH_SIZE = 100;
 
     /**
      * Constructor.
@@ -524,45 +528,126 @@ public class MatchesValidator {
             double confidenceThreshold, boolean noValidated,
             String proteinKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
+        ArrayList<String> proteinKeys = new ArrayList<String>(1);
+        proteinKeys.add(proteinKey);
+        updateProteinMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters,
+                targetDecoyMap, scoreThreshold, nTargetLimit, confidenceThreshold, noValidated, proteinKeys, null);
+    }
+
+    /**
+     * Updates the validation status of a batch of protein matches. The
+     * parameters of the matches are loaded once for the batch and the quality
+     * control filters are evaluated over all candidate matches at once. If a
+     * match was manually validated nothing will be changed.
+     *
+     * @param identification the identification object
+     * @param targetDecoyMap the protein level target/decoy map
+     * @param geneMaps the gene maps
+     * @param scoreThreshold the validation score doubtfulThreshold
+     * @param confidenceThreshold the confidence doubtfulThreshold after which a
+     * match should be considered as confident
+     * @param noValidated boolean indicating whether no validation was actually
+     * conducted
+     * @param nTargetLimit the limit in number of target hits before the first
+     * decoy hit
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param proteinKeys the keys of the protein matches of interest
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     * @throws org.apache.commons.math.MathException Exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    public static void updateProteinMatchValidationLevels(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, TargetDecoyMap targetDecoyMap, double scoreThreshold, double nTargetLimit,
+            double confidenceThreshold, boolean noValidated, ArrayList<String> proteinKeys, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
-        PSParameter psParameter = new PSParameter();
-        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-        psParameter.resetQcResults();
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        boolean concatenatedTargetDecoy = sequenceFactory.concatenatedTargetDecoy();
 
-        if (!psParameter.isManualValidation()) {
+        if (proteinKeys.size() > 1) {
+            identification.loadProteinMatchParameters(proteinKeys, new PSParameter(), waitingHandler, false);
+        }
 
-            if (sequenceFactory.concatenatedTargetDecoy()) {
+        int nMatches = proteinKeys.size();
+        PSParameter[] psParameters = new PSParameter[nMatches];
+        boolean[] candidates = new boolean[nMatches];
+        boolean[] filtersPassed = new boolean[nMatches];
+        ArrayList<String> candidateKeys = new ArrayList<String>(nMatches);
+        int[] candidateIndexes = new int[nMatches];
 
-                if (!noValidated && psParameter.getProteinProbabilityScore() <= scoreThreshold) {
-                    boolean filtersPassed = true;
-                    for (Filter filter : validationQCPreferences.getProteinFilters()) {
-                        ProteinFilter proteinFilter = (ProteinFilter) filter;
-                        boolean validation = proteinFilter.isValidated(proteinKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, null);
-                        psParameter.setQcResult(filter.getName(), validation);
-                        if (!validation) {
-                            filtersPassed = false;
-                        }
+        for (int i = 0; i < nMatches; i++) {
+            String proteinKey = proteinKeys.get(i);
+            PSParameter psParameter = new PSParameter();
+            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+            psParameter.resetQcResults();
+            psParameters[i] = psParameter;
+            if (!psParameter.isManualValidation() && concatenatedTargetDecoy && !noValidated && psParameter.getProteinProbabilityScore() <= scoreThreshold) {
+                candidates[i] = true;
+                filtersPassed[i] = true;
+                candidateIndexes[candidateKeys.size()] = i;
+                candidateKeys.add(proteinKey);
+            }
+        }
+
+        if (!candidateKeys.isEmpty()) {
+            for (Filter filter : validationQCPreferences.getProteinFilters()) {
+                ProteinFilter proteinFilter = (ProteinFilter) filter;
+                boolean[] validation = proteinFilter.isValidated(candidateKeys, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, null, waitingHandler);
+                for (int j = 0; j < validation.length; j++) {
+                    int i = candidateIndexes[j];
+                    psParameters[i].setQcResult(filter.getName(), validation[j]);
+                    if (!validation[j]) {
+                        filtersPassed[i] = false;
                     }
-                    boolean confidenceThresholdPassed = psParameter.getProteinConfidence() >= confidenceThreshold; //@TODO: not sure whether we should include all 100% confidence hits by default?
+                }
+            }
+        }
 
-                    boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMap.getnTargetOnly() > nTargetLimit;
+        for (int i = 0; i < nMatches; i++) {
 
-                    boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+            PSParameter psParameter = psParameters[i];
 
-                    if (filtersPassed && confidenceThresholdPassed && enoughHits && enoughSequences) {
-                        psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+            if (!psParameter.isManualValidation()) {
+
+                if (concatenatedTargetDecoy) {
+
+                    if (candidates[i]) {
+
+                        boolean confidenceThresholdPassed = psParameter.getProteinConfidence() >= confidenceThreshold; //@TODO: not sure whether we should include all 100% confidence hits by default?
+
+                        boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMap.getnTargetOnly() > nTargetLimit;
+
+                        boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+
+                        if (filtersPassed[i] && confidenceThresholdPassed && enoughHits && enoughSequences) {
+                            psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+                        } else {
+                            psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                        }
                     } else {
-                        psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                        psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
                     }
                 } else {
-                    psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
+                    psParameter.setMatchValidationLevel(MatchValidationLevel.none);
                 }
-            } else {
-                psParameter.setMatchValidationLevel(MatchValidationLevel.none);
-            }
 
-            identification.updateProteinMatchParameter(proteinKey, psParameter);
+                identification.updateProteinMatchParameter(proteinKeys.get(i), psParameter);
+            }
         }
     }
 
@@ -596,53 +681,132 @@ public class MatchesValidator {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpecificMap peptideMap, String peptideKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
+        ArrayList<String> peptideKeys = new ArrayList<String>(1);
+        peptideKeys.add(peptideKey);
+        updatePeptideMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideMap, peptideKeys, null);
+    }
+
+    /**
+     * Updates the validation status of a batch of peptide matches. The
+     * parameters of the matches are loaded once for the batch and the quality
+     * control filters are evaluated over all candidate matches at once.
+     *
+     * @param identification the identification object
+     * @param peptideMap the peptide level target/decoy scoring map
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param geneMaps the gene maps
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param peptideKeys the keys of the peptide matches of interest
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     * @throws org.apache.commons.math.MathException Exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    public static void updatePeptideMatchValidationLevels(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpecificMap peptideMap, ArrayList<String> peptideKeys, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
-        PSParameter psParameter = new PSParameter();
-        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-        psParameter.resetQcResults();
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        boolean concatenatedTargetDecoy = sequenceFactory.concatenatedTargetDecoy();
 
-        if (sequenceFactory.concatenatedTargetDecoy()) {
-            TargetDecoyMap targetDecoyMap = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSpecificMapKey()));
-            TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
-            double fdrLimit = targetDecoyResults.getFdrLimit();
-            double nTargetLimit = 100.0 / fdrLimit;
-            double peptideThreshold = targetDecoyResults.getScoreLimit();
-            double margin = validationQCPreferences.getConfidenceMargin() * targetDecoyMap.getResolution();
-            double confidenceThreshold = targetDecoyResults.getConfidenceLimit() + margin;
-            if (confidenceThreshold > 100) {
-                confidenceThreshold = 100;
+        if (peptideKeys.size() > 1) {
+            identification.loadPeptideMatchParameters(peptideKeys, new PSParameter(), waitingHandler, false);
+        }
+
+        int nMatches = peptideKeys.size();
+        PSParameter[] psParameters = new PSParameter[nMatches];
+        TargetDecoyMap[] targetDecoyMaps = new TargetDecoyMap[nMatches];
+        double[] nTargetLimits = new double[nMatches];
+        double[] confidenceThresholds = new double[nMatches];
+        boolean[] candidates = new boolean[nMatches];
+        boolean[] filtersPassed = new boolean[nMatches];
+        ArrayList<String> candidateKeys = new ArrayList<String>(nMatches);
+        int[] candidateIndexes = new int[nMatches];
+
+        for (int i = 0; i < nMatches; i++) {
+            String peptideKey = peptideKeys.get(i);
+            PSParameter psParameter = new PSParameter();
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            psParameter.resetQcResults();
+            psParameters[i] = psParameter;
+
+            if (concatenatedTargetDecoy) {
+                TargetDecoyMap targetDecoyMap = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSpecificMapKey()));
+                TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
+                double fdrLimit = targetDecoyResults.getFdrLimit();
+                double peptideThreshold = targetDecoyResults.getScoreLimit();
+                double margin = validationQCPreferences.getConfidenceMargin() * targetDecoyMap.getResolution();
+                double confidenceThreshold = targetDecoyResults.getConfidenceLimit() + margin;
+                if (confidenceThreshold > 100) {
+                    confidenceThreshold = 100;
+                }
+                targetDecoyMaps[i] = targetDecoyMap;
+                nTargetLimits[i] = 100.0 / fdrLimit;
+                confidenceThresholds[i] = confidenceThreshold;
+                boolean noValidated = targetDecoyResults.noValidated();
+                if (!noValidated && psParameter.getPeptideProbabilityScore() <= peptideThreshold) {
+                    candidates[i] = true;
+                    filtersPassed[i] = true;
+                    candidateIndexes[candidateKeys.size()] = i;
+                    candidateKeys.add(peptideKey);
+                }
             }
-            boolean noValidated = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSpecificMapKey())).getTargetDecoyResults().noValidated();
-            if (!noValidated && psParameter.getPeptideProbabilityScore() <= peptideThreshold) {
-                boolean filtersPassed = true;
-                for (Filter filter : validationQCPreferences.getPeptideFilters()) {
-                    PeptideFilter peptideFilter = (PeptideFilter) filter;
-                    boolean validation = peptideFilter.isValidated(peptideKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, null);
-                    psParameter.setQcResult(filter.getName(), validation);
-                    if (!validation) {
-                        filtersPassed = false;
+        }
+
+        if (!candidateKeys.isEmpty()) {
+            for (Filter filter : validationQCPreferences.getPeptideFilters()) {
+                PeptideFilter peptideFilter = (PeptideFilter) filter;
+                boolean[] validation = peptideFilter.isValidated(candidateKeys, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, null, waitingHandler);
+                for (int j = 0; j < validation.length; j++) {
+                    int i = candidateIndexes[j];
+                    psParameters[i].setQcResult(filter.getName(), validation[j]);
+                    if (!validation[j]) {
+                        filtersPassed[i] = false;
                     }
                 }
-                boolean confidenceThresholdPassed = psParameter.getPeptideConfidence() >= confidenceThreshold; //@TODO: not sure whether we should include all 100% confidence hits by default?
+            }
+        }
 
-                boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMap.getnTargetOnly() > nTargetLimit;
+        for (int i = 0; i < nMatches; i++) {
 
-                boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+            PSParameter psParameter = psParameters[i];
 
-                if (filtersPassed && confidenceThresholdPassed && enoughHits && enoughSequences) {
-                    psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+            if (concatenatedTargetDecoy) {
+                if (candidates[i]) {
+
+                    boolean confidenceThresholdPassed = psParameter.getPeptideConfidence() >= confidenceThresholds[i]; //@TODO: not sure whether we should include all 100% confidence hits by default?
+
+                    boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMaps[i].getnTargetOnly() > nTargetLimits[i];
+
+                    boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+
+                    if (filtersPassed[i] && confidenceThresholdPassed && enoughHits && enoughSequences) {
+                        psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+                    } else {
+                        psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                    }
                 } else {
-                    psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                    psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
                 }
             } else {
-                psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
+                psParameter.setMatchValidationLevel(MatchValidationLevel.none);
             }
-        } else {
-            psParameter.setMatchValidationLevel(MatchValidationLevel.none);
-        }
 
-        identification.updatePeptideMatchParameter(peptideKey, psParameter);
+            identification.updatePeptideMatchParameter(peptideKeys.get(i), psParameter);
+        }
     }
 
     /**
@@ -677,71 +841,150 @@ public class MatchesValidator {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
             PsmSpecificMap psmMap, String spectrumKey, boolean applyQCFilters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
+        ArrayList<String> spectrumKeys = new ArrayList<String>(1);
+        spectrumKeys.add(spectrumKey);
+        updateSpectrumMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator,
+                psmMap, spectrumKeys, applyQCFilters, null);
+    }
+
+    /**
+     * Updates the validation status of a batch of spectrum matches. The
+     * parameters of the matches are loaded once for the batch and the quality
+     * control filters are evaluated over all candidate matches at once.
+     *
+     * @param identification the identification object
+     * @param geneMaps the gene maps
+     * @param psmMap the PSM level target/decoy scoring map
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param spectrumKeys the keys of the spectrum matches of interest
+     * @param peptideSpectrumAnnotator a spectrum annotator, can be null
+     * @param applyQCFilters if true quality control filters will be used
+     * @param waitingHandler a waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     * @throws org.apache.commons.math.MathException Exception thrown whenever
+     * an error occurred while doing statistics on a distribution
+     */
+    public static void updateSpectrumMatchValidationLevels(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            PsmSpecificMap psmMap, ArrayList<String> spectrumKeys, boolean applyQCFilters, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
-        PSParameter psParameter = new PSParameter();
-        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-        psParameter.resetQcResults();
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        boolean concatenatedTargetDecoy = sequenceFactory.concatenatedTargetDecoy();
 
-        if (sequenceFactory.concatenatedTargetDecoy()) {
+        if (spectrumKeys.size() > 1) {
+            identification.loadSpectrumMatchParameters(spectrumKeys, new PSParameter(), waitingHandler, false);
+        }
 
-            Integer charge = new Integer(psParameter.getSpecificMapKey());
-            String fileName = Spectrum.getSpectrumFile(spectrumKey);
-            TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(charge, fileName);
-            double psmThreshold = 0;
-            double confidenceThreshold = 100;
-            boolean noValidated = true;
-            double nTargetLimit = 100;
+        int nMatches = spectrumKeys.size();
+        PSParameter[] psParameters = new PSParameter[nMatches];
+        TargetDecoyMap[] targetDecoyMaps = new TargetDecoyMap[nMatches];
+        double[] nTargetLimits = new double[nMatches];
+        double[] confidenceThresholds = new double[nMatches];
+        boolean[] candidates = new boolean[nMatches];
+        boolean[] filtersPassed = new boolean[nMatches];
+        ArrayList<String> candidateKeys = new ArrayList<String>(nMatches);
+        int[] candidateIndexes = new int[nMatches];
+
+        for (int i = 0; i < nMatches; i++) {
+            String spectrumKey = spectrumKeys.get(i);
+            PSParameter psParameter = new PSParameter();
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+            psParameter.resetQcResults();
+            psParameters[i] = psParameter;
+
+            if (concatenatedTargetDecoy) {
+
+                Integer charge = new Integer(psParameter.getSpecificMapKey());
+                String fileName = Spectrum.getSpectrumFile(spectrumKey);
+                TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(charge, fileName);
+                double psmThreshold = 0;
+                double confidenceThreshold = 100;
+                boolean noValidated = true;
+                double nTargetLimit = 100;
+
+                if (targetDecoyMap != null) {
+                    TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
+                    double fdrLimit = targetDecoyResults.getFdrLimit();
+                    nTargetLimit = 100.0 / fdrLimit;
+                    psmThreshold = targetDecoyResults.getScoreLimit();
+                    double margin = validationQCPreferences.getConfidenceMargin() * targetDecoyMap.getResolution();
+                    confidenceThreshold = targetDecoyResults.getConfidenceLimit() + margin;
+                    if (confidenceThreshold > 100) {
+                        confidenceThreshold = 100;
+                    }
 
-            if (targetDecoyMap != null) {
-                TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
-                double fdrLimit = targetDecoyResults.getFdrLimit();
-                nTargetLimit = 100.0 / fdrLimit;
-                psmThreshold = targetDecoyResults.getScoreLimit();
-                double margin = validationQCPreferences.getConfidenceMargin() * targetDecoyMap.getResolution();
-                confidenceThreshold = targetDecoyResults.getConfidenceLimit() + margin;
-                if (confidenceThreshold > 100) {
-                    confidenceThreshold = 100;
+                    noValidated = targetDecoyResults.noValidated();
                 }
 
-                noValidated = targetDecoyResults.noValidated();
+                targetDecoyMaps[i] = targetDecoyMap;
+                nTargetLimits[i] = nTargetLimit;
+                confidenceThresholds[i] = confidenceThreshold;
+
+                if (!noValidated && psParameter.getPsmProbabilityScore() <= psmThreshold) {
+                    candidates[i] = true;
+                    filtersPassed[i] = true;
+                    candidateIndexes[candidateKeys.size()] = i;
+                    candidateKeys.add(spectrumKey);
+                }
             }
+        }
 
-            if (!noValidated && psParameter.getPsmProbabilityScore() <= psmThreshold) {
+        if (applyQCFilters && !candidateKeys.isEmpty()) {
+            for (Filter filter : validationQCPreferences.getPsmFilters()) {
+                PsmFilter psmFilter = (PsmFilter) filter;
+                boolean[] validation = psmFilter.isValidated(candidateKeys, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, waitingHandler);
+                for (int j = 0; j < validation.length; j++) {
+                    int i = candidateIndexes[j];
+                    psParameters[i].setQcResult(psmFilter.getName(), validation[j]);
+                    if (!validation[j]) {
+                        filtersPassed[i] = false;
+                    }
+                }
+            }
+        }
 
-                boolean filtersPassed = true;
+        for (int i = 0; i < nMatches; i++) {
 
-                if (applyQCFilters) {
+            PSParameter psParameter = psParameters[i];
 
-                    for (Filter filter : validationQCPreferences.getPsmFilters()) {
-                        PsmFilter psmFilter = (PsmFilter) filter;
-                        boolean validated = psmFilter.isValidated(spectrumKey, identification, geneMaps, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator);
-                        psParameter.setQcResult(psmFilter.getName(), validated);
-                        if (!validated) {
-                            filtersPassed = false;
-                        }
-                    }
-                }
+            if (concatenatedTargetDecoy) {
+                if (candidates[i]) {
 
-                boolean confidenceThresholdPassed = psParameter.getPsmConfidence() >= confidenceThreshold; //@TODO: not sure whether we should include all 100% confidence hits by default?
+                    boolean confidenceThresholdPassed = psParameter.getPsmConfidence() >= confidenceThresholds[i]; //@TODO: not sure whether we should include all 100% confidence hits by default?
 
-                boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMap.getnTargetOnly() > nTargetLimit;
+                    boolean enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMaps[i].getnTargetOnly() > nTargetLimits[i];
 
-                boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+                    boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
 
-                if (filtersPassed && confidenceThresholdPassed && enoughHits && enoughSequences) {
-                    psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+                    if (filtersPassed[i] && confidenceThresholdPassed && enoughHits && enoughSequences) {
+                        psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+                    } else {
+                        psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                    }
                 } else {
-                    psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+                    psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
                 }
             } else {
-                psParameter.setMatchValidationLevel(MatchValidationLevel.not_validated);
+                psParameter.setMatchValidationLevel(MatchValidationLevel.none);
             }
-        } else {
-            psParameter.setMatchValidationLevel(MatchValidationLevel.none);
-        }
 
-        identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+            identification.updateSpectrumMatchParameter(spectrumKeys.get(i), psParameter);
+        }
     }
 
     /**
@@ -933,14 +1176,18 @@ public class MatchesValidator {
     }
 
     /**
-     * Fills the peptide specific map.
+     * Fills the peptide specific map. The peptides are distributed among the
+     * threads, each thread filling its own map which is merged once all
+     * peptides are processed.
      *
      * @param identification the identification class containing the matches to
      * validate
      * @param metrics if provided fraction information and found modifications
      * will be saved while iterating the matches
-     * @param identificationParameters the identification parameters
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
@@ -951,117 +1198,157 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public void fillPeptideMaps(Identification identification, Metrics metrics, WaitingHandler waitingHandler,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void fillPeptideMaps(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Filling Peptide Maps. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getPeptideIdentification().size() * 2);
 
-        HashSet<String> foundModifications = new HashSet<String>();
-        HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
-
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null, false, parameters, waitingHandler);
-        int nFractions = identification.getSpectrumFiles().size();
-
-        while (peptideMatchesIterator.hasNext()) {
-
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
 
-            for (String modification : Peptide.getModificationFamily(peptideKey)) {
-                if (!foundModifications.contains(modification)) {
-                    foundModifications.add(modification);
-                }
-            }
-
-            double probaScore = 1;
-            HashMap<String, Double> fractionScores = new HashMap<String, Double>(nFractions);
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<PeptideMapFillerRunnable> runnables = new ArrayList<PeptideMapFillerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptideMapFillerRunnable runnable = new PeptideMapFillerRunnable(peptideMatchesIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide map filling timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            // get the global and fraction level peptide scores
-            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+        HashSet<String> foundModifications = new HashSet<String>();
+        HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
+        for (PeptideMapFillerRunnable runnable : runnables) {
+            peptideMap.addAll(runnable.getPeptideMap());
+            foundModifications.addAll(runnable.getFoundModifications());
+            fractionPsmMatches.putAll(runnable.getFractionPsmMatches());
+        }
 
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                probaScore = probaScore * psParameter.getPsmProbability();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
-                if (nFractions > 1) {
-                    String fraction = Spectrum.getSpectrumFile(spectrumKey);
+        if (metrics != null) {
+            // set the fraction psm matches
+            metrics.setFractionPsmMatches(fractionPsmMatches);
+            // set the ptms
+            metrics.setFoundModifications(new ArrayList<String>(foundModifications));
+        }
+    }
 
-                    Double fractionScore = fractionScores.get(fraction);
-                    boolean change = false;
-                    if (fractionScore == null) {
-                        fractionScore = 1.0;
-                        change = true;
-                    }
-                    Double tempScore = psParameter.getPsmProbability();
-                    if (tempScore != 1.0) {
-                        fractionScore *= tempScore;
-                        change = true;
-                    }
-                    if (change) {
-                        fractionScores.put(fraction, fractionScore);
-                    }
+    /**
+     * Scores a peptide match and adds it to the given peptide map.
+     *
+     * @param identification the identification class containing the matches
+     * @param peptideMatch the peptide match
+     * @param identificationParameters the identification parameters
+     * @param threadPeptideMap the peptide map to fill
+     * @param foundModifications set where to store the modifications found
+     * @param fractionPsmMatches map where to store the PSMs of every peptide
+     * per fraction
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private void fillPeptideMap(Identification identification, PeptideMatch peptideMatch, IdentificationParameters identificationParameters, PeptideSpecificMap threadPeptideMap,
+            HashSet<String> foundModifications, HashMap<String, ArrayList<String>> fractionPsmMatches) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-                    String fractionKey = fraction + "_" + peptideKey;
-                    ArrayList<String> spectrumMatches = fractionPsmMatches.get(fractionKey);
-                    if (spectrumMatches == null) {
-                        spectrumMatches = new ArrayList<String>(1);
-                        fractionPsmMatches.put(fractionKey, spectrumMatches);
-                    }
-                    spectrumMatches.add(spectrumKey);
-                }
-            }
-            if (nFractions == 1) {
-                String spectrumFile = identification.getSpectrumFiles().get(0);
-                fractionScores.put(spectrumFile, probaScore);
-                String fractionKey = spectrumFile + "_" + peptideKey;
-                fractionPsmMatches.put(fractionKey, new ArrayList<String>(peptideMatch.getSpectrumMatchesKeys()));
+        String peptideKey = peptideMatch.getKey();
+        int nFractions = identification.getSpectrumFiles().size();
+
+        for (String modification : Peptide.getModificationFamily(peptideKey)) {
+            if (!foundModifications.contains(modification)) {
+                foundModifications.add(modification);
             }
+        }
 
-            psParameter = new PSParameter();
+        double probaScore = 1;
+        HashMap<String, Double> fractionScores = new HashMap<String, Double>(nFractions);
+        PSParameter psParameter = new PSParameter();
 
-            // set the fraction scores
-            for (String fractionName : fractionScores.keySet()) {
-                psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
-            }
+        // get the global and fraction level peptide scores
+        for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
 
-            // Set the global score and grouping key
-            psParameter.setPeptideProbabilityScore(probaScore);
-            String peptideValidationGroup = "";
-            if (identificationParameters.getIdValidationPreferences().getSeparatePeptides()) {
-                psParameter.setSpecificMapKey(peptideValidationGroup);
-            }
-            identification.addPeptideMatchParameter(peptideKey, psParameter);
-            peptideMap.addPoint(psParameter.getPeptideProbabilityScore(), peptideMatch, identificationParameters.getSequenceMatchingPreferences());
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+            probaScore = probaScore * psParameter.getPsmProbability();
 
-            waitingHandler.increaseSecondaryProgressCounter();
+            if (nFractions > 1) {
+                String fraction = Spectrum.getSpectrumFile(spectrumKey);
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
+                Double fractionScore = fractionScores.get(fraction);
+                boolean change = false;
+                if (fractionScore == null) {
+                    fractionScore = 1.0;
+                    change = true;
+                }
+                Double tempScore = psParameter.getPsmProbability();
+                if (tempScore != 1.0) {
+                    fractionScore *= tempScore;
+                    change = true;
+                }
+                if (change) {
+                    fractionScores.put(fraction, fractionScore);
+                }
+
+                String fractionKey = fraction + "_" + peptideKey;
+                ArrayList<String> spectrumMatches = fractionPsmMatches.get(fractionKey);
+                if (spectrumMatches == null) {
+                    spectrumMatches = new ArrayList<String>(1);
+                    fractionPsmMatches.put(fractionKey, spectrumMatches);
+                }
+                spectrumMatches.add(spectrumKey);
             }
         }
+        if (nFractions == 1) {
+            String spectrumFile = identification.getSpectrumFiles().get(0);
+            fractionScores.put(spectrumFile, probaScore);
+            String fractionKey = spectrumFile + "_" + peptideKey;
+            fractionPsmMatches.put(fractionKey, new ArrayList<String>(peptideMatch.getSpectrumMatchesKeys()));
+        }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        psParameter = new PSParameter();
 
-        if (metrics != null) {
-            // set the fraction psm matches
-            metrics.setFractionPsmMatches(fractionPsmMatches);
-            // set the ptms
-            metrics.setFoundModifications(new ArrayList<String>(foundModifications));
+        // set the fraction scores
+        for (String fractionName : fractionScores.keySet()) {
+            psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
+        }
+
+        // Set the global score and grouping key
+        psParameter.setPeptideProbabilityScore(probaScore);
+        String peptideValidationGroup = "";
+        if (identificationParameters.getIdValidationPreferences().getSeparatePeptides()) {
+            psParameter.setSpecificMapKey(peptideValidationGroup);
         }
+        identification.addPeptideMatchParameter(peptideKey, psParameter);
+        threadPeptideMap.addPoint(psParameter.getPeptideProbabilityScore(), peptideMatch, identificationParameters.getSequenceMatchingPreferences());
     }
 
     /**
      * Attaches the peptide posterior error probabilities to the peptide
-     * matches.
+     * matches using one runnable per thread.
      *
      * @param identification the identification class containing the matches to
      * validate
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
@@ -1072,7 +1359,7 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public void attachPeptideProbabilities(Identification identification, WaitingHandler waitingHandler)
+    public void attachPeptideProbabilities(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Attaching Peptide Probabilities. Please Wait...");
@@ -1080,56 +1367,82 @@ public class MatchesValidator {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getPeptideIdentification().size());
 
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
 
-        while (peptideMatchesIterator.hasNext()) {
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptideProbabilitiesRunnable runnable = new PeptideProbabilitiesRunnable(peptideMatchesIterator, identification, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide probabilities attachment timed out. Please contact the developers.");
+        }
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-            if (sequenceFactory.concatenatedTargetDecoy()) {
-                psParameter.setPeptideProbability(peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getPeptideProbabilityScore()));
-            } else {
-                psParameter.setPeptideProbability(1.0);
-            }
-            Set<String> fractions = psParameter.getFractions();
-            if (fractions == null) {
-                throw new IllegalArgumentException("Fractions not found for peptide " + peptideKey + ".");
-            }
-            for (String fraction : fractions) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
-                }
-            }
+    /**
+     * Attaches the posterior error probabilities to a peptide match.
+     *
+     * @param identification the identification class containing the matches
+     * @param peptideKey the key of the peptide match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private void attachPeptideProbabilities(Identification identification, String peptideKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-            identification.updatePeptideMatchParameter(peptideKey, psParameter);
-            waitingHandler.increaseSecondaryProgressCounter();
+        PSParameter psParameter = new PSParameter();
+        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
+        if (sequenceFactory.concatenatedTargetDecoy()) {
+            psParameter.setPeptideProbability(peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getPeptideProbabilityScore()));
+        } else {
+            psParameter.setPeptideProbability(1.0);
+        }
+        Set<String> fractions = psParameter.getFractions();
+        if (fractions == null) {
+            throw new IllegalArgumentException("Fractions not found for peptide " + peptideKey + ".");
+        }
+        for (String fraction : fractions) {
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
+            } else {
+                psParameter.setFractionPEP(fraction, 1.0);
             }
         }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        identification.updatePeptideMatchParameter(peptideKey, psParameter);
     }
 
     /**
-     * Fills the protein map.
+     * Fills the protein map. The proteins are distributed among the threads,
+     * each thread filling its own map which is merged once all proteins are
+     * processed.
      *
      * @param identification the identification class containing the matches to
      * validate
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
      */
-    public void fillProteinMap(Identification identification, WaitingHandler waitingHandler) throws Exception {
+    public void fillProteinMap(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Filling Protein Map. Please Wait...");
 
@@ -1138,85 +1451,116 @@ public class MatchesValidator {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(totalProgress);
 
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, true, parameters, false, null, waitingHandler);
-        int nFractions = identification.getSpectrumFiles().size();
 
-        while (proteinMatchesIterator.hasNext()) {
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinMapFillerRunnable> runnables = new ArrayList<ProteinMapFillerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinMapFillerRunnable runnable = new ProteinMapFillerRunnable(proteinMatchesIterator, identification, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein map filling timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
+        for (ProteinMapFillerRunnable runnable : runnables) {
+            proteinMap.addAll(runnable.getProteinMap());
+        }
 
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-            HashMap<String, Double> fractionScores = new HashMap<String, Double>(nFractions);
-            double probaScore = 1;
+    /**
+     * Scores a protein match and adds it to the given protein map.
+     *
+     * @param identification the identification class containing the matches
+     * @param proteinMatch the protein match
+     * @param threadProteinMap the protein map to fill
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private void fillProteinMap(Identification identification, ProteinMatch proteinMatch, ProteinMap threadProteinMap) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-            if (proteinMatch == null) {
-                throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
-            }
+        String proteinKey = proteinMatch.getKey();
+        int nFractions = identification.getSpectrumFiles().size();
+        HashMap<String, Double> fractionScores = new HashMap<String, Double>(nFractions);
+        double probaScore = 1;
+        PSParameter psParameter = new PSParameter();
 
-            // get the global and fraction level scores
-            for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+        // get the global and fraction level scores
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
 
-                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-                probaScore = probaScore * psParameter.getPeptideProbability();
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            probaScore = probaScore * psParameter.getPeptideProbability();
 
-                if (nFractions > 1) {
-                    for (String fraction : psParameter.getFractions()) {
+            if (nFractions > 1) {
+                for (String fraction : psParameter.getFractions()) {
 
-                        Double fractionScore = fractionScores.get(fraction);
-                        boolean change = false;
-                        if (fractionScore == null) {
-                            fractionScore = 1.0;
-                            change = true;
-                        }
-                        Double peptideScore = psParameter.getFractionPEP(fraction);
-                        if (peptideScore != 1.0) {
-                            fractionScore *= peptideScore;
-                            change = true;
-                        }
-                        if (change) {
-                            fractionScores.put(fraction, fractionScore);
-                        }
+                    Double fractionScore = fractionScores.get(fraction);
+                    boolean change = false;
+                    if (fractionScore == null) {
+                        fractionScore = 1.0;
+                        change = true;
+                    }
+                    Double peptideScore = psParameter.getFractionPEP(fraction);
+                    if (peptideScore != 1.0) {
+                        fractionScore *= peptideScore;
+                        change = true;
+                    }
+                    if (change) {
+                        fractionScores.put(fraction, fractionScore);
                     }
                 }
             }
-            if (nFractions == 1) {
-                String spectrumFile = identification.getSpectrumFiles().get(0);
-                fractionScores.put(spectrumFile, probaScore);
-            }
-
-            psParameter = new PSParameter();
-
-            // set the fraction scores
-            for (String fractionName : fractionScores.keySet()) {
-                psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
-            }
+        }
+        if (nFractions == 1) {
+            String spectrumFile = identification.getSpectrumFiles().get(0);
+            fractionScores.put(spectrumFile, probaScore);
+        }
 
-            // Set the global score
-            psParameter.setProteinProbabilityScore(probaScore);
+        psParameter = new PSParameter();
 
-            identification.addProteinMatchParameter(proteinKey, psParameter);
-            proteinMap.addPoint(psParameter.getProteinProbabilityScore(), proteinMatch.isDecoy());
+        // set the fraction scores
+        for (String fractionName : fractionScores.keySet()) {
+            psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
         }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        // Set the global score
+        psParameter.setProteinProbabilityScore(probaScore);
+
+        identification.addProteinMatchParameter(proteinKey, psParameter);
+        threadProteinMap.addPoint(psParameter.getProteinProbabilityScore(), proteinMatch.isDecoy());
     }
 
     /**
-     * Attaches the protein posterior error probability to the protein matches.
+     * Attaches the protein posterior error probability to the protein matches
+     * using one runnable per thread.
      *
      * @param identification the identification class containing the matches to
      * validate
      * @param metrics if provided fraction information
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param fractionSettings the fraction settings
+     * @param processingPreferences the processing preferences
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the matches database
@@ -1229,67 +1573,111 @@ public class MatchesValidator {
      * occurred while retrieving the match or when an error is encountered while
      * reading the FASTA file
      */
-    public void attachProteinProbabilities(Identification identification, Metrics metrics, WaitingHandler waitingHandler,
-            FractionSettings fractionSettings) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void attachProteinProbabilities(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            FractionSettings fractionSettings, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Attaching Protein Probabilities. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
 
-        HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
-
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
-        while (proteinMatchesIterator.hasNext()) {
-
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
-            Double proteinMW = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-
-            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-            if (sequenceFactory.concatenatedTargetDecoy()) {
-                double proteinProbability = proteinMap.getProbability(psParameter.getProteinProbabilityScore());
-                psParameter.setProteinProbability(proteinProbability);
-            } else {
-                psParameter.setProteinProbability(1.0);
-            }
-
-            for (String fraction : psParameter.getFractions()) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
-                }
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinProbabilitiesRunnable> runnables = new ArrayList<ProteinProbabilitiesRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinProbabilitiesRunnable runnable = new ProteinProbabilitiesRunnable(proteinMatchesIterator, identification, fractionSettings, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein probabilities attachment timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-                // set the fraction molecular weights
-                if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > fractionSettings.getProteinConfidenceMwPlots()) {
+        if (metrics != null) {
+            HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
+            for (ProteinProbabilitiesRunnable runnable : runnables) {
+                HashMap<String, ArrayList<Double>> threadFractionMW = runnable.getFractionMW();
+                for (String fraction : threadFractionMW.keySet()) {
                     ArrayList<Double> mw = fractionMW.get(fraction);
                     if (mw == null) {
-                        mw = new ArrayList<Double>(1);
+                        mw = new ArrayList<Double>(threadFractionMW.get(fraction).size());
                         fractionMW.put(fraction, mw);
                     }
-                    mw.add(proteinMW);
+                    mw.addAll(threadFractionMW.get(fraction));
                 }
             }
+            // set the observed fractional molecular weights per fraction
+            metrics.setObservedFractionalMassesAll(fractionMW);
+        }
 
-            identification.updateProteinMatchParameter(proteinKey, psParameter);
-            waitingHandler.increaseSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+    /**
+     * Attaches the posterior error probabilities to a protein match.
+     *
+     * @param identification the identification class containing the matches
+     * @param proteinMatch the protein match
+     * @param fractionSettings the fraction settings
+     * @param fractionMW map where to store the molecular weights of the
+     * confident proteins per fraction
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database or when an error is encountered
+     * while reading the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match or when an error is encountered while
+     * reading the FASTA file
+     */
+    private void attachProteinProbabilities(Identification identification, ProteinMatch proteinMatch, FractionSettings fractionSettings,
+            HashMap<String, ArrayList<Double>> fractionMW) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String proteinKey = proteinMatch.getKey();
+        Double proteinMW = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+
+        PSParameter psParameter = new PSParameter();
+        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+        if (sequenceFactory.concatenatedTargetDecoy()) {
+            double proteinProbability = proteinMap.getProbability(psParameter.getProteinProbabilityScore());
+            psParameter.setProteinProbability(proteinProbability);
+        } else {
+            psParameter.setProteinProbability(1.0);
         }
 
-        if (metrics != null) {
-            // set the observed fractional molecular weights per fraction
-            metrics.setObservedFractionalMassesAll(fractionMW);
+        for (String fraction : psParameter.getFractions()) {
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
+            } else {
+                psParameter.setFractionPEP(fraction, 1.0);
+            }
+
+            // set the fraction molecular weights
+            if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > fractionSettings.getProteinConfidenceMwPlots()) {
+                ArrayList<Double> mw = fractionMW.get(fraction);
+                if (mw == null) {
+                    mw = new ArrayList<Double>(1);
+                    fractionMW.put(fraction, mw);
+                }
+                mw.add(proteinMW);
+            }
         }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        identification.updateProteinMatchParameter(proteinKey, psParameter);
     }
 
     /**
@@ -1489,12 +1877,24 @@ public class MatchesValidator {
         public void run() {
             try {
                 while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
-                    SpectrumMatch spectrumMatch = psmIterator.next();
-                    if (spectrumMatch != null) {
 
-                        String spectrumKey = spectrumMatch.getKey();
+                    ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<SpectrumMatch>(VALIDATION_BATCH_SIZE);
+                    ArrayList<String> spectrumKeys = new ArrayList<String>(VALIDATION_BATCH_SIZE);
+                    while (spectrumMatches.size() < VALIDATION_BATCH_SIZE && psmIterator.hasNext()) {
+                        SpectrumMatch spectrumMatch = psmIterator.next();
+                        if (spectrumMatch != null) {
+                            spectrumMatches.add(spectrumMatch);
+                            spectrumKeys.add(spectrumMatch.getKey());
+                        } else if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    }
+
+                    updateSpectrumMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKeys, applyQCFilters, waitingHandler);
 
-                        updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, applyQCFilters);
+                    for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+                        String spectrumKey = spectrumMatch.getKey();
 
                         // update assumption validation level
                         HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
@@ -1560,9 +1960,9 @@ public class MatchesValidator {
                                 }
                             }
                         }
-                    }
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -1672,13 +2072,17 @@ public class MatchesValidator {
             try {
                 while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
 
-                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
-
-                    if (peptideMatch != null) {
+                    ArrayList<String> peptideKeys = new ArrayList<String>(VALIDATION_BATCH_SIZE);
+                    while (peptideKeys.size() < VALIDATION_BATCH_SIZE && peptideMatchesIterator.hasNext()) {
+                        PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                        if (peptideMatch != null) {
+                            peptideKeys.add(peptideMatch.getKey());
+                        }
+                    }
 
-                        String peptideKey = peptideMatch.getKey();
+                    updatePeptideMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideMap, peptideKeys, waitingHandler);
 
-                        updatePeptideMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters, peptideMap, peptideKey);
+                    for (String peptideKey : peptideKeys) {
 
                         // set the fraction details
                         PSParameter psParameter = new PSParameter();
@@ -1899,12 +2303,23 @@ public class MatchesValidator {
                 double maxProteinAveragePrecursorIntensity = 0.0, maxProteinSummedPrecursorIntensity = 0.0;
 
                 while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
-                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
-                    if (proteinMatch != null) {
+
+                    ArrayList<ProteinMatch> proteinMatches = new ArrayList<ProteinMatch>(VALIDATION_BATCH_SIZE);
+                    ArrayList<String> proteinKeys = new ArrayList<String>(VALIDATION_BATCH_SIZE);
+                    while (proteinMatches.size() < VALIDATION_BATCH_SIZE && proteinMatchesIterator.hasNext()) {
+                        ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                        if (proteinMatch != null) {
+                            proteinMatches.add(proteinMatch);
+                            proteinKeys.add(proteinMatch.getKey());
+                        }
+                    }
+
+                    updateProteinMatchValidationLevels(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters,
+                            targetDecoyMap, proteinThreshold, nTargetLimit, proteinConfidentThreshold, noValidated, proteinKeys, waitingHandler);
+
+                    for (ProteinMatch proteinMatch : proteinMatches) {
 
                         String proteinKey = proteinMatch.getKey();
-                        updateProteinMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, shotgunProtocol, identificationParameters,
-                                targetDecoyMap, proteinThreshold, nTargetLimit, proteinConfidentThreshold, noValidated, proteinKey);
 
                         // set the fraction details
                         PSParameter psParameter = new PSParameter();
@@ -2079,4 +2494,314 @@ public class MatchesValidator {
             return totalSpectrumCounting;
         }
     }
+
+    /**
+     * Runnable filling a peptide map.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideMapFillerRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches.
+         */
+        private PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The peptide map filled by this runnable.
+         */
+        private PeptideSpecificMap threadPeptideMap = new PeptideSpecificMap();
+        /**
+         * The modifications found by this runnable.
+         */
+        private HashSet<String> foundModifications = new HashSet<String>();
+        /**
+         * The PSMs of every peptide per fraction found by this runnable.
+         */
+        private HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator a peptide matches iterator
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideMapFillerRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                    if (peptideMatch != null) {
+                        fillPeptideMap(identification, peptideMatch, identificationParameters, threadPeptideMap, foundModifications, fractionPsmMatches);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the peptide map filled by this runnable.
+         *
+         * @return the peptide map filled by this runnable
+         */
+        public PeptideSpecificMap getPeptideMap() {
+            return threadPeptideMap;
+        }
+
+        /**
+         * Returns the modifications found by this runnable.
+         *
+         * @return the modifications found by this runnable
+         */
+        public HashSet<String> getFoundModifications() {
+            return foundModifications;
+        }
+
+        /**
+         * Returns the PSMs of every peptide per fraction found by this
+         * runnable.
+         *
+         * @return the PSMs of every peptide per fraction found by this runnable
+         */
+        public HashMap<String, ArrayList<String>> getFractionPsmMatches() {
+            return fractionPsmMatches;
+        }
+    }
+
+    /**
+     * Runnable attaching the peptide probabilities.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches.
+         */
+        private PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator a peptide matches iterator
+         * @param identification the identification containing the matches
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideProbabilitiesRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.identification = identification;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                    if (peptideMatch != null) {
+                        attachPeptideProbabilities(identification, peptideMatch.getKey());
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable filling a protein map.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinMapFillerRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The protein map filled by this runnable.
+         */
+        private ProteinMap threadProteinMap = new ProteinMap();
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinMapFillerRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        fillProteinMap(identification, proteinMatch, threadProteinMap);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the protein map filled by this runnable.
+         *
+         * @return the protein map filled by this runnable
+         */
+        public ProteinMap getProteinMap() {
+            return threadProteinMap;
+        }
+    }
+
+    /**
+     * Runnable attaching the protein probabilities.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The fraction settings.
+         */
+        private FractionSettings fractionSettings;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The molecular weights of the confident proteins per fraction found by
+         * this runnable.
+         */
+        private HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param fractionSettings the fraction settings
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinProbabilitiesRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, FractionSettings fractionSettings,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.fractionSettings = fractionSettings;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        attachProteinProbabilities(identification, proteinMatch, fractionSettings, fractionMW);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the molecular weights of the confident proteins per fraction
+         * found by this runnable.
+         *
+         * @return the molecular weights of the confident proteins per fraction
+         */
+        public HashMap<String, ArrayList<Double>> getFractionMW() {
+            return fractionMW;
+        }
+    }
 }
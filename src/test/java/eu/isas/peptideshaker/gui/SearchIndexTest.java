@@ -0,0 +1,126 @@
+package eu.isas.peptideshaker.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the in memory search index.
+ *
+ * @author Marc Vaudel
+ */
+public class SearchIndexTest extends TestCase {
+
+    /**
+     * Returns an index of a few protein descriptions.
+     *
+     * @param substringSearch if true substring search will be possible
+     * @param prefixSearch if true prefix search will be possible
+     *
+     * @return an index of a few protein descriptions
+     */
+    private static SearchIndex getIndex(boolean substringSearch, boolean prefixSearch) {
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<String> texts = new ArrayList<String>();
+        keys.add("P02768");
+        texts.add("Serum albumin");
+        keys.add("P69905");
+        texts.add("Hemoglobin subunit alpha");
+        keys.add("P68871");
+        texts.add("Hemoglobin subunit beta");
+        keys.add("P01009");
+        texts.add("Alpha-1-antitrypsin");
+        keys.add("P02787");
+        texts.add("Serotransferrin");
+        return new SearchIndex(keys, texts, substringSearch, prefixSearch);
+    }
+
+    /**
+     * Tests the substring search with short and long queries, ignoring case.
+     *
+     * @throws Exception
+     */
+    public void testContaining() throws Exception {
+
+        SearchIndex searchIndex = getIndex(true, false);
+
+        Assert.assertEquals(5, searchIndex.size());
+        Assert.assertEquals("P69905", searchIndex.getKey(1));
+
+        Assert.assertTrue(Arrays.equals(new int[]{1, 3}, searchIndex.getContaining("ALPHA")));
+        Assert.assertTrue(Arrays.equals(new int[]{1, 2}, searchIndex.getContaining("globin sub")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 4}, searchIndex.getContaining("se")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 1, 2}, searchIndex.getContaining("bu")));
+        Assert.assertTrue(Arrays.equals(new int[0], searchIndex.getContaining("kinase")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4}, searchIndex.getContaining("")));
+    }
+
+    /**
+     * Tests that refining a query and coming back to a broader query give
+     * the same results as new queries.
+     *
+     * @throws Exception
+     */
+    public void testIncrementalQuery() throws Exception {
+
+        SearchIndex searchIndex = getIndex(true, false);
+
+        Assert.assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4}, searchIndex.getContaining("s")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 4}, searchIndex.getContaining("se")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 4}, searchIndex.getContaining("ser")));
+        Assert.assertTrue(Arrays.equals(new int[]{4}, searchIndex.getContaining("sero")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 4}, searchIndex.getContaining("ser")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 3, 4}, searchIndex.getContaining("r")));
+    }
+
+    /**
+     * Tests the prefix search, ignoring case.
+     *
+     * @throws Exception
+     */
+    public void testStartingWith() throws Exception {
+
+        SearchIndex searchIndex = getIndex(false, true);
+
+        Assert.assertTrue(Arrays.equals(new int[]{1, 2}, searchIndex.getStartingWith("hemo")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 4}, searchIndex.getStartingWith("SER")));
+        Assert.assertTrue(Arrays.equals(new int[]{3}, searchIndex.getStartingWith("alpha")));
+        Assert.assertTrue(Arrays.equals(new int[0], searchIndex.getStartingWith("beta")));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4}, searchIndex.getStartingWith("")));
+    }
+
+    /**
+     * Tests the union of search results.
+     *
+     * @throws Exception
+     */
+    public void testUnion() throws Exception {
+        Assert.assertTrue(Arrays.equals(new int[]{0, 1, 3, 4, 7}, SearchIndex.union(new int[]{0, 3, 4}, new int[]{1, 3, 7})));
+        Assert.assertTrue(Arrays.equals(new int[]{2, 5}, SearchIndex.union(new int[0], new int[]{2, 5})));
+        Assert.assertTrue(Arrays.equals(new int[]{2, 5}, SearchIndex.union(new int[]{2, 5}, new int[0])));
+    }
+
+    /**
+     * Tests that searching without the corresponding index throws an
+     * exception.
+     *
+     * @throws Exception
+     */
+    public void testNotIndexed() throws Exception {
+
+        try {
+            getIndex(false, true).getContaining("alpha");
+            Assert.fail("Substring search without index did not fail.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            getIndex(true, false).getStartingWith("alpha");
+            Assert.fail("Prefix search without index did not fail.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
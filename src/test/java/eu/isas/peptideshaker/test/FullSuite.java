@@ -1,6 +1,9 @@
 package eu.isas.peptideshaker.test;
 
+import eu.isas.peptideshaker.gui.SearchIndexTest;
 import eu.isas.peptideshaker.pride.PrideWebServiceTest;
+import eu.isas.peptideshaker.utils.CompositeKeySorterTest;
+import eu.isas.peptideshaker.utils.OrderedResultsWriterTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,6 +22,9 @@ public class FullSuite extends TestCase {
     public static Test suite() {
         TestSuite ts = new TestSuite("Test suite for the PeptideShaker project.");
         ts.addTest(new TestSuite(PrideWebServiceTest.class));
+        ts.addTest(new TestSuite(CompositeKeySorterTest.class));
+        ts.addTest(new TestSuite(SearchIndexTest.class));
+        ts.addTest(new TestSuite(OrderedResultsWriterTest.class));
         return ts;
     }
 }
@@ -0,0 +1,118 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the sorting of items according to a composite key.
+ *
+ * @author Marc Vaudel
+ */
+public class CompositeKeySorterTest extends TestCase {
+
+    /**
+     * Tests that ties on a column are broken by the next columns and ties on
+     * all columns by the keys.
+     *
+     * @throws Exception
+     */
+    public void testTies() throws Exception {
+
+        double[][] columns = {
+            {1, 0, 1, 0, 1},
+            {5, 3, 2, 3, 2}
+        };
+        String[] keys = {"d", "c", "e", "a", "b"};
+
+        int[] sortedIndexes = CompositeKeySorter.getSortedIndexes(columns, keys, 1);
+
+        int[] expected = {3, 1, 4, 2, 0};
+        Assert.assertTrue(Arrays.equals(expected, sortedIndexes));
+    }
+
+    /**
+     * Tests that items sharing all values and keys are all returned.
+     *
+     * @throws Exception
+     */
+    public void testDuplicates() throws Exception {
+
+        double[][] columns = {
+            {2, 1, 2, 1}
+        };
+        String[] keys = {"a", "a", "a", "a"};
+
+        int[] sortedIndexes = CompositeKeySorter.getSortedIndexes(columns, keys, 1);
+
+        Assert.assertEquals(4, sortedIndexes.length);
+        Assert.assertEquals(1.0, columns[0][sortedIndexes[0]]);
+        Assert.assertEquals(1.0, columns[0][sortedIndexes[1]]);
+        Assert.assertEquals(2.0, columns[0][sortedIndexes[2]]);
+        Assert.assertEquals(2.0, columns[0][sortedIndexes[3]]);
+        Assert.assertEquals(sortedIndexes[0] + sortedIndexes[1], 4);
+        Assert.assertEquals(sortedIndexes[2] + sortedIndexes[3], 2);
+    }
+
+    /**
+     * Tests that sorting in parallel gives the same order as sorting on a
+     * single thread and that this order is consistent with the composite key.
+     *
+     * @throws Exception
+     */
+    public void testParallelSort() throws Exception {
+
+        int nItems = 100000;
+        Random random = new Random(42);
+        double[][] columns = new double[3][nItems];
+        String[] keys = new String[nItems];
+        for (int i = 0; i < nItems; i++) {
+            columns[0][i] = random.nextInt(3);
+            columns[1][i] = random.nextInt(10);
+            columns[2][i] = random.nextDouble();
+            keys[i] = "protein_" + i;
+        }
+        // force ties on the last column so that the keys are used
+        for (int i = 0; i < nItems; i += 7) {
+            columns[2][i] = 0.5;
+        }
+
+        int[] singleThread = CompositeKeySorter.getSortedIndexes(columns, keys, 1);
+        int[] multiThread = CompositeKeySorter.getSortedIndexes(columns, keys, 4);
+
+        Assert.assertTrue(Arrays.equals(singleThread, multiThread));
+
+        boolean[] found = new boolean[nItems];
+        for (int i = 0; i < nItems; i++) {
+            found[multiThread[i]] = true;
+            if (i > 0) {
+                Assert.assertTrue(compare(columns, keys, multiThread[i - 1], multiThread[i]) < 0);
+            }
+        }
+        for (boolean itemFound : found) {
+            Assert.assertTrue(itemFound);
+        }
+    }
+
+    /**
+     * Compares two items according to the composite key.
+     *
+     * @param columns the numeric columns of the composite key
+     * @param keys the keys of the items
+     * @param index1 the index of the first item
+     * @param index2 the index of the second item
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * item is to be sorted before, together with, or after the second
+     */
+    private static int compare(double[][] columns, String[] keys, int index1, int index2) {
+        for (double[] column : columns) {
+            int comparison = Double.compare(column[index1], column[index2]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return keys[index1].compareTo(keys[index2]);
+    }
+}
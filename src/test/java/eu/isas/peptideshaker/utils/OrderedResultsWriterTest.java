@@ -0,0 +1,185 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the writing of results in the order of submission.
+ *
+ * @author Marc Vaudel
+ */
+public class OrderedResultsWriterTest extends TestCase {
+
+    /**
+     * Writer keeping the results in memory.
+     *
+     * @author Marc Vaudel
+     */
+    private static class ListWriter extends OrderedResultsWriter<Integer> {
+
+        /**
+         * The results written.
+         */
+        private final ArrayList<Integer> results = new ArrayList<Integer>();
+        /**
+         * The number of items passed with every result written.
+         */
+        private final ArrayList<Integer> sizes = new ArrayList<Integer>();
+
+        /**
+         * Constructor.
+         *
+         * @param nWorkers the number of workers
+         */
+        public ListWriter(int nWorkers) {
+            super(nWorkers);
+        }
+
+        @Override
+        protected void write(Integer result, int nItems) {
+            results.add(result);
+            sizes.add(nItems);
+        }
+    }
+
+    /**
+     * Task returning its number after a random delay.
+     *
+     * @author Marc Vaudel
+     */
+    private static class DelayedTask implements Callable<Integer> {
+
+        /**
+         * The number of the task.
+         */
+        private final int number;
+        /**
+         * The delay in milliseconds.
+         */
+        private final long delay;
+
+        /**
+         * Constructor.
+         *
+         * @param number the number of the task
+         * @param delay the delay in milliseconds
+         */
+        public DelayedTask(int number, long delay) {
+            this.number = number;
+            this.delay = delay;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            Thread.sleep(delay);
+            return number;
+        }
+    }
+
+    /**
+     * Task failing with the given exception.
+     *
+     * @author Marc Vaudel
+     */
+    private static class FailingTask implements Callable<Integer> {
+
+        /**
+         * The exception to throw.
+         */
+        private final Exception exception;
+
+        /**
+         * Constructor.
+         *
+         * @param exception the exception to throw
+         */
+        public FailingTask(Exception exception) {
+            this.exception = exception;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            throw exception;
+        }
+    }
+
+    /**
+     * Tests that the results are written in the order of submission when
+     * the tasks complete in a different order.
+     *
+     * @throws Exception
+     */
+    public void testOrder() throws Exception {
+
+        int nTasks = 200;
+        Random random = new Random(42);
+        ListWriter writer = new ListWriter(8);
+        try {
+            for (int i = 0; i < nTasks; i++) {
+                writer.submit(new DelayedTask(i, random.nextInt(5)), i % 3 + 1);
+            }
+            writer.flush();
+        } finally {
+            writer.shutdown();
+        }
+
+        Assert.assertEquals(nTasks, writer.results.size());
+        for (int i = 0; i < nTasks; i++) {
+            Assert.assertEquals(i, writer.results.get(i).intValue());
+            Assert.assertEquals(i % 3 + 1, writer.sizes.get(i).intValue());
+        }
+    }
+
+    /**
+     * Tests that the exceptions thrown by the workers are rethrown with their
+     * type after the preceding results are written.
+     *
+     * @throws Exception
+     */
+    public void testDeclaredException() throws Exception {
+
+        ListWriter writer = new ListWriter(2);
+        SQLException exception = new SQLException("test");
+        try {
+            writer.submit(new DelayedTask(0, 10), 1);
+            writer.submit(new FailingTask(exception), 1);
+            writer.submit(new DelayedTask(2, 0), 1);
+            writer.flush();
+            Assert.fail("The worker exception was not rethrown.");
+        } catch (SQLException e) {
+            Assert.assertSame(exception, e);
+        } finally {
+            writer.shutdown();
+        }
+
+        Assert.assertEquals(1, writer.results.size());
+        Assert.assertEquals(0, writer.results.get(0).intValue());
+    }
+
+    /**
+     * Tests that the unexpected exceptions thrown by the workers are wrapped
+     * in an IOException keeping them as cause.
+     *
+     * @throws Exception
+     */
+    public void testUnexpectedException() throws Exception {
+
+        ListWriter writer = new ListWriter(2);
+        TimeoutException exception = new TimeoutException("test");
+        try {
+            writer.submit(new FailingTask(exception), 1);
+            writer.flush();
+            Assert.fail("The worker exception was not rethrown.");
+        } catch (IOException e) {
+            Assert.assertSame(exception, e.getCause());
+        } finally {
+            writer.shutdown();
+        }
+    }
+}